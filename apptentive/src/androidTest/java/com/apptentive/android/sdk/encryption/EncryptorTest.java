@@ -9,6 +9,8 @@ package com.apptentive.android.sdk.encryption;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.Random;
 
@@ -48,4 +50,17 @@ public class EncryptorTest {
 		assertNotNull(plainText);
 		assertTrue(Arrays.equals(plainText, testData));
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testStreamingEncryption() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		OutputStream encryptingStream = encryptor.createEncryptingStream(out);
+		encryptingStream.write(testData, 0, 100);
+		encryptingStream.write(testData, 100, testData.length - 100);
+		encryptingStream.close();
+
+		// streamed cipher text has the same format as the buffered one
+		byte[] plainText = encryptor.decrypt(out.toByteArray());
+		assertTrue(Arrays.equals(plainText, testData));
+	}
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.module.engagement.interaction.model;
+
+import com.apptentive.android.sdk.ApptentiveInternal;
+import com.apptentive.android.sdk.ApptentiveInternalMock;
+import com.apptentive.android.sdk.TestCaseBase;
+import com.apptentive.android.sdk.conversation.Conversation;
+import com.apptentive.android.sdk.module.engagement.EngagementModule;
+import com.apptentive.android.sdk.module.engagement.logic.EvaluationContext;
+import com.apptentive.android.sdk.storage.FieldChangedListener;
+import com.apptentive.android.sdk.storage.Person;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CompiledManifestTest extends TestCaseBase {
+	private static final int MANIFEST_EVENT_COUNT = 50;
+	private static final int MANIFEST_INVOCATIONS_PER_EVENT = 10;
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private Conversation conversation;
+
+	@Before
+	public void setUp() {
+		super.setUp();
+		ApptentiveInternalMock apptentiveInternal = new ApptentiveInternalMock();
+		ApptentiveInternal.setInstance(apptentiveInternal);
+
+		try {
+			conversation = new Conversation(tempFolder.newFile("conversation.bin"), tempFolder.newFile("messages.bin"));
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+		apptentiveInternal.setConversation(conversation);
+	}
+
+	@After
+	public void tearDown() {
+		super.tearDown();
+		ApptentiveInternal.setInstance(null);
+	}
+
+	@Test
+	public void testFirstMatchingInvocation() throws JSONException {
+		String targets = createTargets("event", createInvocation("first", 2), createInvocation("second", 1), createInvocation("third", 0));
+		CompiledManifest manifest = CompiledManifest.compile(targets, null);
+
+		assertEquals("third", getApplicableInteractionId(manifest, "event"));
+
+		storeEvent("event");
+		assertEquals("second", getApplicableInteractionId(manifest, "event"));
+
+		storeEvent("event");
+		assertEquals("first", getApplicableInteractionId(manifest, "event"));
+
+		assertNull(getApplicableInteractionId(manifest, "other"));
+	}
+
+	@Test
+	public void testMalformedInvocationSkipped() throws JSONException {
+		JSONObject broken = new JSONObject();
+		broken.put("interaction_id", "broken");
+		broken.put("criteria", new JSONObject("{\"code_point/event/invokes/total\":{\"$gte\":{\"_type\":\"unknown\"}}}"));
+
+		String targets = createTargets("event", broken, createInvocation("valid", 0));
+		assertEquals("valid", getApplicableInteractionId(CompiledManifest.compile(targets, null), "event"));
+	}
+
+	@Test
+	public void testMalformedTargets() {
+		CompiledManifest manifest = CompiledManifest.compile("{", null);
+		assertNull(getApplicableInteractionId(manifest, "event"));
+	}
+
+	@Test
+	public void testRecompileWhenManifestChanges() throws JSONException {
+		conversation.storeInteractionManifest(createManifest("event", "first"));
+		Interaction interaction = conversation.getApplicableInteraction("event");
+		assertNotNull(interaction);
+		assertEquals("first", interaction.getId());
+
+		conversation.storeInteractionManifest(createManifest("event", "second"));
+		interaction = conversation.getApplicableInteraction("event");
+		assertNotNull(interaction);
+		assertEquals("second", interaction.getId());
+	}
+
+	@Test
+	public void testTargetedEvents() throws JSONException {
+		JSONObject targets = new JSONObject(createTargets("event", createInvocation("interaction", 5)));
+		targets.put("empty", new JSONArray());
+		CompiledManifest manifest = CompiledManifest.compile(targets.toString(), null);
+
+		assertTrue(manifest.isTargeted("event"));
+		assertFalse(manifest.isTargeted("empty"));
+		assertFalse(manifest.isTargeted("other"));
+	}
+
+	@Test
+	public void testCanShowInteractions() throws JSONException {
+		String eventLabel = EngagementModule.generateEventLabel("local", "app", "event");
+		conversation.storeInteractionManifest(createManifest(eventLabel, "interaction"));
+		assertTrue(conversation.isEventTargeted(eventLabel));
+
+		Map<String, Boolean> result = EngagementModule.canShowInteractions(conversation, "app", Arrays.asList("other", "event"), "local");
+		assertEquals("{other=false, event=true}", result.toString());
+	}
+
+	@Test
+	public void testIsCompiledFrom() {
+		String targets = "{}";
+		String interactions = "{}";
+		CompiledManifest manifest = CompiledManifest.compile(targets, interactions);
+		assertTrue(manifest.isCompiledFrom(targets, interactions));
+		assertFalse(manifest.isCompiledFrom(new String(targets), interactions));
+		assertFalse(manifest.isCompiledFrom(targets, null));
+	}
+
+	@Test
+	public void testCachedResultInvalidatedByDependency() throws JSONException {
+		String targets = createTargets("event", createInvocation("interaction", 1));
+		CompiledManifest manifest = CompiledManifest.compile(targets, null, true);
+		assertNull(getApplicableInteractionId(manifest, "event"));
+
+		// the manifest is not notified about the event so the cached result is returned
+		storeEvent("event");
+		assertNull(getApplicableInteractionId(manifest, "event"));
+
+		manifest.invalidate(FieldChangedListener.CODE_POINT + "other");
+		assertNull(getApplicableInteractionId(manifest, "event"));
+
+		manifest.invalidate(FieldChangedListener.CODE_POINT + "event");
+		assertEquals("interaction", getApplicableInteractionId(manifest, "event"));
+	}
+
+	@Test
+	public void testConversationInvalidatesCachedResults() throws JSONException {
+		JSONObject invocation = new JSONObject();
+		invocation.put("interaction_id", "interaction");
+		invocation.put("criteria", new JSONObject("{\"person/custom_data/key\":\"value\",\"code_point/event/invokes/total\":{\"$gte\":1}}"));
+		conversation.storeInteractionManifest(createManifest("event", "interaction", invocation));
+		assertNull(conversation.getApplicableInteraction("event"));
+
+		conversation.getPerson().getCustomData().put("key", "value");
+		assertNull(conversation.getApplicableInteraction("event"));
+
+		storeEvent("event");
+		assertNotNull(conversation.getApplicableInteraction("event"));
+
+		conversation.setPerson(new Person());
+		assertNull(conversation.getApplicableInteraction("event"));
+	}
+
+	@Test
+	public void testTimeBasedResultExpires() throws JSONException {
+		JSONObject invocation = new JSONObject();
+		invocation.put("interaction_id", "interaction");
+		invocation.put("criteria", new JSONObject("{\"current_time\":{\"$gt\":{\"_type\":\"datetime\",\"sec\":1500}}}"));
+		CompiledManifest manifest = CompiledManifest.compile(createTargets("event", invocation), null, true);
+
+		assertNull(manifest.getApplicableInteractionId("event", new EvaluationContext(conversation, 1000.0)));
+		assertNull(manifest.getApplicableInteractionId("event", new EvaluationContext(conversation, 1499.0)));
+		assertEquals("interaction", manifest.getApplicableInteractionId("event", new EvaluationContext(conversation, 1501.0)));
+	}
+
+	/**
+	 * Checks that a large compiled manifest (reused for every engage) gives the same results as
+	 * parsing the targets on every call (the way engage used to work).
+	 */
+	@Test
+	public void testLargeManifest() throws JSONException {
+		JSONObject targetsJson = new JSONObject();
+		for (int i = 0; i < MANIFEST_EVENT_COUNT; ++i) {
+			JSONArray invocations = new JSONArray();
+			for (int j = 0; j < MANIFEST_INVOCATIONS_PER_EVENT; ++j) {
+				// only the last invocation matches so every engage walks through the whole list
+				invocations.put(createInvocation("interaction-" + i + "-" + j, MANIFEST_INVOCATIONS_PER_EVENT - j - 1));
+			}
+			targetsJson.put("event-" + i, invocations);
+		}
+		String targets = targetsJson.toString();
+
+		CompiledManifest compiledManifest = CompiledManifest.compile(targets, null);
+		for (int i = 0; i < MANIFEST_EVENT_COUNT; ++i) {
+			String eventLabel = "event-" + i;
+			String expected = "interaction-" + i + "-" + (MANIFEST_INVOCATIONS_PER_EVENT - 1);
+			assertEquals(expected, getApplicableInteractionId(CompiledManifest.compile(targets, null), eventLabel));
+			assertEquals(expected, getApplicableInteractionId(compiledManifest, eventLabel));
+		}
+	}
+
+	//region Helpers
+
+	private String getApplicableInteractionId(CompiledManifest manifest, String eventLabel) {
+		return manifest.getApplicableInteractionId(eventLabel, new EvaluationContext(conversation, 1000.0));
+	}
+
+	private void storeEvent(String eventLabel) {
+		conversation.getEventData().storeEventForCurrentAppVersion(1000.0, 1, "1.0", eventLabel);
+	}
+
+	/* Creates an invocation which matches if the event was invoked at least <code>minCount</code> times */
+	private static JSONObject createInvocation(String interactionId, int minCount) throws JSONException {
+		JSONObject invocation = new JSONObject();
+		invocation.put("interaction_id", interactionId);
+		invocation.put("criteria", new JSONObject("{\"code_point/event/invokes/total\":{\"$gte\":" + minCount + "}}"));
+		return invocation;
+	}
+
+	private static String createTargets(String eventLabel, JSONObject... invocations) throws JSONException {
+		JSONArray invocationsJson = new JSONArray();
+		for (JSONObject invocation : invocations) {
+			invocationsJson.put(invocation);
+		}
+		JSONObject targets = new JSONObject();
+		targets.put(eventLabel, invocationsJson);
+		return targets.toString();
+	}
+
+	private static String createManifest(String eventLabel, String interactionId) throws JSONException {
+		return createManifest(eventLabel, interactionId, createInvocation(interactionId, 0));
+	}
+
+	private static String createManifest(String eventLabel, String interactionId, JSONObject invocation) throws JSONException {
+		JSONObject interaction = new JSONObject();
+		interaction.put("id", interactionId);
+		interaction.put("type", "TextModal");
+		interaction.put("configuration", new JSONObject());
+
+		JSONArray interactions = new JSONArray();
+		interactions.put(interaction);
+
+		JSONObject manifest = new JSONObject();
+		manifest.put("targets", new JSONObject(createTargets(eventLabel, invocation)));
+		manifest.put("interactions", interactions);
+		return manifest.toString();
+	}
+
+	//endregion
+}
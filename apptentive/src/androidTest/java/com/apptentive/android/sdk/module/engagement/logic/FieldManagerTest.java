@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.module.engagement.logic;
+
+import com.apptentive.android.sdk.Apptentive;
+import com.apptentive.android.sdk.ApptentiveInternal;
+import com.apptentive.android.sdk.ApptentiveInternalMock;
+import com.apptentive.android.sdk.TestCaseBase;
+import com.apptentive.android.sdk.conversation.Conversation;
+import com.apptentive.android.sdk.util.Constants;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FieldManagerTest extends TestCaseBase {
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private Conversation conversation;
+
+	@Before
+	public void setUp() {
+		super.setUp();
+		ApptentiveInternalMock apptentiveInternal = new ApptentiveInternalMock();
+		ApptentiveInternal.setInstance(apptentiveInternal);
+
+		try {
+			conversation = new Conversation(tempFolder.newFile("conversation.bin"), tempFolder.newFile("messages.bin"));
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+		apptentiveInternal.setConversation(conversation);
+	}
+
+	@After
+	public void tearDown() {
+		super.tearDown();
+		ApptentiveInternal.setInstance(null);
+	}
+
+	@Test
+	public void testCompiledFieldIsReevaluated() {
+		FieldAccessor field = FieldManager.compile(" code_point/local#app#event/invokes/total ");
+		assertEquals("code_point/local#app#event/invokes/total", field.getQuery());
+		assertEquals(BigDecimal.ZERO, getValue(field));
+
+		conversation.getEventData().storeEventForCurrentAppVersion(1000.0, 1, "1.0", "local#app#event");
+		assertEquals(BigDecimal.ONE, getValue(field));
+	}
+
+	@Test
+	public void testCustomData() {
+		FieldAccessor field = FieldManager.compile("person/custom_data/ key ");
+		assertNull(getValue(field));
+
+		conversation.getPerson().getCustomData().put("key", " value ");
+		assertEquals("value", getValue(field));
+	}
+
+	@Test
+	public void testStaticValues() {
+		FieldAccessor field = FieldManager.compile("sdk/version");
+		Comparable value = getValue(field);
+		assertEquals(Constants.APPTENTIVE_SDK_VERSION, ((Apptentive.Version) value).getVersion());
+		assertSame(value, getValue(field)); // resolved once
+	}
+
+	@Test
+	public void testUnknownFields() {
+		assertNull(FieldManager.getValue("unknown"));
+		assertNull(FieldManager.getValue("application/unknown"));
+		assertNull(FieldManager.getValue("sdk/unknown"));
+		assertNull(FieldManager.getValue("code_point/local#app#event/unknown/total"));
+		assertNull(FieldManager.getValue("person/unknown"));
+	}
+
+	@Test
+	public void testNoConversation() {
+		assertNull(new EvaluationContext(null, 1000.0).getValue(FieldManager.compile("current_time")));
+	}
+
+	@Test
+	public void testContextSnapshot() {
+		FieldAccessor field = FieldManager.compile("code_point/local#app#event/invokes/total");
+		EvaluationContext context = new EvaluationContext(conversation, 1000.0);
+		assertEquals(BigDecimal.ZERO, context.getValue(field));
+
+		// the context keeps the value it fetched first
+		conversation.getEventData().storeEventForCurrentAppVersion(1000.0, 1, "1.0", "local#app#event");
+		assertEquals(BigDecimal.ZERO, context.getValue(FieldManager.compile("code_point/local#app#event/invokes/total")));
+		assertEquals(BigDecimal.ONE, new EvaluationContext(conversation, 1000.0).getValue(field));
+	}
+
+	@Test
+	public void testSameCurrentTime() {
+		EvaluationContext context = new EvaluationContext(conversation, 1000.0);
+		assertSame(context.getCurrentTime(), context.getValue(FieldManager.compile("current_time")));
+	}
+
+	@Test
+	public void testOffsetTimeOperatorsUseContextTime() {
+		// the context time is far in the past: the result doesn't depend on the wall clock
+		EvaluationContext context = new EvaluationContext(conversation, 1000.0);
+		Apptentive.DateTime time = new Apptentive.DateTime(1500.0);
+
+		assertFalse(ConditionalOperator.$before.apply(context, time, new BigDecimal(0)));
+		assertTrue(ConditionalOperator.$before.apply(context, time, new BigDecimal(600)));
+		assertTrue(ConditionalOperator.$after.apply(context, time, new BigDecimal(0)));
+		assertFalse(ConditionalOperator.$after.apply(context, time, new BigDecimal(600)));
+	}
+
+	//region Helpers
+
+	private Comparable getValue(FieldAccessor field) {
+		return new EvaluationContext(conversation, 1000.0).getValue(field);
+	}
+
+	//endregion
+}
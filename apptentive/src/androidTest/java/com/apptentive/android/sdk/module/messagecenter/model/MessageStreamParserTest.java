@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.module.messagecenter.model;
+
+import com.apptentive.android.sdk.TestCaseBase;
+import com.apptentive.android.sdk.model.ApptentiveMessage;
+import com.apptentive.android.sdk.model.CompoundMessage;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MessageStreamParserTest extends TestCaseBase {
+	@Test
+	public void testParseInChunks() throws Exception {
+		final List<Integer> chunkSizes = new ArrayList<>();
+		final List<ApptentiveMessage> messages = new ArrayList<>();
+
+		int count = MessageStreamParser.parse(createStream(createResponse(7)), 3, new MessageStreamParser.Listener() {
+			@Override
+			public void onParseMessages(List<ApptentiveMessage> chunk) {
+				chunkSizes.add(chunk.size());
+				messages.addAll(chunk);
+			}
+		});
+
+		assertEquals(7, count);
+		assertEquals("[3, 3, 1]", chunkSizes.toString());
+		for (int i = 0; i < messages.size(); ++i) {
+			ApptentiveMessage message = messages.get(i);
+			assertEquals("id-" + i, message.getId());
+			assertEquals(ApptentiveMessage.State.saved, message.getState());
+		}
+	}
+
+	@Test
+	public void testParseSameAsStringParser() throws Exception {
+		final String json = "{\"id\":\"id-1\",\"nonce\":\"nonce-1\",\"type\":\"CompoundMessage\",\"body\":\"Test message \\u6587\",\"created_at\":1.492737257565E9,\"client_created_at_utc_offset\":-25200,\"automated\":false,\"hidden\":null," +
+			"\"sender\":{\"id\":\"sender-1\",\"name\":\"Name\",\"profile_photo\":\"https://example.com/photo.png\"}," +
+			"\"attachments\":[{\"content_type\":\"image/png\",\"url\":\"https://example.com/a.png\",\"thumbnail_url\":\"https://example.com/a_thumb.png\",\"size\":12345}]}";
+
+		final List<ApptentiveMessage> messages = new ArrayList<>();
+		MessageStreamParser.parse(createStream("{\"ends_with\":\"id-1\",\"messages\":[" + json + "],\"has_more\":false}"), 10, new MessageStreamParser.Listener() {
+			@Override
+			public void onParseMessages(List<ApptentiveMessage> chunk) {
+				messages.addAll(chunk);
+			}
+		});
+
+		assertEquals(1, messages.size());
+		CompoundMessage expected = (CompoundMessage) MessageFactory.fromJson(json);
+		CompoundMessage actual = (CompoundMessage) messages.get(0);
+		assertEquals(expected.getId(), actual.getId());
+		assertEquals(expected.getNonce(), actual.getNonce());
+		assertEquals(expected.getBody(), actual.getBody());
+		assertEquals(expected.getCreatedAt(), actual.getCreatedAt());
+		assertEquals(expected.getSenderProfilePhoto(), actual.getSenderProfilePhoto());
+		assertEquals(expected.getSenderUsername(), actual.getSenderUsername());
+		assertEquals(expected.isHidden(), actual.isHidden());
+		assertEquals(1, actual.getRemoteAttachments().size());
+		assertEquals("https://example.com/a.png", actual.getRemoteAttachments().get(0).getApptentiveUri());
+		assertFalse(actual.getTextOnly());
+	}
+
+	@Test
+	public void testParseNoMessages() throws Exception {
+		assertEquals(0, MessageStreamParser.parse(createStream("{\"messages\":[]}"), 10, failingListener()));
+		assertEquals(0, MessageStreamParser.parse(createStream("{\"messages\":null}"), 10, failingListener()));
+		assertEquals(0, MessageStreamParser.parse(createStream("{}"), 10, failingListener()));
+	}
+
+	@Test
+	public void testParseCorruptedStream() throws Exception {
+		final List<ApptentiveMessage> messages = new ArrayList<>();
+
+		String response = createResponse(5);
+		try {
+			MessageStreamParser.parse(createStream(response.substring(0, response.length() / 2)), 2, new MessageStreamParser.Listener() {
+				@Override
+				public void onParseMessages(List<ApptentiveMessage> chunk) {
+					messages.addAll(chunk);
+				}
+			});
+			throw new AssertionError("Exception expected");
+		} catch (IOException e) {
+			// expected
+		}
+
+		// complete chunks are delivered before the failure
+		assertTrue(messages.size() > 0);
+		assertEquals(0, messages.size() % 2);
+	}
+
+	//region Helpers
+
+	private static String createResponse(int messageCount) {
+		StringBuilder response = new StringBuilder("{\"messages\":[");
+		for (int i = 0; i < messageCount; ++i) {
+			if (i > 0) {
+				response.append(',');
+			}
+			response.append("{\"id\":\"id-").append(i).append("\",\"nonce\":\"nonce-").append(i).append("\",\"type\":\"CompoundMessage\",\"body\":\"Message ").append(i).append("\",\"created_at\":").append(1492737257 + i).append("}");
+		}
+		response.append("],\"has_more\":false}");
+		return response.toString();
+	}
+
+	private static InputStream createStream(String data) throws IOException {
+		return new ByteArrayInputStream(data.getBytes("UTF-8"));
+	}
+
+	private static MessageStreamParser.Listener failingListener() {
+		return new MessageStreamParser.Listener() {
+			@Override
+			public void onParseMessages(List<ApptentiveMessage> messages) {
+				throw new AssertionError("No messages expected");
+			}
+		};
+	}
+
+	//endregion
+}
@@ -25,6 +25,7 @@ public class HttpRequestManagerTest extends TestCaseBase {
 
 		networkQueue = new MockDispatchQueue(false);
 		requestManager = new MockHttpRequestManager(networkQueue);
+		requestManager.setMaxInFlightRequests(HttpRequestPriority.NORMAL, Integer.MAX_VALUE); // concurrency limits are covered by a separate test
 	}
 
 	@After
@@ -156,6 +157,10 @@ public class HttpRequestManagerTest extends TestCaseBase {
 			public void onRequestsCancel(HttpRequestManager manager) {
 				addResult("cancel all");
 			}
+
+			@Override
+			public void onRequestTimings(HttpRequestManager manager, HttpRequest request, HttpRequestTimings timings) {
+			}
 		});
 
 
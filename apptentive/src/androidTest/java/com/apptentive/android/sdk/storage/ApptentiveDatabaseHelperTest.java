@@ -13,14 +13,21 @@ import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
 
 import com.apptentive.android.sdk.model.AppReleasePayload;
+import com.apptentive.android.sdk.model.CompoundMessage;
 import com.apptentive.android.sdk.model.DevicePayload;
 import com.apptentive.android.sdk.model.EventPayload;
+import com.apptentive.android.sdk.model.LogoutPayload;
 import com.apptentive.android.sdk.model.Payload;
+import com.apptentive.android.sdk.model.PayloadData;
+import com.apptentive.android.sdk.model.PayloadType;
 import com.apptentive.android.sdk.model.PersonPayload;
 import com.apptentive.android.sdk.model.SdkPayload;
+import com.apptentive.android.sdk.model.SurveyResponsePayload;
 import com.apptentive.android.sdk.module.messagecenter.model.MessageFactory;
+import com.apptentive.android.sdk.util.Constants;
 
 import org.json.JSONException;
+import org.json.JSONObject;
 import org.junit.After;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -31,8 +38,15 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
 @RunWith(AndroidJUnit4.class)
 public class ApptentiveDatabaseHelperTest {
 
@@ -56,6 +70,373 @@ public class ApptentiveDatabaseHelperTest {
 		};
 	}
 
+	@Test
+	public void testReadAheadPayloadQueue() throws Exception {
+		final Context context = InstrumentationRegistry.getContext();
+		deleteDbFile(context);
+
+		ApptentiveDatabaseHelper dbHelper = new ApptentiveDatabaseHelper(context);
+
+		// add more payloads than a single read-ahead window
+		List<String> expected = new ArrayList<>();
+		for (int i = 0; i < 120; ++i) {
+			expected.add(addEventPayload(dbHelper, "conversation-id", "local-conversation-id"));
+		}
+
+		List<String> actual = new ArrayList<>();
+		PayloadData payload;
+		while ((payload = dbHelper.getOldestUnsentPayload()) != null) {
+			actual.add(payload.getNonce());
+			dbHelper.deletePayload(payload.getNonce());
+
+			// payloads added while the queue is drained should be picked up in order
+			if (actual.size() == 60) {
+				expected.add(addEventPayload(dbHelper, "conversation-id", "local-conversation-id"));
+			}
+		}
+		assertEquals(expected, actual);
+
+		// primary keys might be reused once the table is empty
+		String nonce = addEventPayload(dbHelper, "conversation-id", "local-conversation-id");
+		assertEquals(nonce, dbHelper.getOldestUnsentPayload().getNonce());
+		dbHelper.deletePayload(nonce);
+		assertNull(dbHelper.getOldestUnsentPayload());
+	}
+
+	@Test
+	public void testReadAheadIncompletePayloads() throws Exception {
+		final Context context = InstrumentationRegistry.getContext();
+		deleteDbFile(context);
+
+		ApptentiveDatabaseHelper dbHelper = new ApptentiveDatabaseHelper(context);
+		String nonce = addEventPayload(dbHelper, null, "local-conversation-id");
+		assertNull(dbHelper.getOldestUnsentPayload()); // missing conversation id
+
+		dbHelper.updateIncompletePayloads("conversation-id", "token", "local-conversation-id");
+
+		PayloadData payload = dbHelper.getOldestUnsentPayload();
+		assertEquals(nonce, payload.getNonce());
+		assertEquals("conversation-id", payload.getConversationId());
+		assertEquals("token", payload.getAuthToken());
+	}
+
+	@Test
+	public void testAddPayloads() throws Exception {
+		final Context context = InstrumentationRegistry.getContext();
+		deleteDbFile(context);
+
+		ApptentiveDatabaseHelper dbHelper = new ApptentiveDatabaseHelper(context);
+
+		List<Payload> payloads = new ArrayList<>();
+		List<String> expected = new ArrayList<>();
+		for (int i = 0; i < 5; ++i) {
+			EventPayload payload = createEventPayload("conversation-id", "local-conversation-id");
+			payloads.add(payload);
+			expected.add(payload.getNonce());
+		}
+		dbHelper.addPayloads(payloads);
+
+		List<String> actual = new ArrayList<>();
+		PayloadData payload;
+		while ((payload = dbHelper.getOldestUnsentPayload()) != null) {
+			actual.add(payload.getNonce());
+			dbHelper.deletePayload(payload.getNonce());
+		}
+		assertEquals(expected, actual);
+	}
+
+	@Test
+	public void testBodySegmentCountUsesIndex() throws Exception {
+		final Context context = InstrumentationRegistry.getContext();
+		deleteDbFile(context);
+
+		ApptentiveDatabaseHelper dbHelper = new ApptentiveDatabaseHelper(context);
+		Cursor cursor = dbHelper.getReadableDatabase().rawQuery("EXPLAIN QUERY PLAN SELECT COUNT(*) FROM payload WHERE bodySegment = ?", new String[]{"1"});
+		try {
+			StringBuilder plan = new StringBuilder();
+			while (cursor.moveToNext()) {
+				plan.append(cursor.getString(cursor.getColumnCount() - 1)).append('\n');
+			}
+			assertTrue(plan.toString(), plan.toString().contains("payload_body_segment"));
+		} finally {
+			cursor.close();
+		}
+	}
+
+	@Test
+	public void testPriorityLanes() throws Exception {
+		final Context context = InstrumentationRegistry.getContext();
+		deleteDbFile(context);
+
+		ApptentiveDatabaseHelper dbHelper = new ApptentiveDatabaseHelper(context);
+
+		String event1 = addEventPayload(dbHelper, "conversation-id", "local-conversation-id");
+		String person = addPersonPayload(dbHelper, "conversation-id", "local-conversation-id");
+		String event2 = addEventPayload(dbHelper, "conversation-id", "local-conversation-id");
+		String survey = addPayload(dbHelper, new SurveyResponsePayload("{}"), "conversation-id", "local-conversation-id");
+		String message1 = addPayload(dbHelper, createMessage(), "conversation-id", "local-conversation-id");
+		String logout = addPayload(dbHelper, new LogoutPayload(), "conversation-id", "local-conversation-id");
+
+		String message2 = null;
+		List<String> actual = new ArrayList<>();
+		PayloadData payload;
+		while ((payload = dbHelper.getOldestUnsentPayload()) != null) {
+			actual.add(payload.getNonce());
+			dbHelper.deletePayload(payload.getNonce());
+
+			// a message added while the queue is drained jumps ahead of the rest
+			if (actual.size() == 3) {
+				message2 = addPayload(dbHelper, createMessage(), "other-conversation-id", "other-local-conversation-id");
+			}
+		}
+		assertEquals(Arrays.asList(message1, survey, person, message2, event1, event2, logout), actual);
+	}
+
+	@Test
+	public void testLogoutBarrier() throws Exception {
+		final Context context = InstrumentationRegistry.getContext();
+		deleteDbFile(context);
+
+		ApptentiveDatabaseHelper dbHelper = new ApptentiveDatabaseHelper(context);
+
+		String event1 = addEventPayload(dbHelper, "conversation-id", "local-conversation-id");
+		String logout = addPayload(dbHelper, new LogoutPayload(), "conversation-id", "local-conversation-id");
+		String event2 = addEventPayload(dbHelper, "conversation-id", "local-conversation-id"); // logged back in while offline
+		String message = addPayload(dbHelper, createMessage(), "conversation-id", "local-conversation-id");
+		String otherEvent = addEventPayload(dbHelper, "other-conversation-id", "other-local-conversation-id");
+
+		List<String> actual = new ArrayList<>();
+		PayloadData payload;
+		while ((payload = dbHelper.getOldestUnsentPayload()) != null) {
+			actual.add(payload.getNonce());
+			dbHelper.deletePayload(payload.getNonce());
+		}
+
+		// payloads queued after the logout wait for it (other conversations don't)
+		assertEquals(Arrays.asList(event1, otherEvent, logout, message, event2), actual);
+	}
+
+	@Test
+	public void testOrphanedBodySegmentsDeletedOnOpen() throws Exception {
+		final Context context = InstrumentationRegistry.getContext();
+		deleteDbFile(context);
+		new ApptentiveDatabaseHelper(context).deleteAllPayloads(); // remove segments left by other tests
+
+		File payloadDataDir = new File(context.getFilesDir(), Constants.PAYLOAD_DATA_DIR);
+		assertTrue(payloadDataDir.exists() || payloadDataDir.mkdirs());
+		File orphanedSegment = new File(payloadDataDir, "segment-100.log");
+		File activeSegment = new File(payloadDataDir, "segment-101.log");
+		assertTrue(orphanedSegment.createNewFile());
+		assertTrue(activeSegment.createNewFile());
+
+		// none of the payloads reference the segments: the non-active one is deleted on open
+		assertNull(new ApptentiveDatabaseHelper(context).getOldestUnsentPayload());
+		assertFalse(orphanedSegment.exists());
+		assertTrue(activeSegment.exists());
+	}
+
+	@Test
+	public void testPayloadDroppedAfterServerErrors() throws Exception {
+		final Context context = InstrumentationRegistry.getContext();
+		deleteDbFile(context);
+
+		ApptentiveDatabaseHelper dbHelper = new ApptentiveDatabaseHelper(context);
+
+		String head = addEventPayload(dbHelper, "conversation-id", "local-conversation-id"); // always gets a 500
+		String event = addEventPayload(dbHelper, "conversation-id", "local-conversation-id");
+
+		assertFalse(dbHelper.recordPayloadServerError(head, 3));
+		assertEquals(head, dbHelper.getOldestUnsentPayload().getNonce());
+		assertFalse(dbHelper.recordPayloadServerError(head, 3));
+		assertEquals(head, dbHelper.getOldestUnsentPayload().getNonce());
+
+		// the failing payload doesn't hold the queue forever
+		assertTrue(dbHelper.recordPayloadServerError(head, 3));
+		assertEquals(event, dbHelper.getOldestUnsentPayload().getNonce());
+
+		// the count survives reopening the database
+		dbHelper.recordPayloadServerError(event, 2);
+		assertTrue(new ApptentiveDatabaseHelper(context).recordPayloadServerError(event, 2));
+		assertNull(new ApptentiveDatabaseHelper(context).getOldestUnsentPayload());
+	}
+
+	@Test
+	public void testPriorityLanesMissingConversationId() throws Exception {
+		final Context context = InstrumentationRegistry.getContext();
+		deleteDbFile(context);
+
+		ApptentiveDatabaseHelper dbHelper = new ApptentiveDatabaseHelper(context);
+
+		String event1 = addEventPayload(dbHelper, "conversation-1", "local-conversation-1");
+		String message2 = addPayload(dbHelper, createMessage(), null, "local-conversation-2");
+		String event2 = addEventPayload(dbHelper, null, "local-conversation-2");
+
+		// payloads of a conversation without an id are skipped
+		assertEquals(event1, dbHelper.getOldestUnsentPayload().getNonce());
+		dbHelper.deletePayload(event1);
+		assertNull(dbHelper.getOldestUnsentPayload());
+
+		dbHelper.updateIncompletePayloads("conversation-2", "token", "local-conversation-2");
+		assertEquals(message2, dbHelper.getOldestUnsentPayload().getNonce());
+		dbHelper.deletePayload(message2);
+		assertEquals(event2, dbHelper.getOldestUnsentPayload().getNonce());
+	}
+
+	@Test
+	public void testSupersedeDiffPayloads() throws Exception {
+		final Context context = InstrumentationRegistry.getContext();
+		deleteDbFile(context);
+
+		ApptentiveDatabaseHelper dbHelper = new ApptentiveDatabaseHelper(context);
+
+		PersonPayload person1 = new PersonPayload();
+		person1.setEmail("old@example.com");
+		person1.setName("Name");
+		addPayload(dbHelper, person1, "conversation-id", "local-conversation-id");
+
+		PersonPayload person2 = new PersonPayload();
+		person2.setEmail("new@example.com");
+		String nonce = addPayload(dbHelper, person2, "conversation-id", "local-conversation-id");
+
+		PersonPayload person3 = new PersonPayload();
+		person3.setName("Other");
+		String otherNonce = addPayload(dbHelper, person3, "other-conversation-id", "other-local-conversation-id"); // different conversation
+
+		PayloadData payload = dbHelper.getOldestUnsentPayload();
+		assertEquals(nonce, payload.getNonce());
+		JSONObject json = new JSONObject(new String(payload.getData(), "UTF-8")).getJSONObject("person");
+		assertEquals("new@example.com", json.getString("email")); // newer value wins
+		assertEquals("Name", json.getString("name")); // older value is kept
+		dbHelper.deletePayload(nonce);
+
+		assertEquals(otherNonce, dbHelper.getOldestUnsentPayload().getNonce());
+		dbHelper.deletePayload(otherNonce);
+		assertNull(dbHelper.getOldestUnsentPayload());
+	}
+
+	@Test
+	public void testSupersedeDiffPayloadsInFlight() throws Exception {
+		final Context context = InstrumentationRegistry.getContext();
+		deleteDbFile(context);
+
+		ApptentiveDatabaseHelper dbHelper = new ApptentiveDatabaseHelper(context);
+
+		final String nonce1 = addPersonPayload(dbHelper, "conversation-id", "local-conversation-id");
+		PersonPayload person2 = createPayload(new PersonPayload(), "conversation-id", "local-conversation-id");
+		dbHelper.addPayloads(Collections.<Payload>singletonList(person2), new PayloadFilter() {
+			@Override
+			public boolean accept(String nonce, PayloadType type, String conversationId) {
+				return !nonce.equals(nonce1); // payload is being sent
+			}
+		});
+
+		List<String> actual = new ArrayList<>();
+		PayloadData payload;
+		while ((payload = dbHelper.getOldestUnsentPayload()) != null) {
+			actual.add(payload.getNonce());
+			dbHelper.deletePayload(payload.getNonce());
+		}
+		assertEquals(Arrays.asList(nonce1, person2.getNonce()), actual);
+	}
+
+	@Test
+	public void testPayloadQueueEviction() throws Exception {
+		final Context context = InstrumentationRegistry.getContext();
+		deleteDbFile(context);
+
+		ApptentiveDatabaseHelper dbHelper = new ApptentiveDatabaseHelper(context);
+		dbHelper.setPayloadQueueLimits(3, Long.MAX_VALUE);
+
+		String person1 = addPersonPayload(dbHelper, "conversation-id", "local-conversation-id");
+		String event1 = addEventPayload(dbHelper, "conversation-id", "local-conversation-id");
+		String event2 = addEventPayload(dbHelper, "conversation-id", "local-conversation-id");
+		String event3 = addEventPayload(dbHelper, "conversation-id", "local-conversation-id"); // evicts the oldest event
+		assertEquals(1, dbHelper.getEvictedPayloadCount(PayloadType.event));
+
+		String person2 = addPersonPayload(dbHelper, "conversation-id", "local-conversation-id"); // evicts the next oldest event
+		String person3 = addPersonPayload(dbHelper, "conversation-id", "local-conversation-id"); // evicts the last event
+		String person4 = addPersonPayload(dbHelper, "conversation-id", "local-conversation-id"); // nothing to evict: the queue goes over the limit
+		assertEquals(3, dbHelper.getEvictedPayloadCount(PayloadType.event));
+		assertEquals(0, dbHelper.getEvictedPayloadCount(PayloadType.person));
+		assertEquals(3, dbHelper.getEvictedPayloadCount());
+
+		List<String> actual = new ArrayList<>();
+		PayloadData payload;
+		while ((payload = dbHelper.getOldestUnsentPayload()) != null) {
+			actual.add(payload.getNonce());
+			dbHelper.deletePayload(payload.getNonce());
+		}
+		assertEquals(Arrays.asList(person1, person2, person3, person4), actual);
+		assertFalse(actual.contains(event1) || actual.contains(event2) || actual.contains(event3));
+	}
+
+	@Test
+	public void testPayloadQueueEvictionSkipsInFlight() throws Exception {
+		final Context context = InstrumentationRegistry.getContext();
+		deleteDbFile(context);
+
+		ApptentiveDatabaseHelper dbHelper = new ApptentiveDatabaseHelper(context);
+		dbHelper.setPayloadQueueLimits(2, Long.MAX_VALUE);
+
+		final String event1 = addEventPayload(dbHelper, "conversation-id", "local-conversation-id");
+		String event2 = addEventPayload(dbHelper, "conversation-id", "local-conversation-id");
+
+		// the oldest event is being sent: the next one is evicted instead
+		EventPayload event3 = createEventPayload("conversation-id", "local-conversation-id");
+		dbHelper.addPayloads(Collections.<Payload>singletonList(event3), new PayloadFilter() {
+			@Override
+			public boolean accept(String nonce, PayloadType type, String conversationId) {
+				return !nonce.equals(event1);
+			}
+		});
+		assertEquals(1, dbHelper.getEvictedPayloadCount(PayloadType.event));
+
+		List<String> actual = new ArrayList<>();
+		PayloadData payload;
+		while ((payload = dbHelper.getOldestUnsentPayload()) != null) {
+			actual.add(payload.getNonce());
+			dbHelper.deletePayload(payload.getNonce());
+		}
+		assertEquals(Arrays.asList(event1, event3.getNonce()), actual);
+		assertFalse(actual.contains(event2));
+	}
+
+	private static String addPersonPayload(ApptentiveDatabaseHelper dbHelper, String conversationId, String localConversationId) {
+		return addPayload(dbHelper, new PersonPayload(), conversationId, localConversationId);
+	}
+
+	private static String addPayload(ApptentiveDatabaseHelper dbHelper, Payload payload, String conversationId, String localConversationId) {
+		dbHelper.addPayload(createPayload(payload, conversationId, localConversationId));
+		return payload.getNonce();
+	}
+
+	private static <T extends Payload> T createPayload(T payload, String conversationId, String localConversationId) {
+		payload.setConversationId(conversationId);
+		payload.setToken(conversationId != null ? "token" : null);
+		payload.setLocalConversationIdentifier(localConversationId);
+		return payload;
+	}
+
+	private static CompoundMessage createMessage() {
+		CompoundMessage message = new CompoundMessage();
+		message.setBody("Test message");
+		return message;
+	}
+
+	private static String addEventPayload(ApptentiveDatabaseHelper dbHelper, String conversationId, String localConversationId) {
+		EventPayload payload = createEventPayload(conversationId, localConversationId);
+		dbHelper.addPayload(payload);
+		return payload.getNonce();
+	}
+
+	private static EventPayload createEventPayload(String conversationId, String localConversationId) {
+		EventPayload payload = new EventPayload("event", "trigger");
+		payload.setConversationId(conversationId);
+		payload.setToken(conversationId != null ? "token" : null);
+		payload.setLocalConversationIdentifier(localConversationId);
+		return payload;
+	}
+
 	private static void replaceDbFile(Context context, String filename) throws IOException {
 		InputStream input = context.getAssets().open(filename);
 		try {
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.storage;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.apptentive.android.sdk.comm.ApptentiveHttpClient;
+import com.apptentive.android.sdk.model.EventPayload;
+import com.apptentive.android.sdk.model.LogoutPayload;
+import com.apptentive.android.sdk.model.Payload;
+import com.apptentive.android.sdk.model.PayloadData;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(AndroidJUnit4.class)
+public class ApptentiveTaskManagerTest {
+
+	@Before
+	public void setUp() {
+		InstrumentationRegistry.getContext().deleteDatabase(ApptentiveDatabaseHelper.DATABASE_NAME);
+	}
+
+	@After
+	public void tearDown() {
+		InstrumentationRegistry.getContext().deleteDatabase(ApptentiveDatabaseHelper.DATABASE_NAME);
+	}
+
+	@Test
+	public void testPayloadAddedBeforeConversationIdIsUpdated() throws Exception {
+		final Context context = InstrumentationRegistry.getContext();
+
+		// nothing listens on the port: payloads fail to send and stay in the queue
+		ApptentiveTaskManager taskManager = new ApptentiveTaskManager(context, new ApptentiveHttpClient("key", "signature", "http://127.0.0.1:1"));
+		taskManager.setPayloadCommitWindowMillis(60000); // the payload is still pending when the conversation id arrives
+
+		EventPayload payload = new EventPayload("event", "trigger");
+		payload.setLocalConversationIdentifier("local-conversation-id");
+		taskManager.addPayload(payload);
+
+		taskManager.updateIncompletePayloads("conversation-id", "token", "local-conversation-id");
+		taskManager.getAssociatedFiles(payload.getNonce()).get(); // wait for the executor tasks to finish
+
+		PayloadData payloadData = new ApptentiveDatabaseHelper(context).getOldestUnsentPayload();
+		assertEquals(payload.getNonce(), payloadData.getNonce());
+		assertEquals("conversation-id", payloadData.getConversationId());
+		assertEquals("token", payloadData.getAuthToken());
+	}
+
+	@Test
+	public void testDurablePayloadIsCommittedImmediately() throws Exception {
+		final Context context = InstrumentationRegistry.getContext();
+
+		ApptentiveTaskManager taskManager = new ApptentiveTaskManager(context, new ApptentiveHttpClient("key", "signature", "http://127.0.0.1:1"));
+		taskManager.setPayloadCommitWindowMillis(60000); // events would still be pending
+
+		EventPayload event = createPayload(new EventPayload("event", "trigger"));
+		LogoutPayload logout = createPayload(new LogoutPayload());
+		taskManager.addPayload(event);
+		taskManager.addPayload(logout);
+		taskManager.getAssociatedFiles(logout.getNonce()).get(); // wait for the executor tasks to finish
+
+		// the logout is written along with the event queued before it
+		ApptentiveDatabaseHelper dbHelper = new ApptentiveDatabaseHelper(context);
+		assertEquals(event.getNonce(), dbHelper.getOldestUnsentPayload().getNonce());
+		dbHelper.deletePayload(event.getNonce());
+		assertEquals(logout.getNonce(), dbHelper.getOldestUnsentPayload().getNonce());
+	}
+
+	private static <T extends Payload> T createPayload(T payload) {
+		payload.setConversationId("conversation-id");
+		payload.setToken("token");
+		payload.setLocalConversationIdentifier("local-conversation-id");
+		return payload;
+	}
+}
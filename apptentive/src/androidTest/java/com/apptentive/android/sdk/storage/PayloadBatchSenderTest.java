@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.storage;
+
+import com.apptentive.android.sdk.TestCaseBase;
+import com.apptentive.android.sdk.model.PayloadData;
+import com.apptentive.android.sdk.model.PayloadType;
+import com.apptentive.android.sdk.network.HttpRequest;
+import com.apptentive.android.sdk.network.HttpRequestManager;
+import com.apptentive.android.sdk.network.HttpRequestMethod;
+import com.apptentive.android.sdk.network.HttpRequestRetryPolicyDefault;
+import com.apptentive.android.sdk.network.MockHttpRequest;
+import com.apptentive.android.sdk.util.threading.MockDispatchQueue;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PayloadBatchSenderTest extends TestCaseBase {
+	private MockDispatchQueue networkQueue;
+	private MockPayloadRequestSender requestSender;
+	private PayloadSender sender;
+
+	@Before
+	public void setUp() {
+		super.setUp();
+		networkQueue = new MockDispatchQueue(false);
+		requestSender = new MockPayloadRequestSender();
+		sender = new PayloadSender(requestSender, new HttpRequestRetryPolicyDefault() {
+			@Override
+			public boolean shouldRetryRequest(int responseCode, int retryAttempt) {
+				return false;
+			}
+		});
+		sender.setListener(new PayloadSender.Listener() {
+			@Override
+			public void onFinishSending(PayloadSender sender, PayloadData payload, boolean cancelled, String errorMessage, int responseCode, long retryAfterMillis, JSONObject responseData) {
+				addResult("%s: %d", payload.getNonce(), responseCode);
+			}
+
+			@Override
+			public void onFinishSendingBatch(PayloadSender sender, List<PayloadData> payloads, boolean cancelled, String errorMessage, int responseCode, long retryAfterMillis, JSONObject responseData) {
+				Map<String, JSONObject> items = PayloadSender.parseBatchResponse(responseData);
+				for (PayloadData payload : payloads) {
+					JSONObject item = items.get(payload.getNonce());
+					addResult("%s: %d", payload.getNonce(), item != null ? item.optInt("status", -1) : -1);
+				}
+			}
+		});
+	}
+
+	@Test
+	public void testSendPayloadsSeparately() {
+		List<PayloadData> payloads = createPayloads(5);
+		for (PayloadData payload : payloads) {
+			assertTrue(sender.sendPayload(payload));
+			networkQueue.dispatchTasks();
+		}
+
+		assertResult(
+			"nonce-1: 200",
+			"nonce-2: 200",
+			"nonce-3: 200",
+			"nonce-4: 200",
+			"nonce-5: 200"
+		);
+		assertEquals(5, requestSender.requestCount);
+	}
+
+	@Test
+	public void testSendPayloadBatch() {
+		requestSender.batchResponseData = "{\"payloads\":[" +
+			"{\"nonce\":\"nonce-1\",\"status\":201}," +
+			"{\"nonce\":\"nonce-2\",\"status\":201}," +
+			"{\"nonce\":\"nonce-3\",\"status\":400}," +
+			"{\"nonce\":\"nonce-4\",\"status\":500}" +
+			"]}";
+
+		assertTrue(sender.sendPayloads(createPayloads(5)));
+		assertFalse(sender.sendPayloads(createPayloads(2))); // would not start sending until the batch is complete
+		networkQueue.dispatchTasks();
+
+		assertResult(
+			"nonce-1: 201",
+			"nonce-2: 201",
+			"nonce-3: 400",
+			"nonce-4: 500",
+			"nonce-5: -1" // missing from the response
+		);
+		assertEquals(1, requestSender.requestCount);
+	}
+
+	//region Helpers
+
+	private static List<PayloadData> createPayloads(int count) {
+		List<PayloadData> payloads = new ArrayList<>(count);
+		for (int i = 1; i <= count; ++i) {
+			payloads.add(new PayloadData(PayloadType.event, "nonce-" + i, "conversationId", "{}".getBytes(), "authToken", "application/json", "path", HttpRequestMethod.POST, false));
+		}
+		return payloads;
+	}
+
+	class MockPayloadRequestSender implements PayloadRequestSender {
+		private final HttpRequestManager requestManager;
+		String batchResponseData;
+		int requestCount;
+
+		MockPayloadRequestSender() {
+			requestManager = new HttpRequestManager(networkQueue);
+		}
+
+		@Override
+		public HttpRequest createPayloadSendRequest(PayloadData payload, HttpRequest.Listener<HttpRequest> listener) {
+			return createRequest(payload.getNonce(), "{}", listener);
+		}
+
+		@Override
+		public HttpRequest createPayloadBatchSendRequest(List<PayloadData> payloads, HttpRequest.Listener<HttpRequest> listener) {
+			return createRequest("batch", batchResponseData, listener);
+		}
+
+		private HttpRequest createRequest(String name, String responseData, HttpRequest.Listener<HttpRequest> listener) {
+			++requestCount;
+			MockHttpRequest request = new MockHttpRequest(name);
+			request.setResponseData(responseData);
+			request.addListener(listener);
+			request.setRequestManager(requestManager);
+			return request;
+		}
+	}
+
+	//endregion
+}
@@ -44,6 +44,8 @@ import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -1260,6 +1262,33 @@ public class Apptentive {
 		return false;
 	}
 
+	/**
+	 * Same as {@link #canShowInteraction(String)} but answers for multiple events at once. This is
+	 * useful if you need to decide which UI Buttons, menu items, etc. to create.
+	 *
+	 * @param events A collection of event names.
+	 * @return A map of event name to true if an immediate call to engage() with that event name would result in an
+	 * Interaction being displayed, otherwise false.
+	 */
+	public static synchronized Map<String, Boolean> canShowInteractions(Collection<String> events) {
+		try {
+			if (ApptentiveInternal.isConversationActive()) {
+				return EngagementModule.canShowInteractions(ApptentiveInternal.getInstance().getConversation(), "app", events, "local");
+			}
+		} catch (Exception e) {
+			ApptentiveLog.w(e, "Error in Apptentive.canShowInteractions()");
+			MetricModule.sendError(e, null, null);
+		}
+
+		Map<String, Boolean> result = new LinkedHashMap<>();
+		if (events != null) {
+			for (String event : events) {
+				result.put(event, false);
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * Pass in a listener. The listener will be called whenever a survey is finished.
 	 * Do not pass in an anonymous class, such as setOnSurveyFinishedListener(new OnSurveyFinishedListener() {...}).
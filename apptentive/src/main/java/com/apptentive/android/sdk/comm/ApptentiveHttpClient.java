@@ -10,8 +10,12 @@ import com.apptentive.android.sdk.model.ConversationTokenRequest;
 import com.apptentive.android.sdk.model.PayloadData;
 import com.apptentive.android.sdk.network.HttpJsonRequest;
 import com.apptentive.android.sdk.network.HttpRequest;
+import com.apptentive.android.sdk.network.HttpRequestBody;
 import com.apptentive.android.sdk.network.HttpRequestManager;
 import com.apptentive.android.sdk.network.HttpRequestMethod;
+import com.apptentive.android.sdk.network.HttpRequestPriority;
+import com.apptentive.android.sdk.network.HttpRequestStatistics;
+import com.apptentive.android.sdk.network.HttpStreamRequest;
 import com.apptentive.android.sdk.network.RawHttpRequest;
 import com.apptentive.android.sdk.storage.AppRelease;
 import com.apptentive.android.sdk.storage.AppReleaseManager;
@@ -23,9 +27,12 @@ import com.apptentive.android.sdk.storage.SdkManager;
 import com.apptentive.android.sdk.util.Constants;
 import com.apptentive.android.sdk.util.StringUtils;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.List;
+
 import static com.apptentive.android.sdk.debug.Assert.notNull;
 
 /**
@@ -43,6 +50,9 @@ public class ApptentiveHttpClient implements PayloadRequestSender {
 	private static final String ENDPOINT_LEGACY_CONVERSATION = "/conversation/token";
 	private static final String ENDPOINT_LOG_IN_TO_EXISTING_CONVERSATION = "/conversations/%s/session";
 	private static final String ENDPOINT_LOG_IN_TO_NEW_CONVERSATION = "/conversations";
+	private static final String ENDPOINT_PAYLOAD_BATCH = "/conversations/%s/batch";
+	private static final String ENDPOINT_MESSAGES = "/conversations/%s/messages?count=%s&starts_after=%s&before_id=%s";
+	private static final String ENDPOINT_INTERACTIONS = "/conversations/%s/interactions";
 
 	private final String apptentiveKey;
 	private final String apptentiveSignature;
@@ -50,6 +60,11 @@ public class ApptentiveHttpClient implements PayloadRequestSender {
 	private final String userAgentString;
 	private final HttpRequestManager httpRequestManager;
 
+	/**
+	 * Min request body size for gzip compression (negative value disables the compression)
+	 */
+	private int requestCompressionThreshold = -1;
+
 	public ApptentiveHttpClient(String apptentiveKey, String apptentiveSignature, String serverURL) {
 		if (StringUtils.isNullOrEmpty(apptentiveKey)) {
 			throw new IllegalArgumentException("Illegal Apptentive Key: '" + apptentiveKey + "'");
@@ -74,6 +89,7 @@ public class ApptentiveHttpClient implements PayloadRequestSender {
 
 	public HttpJsonRequest createConversationTokenRequest(ConversationTokenRequest conversationTokenRequest, HttpRequest.Listener<HttpJsonRequest> listener) {
 		HttpJsonRequest request = createJsonRequest(ENDPOINT_CONVERSATION, conversationTokenRequest, HttpRequestMethod.POST);
+		request.setPriority(HttpRequestPriority.HIGH);
 		request.addListener(listener);
 		return request;
 	}
@@ -84,6 +100,7 @@ public class ApptentiveHttpClient implements PayloadRequestSender {
 		}
 
 		HttpJsonRequest request = createJsonRequest(ENDPOINT_LEGACY_CONVERSATION, new JSONObject(), HttpRequestMethod.GET);
+		request.setPriority(HttpRequestPriority.HIGH);
 		request.setRequestProperty("Authorization", "OAuth " + conversationToken);
 		request.addListener(listener);
 		return request;
@@ -108,6 +125,7 @@ public class ApptentiveHttpClient implements PayloadRequestSender {
 			endPoint = StringUtils.format(ENDPOINT_LOG_IN_TO_EXISTING_CONVERSATION, conversationId);
 		}
 		HttpJsonRequest request = createJsonRequest(endPoint, json, HttpRequestMethod.POST);
+		request.setPriority(HttpRequestPriority.HIGH);
 		request.addListener(listener);
 		return request;
 	}
@@ -128,6 +146,58 @@ public class ApptentiveHttpClient implements PayloadRequestSender {
 		}
 
 		HttpJsonRequest request = createJsonRequest(ENDPOINT_LOG_IN_TO_NEW_CONVERSATION, conversationTokenRequest, HttpRequestMethod.POST);
+		request.setPriority(HttpRequestPriority.HIGH);
+		request.addListener(listener);
+		return request;
+	}
+
+	/**
+	 * Creates a request for all messages since the message specified by id was sent. A successful
+	 * response is passed to the stream handler without being loaded into memory.
+	 */
+	public HttpStreamRequest createMessagesRequest(String conversationId, String conversationToken, String afterId, String beforeId, Integer count, HttpStreamRequest.StreamHandler streamHandler, HttpRequest.Listener<HttpStreamRequest> listener) {
+		if (StringUtils.isNullOrEmpty(conversationId)) {
+			throw new IllegalArgumentException("Conversation id is null or empty");
+		}
+		if (StringUtils.isNullOrEmpty(conversationToken)) {
+			throw new IllegalArgumentException("Conversation token is null or empty");
+		}
+
+		String endPoint = StringUtils.format(ENDPOINT_MESSAGES, conversationId, count == null ? "" : count.toString(), afterId == null ? "" : afterId, beforeId == null ? "" : beforeId);
+		HttpStreamRequest request = new HttpStreamRequest(createEndpointURL(endPoint), streamHandler);
+		setupRequestDefaults(request);
+		request.setMethod(HttpRequestMethod.GET);
+		request.setRequestProperty("Authorization", "Bearer " + conversationToken);
+		request.addListener(listener);
+		return request;
+	}
+
+	/**
+	 * Creates a conditional request for the interaction manifest: if the manifest hasn't changed
+	 * since it was stored the response would be '304 Not Modified' without content.
+	 *
+	 * @param eTag         'ETag' of the stored manifest (or <code>null</code>)
+	 * @param lastModified 'Last-Modified' of the stored manifest (or <code>null</code>)
+	 */
+	public HttpRequest createInteractionsRequest(String conversationId, String conversationToken, String eTag, String lastModified, HttpRequest.Listener<HttpRequest> listener) {
+		if (StringUtils.isNullOrEmpty(conversationId)) {
+			throw new IllegalArgumentException("Conversation id is null or empty");
+		}
+		if (StringUtils.isNullOrEmpty(conversationToken)) {
+			throw new IllegalArgumentException("Conversation token is null or empty");
+		}
+
+		HttpRequest request = new HttpRequest(createEndpointURL(StringUtils.format(ENDPOINT_INTERACTIONS, conversationId)));
+		setupRequestDefaults(request);
+		request.setMethod(HttpRequestMethod.GET);
+		request.setRequestProperty("Authorization", "Bearer " + conversationToken);
+		if (!StringUtils.isNullOrEmpty(eTag)) {
+			request.setRequestProperty("If-None-Match", eTag);
+		}
+		if (!StringUtils.isNullOrEmpty(lastModified)) {
+			request.setRequestProperty("If-Modified-Since", lastModified);
+		}
+		request.setCoalescible(true); // concurrent fetches share a single connection
 		request.addListener(listener);
 		return request;
 	}
@@ -150,6 +220,19 @@ public class ApptentiveHttpClient implements PayloadRequestSender {
 		}
 
 		HttpRequest request = createPayloadRequest(payload);
+		request.setPriority(HttpRequestPriority.LOW);
+		request.addListener(listener);
+		return request;
+	}
+
+	@Override
+	public HttpRequest createPayloadBatchSendRequest(List<PayloadData> payloads, HttpRequest.Listener<HttpRequest> listener) {
+		if (payloads == null || payloads.isEmpty()) {
+			throw new IllegalArgumentException("Payloads list is null or empty");
+		}
+
+		HttpRequest request = createPayloadBatchRequest(payloads);
+		request.setPriority(HttpRequestPriority.LOW);
 		request.addListener(listener);
 		return request;
 	}
@@ -160,7 +243,7 @@ public class ApptentiveHttpClient implements PayloadRequestSender {
 		final HttpRequestMethod requestMethod = notNull(payload.getHttpRequestMethod());
 		final String contentType = notNull(payload.getContentType());
 
-		HttpRequest request = createRawRequest(httpPath, payload.getData(), requestMethod, contentType);
+		HttpRequest request = createRawRequest(httpPath, payload.getBody(), requestMethod, contentType);
 
 		// Encrypted requests don't use an Auth token on the request. It's stored in the encrypted body.
 		if (!StringUtils.isNullOrEmpty(authToken)) {
@@ -171,9 +254,74 @@ public class ApptentiveHttpClient implements PayloadRequestSender {
 			request.setRequestProperty("APPTENTIVE-ENCRYPTED", Boolean.TRUE);
 		}
 
+		// body might have been compressed when the payload was stored
+		request.setRequestProperty("Content-Encoding", payload.getContentEncoding());
+
 		return request;
 	}
 
+	/**
+	 * Creates a single request with a batch of payloads. Each payload is sent with its original
+	 * method and path so the server can process (and report the status for) them individually:
+	 * <pre>
+	 * {"payloads":[{"nonce":"...","type":"event","method":"POST","path":"/conversations/.../events","body":{...}}]}
+	 * </pre>
+	 */
+	private HttpRequest createPayloadBatchRequest(List<PayloadData> payloads) {
+		final PayloadData first = payloads.get(0);
+		final String authToken = first.getAuthToken();
+
+		JSONObject json = new JSONObject();
+		try {
+			JSONArray items = new JSONArray();
+			for (PayloadData payload : payloads) {
+				JSONObject item = new JSONObject();
+				item.put("nonce", payload.getNonce());
+				item.put("type", payload.getType().name());
+				item.put("method", payload.getHttpRequestMethod().name());
+				item.put("path", payload.getHttpRequestPath());
+				item.put("body", new JSONObject(new String(payload.getDecodedData(), "UTF-8")));
+				items.put(item);
+			}
+			json.put("payloads", items);
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Unable to create payload batch", e);
+		}
+
+		HttpJsonRequest request = createJsonRequest(StringUtils.format(ENDPOINT_PAYLOAD_BATCH, first.getConversationId()), json, HttpRequestMethod.POST);
+		if (!StringUtils.isNullOrEmpty(authToken)) {
+			request.setRequestProperty("Authorization", "Bearer " + authToken);
+		}
+		return request;
+	}
+
+	//endregion
+
+	//region Getters/Setters
+
+	/**
+	 * Returns histograms of request timings (connect, write, time-to-first-byte, read, total and
+	 * sizes) for all the requests sent by this client
+	 */
+	public HttpRequestStatistics getRequestStatistics() {
+		return httpRequestManager.getStatistics();
+	}
+
+	/**
+	 * Enables gzip compression for request bodies of at least <code>threshold</code> bytes. Pass a
+	 * negative value to disable compression (default).
+	 */
+	public void setRequestCompressionThreshold(int threshold) {
+		this.requestCompressionThreshold = threshold;
+	}
+
+	/**
+	 * Sets the max number of payload requests in flight (payload requests are low priority)
+	 */
+	public void setMaxPayloadRequests(int maxRequests) {
+		httpRequestManager.setMaxInFlightRequests(HttpRequestPriority.LOW, maxRequests);
+	}
+
 	//endregion
 
 	//region Helpers
@@ -197,11 +345,11 @@ public class ApptentiveHttpClient implements PayloadRequestSender {
 		return request;
 	}
 
-	private RawHttpRequest createRawRequest(String endpoint, byte[] data, HttpRequestMethod method, String contentType) {
+	private RawHttpRequest createRawRequest(String endpoint, HttpRequestBody body, HttpRequestMethod method, String contentType) {
 		if (endpoint == null) {
 			throw new IllegalArgumentException("Endpoint is null");
 		}
-		if (data == null) {
+		if (body == null) {
 			throw new IllegalArgumentException("Payload is null");
 		}
 		if (method == null) {
@@ -212,7 +360,7 @@ public class ApptentiveHttpClient implements PayloadRequestSender {
 		}
 
 		String url = createEndpointURL(endpoint);
-		RawHttpRequest request = new RawHttpRequest(url, data);
+		RawHttpRequest request = new RawHttpRequest(url, body);
 		setupRequestDefaults(request);
 		request.setMethod(method);
 		request.setRequestProperty("Content-Type", contentType);
@@ -230,6 +378,7 @@ public class ApptentiveHttpClient implements PayloadRequestSender {
 		request.setRequestProperty("X-API-Version", String.valueOf(Constants.API_VERSION));
 		request.setConnectTimeout(DEFAULT_HTTP_CONNECT_TIMEOUT);
 		request.setReadTimeout(DEFAULT_HTTP_SOCKET_TIMEOUT);
+		request.setRequestCompressionThreshold(requestCompressionThreshold);
 	}
 
 	private String createEndpointURL(String uri) {
@@ -33,6 +33,13 @@ public class ApptentiveHttpResponse {
 		return code >= 200 && code < 300;
 	}
 
+	/**
+	 * Returns <code>true</code> if a conditional request found the cached content still valid (304)
+	 */
+	public boolean isNotModified() {
+		return code == 304;
+	}
+
 	public boolean isRejectedPermanently() {
 		return code >= 400 && code < 500;
 	}
@@ -66,6 +73,25 @@ public class ApptentiveHttpResponse {
 		this.headers = headers;
 	}
 
+	/**
+	 * Returns the value of a response header (case insensitive) or <code>null</code> if missing
+	 */
+	public String getHeader(String name) {
+		if (headers != null && name != null) {
+			for (Map.Entry<String, String> entry : headers.entrySet()) {
+				if (name.equalsIgnoreCase(entry.getKey())) {
+					String value = entry.getValue();
+					// header values are stored as List.toString(): "[value]"
+					if (value != null && value.startsWith("[") && value.endsWith("]")) {
+						value = value.substring(1, value.length() - 1);
+					}
+					return value;
+				}
+			}
+		}
+		return null;
+	}
+
 	public int getCode() {
 		return code;
 	}
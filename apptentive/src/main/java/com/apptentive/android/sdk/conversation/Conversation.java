@@ -12,23 +12,26 @@ import android.content.SharedPreferences;
 import com.apptentive.android.sdk.Apptentive;
 import com.apptentive.android.sdk.ApptentiveInternal;
 import com.apptentive.android.sdk.ApptentiveLog;
-import com.apptentive.android.sdk.comm.ApptentiveClient;
-import com.apptentive.android.sdk.comm.ApptentiveHttpResponse;
+import com.apptentive.android.sdk.comm.ApptentiveHttpClient;
 import com.apptentive.android.sdk.debug.Assert;
 import com.apptentive.android.sdk.model.DevicePayload;
 import com.apptentive.android.sdk.model.Payload;
 import com.apptentive.android.sdk.model.PersonPayload;
+import com.apptentive.android.sdk.module.engagement.interaction.model.CompiledManifest;
 import com.apptentive.android.sdk.module.engagement.interaction.model.Interaction;
 import com.apptentive.android.sdk.module.engagement.interaction.model.InteractionManifest;
 import com.apptentive.android.sdk.module.engagement.interaction.model.Interactions;
 import com.apptentive.android.sdk.module.engagement.interaction.model.Targets;
+import com.apptentive.android.sdk.module.engagement.logic.EvaluationContext;
 import com.apptentive.android.sdk.module.messagecenter.MessageManager;
+import com.apptentive.android.sdk.network.HttpRequest;
 import com.apptentive.android.sdk.storage.AppRelease;
 import com.apptentive.android.sdk.storage.DataChangedListener;
 import com.apptentive.android.sdk.storage.Device;
 import com.apptentive.android.sdk.storage.DeviceManager;
 import com.apptentive.android.sdk.storage.EncryptedFileSerializer;
 import com.apptentive.android.sdk.storage.EventData;
+import com.apptentive.android.sdk.storage.FieldChangedListener;
 import com.apptentive.android.sdk.storage.FileSerializer;
 import com.apptentive.android.sdk.storage.IntegrationConfig;
 import com.apptentive.android.sdk.storage.IntegrationConfigItem;
@@ -59,6 +62,8 @@ import static com.apptentive.android.sdk.debug.TesterEvent.*;
 
 public class Conversation implements DataChangedListener, Destroyable {
 
+	private static final String TAG_FETCH_INTERACTIONS_REQUEST = "fetch_interactions";
+
 	/**
 	 * Conversation data for this class to manage
 	 */
@@ -98,22 +103,21 @@ public class Conversation implements DataChangedListener, Destroyable {
 
 	private final MessageManager messageManager;
 
-	// we keep references to the tasks in order to dispatch them only once
-	private final DispatchTask fetchInteractionsTask = new DispatchTask() {
+	/**
+	 * Pre-parsed targets and interactions (rebuilt whenever the stored manifest changes)
+	 */
+	private volatile CompiledManifest compiledManifest;
+
+	/**
+	 * Drops the cached criteria results which depend on the changed data
+	 */
+	private final FieldChangedListener fieldChangedListener = new FieldChangedListener() {
 		@Override
-		protected void execute() {
-			final boolean updateSuccessful = fetchInteractionsSync();
-			dispatchDebugEvent(EVT_CONVERSATION_FETCH_INTERACTIONS, updateSuccessful);
-
-			// Update pending state on UI thread after finishing the task
-			DispatchQueue.mainQueue().dispatchAsync(new DispatchTask() {
-				@Override
-				protected void execute() {
-					if (hasActiveState()) {
-						ApptentiveInternal.getInstance().notifyInteractionUpdated(updateSuccessful);
-					}
-				}
-			});
+		public void onFieldChanged(String key) {
+			CompiledManifest manifest = compiledManifest;
+			if (manifest != null) {
+				manifest.invalidate(key);
+			}
 		}
 	};
 
@@ -141,6 +145,7 @@ public class Conversation implements DataChangedListener, Destroyable {
 		this.conversationMessagesFile = conversationMessagesFile;
 
 		conversationData = new ConversationData();
+		conversationData.setFieldChangedListener(fieldChangedListener);
 
 		FileMessageStore messageStore = new FileMessageStore(conversationMessagesFile);
 		messageManager = new MessageManager(this, messageStore); // it's important to initialize message manager in a constructor since other SDK parts depend on it via Apptentive singleton
@@ -170,29 +175,48 @@ public class Conversation implements DataChangedListener, Destroyable {
 	 * Returns an Interaction for <code>eventLabel</code> if there is one that can be displayed.
 	 */
 	public Interaction getApplicableInteraction(String eventLabel) {
-		String targetsString = getTargets();
-		if (targetsString != null) {
-			try {
-				Targets targets = new Targets(getTargets());
-				String interactionId = targets.getApplicableInteraction(eventLabel);
-				if (interactionId != null) {
-					String interactionsString = getInteractions();
-					if (interactionsString != null) {
-						Interactions interactions = new Interactions(interactionsString);
-						return interactions.getInteraction(interactionId);
-					}
-				}
-			} catch (JSONException e) {
-				ApptentiveLog.e(e, "Exception while getting applicable interaction: %s", eventLabel);
-			}
+		return getApplicableInteraction(eventLabel, new EvaluationContext(this, Util.currentTimeSeconds()));
+	}
+
+	/**
+	 * Same as {@link #getApplicableInteraction(String)} but evaluates criteria within an existing
+	 * <code>context</code> (so the fields it has already fetched are reused).
+	 */
+	public Interaction getApplicableInteraction(String eventLabel, EvaluationContext context) {
+		if (context == null) {
+			throw new IllegalArgumentException("Context is null");
 		}
-		return null;
+		return getCompiledManifest().getApplicableInteraction(eventLabel, context);
+	}
+
+	/**
+	 * Returns <code>true</code> if at least one interaction is targeted at <code>eventLabel</code>
+	 * (criteria are not evaluated).
+	 */
+	public boolean isEventTargeted(String eventLabel) {
+		return getCompiledManifest().isTargeted(eventLabel);
+	}
+
+	/**
+	 * Returns the compiled form of the stored targets and interactions. The manifest is recompiled
+	 * only if the targets or interactions were replaced since the last compilation. Criteria
+	 * results are cached until the conversation data they read changes.
+	 */
+	private CompiledManifest getCompiledManifest() {
+		String targets = getTargets();
+		String interactions = getInteractions();
+		CompiledManifest manifest = compiledManifest;
+		if (manifest == null || !manifest.isCompiledFrom(targets, interactions)) {
+			manifest = CompiledManifest.compile(targets, interactions, true);
+			compiledManifest = manifest;
+		}
+		return manifest;
 	}
 
 	boolean fetchInteractions(Context context) {
 		boolean cacheExpired = getInteractionExpiration() < Util.currentTimeSeconds();
 		if (cacheExpired || RuntimeUtils.isAppDebuggable(context)) {
-			return DispatchQueue.backgroundQueue().dispatchAsyncOnce(fetchInteractionsTask); // do not allow multiple fetches at the same time
+			return fetchInteractions() != null;
 		}
 
 		ApptentiveLog.v(CONVERSATION, "Interaction cache is still valid");
@@ -200,53 +224,97 @@ public class Conversation implements DataChangedListener, Destroyable {
 	}
 
 	/**
-	 * Fetches interaction synchronously. Returns <code>true</code> if succeed.
+	 * Starts fetching interactions. Returns the request or <code>null</code> if a fetch is already in
+	 * progress.
 	 */
-	private boolean fetchInteractionsSync() {
-		ApptentiveLog.v(CONVERSATION, "Fetching Interactions");
-		ApptentiveHttpResponse response = ApptentiveClient.getInteractions(getConversationToken(), getConversationId());
+	private HttpRequest fetchInteractions() {
+		ApptentiveHttpClient httpClient = ApptentiveInternal.getInstance().getApptentiveHttpClient(); // TODO: remove coupling
+		if (httpClient.findRequest(TAG_FETCH_INTERACTIONS_REQUEST) != null) {
+			return null; // do not allow multiple fetches at the same time
+		}
 
-		SharedPreferences prefs = ApptentiveInternal.getInstance().getGlobalSharedPrefs();
-		boolean updateSuccessful = true;
+		ApptentiveLog.v(CONVERSATION, "Fetching Interactions");
 
-		// We weren't able to connect to the internet.
-		if (response.isException()) {
-			prefs.edit().putBoolean(Constants.PREF_KEY_MESSAGE_CENTER_SERVER_ERROR_LAST_ATTEMPT, false).apply();
-			updateSuccessful = false;
-		}
-		// We got a server error.
-		else if (!response.isSuccessful()) {
-			prefs.edit().putBoolean(Constants.PREF_KEY_MESSAGE_CENTER_SERVER_ERROR_LAST_ATTEMPT, true).apply();
-			updateSuccessful = false;
+		// only ask for a conditional fetch if we still have the manifest the validators belong to
+		String eTag = null;
+		String lastModified = null;
+		if (getTargets() != null && getInteractions() != null) {
+			eTag = getInteractionsETag();
+			lastModified = getInteractionsLastModified();
 		}
 
-		if (updateSuccessful) {
-			String interactionsPayloadString = response.getContent();
+		HttpRequest request = httpClient.createInteractionsRequest(getConversationId(), getConversationToken(), eTag, lastModified, new HttpRequest.Listener<HttpRequest>() {
+			@Override
+			public void onFinish(HttpRequest request) {
+				handleFetchInteractionsFinished(request);
+				finishFetchInteractions(true);
+			}
 
-			// Store new integration cache expiration.
-			String cacheControl = response.getHeaders().get("Cache-Control");
-			Integer cacheSeconds = Util.parseCacheControlHeader(cacheControl);
-			if (cacheSeconds == null) {
-				cacheSeconds = Constants.CONFIG_DEFAULT_INTERACTION_CACHE_EXPIRATION_DURATION_SECONDS;
+			@Override
+			public void onCancel(HttpRequest request) {
+				finishFetchInteractions(false);
 			}
-			setInteractionExpiration(Util.currentTimeSeconds() + cacheSeconds);
-			try {
-				InteractionManifest payload = new InteractionManifest(interactionsPayloadString);
-				Interactions interactions = payload.getInteractions();
-				Targets targets = payload.getTargets();
-				if (interactions != null && targets != null) {
-					setTargets(targets.toString());
-					setInteractions(interactions.toString());
-				} else {
-					ApptentiveLog.e(CONVERSATION, "Unable to save interactionManifest.");
-				}
-			} catch (JSONException e) {
-				ApptentiveLog.e(e, "Invalid InteractionManifest received.");
+
+			@Override
+			public void onFail(HttpRequest request, String reason) {
+				// We weren't able to connect to the internet (-1) or we got a server error.
+				SharedPreferences prefs = ApptentiveInternal.getInstance().getGlobalSharedPrefs();
+				prefs.edit().putBoolean(Constants.PREF_KEY_MESSAGE_CENTER_SERVER_ERROR_LAST_ATTEMPT, request.getResponseCode() != -1).apply();
+				finishFetchInteractions(false);
 			}
+		});
+		request.setCallbackQueue(DispatchQueue.backgroundQueue()); // the manifest is parsed and stored on the background queue
+		request.setTag(TAG_FETCH_INTERACTIONS_REQUEST);
+		request.start();
+		return request;
+	}
+
+	private void handleFetchInteractionsFinished(HttpRequest request) {
+		// Store new integration cache expiration.
+		String cacheControl = request.getResponseHeader("Cache-Control");
+		Integer cacheSeconds = Util.parseCacheControlHeader(cacheControl);
+		if (cacheSeconds == null) {
+			cacheSeconds = Constants.CONFIG_DEFAULT_INTERACTION_CACHE_EXPIRATION_DURATION_SECONDS;
 		}
-		ApptentiveLog.v(CONVERSATION, "Fetching new Interactions task finished. Successful: %b", updateSuccessful);
+		setInteractionExpiration(Util.currentTimeSeconds() + cacheSeconds);
+
+		if (request.isNotModified()) {
+			// the stored manifest is still valid: nothing to parse or store
+			ApptentiveLog.v(CONVERSATION, "Interactions were not modified");
+			return;
+		}
+
+		try {
+			InteractionManifest payload = new InteractionManifest(request.getResponseData());
+			Interactions interactions = payload.getInteractions();
+			Targets targets = payload.getTargets();
+			if (interactions != null && targets != null) {
+				setTargets(targets.toString());
+				setInteractions(interactions.toString());
+				setInteractionsETag(request.getResponseHeader("ETag"));
+				setInteractionsLastModified(request.getResponseHeader("Last-Modified"));
+				getCompiledManifest(); // compile on the background queue so the next engage doesn't have to
+			} else {
+				ApptentiveLog.e(CONVERSATION, "Unable to save interactionManifest.");
+			}
+		} catch (JSONException e) {
+			ApptentiveLog.e(e, "Invalid InteractionManifest received.");
+		}
+	}
 
-		return updateSuccessful;
+	private void finishFetchInteractions(final boolean updateSuccessful) {
+		ApptentiveLog.v(CONVERSATION, "Fetching new Interactions task finished. Successful: %b", updateSuccessful);
+		dispatchDebugEvent(EVT_CONVERSATION_FETCH_INTERACTIONS, updateSuccessful);
+
+		// Update pending state on UI thread after finishing the task
+		DispatchQueue.mainQueue().dispatchAsync(new DispatchTask() {
+			@Override
+			protected void execute() {
+				if (hasActiveState()) {
+					ApptentiveInternal.getInstance().notifyInteractionUpdated(updateSuccessful);
+				}
+			}
+		});
 	}
 
 	public boolean isPollForInteractions() {
@@ -274,6 +342,9 @@ public class Conversation implements DataChangedListener, Destroyable {
 			if (interactions != null && targets != null) {
 				setTargets(targets.toString());
 				setInteractions(interactions.toString());
+				setInteractionsETag(null); // the manifest doesn't come from the server
+				setInteractionsLastModified(null);
+				getCompiledManifest();
 			} else {
 				ApptentiveLog.e("Unable to save InteractionManifest.");
 			}
@@ -332,6 +403,8 @@ public class Conversation implements DataChangedListener, Destroyable {
 
 		ApptentiveLog.d(CONVERSATION, "Loading %sconversation data...", hasState(LOGGED_IN) ? "encrypted " : "");
 		conversationData = (ConversationData) serializer.deserialize();
+		conversationData.setFieldChangedListener(fieldChangedListener);
+		fieldChangedListener.onFieldChanged(null);
 		ApptentiveLog.d(CONVERSATION, "Conversation data loaded (took %d ms)", System.currentTimeMillis() - start);
 	}
 
@@ -580,6 +653,22 @@ public class Conversation implements DataChangedListener, Destroyable {
 		getConversationData().setInteractionExpiration(interactionExpiration);
 	}
 
+	public String getInteractionsETag() {
+		return getConversationData().getInteractionsETag();
+	}
+
+	public void setInteractionsETag(String interactionsETag) {
+		getConversationData().setInteractionsETag(interactionsETag);
+	}
+
+	public String getInteractionsLastModified() {
+		return getConversationData().getInteractionsLastModified();
+	}
+
+	public void setInteractionsLastModified(String interactionsLastModified) {
+		getConversationData().setInteractionsLastModified(interactionsLastModified);
+	}
+
 	// this is a synchronization hack: both save/load conversation data are synchronized so we can't
 	// modify conversation data while it's being serialized/deserialized
 	private synchronized ConversationData getConversationData() {
@@ -11,6 +11,7 @@ import com.apptentive.android.sdk.storage.AppRelease;
 import com.apptentive.android.sdk.storage.DataChangedListener;
 import com.apptentive.android.sdk.storage.Device;
 import com.apptentive.android.sdk.storage.EventData;
+import com.apptentive.android.sdk.storage.FieldChangedListener;
 import com.apptentive.android.sdk.storage.Person;
 import com.apptentive.android.sdk.storage.Saveable;
 import com.apptentive.android.sdk.storage.Sdk;
@@ -41,6 +42,8 @@ public class ConversationData implements Saveable, DataChangedListener {
 	private String targets;
 	private String interactions;
 	private double interactionExpiration;
+	private String interactionsETag;
+	private String interactionsLastModified;
 
 	public ConversationData() {
 		this.localIdentifier = UUID.randomUUID().toString();
@@ -76,6 +79,25 @@ public class ConversationData implements Saveable, DataChangedListener {
 	public void onDataChanged() {
 		notifyDataChanged();
 	}
+
+	private transient FieldChangedListener fieldListener;
+
+	/**
+	 * Sets the listener for the changes of the data interaction criteria can read
+	 */
+	public void setFieldChangedListener(FieldChangedListener listener) {
+		this.fieldListener = listener;
+		device.setFieldChangedListener(listener);
+		person.setFieldChangedListener(listener);
+		eventData.setFieldChangedListener(listener);
+		versionHistory.setFieldChangedListener(listener);
+	}
+
+	private void notifyAllFieldsChanged() {
+		if (fieldListener != null) {
+			fieldListener.onFieldChanged(null);
+		}
+	}
 	//endregion
 
 	//region Getters & Setters
@@ -118,6 +140,8 @@ public class ConversationData implements Saveable, DataChangedListener {
 		Assert.assertNotNull(device, "Device may not be null.");
 		this.device = device;
 		device.setDataChangedListener(this);
+		this.device.setFieldChangedListener(fieldListener);
+		notifyAllFieldsChanged();
 		notifyDataChanged();
 	}
 
@@ -139,6 +163,8 @@ public class ConversationData implements Saveable, DataChangedListener {
 		Assert.assertNotNull(person, "Person may not be null.");
 		this.person = person;
 		this.person.setDataChangedListener(this);
+		this.person.setFieldChangedListener(fieldListener);
+		notifyAllFieldsChanged();
 		notifyDataChanged();
 	}
 
@@ -177,6 +203,8 @@ public class ConversationData implements Saveable, DataChangedListener {
 	public void setEventData(EventData eventData) {
 		this.eventData = eventData;
 		this.eventData.setDataChangedListener(this);
+		this.eventData.setFieldChangedListener(fieldListener);
+		notifyAllFieldsChanged();
 		notifyDataChanged();
 	}
 
@@ -196,6 +224,8 @@ public class ConversationData implements Saveable, DataChangedListener {
 	public void setVersionHistory(VersionHistory versionHistory) {
 		this.versionHistory = versionHistory;
 		this.versionHistory.setDataChangedListener(this);
+		this.versionHistory.setFieldChangedListener(fieldListener);
+		notifyAllFieldsChanged();
 		notifyDataChanged();
 	}
 
@@ -276,5 +306,33 @@ public class ConversationData implements Saveable, DataChangedListener {
 		}
 	}
 
+	/**
+	 * Returns 'ETag' of the stored interaction manifest (used for conditional fetch)
+	 */
+	public String getInteractionsETag() {
+		return interactionsETag;
+	}
+
+	public void setInteractionsETag(String interactionsETag) {
+		if (!StringUtils.equal(this.interactionsETag, interactionsETag)) {
+			this.interactionsETag = interactionsETag;
+			notifyDataChanged();
+		}
+	}
+
+	/**
+	 * Returns 'Last-Modified' of the stored interaction manifest (used for conditional fetch)
+	 */
+	public String getInteractionsLastModified() {
+		return interactionsLastModified;
+	}
+
+	public void setInteractionsLastModified(String interactionsLastModified) {
+		if (!StringUtils.equal(this.interactionsLastModified, interactionsLastModified)) {
+			this.interactionsLastModified = interactionsLastModified;
+			notifyDataChanged();
+		}
+	}
+
 	//endregion
 }
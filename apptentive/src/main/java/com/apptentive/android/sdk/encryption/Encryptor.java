@@ -6,8 +6,11 @@
 
 package com.apptentive.android.sdk.encryption;
 
+import com.apptentive.android.sdk.util.NonClosingOutputStream;
 import com.apptentive.android.sdk.util.StringUtils;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
@@ -17,6 +20,7 @@ import java.security.spec.AlgorithmParameterSpec;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
+import javax.crypto.CipherOutputStream;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.IvParameterSpec;
@@ -56,6 +60,27 @@ public class Encryptor {
 		return ret;
 	}
 
+	/**
+	 * Creates a stream which encrypts everything written to it into the output stream (in the same
+	 * format as {@link #encrypt(byte[])}: IV followed by the cipher text). The returned stream must be
+	 * closed in order to write the final block. Closing it doesn't close the output stream.
+	 */
+	public OutputStream createEncryptingStream(OutputStream out) throws IOException,
+	                                                                  NoSuchPaddingException,
+	                                                                  NoSuchAlgorithmException,
+	                                                                  InvalidAlgorithmParameterException,
+	                                                                  InvalidKeyException {
+		byte[] iv = new byte[IV_SIZE];
+		new SecureRandom().nextBytes(iv);
+
+		AlgorithmParameterSpec ivParameterSpec = new IvParameterSpec(iv);
+		Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+		cipher.init(Cipher.ENCRYPT_MODE, key, ivParameterSpec);
+
+		out.write(iv);
+		return new CipherOutputStream(new NonClosingOutputStream(out), cipher);
+	}
+
 	private byte[] encrypt(byte[] iv, byte[] plainText) throws NoSuchAlgorithmException,
 	                                                          NoSuchPaddingException,
 	                                                          InvalidAlgorithmParameterException,
@@ -51,6 +51,12 @@ public abstract class ApptentiveMessage extends ConversationItem implements Mess
 		initType();
 	}
 
+	protected ApptentiveMessage(JSONObject json) {
+		super(PayloadType.message, json);
+		state = State.unknown;
+		initType();
+	}
+
 	protected abstract void initType();
 
 	public void setId(String id) {
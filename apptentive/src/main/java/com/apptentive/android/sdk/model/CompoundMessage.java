@@ -6,11 +6,14 @@
 
 package com.apptentive.android.sdk.model;
 
+import android.graphics.Bitmap;
+
 import com.apptentive.android.sdk.ApptentiveInternal;
 import com.apptentive.android.sdk.ApptentiveLog;
 import com.apptentive.android.sdk.encryption.Encryptor;
 import com.apptentive.android.sdk.module.messagecenter.model.MessageCenterUtil;
 import com.apptentive.android.sdk.network.HttpRequestMethod;
+import com.apptentive.android.sdk.util.NonClosingOutputStream;
 import com.apptentive.android.sdk.util.StringUtils;
 import com.apptentive.android.sdk.util.Util;
 import com.apptentive.android.sdk.util.image.ImageItem;
@@ -22,7 +25,9 @@ import org.json.JSONObject;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
@@ -62,6 +67,15 @@ public class CompoundMessage extends ApptentiveMessage implements MessageCenterU
 	 * @param json The message JSON
 	 */
 	public CompoundMessage(String json) throws JSONException {
+		this(new JSONObject(json));
+	}
+
+	/**
+	 * Construct a CompoundMessage from already parsed JSON (the object is not copied).
+	 *
+	 * @param json The message JSON
+	 */
+	public CompoundMessage(JSONObject json) throws JSONException {
 		super(json);
 		boundary = UUID.randomUUID().toString();
 		parseAttachmentsArray(json);
@@ -231,17 +245,15 @@ public class CompoundMessage extends ApptentiveMessage implements MessageCenterU
 	}
 
 	/* Parse attachment array in json. Only incoming compound message would have "attachments" key set
-	 * @param messageString JSON string of the message
+	 * @param root JSON of the message
 	 * @return true if attachment array is found in JSON
 	 */
-	private boolean parseAttachmentsArray(String messageString) throws JSONException {
-		JSONObject root = new JSONObject(messageString);
+	private boolean parseAttachmentsArray(JSONObject root) throws JSONException {
 		if (!root.isNull(KEY_ATTACHMENTS)) {
 			JSONArray items = root.getJSONArray(KEY_ATTACHMENTS);
 			remoteAttachmentStoredFiles = new ArrayList<StoredFile>();
 			for (int i = 0; i < items.length(); i++) {
-				String json = items.getJSONObject(i).toString();
-				JSONObject attachment = new JSONObject(json);
+				JSONObject attachment = items.getJSONObject(i);
 				String mimeType = attachment.optString("content_type");
 				StoredFile storedFile = new StoredFile();
 				storedFile.setId(getNonce());
@@ -282,104 +294,127 @@ public class CompoundMessage extends ApptentiveMessage implements MessageCenterU
 	 * not read again as plain text while it sits on the device.
 	 *
 	 * @return a Byte array that can be set on the payload request.
-	 * TODO: Refactor this API so that the resulting byte array is streamed to a file for later retrieval.
 	 */
 	@Override
 	public byte[] renderData() {
 		try {
-			boolean encrypted = encryptionKey != null;
-			Encryptor encryptor = null;
-			if (encrypted) {
-				encryptor = new Encryptor(encryptionKey);
-			}
 			ByteArrayOutputStream data = new ByteArrayOutputStream();
+			renderData(data);
+			return data.toByteArray();
+		} catch (Exception e) {
+			ApptentiveLog.e(PAYLOADS, "Error assembling Message Payload.", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Streams the multipart body (see {@link #renderData()}) part by part: attachments are copied (and
+	 * encrypted) directly into the output, so they are never held in memory.
+	 */
+	@Override
+	public void renderData(OutputStream data) throws Exception {
+		boolean encrypted = encryptionKey != null;
+		Encryptor encryptor = null;
+		if (encrypted) {
+			encryptor = new Encryptor(encryptionKey);
+		}
+
+		// First write the message body out as the first "part".
+		StringBuilder header = new StringBuilder();
+		header.append(twoHyphens).append(boundary).append(lineEnd);
 
-			// First write the message body out as the first "part".
-			StringBuilder header = new StringBuilder();
-			header.append(twoHyphens).append(boundary).append(lineEnd);
+		StringBuilder part = new StringBuilder();
+		part
+			.append("Content-Disposition: form-data; name=\"message\"").append(lineEnd)
+			.append("Content-Type: application/json;charset=UTF-8").append(lineEnd)
+			.append(lineEnd)
+			.append(marshallForSending().toString()).append(lineEnd);
+		byte[] partBytes = part.toString().getBytes();
 
-			StringBuilder part = new StringBuilder();
-			part
+		if (encrypted) {
+			header
 				.append("Content-Disposition: form-data; name=\"message\"").append(lineEnd)
-				.append("Content-Type: application/json;charset=UTF-8").append(lineEnd)
-				.append(lineEnd)
-				.append(marshallForSending().toString()).append(lineEnd);
-			byte[] partBytes = part.toString().getBytes();
-
-			if (encrypted) {
-				header
-					.append("Content-Disposition: form-data; name=\"message\"").append(lineEnd)
-					.append("Content-Type: application/octet-stream").append(lineEnd)
-					.append(lineEnd);
-				data.write(header.toString().getBytes());
-				data.write(encryptor.encrypt(partBytes));
-				data.write("\r\n".getBytes());
-			} else {
-				data.write(header.toString().getBytes());
-				data.write(partBytes);
-			}
+				.append("Content-Type: application/octet-stream").append(lineEnd)
+				.append(lineEnd);
+			data.write(header.toString().getBytes());
+			data.write(encryptor.encrypt(partBytes));
+			data.write("\r\n".getBytes());
+		} else {
+			data.write(header.toString().getBytes());
+			data.write(partBytes);
+		}
+
+		// Then append attachments
+		if (attachedFiles != null) {
+			for (StoredFile storedFile : attachedFiles) {
+				ApptentiveLog.v(PAYLOADS, "Starting to write an attachment part.");
+
+				// Anything failing after the part is started would leave a broken body: check the source up front
+				Bitmap image = null;
+				File file = null;
+				try {
+					if (Util.isMimeTypeImage(storedFile.getMimeType())) {
+						image = ImageUtil.createScaledDownImageForSending(storedFile.getSourceUriOrPath());
+						if (image == null) {
+							throw new IOException("Unable to decode image");
+						}
+					} else {
+						file = new File(storedFile.getSourceUriOrPath());
+						if (!file.exists() || file.isDirectory()) {
+							throw new FileNotFoundException("File does not exist: " + file);
+						}
+					}
+				} catch (Exception e) {
+					ApptentiveLog.e(PAYLOADS, "Error reading Message Payload attachment: \"%s\".", e, storedFile.getLocalFilePath());
+					continue;
+				}
 
-			// Then append attachments
-			if (attachedFiles != null) {
-				for (StoredFile storedFile : attachedFiles) {
-					ApptentiveLog.v(PAYLOADS, "Starting to write an attachment part.");
+				try {
 					data.write(("--" + boundary + lineEnd).getBytes());
 					StringBuilder attachmentEnvelope = new StringBuilder();
 					attachmentEnvelope.append(String.format("Content-Disposition: form-data; name=\"file[]\"; filename=\"%s\"", storedFile.getFileName())).append(lineEnd)
 						.append("Content-Type: ").append(storedFile.getMimeType()).append(lineEnd)
 						.append(lineEnd);
-					ByteArrayOutputStream attachmentBytes = new ByteArrayOutputStream();
-					FileInputStream fileInputStream = null;
+
+					OutputStream attachmentStream;
+					if (encrypted) {
+						// If encrypted, each part must be encrypted, and wrapped in a plain text set of headers.
+						StringBuilder encryptionEnvelope = new StringBuilder();
+						encryptionEnvelope
+							.append("Content-Disposition: form-data; name=\"file[]\"").append(lineEnd)
+							.append("Content-Type: application/octet-stream").append(lineEnd)
+							.append(lineEnd);
+						ApptentiveLog.v(PAYLOADS, "Writing encrypted envelope: %s", encryptionEnvelope.toString());
+						data.write(encryptionEnvelope.toString().getBytes());
+						attachmentStream = encryptor.createEncryptingStream(data);
+					} else {
+						attachmentStream = new NonClosingOutputStream(data);
+					}
+
 					try {
 						ApptentiveLog.v(PAYLOADS, "Writing attachment envelope: %s", attachmentEnvelope.toString());
-						attachmentBytes.write(attachmentEnvelope.toString().getBytes());
-
-						try {
-							if (Util.isMimeTypeImage(storedFile.getMimeType())) {
-								ApptentiveLog.v(PAYLOADS, "Appending image attachment.");
-								ImageUtil.appendScaledDownImageToStream(storedFile.getSourceUriOrPath(), attachmentBytes);
-							} else {
-								ApptentiveLog.v("Appending non-image attachment.");
-								Util.appendFileToStream(new File(storedFile.getSourceUriOrPath()), attachmentBytes);
-							}
-						} catch (Exception e) {
-							ApptentiveLog.e(PAYLOADS, "Error reading Message Payload attachment: \"%s\".", e, storedFile.getLocalFilePath());
-							continue;
-						} finally {
-							Util.ensureClosed(fileInputStream);
-						}
+						attachmentStream.write(attachmentEnvelope.toString().getBytes());
 
-						if (encrypted) {
-							// If encrypted, each part must be encrypted, and wrapped in a plain text set of headers.
-							StringBuilder encryptionEnvelope = new StringBuilder();
-							encryptionEnvelope
-								.append("Content-Disposition: form-data; name=\"file[]\"").append(lineEnd)
-								.append("Content-Type: application/octet-stream").append(lineEnd)
-								.append(lineEnd);
-							ApptentiveLog.v(PAYLOADS, "Writing encrypted envelope: %s", encryptionEnvelope.toString());
-							data.write(encryptionEnvelope.toString().getBytes());
-							ApptentiveLog.v(PAYLOADS, "Encrypting attachment bytes: %d", attachmentBytes.size());
-							byte[] encryptedAttachment = encryptor.encrypt(attachmentBytes.toByteArray());
-							ApptentiveLog.v(PAYLOADS, "Writing encrypted attachment bytes: %d", encryptedAttachment.length);
-							data.write(encryptedAttachment);
+						if (image != null) {
+							ApptentiveLog.v(PAYLOADS, "Appending image attachment.");
+							if (!image.compress(Bitmap.CompressFormat.JPEG, 95, attachmentStream)) {
+								throw new IOException("Unable to compress image");
+							}
 						} else {
-							ApptentiveLog.v(PAYLOADS, "Writing attachment bytes: %d", attachmentBytes.size());
-							data.write(attachmentBytes.toByteArray());
+							ApptentiveLog.v(PAYLOADS, "Appending non-image attachment.");
+							Util.appendFileToStream(file, attachmentStream);
 						}
-						data.write("\r\n".getBytes());
-					} catch (Exception e) {
-						ApptentiveLog.e(PAYLOADS, "Error getting data for Message Payload attachments.", e);
-						return null;
+					} finally {
+						attachmentStream.close(); // writes the final cipher block (doesn't close the data stream)
+					}
+					data.write("\r\n".getBytes());
+				} finally {
+					if (image != null) {
+						image.recycle();
 					}
 				}
 			}
-			data.write(("--" + boundary + "--").getBytes());
-
-			ApptentiveLog.d(PAYLOADS, "Total payload body bytes: %d", data.size());
-			return data.toByteArray();
-		} catch (Exception e) {
-			ApptentiveLog.e(PAYLOADS, "Error assembling Message Payload.", e);
-			return null;
 		}
+		data.write(("--" + boundary + "--").getBytes());
 	}
 }
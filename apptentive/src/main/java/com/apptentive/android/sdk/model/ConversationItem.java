@@ -9,6 +9,7 @@ package com.apptentive.android.sdk.model;
 import com.apptentive.android.sdk.util.Util;
 
 import org.json.JSONException;
+import org.json.JSONObject;
 
 public abstract class ConversationItem extends JsonPayload {
 
@@ -29,6 +30,10 @@ public abstract class ConversationItem extends JsonPayload {
 		super(type, json);
 	}
 
+	protected ConversationItem(PayloadType type, JSONObject json) {
+		super(type, json);
+	}
+
 	public Double getClientCreatedAt() {
 		return getDouble(KEY_CLIENT_CREATED_AT);
 	}
@@ -14,6 +14,7 @@ import com.apptentive.android.sdk.util.StringUtils;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.Iterator;
 import java.util.UUID;
 
 import static com.apptentive.android.sdk.ApptentiveLogTag.PAYLOADS;
@@ -31,8 +32,18 @@ public abstract class JsonPayload extends Payload {
 	}
 
 	public JsonPayload(PayloadType type, String json) throws JSONException {
+		this(type, new JSONObject(json));
+	}
+
+	/**
+	 * Creates a payload backed by an already parsed JSON object (the object is not copied)
+	 */
+	public JsonPayload(PayloadType type, JSONObject jsonObject) {
 		super(type);
-		jsonObject = new JSONObject(json);
+		if (jsonObject == null) {
+			throw new IllegalArgumentException("Json object is null");
+		}
+		this.jsonObject = jsonObject;
 	}
 
 	//region Data
@@ -56,6 +67,27 @@ public abstract class JsonPayload extends Payload {
 		}
 	}
 
+	/**
+	 * Merges an older unsent payload of the same type (as rendered by {@link #renderData()}) into
+	 * this one: the fields missing in this payload are copied from the older one. Only makes sense
+	 * for diff payloads (person, device) which overwrite the server state field by field.
+	 */
+	public void mergeSupersededPayload(JSONObject olderData) throws JSONException {
+		String container = getJsonContainer();
+		JSONObject older = container != null ? olderData.optJSONObject(container) : olderData;
+		if (older == null) {
+			throw new JSONException("Missing payload container: " + container);
+		}
+
+		Iterator<String> keys = older.keys();
+		while (keys.hasNext()) {
+			String key = keys.next();
+			if (!jsonObject.has(key)) {
+				jsonObject.put(key, older.get(key));
+			}
+		}
+	}
+
 	//endregion
 
 	//region Json
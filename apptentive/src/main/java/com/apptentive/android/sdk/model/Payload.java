@@ -11,6 +11,8 @@ import com.apptentive.android.sdk.util.StringUtils;
 
 import org.json.JSONException;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 
 public abstract class Payload {
@@ -51,6 +53,18 @@ public abstract class Payload {
 	 */
 	public abstract byte[] renderData() throws JSONException;
 
+	/**
+	 * Writes binary data to be stored in database into a stream. Override this method for payloads
+	 * with large bodies so they are not rendered in memory.
+	 */
+	public void renderData(OutputStream out) throws Exception {
+		byte[] data = renderData();
+		if (data == null) {
+			throw new IOException("Unable to render payload data");
+		}
+		out.write(data);
+	}
+
 	//region
 
 	//region Http-request
@@ -6,22 +6,33 @@
 
 package com.apptentive.android.sdk.model;
 
+import com.apptentive.android.sdk.network.HttpRequestBody;
 import com.apptentive.android.sdk.network.HttpRequestMethod;
 import com.apptentive.android.sdk.util.StringUtils;
+import com.apptentive.android.sdk.util.Util;
+
+import java.io.IOException;
 
 public class PayloadData {
 	private final PayloadType type;
 	private final String nonce;
 	private final String conversationId;
-	private final byte[] data;
+	private final HttpRequestBody body;
 	private final String authToken;
 	private final String contentType;
 	private final String httpRequestPath;
 	private final HttpRequestMethod httpRequestMethod;
 	private final boolean encrypted;
-
+	private String contentEncoding;
 
 	public PayloadData(PayloadType type, String nonce, String conversationId, byte[] data, String authToken, String contentType, String httpRequestPath, HttpRequestMethod httpRequestMethod, boolean encrypted) {
+		this(type, nonce, conversationId, data != null ? HttpRequestBody.create(data) : null, authToken, contentType, httpRequestPath, httpRequestMethod, encrypted);
+	}
+
+	/**
+	 * Creates payload data with a body which is streamed from its source (i.e. the disk) when sent
+	 */
+	public PayloadData(PayloadType type, String nonce, String conversationId, HttpRequestBody body, String authToken, String contentType, String httpRequestPath, HttpRequestMethod httpRequestMethod, boolean encrypted) {
 		if (type == null) {
 			throw new IllegalArgumentException("Payload type is null");
 		}
@@ -34,7 +45,7 @@ public class PayloadData {
 			throw new IllegalArgumentException("Conversation ID is null");
 		}
 
-		if (data == null) {
+		if (body == null) {
 			throw new IllegalArgumentException("Data is null");
 		}
 
@@ -53,7 +64,7 @@ public class PayloadData {
 		this.type = type;
 		this.nonce = nonce;
 		this.conversationId = conversationId;
-		this.data = data;
+		this.body = body;
 		this.authToken = authToken;
 		this.contentType = contentType;
 		this.httpRequestPath = httpRequestPath;
@@ -84,8 +95,27 @@ public class PayloadData {
 		return conversationId;
 	}
 
-	public byte[] getData() {
-		return data;
+	/**
+	 * Loads payload body into memory (use {@link #getBody()} for streaming large payloads)
+	 */
+	public byte[] getData() throws IOException {
+		return body.toByteArray();
+	}
+
+	/**
+	 * Loads payload body into memory decoding it according to the content encoding
+	 */
+	public byte[] getDecodedData() throws IOException {
+		byte[] data = getData();
+		return isGzipEncoded() ? Util.gunzip(data) : data;
+	}
+
+	public HttpRequestBody getBody() {
+		return body;
+	}
+
+	public long getDataLength() {
+		return body.getLength();
 	}
 
 	public String getAuthToken() {
@@ -108,5 +138,20 @@ public class PayloadData {
 		return encrypted;
 	}
 
+	/**
+	 * Content encoding of the stored body (<code>null</code> if the body is not encoded)
+	 */
+	public String getContentEncoding() {
+		return contentEncoding;
+	}
+
+	public void setContentEncoding(String contentEncoding) {
+		this.contentEncoding = contentEncoding;
+	}
+
+	public boolean isGzipEncoded() {
+		return "gzip".equalsIgnoreCase(contentEncoding);
+	}
+
 	//endregion
 }
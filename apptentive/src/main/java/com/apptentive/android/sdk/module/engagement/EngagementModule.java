@@ -19,10 +19,13 @@ import com.apptentive.android.sdk.model.EventPayload;
 import com.apptentive.android.sdk.model.ExtendedData;
 import com.apptentive.android.sdk.module.engagement.interaction.model.Interaction;
 import com.apptentive.android.sdk.module.engagement.interaction.model.MessageCenterInteraction;
+import com.apptentive.android.sdk.module.engagement.logic.EvaluationContext;
 import com.apptentive.android.sdk.module.metric.MetricModule;
 import com.apptentive.android.sdk.util.Constants;
 import com.apptentive.android.sdk.util.Util;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -64,11 +67,13 @@ public class EngagementModule {
 			String eventLabel = generateEventLabel(vendor, interaction, eventName);
 			ApptentiveLog.d("engage(%s)", eventLabel);
 
+			// the same timestamp is used for storing the event and evaluating the criteria
+			double timestamp = Util.currentTimeSeconds();
 			String versionName = ApptentiveInternal.getInstance().getApplicationVersionName();
 			int versionCode = ApptentiveInternal.getInstance().getApplicationVersionCode();
-			conversation.getEventData().storeEventForCurrentAppVersion(Util.currentTimeSeconds(), versionCode, versionName, eventLabel);
+			conversation.getEventData().storeEventForCurrentAppVersion(timestamp, versionCode, versionName, eventLabel);
 			conversation.addPayload(new EventPayload(eventLabel, interactionId, data, customData, extendedData));
-			return doEngage(conversation, context, eventLabel);
+			return doEngage(conversation, context, eventLabel, timestamp);
 		} catch (Exception e) {
 			ApptentiveLog.w(e, "Error in engage()");
 			MetricModule.sendError(e, null, null);
@@ -76,12 +81,12 @@ public class EngagementModule {
 		return false;
 	}
 
-	private static boolean doEngage(Conversation conversation, Context context, String eventLabel) {
-		Interaction interaction = conversation.getApplicableInteraction(eventLabel);
+	private static boolean doEngage(Conversation conversation, Context context, String eventLabel, double timestamp) {
+		Interaction interaction = conversation.getApplicableInteraction(eventLabel, new EvaluationContext(conversation, timestamp));
 		if (interaction != null) {
 			String versionName = ApptentiveInternal.getInstance().getApplicationVersionName();
 			int versionCode = ApptentiveInternal.getInstance().getApplicationVersionCode();
-			conversation.getEventData().storeInteractionForCurrentAppVersion(Util.currentTimeSeconds(), versionCode, versionName, interaction.getId());
+			conversation.getEventData().storeInteractionForCurrentAppVersion(timestamp, versionCode, versionName, interaction.getId());
 			launchInteraction(context, interaction);
 			return true;
 		}
@@ -127,15 +132,34 @@ public class EngagementModule {
 
 	public static boolean canShowInteraction(Conversation conversation, String interaction, String eventName, String vendor) {
 		String eventLabel = generateEventLabel(vendor, interaction, eventName);
-		return canShowInteraction(conversation, eventLabel);
+		return canShowInteraction(conversation, eventLabel, new EvaluationContext(conversation, Util.currentTimeSeconds()));
 	}
 
-	private static boolean canShowInteraction(Conversation conversation, String eventLabel) {
+	/**
+	 * Checks multiple events at once. Returns an event name => boolean map in the same order as
+	 * <code>eventNames</code>.
+	 */
+	public static Map<String, Boolean> canShowInteractions(Conversation conversation, String interaction, Collection<String> eventNames, String vendor) {
+		if (eventNames == null) {
+			throw new IllegalArgumentException("Event names are null");
+		}
+
+		// all the events are checked within the same context so the common fields are fetched once
+		EvaluationContext evaluationContext = new EvaluationContext(conversation, Util.currentTimeSeconds());
+		Map<String, Boolean> result = new LinkedHashMap<>();
+		for (String eventName : eventNames) {
+			String eventLabel = generateEventLabel(vendor, interaction, eventName);
+			result.put(eventName, canShowInteraction(conversation, eventLabel, evaluationContext));
+		}
+		return result;
+	}
+
+	private static boolean canShowInteraction(Conversation conversation, String eventLabel, EvaluationContext evaluationContext) {
 		if (conversation == null) {
 			throw new IllegalArgumentException("Conversation is null");
 		}
 
-		Interaction interaction = conversation.getApplicableInteraction(eventLabel);
+		Interaction interaction = conversation.getApplicableInteraction(eventLabel, evaluationContext);
 		return interaction != null;
 	}
 
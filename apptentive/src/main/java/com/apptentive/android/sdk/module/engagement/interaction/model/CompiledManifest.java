@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.module.engagement.interaction.model;
+
+import com.apptentive.android.sdk.ApptentiveLog;
+import com.apptentive.android.sdk.module.engagement.logic.ClauseParser;
+import com.apptentive.android.sdk.module.engagement.logic.EvaluationContext;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Pre-parsed form of the interaction manifest: an event label maps to an ordered list of
+ * invocations (interaction id and a parsed criteria tree). The manifest is compiled once when the
+ * targets change so engaging an event only evaluates criteria. Optionally, the result of each
+ * invocation's criteria is cached until the data it read changes (see {@link #invalidate(String)})
+ * or a time-based clause expires.
+ */
+public class CompiledManifest {
+	private static final String KEY_INTERACTION_ID = "interaction_id";
+	private static final String KEY_CRITERIA = "criteria";
+
+	/**
+	 * Source targets JSON (compared by reference to detect changes)
+	 */
+	private final String targetsJson;
+
+	/**
+	 * Source interactions JSON (compared by reference to detect changes)
+	 */
+	private final String interactionsJson;
+
+	/**
+	 * Maps an event label to its invocations. Only the events with at least one invocation are
+	 * present so the key set doubles as the index of targeted events.
+	 */
+	private final Map<String, List<CompiledInvocation>> invocationsLookup;
+	private final Interactions interactions;
+
+	/**
+	 * Maps a data key to the invocations whose cached result depends on it (<code>null</code> if
+	 * results are not cached). Guarded by <code>this</code>.
+	 */
+	private final Map<String, Set<CompiledInvocation>> dependentsLookup;
+
+	/**
+	 * Incremented on every invalidation so a result evaluated concurrently with a data change is
+	 * not cached. Guarded by <code>this</code>.
+	 */
+	private long invalidationCount;
+
+	private CompiledManifest(String targetsJson, String interactionsJson, Map<String, List<CompiledInvocation>> invocationsLookup, Interactions interactions, boolean cacheResults) {
+		this.targetsJson = targetsJson;
+		this.interactionsJson = interactionsJson;
+		this.invocationsLookup = invocationsLookup;
+		this.interactions = interactions;
+		this.dependentsLookup = cacheResults ? new HashMap<String, Set<CompiledInvocation>>() : null;
+	}
+
+	//region Compilation
+
+	/**
+	 * Compiles targets and interactions JSON. Malformed invocations are skipped and never match.
+	 */
+	public static CompiledManifest compile(String targetsJson, String interactionsJson) {
+		return compile(targetsJson, interactionsJson, false);
+	}
+
+	/**
+	 * Same as {@link #compile(String, String)}. If <code>cacheResults</code> is <code>true</code>
+	 * the caller must report every change of the data criteria read to {@link #invalidate(String)}.
+	 */
+	public static CompiledManifest compile(String targetsJson, String interactionsJson, boolean cacheResults) {
+		long start = System.currentTimeMillis();
+
+		Map<String, List<CompiledInvocation>> invocationsLookup = new HashMap<>();
+		int invocationCount = 0;
+		if (targetsJson != null) {
+			try {
+				JSONObject targets = new JSONObject(targetsJson);
+				Iterator<String> eventLabels = targets.keys();
+				while (eventLabels.hasNext()) {
+					String eventLabel = eventLabels.next();
+					JSONArray invocationsJson = targets.optJSONArray(eventLabel);
+					if (invocationsJson == null) {
+						continue;
+					}
+
+					List<CompiledInvocation> invocations = new ArrayList<>(invocationsJson.length());
+					for (int i = 0; i < invocationsJson.length(); ++i) {
+						JSONObject invocationJson = invocationsJson.optJSONObject(i);
+						if (invocationJson != null) {
+							invocations.add(compileInvocation(invocationJson));
+						}
+					}
+					if (invocations.isEmpty()) {
+						continue;
+					}
+					invocationsLookup.put(eventLabel, Collections.unmodifiableList(invocations));
+					invocationCount += invocations.size();
+				}
+			} catch (JSONException e) {
+				ApptentiveLog.e(e, "Unable to compile targets");
+				invocationsLookup.clear();
+				invocationCount = 0;
+			}
+		}
+
+		Interactions interactions = null;
+		if (interactionsJson != null) {
+			try {
+				interactions = new Interactions(interactionsJson);
+			} catch (JSONException e) {
+				ApptentiveLog.e(e, "Unable to parse interactions");
+			}
+		}
+
+		ApptentiveLog.v("Compiled %d invocation(s) for %d event(s) (took %d ms)", invocationCount, invocationsLookup.size(), System.currentTimeMillis() - start);
+		return new CompiledManifest(targetsJson, interactionsJson, invocationsLookup, interactions, cacheResults);
+	}
+
+	private static CompiledInvocation compileInvocation(JSONObject invocationJson) {
+		String interactionId = invocationJson.isNull(KEY_INTERACTION_ID) ? null : invocationJson.optString(KEY_INTERACTION_ID, null);
+		InteractionCriteria criteria = null;
+		try {
+			if (!invocationJson.isNull(KEY_CRITERIA)) {
+				criteria = new InteractionCriteria(ClauseParser.parse(null, invocationJson.getJSONObject(KEY_CRITERIA)));
+			}
+		} catch (Exception e) {
+			ApptentiveLog.w(e, "Unable to parse criteria for interaction: %s", interactionId);
+		}
+		return new CompiledInvocation(interactionId, criteria);
+	}
+
+	//endregion
+
+	//region Evaluation
+
+	/**
+	 * Returns the id of the first interaction for <code>eventLabel</code> whose criteria are met
+	 * (or <code>null</code> if there is none)
+	 */
+	public String getApplicableInteractionId(String eventLabel, EvaluationContext context) {
+		List<CompiledInvocation> invocations = invocationsLookup.get(eventLabel);
+		if (invocations == null) {
+			// most events aren't targeted: don't evaluate anything
+			ApptentiveLog.v("No Interactions targeted for EventLabel: %s", eventLabel);
+			return null;
+		}
+
+		for (CompiledInvocation invocation : invocations) {
+			if (isCriteriaMet(invocation, context)) {
+				return invocation.interactionId;
+			}
+		}
+		ApptentiveLog.v("No runnable Interactions for EventLabel: %s", eventLabel);
+		return null;
+	}
+
+	/**
+	 * Returns the first Interaction for <code>eventLabel</code> whose criteria are met (or
+	 * <code>null</code> if there is none)
+	 */
+	public Interaction getApplicableInteraction(String eventLabel, EvaluationContext context) {
+		String interactionId = getApplicableInteractionId(eventLabel, context);
+		if (interactionId != null && interactions != null) {
+			return interactions.getInteraction(interactionId);
+		}
+		return null;
+	}
+
+	//endregion
+
+	//region Result cache
+
+	private boolean isCriteriaMet(CompiledInvocation invocation, EvaluationContext context) {
+		if (dependentsLookup == null || context.getConversation() == null) {
+			return invocation.isCriteriaMet(context);
+		}
+
+		long startInvalidationCount;
+		synchronized (this) {
+			if (invocation.cachedResult != null && context.getCurrentTime().getDateTime() < invocation.cachedResultExpiry) {
+				return invocation.cachedResult;
+			}
+			startInvalidationCount = invalidationCount;
+		}
+
+		context.startTracking();
+		boolean result = invocation.isCriteriaMet(context);
+		EvaluationContext.Dependencies dependencies = context.stopTracking();
+
+		synchronized (this) {
+			if (invalidationCount == startInvalidationCount) {
+				invocation.cachedResult = result;
+				invocation.cachedResultExpiry = dependencies.getExpiry();
+				for (String key : dependencies.getKeys()) {
+					Set<CompiledInvocation> dependents = dependentsLookup.get(key);
+					if (dependents == null) {
+						dependents = new HashSet<>();
+						dependentsLookup.put(key, dependents);
+					}
+					dependents.add(invocation);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Drops the cached results which depend on <code>key</code> (see
+	 * {@link com.apptentive.android.sdk.storage.FieldChangedListener}) or all of them if
+	 * <code>key</code> is <code>null</code>.
+	 */
+	public synchronized void invalidate(String key) {
+		if (dependentsLookup == null) {
+			return;
+		}
+
+		++invalidationCount;
+		if (key == null) {
+			for (List<CompiledInvocation> invocations : invocationsLookup.values()) {
+				for (CompiledInvocation invocation : invocations) {
+					invocation.cachedResult = null;
+				}
+			}
+			dependentsLookup.clear();
+			return;
+		}
+
+		Set<CompiledInvocation> dependents = dependentsLookup.remove(key);
+		if (dependents != null) {
+			for (CompiledInvocation invocation : dependents) {
+				invocation.cachedResult = null;
+			}
+		}
+	}
+
+	//endregion
+
+	//region Getters
+
+	/**
+	 * Returns <code>true</code> if at least one invocation targets <code>eventLabel</code> (criteria
+	 * are not evaluated)
+	 */
+	public boolean isTargeted(String eventLabel) {
+		return invocationsLookup.containsKey(eventLabel);
+	}
+
+	/**
+	 * Returns <code>true</code> if this manifest was compiled from exactly these JSON strings
+	 */
+	public boolean isCompiledFrom(String targetsJson, String interactionsJson) {
+		return this.targetsJson == targetsJson && this.interactionsJson == interactionsJson;
+	}
+
+	//endregion
+
+	//region Invocation
+
+	private static class CompiledInvocation {
+		private final String interactionId;
+		private final InteractionCriteria criteria;
+
+		/**
+		 * Result of the last evaluation (<code>null</code> if not cached). Guarded by the manifest.
+		 */
+		private Boolean cachedResult;
+		private double cachedResultExpiry;
+
+		CompiledInvocation(String interactionId, InteractionCriteria criteria) {
+			this.interactionId = interactionId;
+			this.criteria = criteria;
+		}
+
+		boolean isCriteriaMet(EvaluationContext context) {
+			return criteria != null && criteria.isMet(context);
+		}
+	}
+
+	//endregion
+}
@@ -6,9 +6,13 @@
 
 package com.apptentive.android.sdk.module.engagement.interaction.model;
 
+import com.apptentive.android.sdk.ApptentiveInternal;
 import com.apptentive.android.sdk.ApptentiveLog;
+import com.apptentive.android.sdk.conversation.Conversation;
 import com.apptentive.android.sdk.module.engagement.logic.Clause;
 import com.apptentive.android.sdk.module.engagement.logic.ClauseParser;
+import com.apptentive.android.sdk.module.engagement.logic.EvaluationContext;
+import com.apptentive.android.sdk.util.Util;
 
 import org.json.JSONException;
 
@@ -19,17 +23,35 @@ public class InteractionCriteria {
 
 	private String json;
 
+	/**
+	 * Pre-parsed criteria (<code>null</code> if criteria should be parsed from JSON on every evaluation)
+	 */
+	private final Clause compiledClause;
+
 	public InteractionCriteria(String json) throws JSONException {
 		this.json = json;
+		this.compiledClause = null;
+	}
+
+	InteractionCriteria(Clause compiledClause) {
+		if (compiledClause == null) {
+			throw new IllegalArgumentException("Clause is null");
+		}
+		this.compiledClause = compiledClause;
 	}
 
 	public boolean isMet() {
+		Conversation conversation = ApptentiveInternal.getInstance().getConversation(); // TODO: get rid of singleton
+		return isMet(new EvaluationContext(conversation, Util.currentTimeSeconds()));
+	}
+
+	public boolean isMet(EvaluationContext context) {
 		try {
-			Clause rootClause = ClauseParser.parse(json);
+			Clause rootClause = compiledClause != null ? compiledClause : ClauseParser.parse(json);
 			ApptentiveLog.i("Evaluating Criteria");
 			boolean ret = false;
 			if (rootClause != null) {
-				ret = rootClause.evaluate();
+				ret = rootClause.evaluate(context);
 			}
 			ApptentiveLog.i("- => %b", ret);
 			return ret;
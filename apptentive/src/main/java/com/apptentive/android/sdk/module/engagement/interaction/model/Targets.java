@@ -6,9 +6,6 @@
 
 package com.apptentive.android.sdk.module.engagement.interaction.model;
 
-import com.apptentive.android.sdk.ApptentiveLog;
-
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -22,25 +19,4 @@ public class Targets extends JSONObject {
 	public Targets(String json) throws JSONException {
 		super(json);
 	}
-
-	public String getApplicableInteraction(String eventLabel) {
-		JSONArray invocations = optJSONArray(eventLabel);
-		if (invocations != null) {
-			for (int i = 0; i < invocations.length(); i++) {
-				JSONObject invocationObject = invocations.optJSONObject(i);
-				if (invocationObject != null) {
-					try {
-						Invocation invocation = new Invocation(invocationObject.toString());
-						if (invocation.isCriteriaMet()) {
-							return invocation.getInteractionId();
-						}
-					} catch (JSONException e) {
-						//
-					}
-				}
-			}
-		}
-		ApptentiveLog.v("No runnable Interactions for EventLabel: %s", eventLabel);
-		return null;
-	}
 }
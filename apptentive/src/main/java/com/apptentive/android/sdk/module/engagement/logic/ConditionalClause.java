@@ -7,11 +7,13 @@
 package com.apptentive.android.sdk.module.engagement.logic;
 
 
+import com.apptentive.android.sdk.Apptentive;
 import com.apptentive.android.sdk.ApptentiveLog;
 import com.apptentive.android.sdk.util.Util;
 
 import org.json.JSONObject;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -24,10 +26,12 @@ public class ConditionalClause implements Clause {
 	private static final String KEY_COMPLEX_TYPE = "_type";
 
 	String fieldName;
+	final FieldAccessor field;
 	List<ConditionalTest> conditionalTests;
 
 	public ConditionalClause(String field, Object inputValue) {
 		this.fieldName = field.trim();
+		this.field = FieldManager.compile(fieldName);
 		conditionalTests = new ArrayList<ConditionalTest>();
 
 		ApptentiveLog.v("    + ConditionalClause for query: \"%s\"", fieldName);
@@ -62,15 +66,35 @@ public class ConditionalClause implements Clause {
 	 * @return
 	 */
 	@Override
-	public boolean evaluate() {
+	public boolean evaluate(EvaluationContext context) {
 		ApptentiveLog.v("    - %s", fieldName);
-		Comparable fieldValue = FieldManager.getValue(fieldName);
+		Comparable fieldValue = context.getValue(field);
 		for (ConditionalTest test : conditionalTests) {
 			ApptentiveLog.v("      - %s %s %s?", Util.classToString(fieldValue), test.operator, Util.classToString(test.parameter));
-			if (!test.operator.apply(fieldValue, test.parameter)) {
+			trackTimeBoundary(context, fieldValue, test);
+			if (!test.operator.apply(context, fieldValue, test.parameter)) {
 				return false;
 			}
 		}
 		return true;
 	}
+
+	/**
+	 * Records when the result of <code>test</code> changes just because time passes
+	 */
+	private void trackTimeBoundary(EvaluationContext context, Comparable fieldValue, ConditionalTest test) {
+		if (!(fieldValue instanceof Apptentive.DateTime)) {
+			return;
+		}
+
+		double fieldTime = ((Apptentive.DateTime) fieldValue).getDateTime();
+		if (test.operator == ConditionalOperator.$before || test.operator == ConditionalOperator.$after) {
+			// the field is compared with the current time plus an offset
+			if (test.parameter instanceof BigDecimal) {
+				context.addTimeBoundary(fieldTime - ((BigDecimal) test.parameter).doubleValue());
+			}
+		} else if (field.isTimeBased() && test.parameter instanceof Apptentive.DateTime) {
+			context.addTimeBoundary(((Apptentive.DateTime) test.parameter).getDateTime());
+		}
+	}
 }
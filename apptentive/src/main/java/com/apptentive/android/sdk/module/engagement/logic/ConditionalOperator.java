@@ -144,35 +144,35 @@ public enum ConditionalOperator {
 	$before {
 		@Override
 		public boolean apply(Comparable first, Comparable second) {
-			if (!(first instanceof Apptentive.DateTime)) {
-				return false;
-			}
+			return applyAt(Util.currentTimeSeconds(), first, second);
+		}
+
+		@Override
+		public boolean apply(EvaluationContext context, Comparable first, Comparable second) {
+			return applyAt(context.getCurrentTime().getDateTime(), first, second);
+		}
+
+		private boolean applyAt(double currentTime, Comparable first, Comparable second) {
 			// The parameter for $before is an offset in seconds added to the current time.
-			if (!(second instanceof BigDecimal)) {
-				return false;
-			}
-			Double offset = ((BigDecimal) second).doubleValue();
-			Double currentTime = Util.currentTimeSeconds();
-			Apptentive.DateTime offsetDateTime = new Apptentive.DateTime(currentTime + offset);
-			ApptentiveLog.v("      		- %s?", Util.classToString(offsetDateTime));
-			return ((Apptentive.DateTime) first).compareTo(offsetDateTime) < 0;
+			Integer result = compareToOffsetTime(currentTime, first, second);
+			return result != null && result < 0;
 		}
 	},
 	$after {
 		@Override
 		public boolean apply(Comparable first, Comparable second) {
-			if (!(first instanceof Apptentive.DateTime)) {
-				return false;
-			}
+			return applyAt(Util.currentTimeSeconds(), first, second);
+		}
+
+		@Override
+		public boolean apply(EvaluationContext context, Comparable first, Comparable second) {
+			return applyAt(context.getCurrentTime().getDateTime(), first, second);
+		}
+
+		private boolean applyAt(double currentTime, Comparable first, Comparable second) {
 			// The parameter for $after is an offset in seconds added to the current time.
-			if (!(second instanceof BigDecimal)) {
-				return false;
-			}
-			Double offset = ((BigDecimal) second).doubleValue();
-			Double currentTime = Util.currentTimeSeconds();
-			Apptentive.DateTime offsetDateTime = new Apptentive.DateTime(currentTime + offset);
-			ApptentiveLog.v("      		- %s?", Util.classToString(offsetDateTime));
-			return ((Apptentive.DateTime) first).compareTo(offsetDateTime) > 0;
+			Integer result = compareToOffsetTime(currentTime, first, second);
+			return result != null && result > 0;
 		}
 	},
 
@@ -195,4 +195,29 @@ public enum ConditionalOperator {
 	}
 
 	public abstract boolean apply(Comparable first, Comparable second);
+
+	/**
+	 * Applies the operator at the evaluation time of <code>context</code> (instead of the current
+	 * time) so the result is consistent with the time boundaries the context tracks
+	 */
+	public boolean apply(EvaluationContext context, Comparable first, Comparable second) {
+		return apply(first, second);
+	}
+
+	/**
+	 * Compares a date with <code>currentTime</code> plus an offset in seconds. Returns
+	 * <code>null</code> if the values can't be compared.
+	 */
+	private static Integer compareToOffsetTime(double currentTime, Comparable first, Comparable second) {
+		if (!(first instanceof Apptentive.DateTime)) {
+			return null;
+		}
+		if (!(second instanceof BigDecimal)) {
+			return null;
+		}
+		double offset = ((BigDecimal) second).doubleValue();
+		Apptentive.DateTime offsetDateTime = new Apptentive.DateTime(currentTime + offset);
+		ApptentiveLog.v("      		- %s?", Util.classToString(offsetDateTime));
+		return ((Apptentive.DateTime) first).compareTo(offsetDateTime);
+	}
 }
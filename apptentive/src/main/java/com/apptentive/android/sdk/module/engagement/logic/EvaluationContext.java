@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.module.engagement.logic;
+
+import com.apptentive.android.sdk.Apptentive;
+import com.apptentive.android.sdk.conversation.Conversation;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * State shared by all the clauses evaluated for a single engage (or a single
+ * <code>canShowInteraction</code> check). Every field is fetched from the conversation at most
+ * once and all time-based clauses see the same <code>current_time</code>. The context is not
+ * thread safe and should not outlive the evaluation.
+ */
+public class EvaluationContext {
+	/**
+	 * Marks a field whose value was fetched and is <code>null</code>
+	 */
+	private static final Object NULL_VALUE = new Object();
+
+	private final Conversation conversation;
+	private final Apptentive.DateTime currentTime;
+
+	/**
+	 * Field values fetched so far (query => value)
+	 */
+	private Map<String, Object> values;
+
+	/**
+	 * Data read by the clauses evaluated since {@link #startTracking()} (<code>null</code> if not
+	 * tracking)
+	 */
+	private Dependencies dependencies;
+
+	public EvaluationContext(Conversation conversation, double currentTime) {
+		this.conversation = conversation;
+		this.currentTime = new Apptentive.DateTime(currentTime);
+	}
+
+	/**
+	 * Returns the value of <code>field</code>, fetching it on the first use
+	 */
+	Comparable getValue(FieldAccessor field) {
+		if (conversation == null) {
+			return null;
+		}
+
+		if (dependencies != null) {
+			String dependency = field.getDependency();
+			if (dependency != null) {
+				dependencies.keys.add(dependency);
+			}
+		}
+
+		if (values == null) {
+			values = new HashMap<>();
+		}
+
+		Object value = values.get(field.getQuery());
+		if (value == null) {
+			value = ClauseParser.parseValue(field.getValue(this));
+			values.put(field.getQuery(), value != null ? value : NULL_VALUE);
+		}
+		return value != NULL_VALUE ? (Comparable) value : null;
+	}
+
+	//region Dependencies
+
+	/**
+	 * Starts recording the data the evaluated clauses read and the time their result may change at
+	 */
+	public void startTracking() {
+		dependencies = new Dependencies();
+	}
+
+	/**
+	 * Stops recording and returns what was read since {@link #startTracking()}
+	 */
+	public Dependencies stopTracking() {
+		Dependencies ret = dependencies;
+		if (ret == null) {
+			throw new IllegalStateException("Dependencies are not tracked");
+		}
+		dependencies = null;
+		return ret;
+	}
+
+	/**
+	 * Records that the result of a clause flips when the current time reaches <code>time</code>
+	 */
+	void addTimeBoundary(double time) {
+		if (dependencies != null && time >= currentTime.getDateTime() && time < dependencies.expiry) {
+			dependencies.expiry = time;
+		}
+	}
+
+	public static class Dependencies {
+		private final Set<String> keys = new HashSet<>();
+		private double expiry = Double.POSITIVE_INFINITY;
+
+		/**
+		 * Returns the keys of the data which was read (see
+		 * {@link com.apptentive.android.sdk.storage.FieldChangedListener})
+		 */
+		public Set<String> getKeys() {
+			return keys;
+		}
+
+		/**
+		 * Returns the time the result should be re-evaluated at even if no data changes
+		 */
+		public double getExpiry() {
+			return expiry;
+		}
+	}
+
+	//endregion
+
+	//region Getters
+
+	/**
+	 * Returns the conversation (or <code>null</code> if there is no active conversation)
+	 */
+	public Conversation getConversation() {
+		return conversation;
+	}
+
+	/**
+	 * Returns the time all the clauses are evaluated at
+	 */
+	public Apptentive.DateTime getCurrentTime() {
+		return currentTime;
+	}
+
+	//endregion
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.module.engagement.logic;
+
+/**
+ * Pre-compiled accessor for a single criteria field (for example,
+ * <code>code_point/local#app#init/invokes/total</code>). The query is parsed once by
+ * {@link FieldManager#compile(String)} so evaluation doesn't need to split or look anything up.
+ */
+abstract class FieldAccessor {
+	private final String query;
+
+	FieldAccessor(String query) {
+		if (query == null) {
+			throw new IllegalArgumentException("Query is null");
+		}
+		this.query = query;
+	}
+
+	/**
+	 * Returns the raw value of the field (numbers should already be BigDecimal so
+	 * {@link ClauseParser#parseValue(Object)} doesn't have to convert them). Only called with a
+	 * context which has a conversation.
+	 */
+	abstract Object getValue(EvaluationContext context);
+
+	/**
+	 * Returns the key of the data this field reads (as reported to
+	 * {@link com.apptentive.android.sdk.storage.FieldChangedListener}) or <code>null</code> if the
+	 * value never changes.
+	 */
+	String getDependency() {
+		return null;
+	}
+
+	/**
+	 * Returns <code>true</code> if the value changes as time passes
+	 */
+	boolean isTimeBased() {
+		return false;
+	}
+
+	String getQuery() {
+		return query;
+	}
+
+	@Override
+	public String toString() {
+		return query;
+	}
+}
@@ -6,6 +6,8 @@
 
 package com.apptentive.android.sdk.module.engagement.logic;
 
+import android.content.Context;
+
 import com.apptentive.android.sdk.Apptentive;
 import com.apptentive.android.sdk.ApptentiveInternal;
 import com.apptentive.android.sdk.ApptentiveLog;
@@ -13,7 +15,10 @@ import com.apptentive.android.sdk.BuildConfig;
 import com.apptentive.android.sdk.conversation.Conversation;
 import com.apptentive.android.sdk.storage.CustomData;
 import com.apptentive.android.sdk.storage.Device;
+import com.apptentive.android.sdk.storage.EventData;
+import com.apptentive.android.sdk.storage.FieldChangedListener;
 import com.apptentive.android.sdk.storage.Person;
+import com.apptentive.android.sdk.storage.VersionHistory;
 import com.apptentive.android.sdk.util.Constants;
 import com.apptentive.android.sdk.util.Util;
 
@@ -21,20 +26,32 @@ import java.math.BigDecimal;
 
 public class FieldManager {
 
+	/**
+	 * SDK version (constant for the process)
+	 */
+	private static final Apptentive.Version SDK_VERSION = createVersion(Constants.APPTENTIVE_SDK_VERSION);
+
+	/**
+	 * Application version info (resolved once per process)
+	 */
+	private static volatile AppVersion appVersion;
+
 	public static boolean exists(String query) {
 		return getValue(query) != null;
 	}
 
 	public static Comparable getValue(String query) {
-		Object rawValue = doGetValue(query);
-		return (Comparable) ClauseParser.parseValue(rawValue);
+		Conversation conversation = ApptentiveInternal.getInstance().getConversation(); // TODO: get rid of singleton
+		EvaluationContext context = new EvaluationContext(conversation, Util.currentTimeSeconds());
+		return context.getValue(compile(query));
 	}
 
-	public static Object doGetValue(String query) {
-		Conversation conversation = ApptentiveInternal.getInstance().getConversation(); // TODO: get rid of singleton
-		if (conversation == null) {
-			return null;
-		}
+	//region Compilation
+
+	/**
+	 * Parses <code>query</code> into an accessor which can be evaluated any number of times
+	 */
+	static FieldAccessor compile(String query) {
 		query = query.trim();
 		String[] tokens = query.split("/");
 		QueryPart topLevelQuery = QueryPart.parse(tokens[0]);
@@ -43,231 +60,353 @@ public class FieldManager {
 			case application: {
 				QueryPart applicationQuery = QueryPart.parse(tokens[1]);
 				switch (applicationQuery) {
-					case version_code: {
-						int version = Util.getAppVersionCode(ApptentiveInternal.getInstance().getApplicationContext());
-						if (version == -1) {
-							version = 0; // Default
-						}
-						return version;
-					}
-					case version_name: {
-						String version = Util.getAppVersionName(ApptentiveInternal.getInstance().getApplicationContext());
-						if (version == null) {
-							version = "0"; // Default
-						}
-						Apptentive.Version ret = new Apptentive.Version();
-						ret.setVersion(version);
-						return ret;
-					}
-					case debug: {
-						return BuildConfig.DEBUG;
-					}
+					case version_code:
+					case version_name:
+						return new ApplicationField(query, applicationQuery);
+					case debug:
+						return new ConstantField(query, BuildConfig.DEBUG);
 				}
-				return null; // Default value
+				return new ConstantField(query, null); // Default value
 			}
 			case sdk: {
 				QueryPart sdkQuery = QueryPart.parse(tokens[1]);
-				switch (sdkQuery) {
-					case version:
-						Apptentive.Version ret = new Apptentive.Version();
-						ret.setVersion(Constants.APPTENTIVE_SDK_VERSION);
-						return ret;
+				if (sdkQuery == QueryPart.version) {
+					return new ConstantField(query, SDK_VERSION);
 				}
+				return new ConstantField(query, null);
 			}
 			case current_time:
-				return new Apptentive.DateTime(Util.currentTimeSeconds());
-			case is_update: {
+				return new CurrentTimeField(query);
+			case is_update:
+			case time_at_install:
+				return new VersionHistoryField(query, topLevelQuery, QueryPart.parse(tokens[1]));
+			case interactions:
+			case code_point: {
+				String id = tokens[1];
+				QueryPart queryPart1 = QueryPart.parse(tokens[2]);
+				QueryPart queryPart2 = QueryPart.parse(tokens[3]);
+				return new EventRecordField(query, topLevelQuery == QueryPart.code_point, id, queryPart1, queryPart2);
+			}
+			case person: {
 				QueryPart subQuery = QueryPart.parse(tokens[1]);
+				String customDataKey = subQuery == QueryPart.custom_data ? tokens[2].trim() : null;
+				return new PersonField(query, subQuery, customDataKey);
+			}
+			case device: {
+				QueryPart subQuery = QueryPart.parse(tokens[1]);
+				String customDataKey = subQuery == QueryPart.custom_data ? tokens[2].trim() : null;
+				return new DeviceField(query, subQuery, customDataKey);
+			}
+			default:
+				break;
+		}
+		return new ConstantField(query, null);
+	}
+
+	//endregion
+
+	//region Application version
+
+	private static AppVersion getAppVersion() {
+		AppVersion version = appVersion;
+		if (version == null) {
+			Context context = ApptentiveInternal.getInstance().getApplicationContext();
+			if (context == null) {
+				return AppVersion.UNKNOWN; // not initialized yet: try again next time
+			}
+			version = new AppVersion(Util.getAppVersionCode(context), Util.getAppVersionName(context));
+			appVersion = version;
+		}
+		return version;
+	}
+
+	private static Apptentive.Version createVersion(String version) {
+		Apptentive.Version ret = new Apptentive.Version();
+		ret.setVersion(version);
+		return ret;
+	}
+
+	private static class AppVersion {
+		static final AppVersion UNKNOWN = new AppVersion(-1, null);
+
+		final int versionCode;
+		final String versionName;
+		final BigDecimal versionCodeValue;
+		final Apptentive.Version versionNameValue;
+
+		AppVersion(int versionCode, String versionName) {
+			this.versionCode = versionCode;
+			this.versionName = versionName;
+			this.versionCodeValue = BigDecimal.valueOf(versionCode != -1 ? versionCode : 0); // Default
+			this.versionNameValue = createVersion(versionName != null ? versionName : "0"); // Default
+		}
+	}
+
+	//endregion
+
+	//region Fields
+
+	private static class ConstantField extends FieldAccessor {
+		private final Object value;
+
+		ConstantField(String query, Object value) {
+			super(query);
+			this.value = ClauseParser.parseValue(value);
+		}
+
+		@Override
+		Object getValue(EvaluationContext context) {
+			return value;
+		}
+	}
+
+	private static class CurrentTimeField extends FieldAccessor {
+		CurrentTimeField(String query) {
+			super(query);
+		}
+
+		@Override
+		Object getValue(EvaluationContext context) {
+			return context.getCurrentTime();
+		}
+
+		@Override
+		boolean isTimeBased() {
+			return true;
+		}
+	}
+
+	private static class ApplicationField extends FieldAccessor {
+		private final QueryPart part;
+
+		ApplicationField(String query, QueryPart part) {
+			super(query);
+			this.part = part;
+		}
+
+		@Override
+		Object getValue(EvaluationContext context) {
+			AppVersion version = getAppVersion();
+			return part == QueryPart.version_code ? version.versionCodeValue : version.versionNameValue;
+		}
+	}
+
+	private static class VersionHistoryField extends FieldAccessor {
+		private final QueryPart topLevelQuery;
+		private final QueryPart subQuery;
+
+		VersionHistoryField(String query, QueryPart topLevelQuery, QueryPart subQuery) {
+			super(query);
+			this.topLevelQuery = topLevelQuery;
+			this.subQuery = subQuery;
+		}
+
+		@Override
+		Object getValue(EvaluationContext context) {
+			VersionHistory versionHistory = context.getConversation().getVersionHistory();
+			if (topLevelQuery == QueryPart.is_update) {
 				switch (subQuery) {
 					case version_code:
-						return conversation.getVersionHistory().isUpdateForVersionCode();
+						return versionHistory.isUpdateForVersionCode();
 					case version_name:
-						return conversation.getVersionHistory().isUpdateForVersionName();
+						return versionHistory.isUpdateForVersionName();
 					default:
 						break;
 				}
 				return false;
 			}
-			case time_at_install: {
-				QueryPart subQuery = QueryPart.parse(tokens[1]);
-				switch (subQuery) {
-					case total:
-						return conversation.getVersionHistory().getTimeAtInstallTotal();
-					case version_code:
-						return conversation.getVersionHistory().getTimeAtInstallForCurrentVersionCode();
-					case version_name:
-						return conversation.getVersionHistory().getTimeAtInstallForCurrentVersionName();
-				}
-				return new Apptentive.DateTime(Util.currentTimeSeconds());
+
+			switch (subQuery) {
+				case total:
+					return versionHistory.getTimeAtInstallTotal();
+				case version_code:
+					return versionHistory.getTimeAtInstallForCurrentVersionCode();
+				case version_name:
+					return versionHistory.getTimeAtInstallForCurrentVersionName();
 			}
-			case interactions: {
-				String interactionId = tokens[1];
-				QueryPart queryPart1 = QueryPart.parse(tokens[2]);
-				switch (queryPart1) {
-					case invokes:
-						QueryPart queryPart2 = QueryPart.parse(tokens[3]);
-						switch (queryPart2) {
-							case total: // Get total for all versions of the app.
-								return new BigDecimal(conversation.getEventData().getInteractionCountTotal(interactionId));
-							case version_code:
-								Integer appVersionCode = Util.getAppVersionCode(ApptentiveInternal.getInstance().getApplicationContext());
-								return new BigDecimal(conversation.getEventData().getInteractionCountForVersionCode(interactionId, appVersionCode));
-							case version_name:
-								String appVersionName = Util.getAppVersionName(ApptentiveInternal.getInstance().getApplicationContext());
-								return new BigDecimal(conversation.getEventData().getInteractionCountForVersionName(interactionId, appVersionName));
-							default:
-								break;
-						}
-						break;
-					case last_invoked_at:
-						QueryPart queryPart3 = QueryPart.parse(tokens[3]);
-						switch (queryPart3) {
-							case total:
-								Double lastInvoke = conversation.getEventData().getTimeOfLastInteractionInvocation(interactionId);
-								if (lastInvoke != null) {
-									return new Apptentive.DateTime(lastInvoke);
-								}
-							default:
-								break;
+			return context.getCurrentTime();
+		}
+
+		@Override
+		String getDependency() {
+			return FieldChangedListener.VERSION_HISTORY;
+		}
+	}
+
+	/**
+	 * Invocation counts and times for code points (events) and interactions
+	 */
+	private static class EventRecordField extends FieldAccessor {
+		private final boolean codePoint;
+		private final String id;
+		private final QueryPart queryPart1;
+		private final QueryPart queryPart2;
+
+		EventRecordField(String query, boolean codePoint, String id, QueryPart queryPart1, QueryPart queryPart2) {
+			super(query);
+			this.codePoint = codePoint;
+			this.id = id;
+			this.queryPart1 = queryPart1;
+			this.queryPart2 = queryPart2;
+		}
+
+		@Override
+		Object getValue(EvaluationContext context) {
+			EventData eventData = context.getConversation().getEventData();
+			switch (queryPart1) {
+				case invokes:
+					switch (queryPart2) {
+						case total: // Get total for all versions of the app.
+							return toValue(codePoint ? eventData.getEventCountTotal(id) : eventData.getInteractionCountTotal(id));
+						case version_code: {
+							Integer appVersionCode = getAppVersion().versionCode;
+							return toValue(codePoint ? eventData.getEventCountForVersionCode(id, appVersionCode) : eventData.getInteractionCountForVersionCode(id, appVersionCode));
 						}
-					default:
-						break;
-				}
-				break;
-			}
-			case code_point: {
-				String eventLabel = tokens[1];
-				QueryPart queryPart1 = QueryPart.parse(tokens[2]);
-				switch (queryPart1) {
-					case invokes:
-						QueryPart queryPart2 = QueryPart.parse(tokens[3]);
-						switch (queryPart2) {
-							case total: // Get total for all versions of the app.
-								return new BigDecimal(conversation.getEventData().getEventCountTotal(eventLabel));
-							case version_code:
-								Integer appVersionCode = Util.getAppVersionCode(ApptentiveInternal.getInstance().getApplicationContext());
-								return new BigDecimal(conversation.getEventData().getEventCountForVersionCode(eventLabel, appVersionCode));
-							case version_name:
-								String appVersionName = Util.getAppVersionName(ApptentiveInternal.getInstance().getApplicationContext());
-								return new BigDecimal(conversation.getEventData().getEventCountForVersionName(eventLabel, appVersionName));
-							default:
-								break;
+						case version_name: {
+							String appVersionName = getAppVersion().versionName;
+							return toValue(codePoint ? eventData.getEventCountForVersionName(id, appVersionName) : eventData.getInteractionCountForVersionName(id, appVersionName));
 						}
-						break;
-					case last_invoked_at:
-						QueryPart queryPart3 = QueryPart.parse(tokens[3]);
-						switch (queryPart3) {
-							case total:
-								Double lastInvoke = conversation.getEventData().getTimeOfLastEventInvocation(eventLabel);
-								if (lastInvoke != null) {
-									return new Apptentive.DateTime(lastInvoke);
-								}
-							default:
-								break;
+						default:
+							break;
+					}
+					break;
+				case last_invoked_at:
+					if (queryPart2 == QueryPart.total) {
+						Double lastInvoke = codePoint ? eventData.getTimeOfLastEventInvocation(id) : eventData.getTimeOfLastInteractionInvocation(id);
+						if (lastInvoke != null) {
+							return new Apptentive.DateTime(lastInvoke);
 						}
-					default:
-						break;
-				}
-				return null; // Default Value
+					}
+					break;
+				default:
+					break;
 			}
-			case person: {
-				QueryPart subQuery = QueryPart.parse(tokens[1]);
-				Person person = conversation.getPerson();
-				if (person == null) {
-					return null;
-				}
-				switch (subQuery) {
-					case custom_data:
-						String customDataKey = tokens[2].trim();
-						CustomData customData = person.getCustomData();
-						if (customData != null) {
-							return customData.get(customDataKey);
-						}
-						break;
-					case name:
-						return person.getName();
-					case email:
-						return person.getEmail();
-					case other:
-						return null;
-				}
+			return null; // Default Value
+		}
+
+		private static BigDecimal toValue(Long count) {
+			return BigDecimal.valueOf(count); // cached for small counts
+		}
+
+		@Override
+		String getDependency() {
+			return (codePoint ? FieldChangedListener.CODE_POINT : FieldChangedListener.INTERACTIONS) + id;
+		}
+	}
+
+	private static class PersonField extends FieldAccessor {
+		private final QueryPart subQuery;
+		private final String customDataKey;
+
+		PersonField(String query, QueryPart subQuery, String customDataKey) {
+			super(query);
+			this.subQuery = subQuery;
+			this.customDataKey = customDataKey;
+		}
+
+		@Override
+		Object getValue(EvaluationContext context) {
+			Person person = context.getConversation().getPerson();
+			if (person == null) {
+				return null;
 			}
-			case device: {
-				QueryPart subQuery = QueryPart.parse(tokens[1]);
-				Device device = conversation.getDevice();
-				if (device == null) {
-					return null;
-				}
-				switch (subQuery) {
-					case custom_data:
-						String customDataKey = tokens[2].trim();
-						CustomData customData = device.getCustomData();
-						if (customData != null) {
-							return customData.get(customDataKey);
-						}
-						break;
-					case os_version:
-						String osVersion = device.getOsVersion();
-						if (osVersion == null) {
-							osVersion = "0";
-						}
-						Apptentive.Version ret = new Apptentive.Version();
-						ret.setVersion(osVersion);
-						return ret;
-					case os_api_level:
-						return device.getOsApiLevel();
-					case board:
-						return device.getBoard();
-					case bootloader_version:
-						return device.getBootloaderVersion();
-					case brand:
-						return device.getBrand();
-					case build_id:
-						return device.getBuildId();
-					case build_type:
-						return device.getBuildType();
-					case carrier:
-						return device.getCarrier();
-					case cpu:
-						return device.getCpu();
-					case current_carrier:
-						return device.getCurrentCarrier();
-					case device:
-						return device.getDevice();
-					case hardware:
-						return null; // What is this key?
-					case locale_country_code:
-						return device.getLocaleCountryCode();
-					case locale_language_code:
-						return device.getLocaleLanguageCode();
-					case locale_raw:
-						return device.getLocaleRaw();
-					case manufacturer:
-						return device.getManufacturer();
-					case model:
-						return device.getModel();
-					case network_type:
-						return device.getNetworkType();
-					case os_name:
-						return device.getOsName();
-					case os_build:
-						return device.getOsBuild();
-					case product:
-						return device.getProduct();
-					case radio_version:
-						return device.getRadioVersion();
-					case uuid:
-						return device.getUuid();
-					case other:
-						return null;
-				}
+			switch (subQuery) {
+				case custom_data:
+					CustomData customData = person.getCustomData();
+					return customData != null ? customData.get(customDataKey) : null;
+				case name:
+					return person.getName();
+				case email:
+					return person.getEmail();
 			}
-			default:
-				break;
+			return null;
+		}
+
+		@Override
+		String getDependency() {
+			return customDataKey != null ? FieldChangedListener.PERSON_CUSTOM_DATA + customDataKey : FieldChangedListener.PERSON;
 		}
-		return null;
 	}
 
+	private static class DeviceField extends FieldAccessor {
+		private final QueryPart subQuery;
+		private final String customDataKey;
+
+		DeviceField(String query, QueryPart subQuery, String customDataKey) {
+			super(query);
+			this.subQuery = subQuery;
+			this.customDataKey = customDataKey;
+		}
+
+		@Override
+		Object getValue(EvaluationContext context) {
+			Device device = context.getConversation().getDevice();
+			if (device == null) {
+				return null;
+			}
+			switch (subQuery) {
+				case custom_data:
+					CustomData customData = device.getCustomData();
+					return customData != null ? customData.get(customDataKey) : null;
+				case os_version:
+					String osVersion = device.getOsVersion();
+					return createVersion(osVersion != null ? osVersion : "0");
+				case os_api_level:
+					return device.getOsApiLevel();
+				case board:
+					return device.getBoard();
+				case bootloader_version:
+					return device.getBootloaderVersion();
+				case brand:
+					return device.getBrand();
+				case build_id:
+					return device.getBuildId();
+				case build_type:
+					return device.getBuildType();
+				case carrier:
+					return device.getCarrier();
+				case cpu:
+					return device.getCpu();
+				case current_carrier:
+					return device.getCurrentCarrier();
+				case device:
+					return device.getDevice();
+				case hardware:
+					return null; // What is this key?
+				case locale_country_code:
+					return device.getLocaleCountryCode();
+				case locale_language_code:
+					return device.getLocaleLanguageCode();
+				case locale_raw:
+					return device.getLocaleRaw();
+				case manufacturer:
+					return device.getManufacturer();
+				case model:
+					return device.getModel();
+				case network_type:
+					return device.getNetworkType();
+				case os_name:
+					return device.getOsName();
+				case os_build:
+					return device.getOsBuild();
+				case product:
+					return device.getProduct();
+				case radio_version:
+					return device.getRadioVersion();
+				case uuid:
+					return device.getUuid();
+			}
+			return null;
+		}
+
+		@Override
+		String getDependency() {
+			return customDataKey != null ? FieldChangedListener.DEVICE_CUSTOM_DATA + customDataKey : FieldChangedListener.DEVICE;
+		}
+	}
+
+	//endregion
+
 	private enum QueryPart {
 		application,
 		current_time,
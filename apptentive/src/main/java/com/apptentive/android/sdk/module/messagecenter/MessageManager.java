@@ -14,8 +14,6 @@ import android.content.Context;
 import com.apptentive.android.sdk.ApptentiveInternal;
 import com.apptentive.android.sdk.ApptentiveLog;
 import com.apptentive.android.sdk.R;
-import com.apptentive.android.sdk.comm.ApptentiveClient;
-import com.apptentive.android.sdk.comm.ApptentiveHttpResponse;
 import com.apptentive.android.sdk.conversation.Conversation;
 import com.apptentive.android.sdk.model.ApptentiveMessage;
 import com.apptentive.android.sdk.model.PayloadData;
@@ -23,8 +21,10 @@ import com.apptentive.android.sdk.model.PayloadType;
 import com.apptentive.android.sdk.module.messagecenter.model.ApptentiveToastNotification;
 import com.apptentive.android.sdk.model.CompoundMessage;
 import com.apptentive.android.sdk.module.messagecenter.model.MessageCenterListItem;
-import com.apptentive.android.sdk.module.messagecenter.model.MessageFactory;
+import com.apptentive.android.sdk.module.messagecenter.model.MessageStreamParser;
 import com.apptentive.android.sdk.module.metric.MetricModule;
+import com.apptentive.android.sdk.network.HttpRequest;
+import com.apptentive.android.sdk.network.HttpStreamRequest;
 import com.apptentive.android.sdk.notifications.ApptentiveNotification;
 import com.apptentive.android.sdk.notifications.ApptentiveNotificationCenter;
 import com.apptentive.android.sdk.notifications.ApptentiveNotificationObserver;
@@ -34,16 +34,20 @@ import com.apptentive.android.sdk.util.Util;
 import com.apptentive.android.sdk.util.threading.DispatchQueue;
 import com.apptentive.android.sdk.util.threading.DispatchTask;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import static com.apptentive.android.sdk.ApptentiveLogTag.MESSAGES;
 import static com.apptentive.android.sdk.ApptentiveNotifications.NOTIFICATION_ACTIVITY_RESUMED;
 import static com.apptentive.android.sdk.ApptentiveNotifications.NOTIFICATION_ACTIVITY_STARTED;
 import static com.apptentive.android.sdk.ApptentiveNotifications.NOTIFICATION_APP_ENTERED_BACKGROUND;
@@ -66,6 +70,11 @@ public class MessageManager implements Destroyable, ApptentiveNotificationObserv
 
 	private static int TOAST_TYPE_UNREAD_MESSAGE = 1;
 
+	/**
+	 * Max number of fetched messages stored at once
+	 */
+	private static final int MESSAGE_FETCH_CHUNK_SIZE = 50;
+
 	private final Conversation conversation;
 
 	private final MessageStore messageStore;
@@ -150,22 +159,48 @@ public class MessageManager implements Destroyable, ApptentiveNotificationObserv
 			return false;
 		}
 
-		// Fetch the messages.
-		List<ApptentiveMessage> messagesToSave = null;
+		// Fetch the messages: they are stored in chunks while the response is being parsed
+		FetchedMessagesHandler handler = new FetchedMessagesHandler();
 		try {
 			String lastMessageId = messageStore.getLastReceivedMessageId();
-			messagesToSave = fetchMessages(lastMessageId);
+			fetchMessages(lastMessageId, handler);
+		} catch (InterruptedException e) {
+			ApptentiveLog.v(MESSAGES, "Fetching messages was interrupted");
+			Thread.currentThread().interrupt();
+			return false;
 		} catch (Exception e) {
 			ApptentiveLog.e("Error retrieving last received message id from worker thread");
 		}
 
-		CompoundMessage messageOnToast = null;
-		if (messagesToSave != null && messagesToSave.size() > 0) {
+		if (handler.messageCount > 0) {
 			ApptentiveLog.d("Messages retrieved.");
-			// Also get the count of incoming unread messages.
-			int incomingUnreadMessages = 0;
+			if (handler.incomingUnreadMessages > 0) {
+				// Show toast notification only if the foreground activity is not already message center activity
+				if (!isMessageCenterForeground && showToast) {
+					DispatchQueue.mainQueue().dispatchAsyncOnce(toastMessageNotifierTask.setMessage(handler.messageOnToast));
+				}
+			}
+
+			// Send message to notify host app, such as unread message badge
+			DispatchQueue.mainQueue().dispatchAsyncOnce(hostMessageNotifierTask.setMessageCount(getUnreadMessageCount()));
+
+			return handler.incomingUnreadMessages > 0;
+		}
+		return false;
+	}
+
+	/**
+	 * Stores fetched messages chunk by chunk and keeps track of the incoming ones
+	 */
+	private class FetchedMessagesHandler implements MessageStreamParser.Listener {
+		int messageCount;
+		int incomingUnreadMessages;
+		CompoundMessage messageOnToast;
+
+		@Override
+		public void onParseMessages(List<ApptentiveMessage> messages) {
 			// Mark messages from server where sender is the app user as read.
-			for (final ApptentiveMessage apptentiveMessage : messagesToSave) {
+			for (final ApptentiveMessage apptentiveMessage : messages) {
 				if (apptentiveMessage.isOutgoingMessage()) {
 					apptentiveMessage.setRead(true);
 				} else {
@@ -185,20 +220,9 @@ public class MessageManager implements Destroyable, ApptentiveNotificationObserv
 					});
 				}
 			}
-			messageStore.addOrUpdateMessages(messagesToSave.toArray(new ApptentiveMessage[messagesToSave.size()]));
-			if (incomingUnreadMessages > 0) {
-				// Show toast notification only if the foreground activity is not already message center activity
-				if (!isMessageCenterForeground && showToast) {
-					DispatchQueue.mainQueue().dispatchAsyncOnce(toastMessageNotifierTask.setMessage(messageOnToast));
-				}
-			}
-
-			// Send message to notify host app, such as unread message badge
-			DispatchQueue.mainQueue().dispatchAsyncOnce(hostMessageNotifierTask.setMessageCount(getUnreadMessageCount()));
-
-			return incomingUnreadMessages > 0;
+			messageStore.addOrUpdateMessages(messages.toArray(new ApptentiveMessage[messages.size()]));
+			messageCount += messages.size();
 		}
-		return false;
 	}
 
 	public List<MessageCenterListItem> getMessageCenterListItems() {
@@ -235,52 +259,68 @@ public class MessageManager implements Destroyable, ApptentiveNotificationObserv
 		messageStore.deleteAllMessages();
 	}
 
-	private List<ApptentiveMessage> fetchMessages(String afterId) {
+	/**
+	 * Fetches messages through the shared HTTP request manager and waits for the request to finish
+	 * (called on the polling thread)
+	 */
+	private void fetchMessages(String afterId, final MessageStreamParser.Listener listener) throws InterruptedException {
 		ApptentiveLog.d("Fetching messages newer than: %s", (afterId == null) ? "0" : afterId);
 
 		if (!Util.isNetworkConnectionPresent()) {
 			ApptentiveLog.v("No internet present. Cancelling request.");
-			return null;
+			return;
 		}
-		// TODO: Use the new ApptentiveHttpClient for this.
-		ApptentiveHttpResponse response = ApptentiveClient.getMessages(conversation, afterId, null, null);
 
-		List<ApptentiveMessage> ret = new ArrayList<>();
-		if (!response.isSuccessful()) {
-			return ret;
-		}
+		final CountDownLatch latch = new CountDownLatch(1);
+		HttpRequest request = ApptentiveInternal.getInstance().getApptentiveHttpClient()
+			.createMessagesRequest(conversation.getConversationId(), conversation.getConversationToken(), afterId, null, null, new HttpStreamRequest.StreamHandler() {
+				@Override
+				public void handleResponse(HttpStreamRequest request, InputStream stream) throws IOException {
+					try {
+						MessageStreamParser.parse(stream, MESSAGE_FETCH_CHUNK_SIZE, listener);
+					} catch (IOException e) {
+						ApptentiveLog.e(e, "Error parsing messages JSON.");
+					} catch (Exception e) {
+						ApptentiveLog.e(e, "Unexpected error parsing messages JSON.");
+					}
+				}
+			}, new HttpRequest.Listener<HttpStreamRequest>() {
+				@Override
+				public void onFinish(HttpStreamRequest request) {
+					latch.countDown();
+				}
+
+				@Override
+				public void onCancel(HttpStreamRequest request) {
+					latch.countDown();
+				}
+
+				@Override
+				public void onFail(HttpStreamRequest request, String reason) {
+					ApptentiveLog.w(MESSAGES, "Unable to fetch messages: %s", reason);
+					latch.countDown();
+				}
+			});
+		request.start();
+
+		// the request manager holds requests while offline: don't block the polling thread (and the
+		// message manager lock) until the connection is back
+		final long timeoutMillis = request.getConnectTimeout() + request.getReadTimeout();
 		try {
-			ret = parseMessagesString(response.getContent());
-		} catch (JSONException e) {
-			ApptentiveLog.e(e, "Error parsing messages JSON.");
-		} catch (Exception e) {
-			ApptentiveLog.e(e, "Unexpected error parsing messages JSON.");
+			if (!latch.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+				ApptentiveLog.w(MESSAGES, "Message fetch timed out after %d ms", timeoutMillis);
+				request.cancel();
+			}
+		} catch (InterruptedException e) {
+			request.cancel(); // polling was stopped
+			throw e;
 		}
-		return ret;
 	}
 
 	public void updateMessage(ApptentiveMessage apptentiveMessage) {
 		messageStore.updateMessage(apptentiveMessage);
 	}
 
-	private List<ApptentiveMessage> parseMessagesString(String messageString) throws JSONException {
-		List<ApptentiveMessage> ret = new ArrayList<>();
-		JSONObject root = new JSONObject(messageString);
-		if (!root.isNull("messages")) {
-			JSONArray items = root.getJSONArray("messages");
-			for (int i = 0; i < items.length(); i++) {
-				String json = items.getJSONObject(i).toString();
-				ApptentiveMessage apptentiveMessage = MessageFactory.fromJson(json);
-				// Since these came back from the server, mark them saved before updating them in the DB.
-				if (apptentiveMessage != null) {
-					apptentiveMessage.setState(ApptentiveMessage.State.saved);
-					ret.add(apptentiveMessage);
-				}
-			}
-		}
-		return ret;
-	}
-
 	public void resumeSending() {
 		if (afterSendMessageListener != null && afterSendMessageListener.get() != null) {
 			afterSendMessageListener.get().onResumeSending();
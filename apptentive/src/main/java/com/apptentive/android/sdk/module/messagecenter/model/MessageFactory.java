@@ -17,10 +17,21 @@ import org.json.JSONObject;
 public class MessageFactory {
 
 	public static ApptentiveMessage fromJson(String json) {
+		try {
+			return fromJson(new JSONObject(json));
+		} catch (JSONException e) {
+			ApptentiveLog.v(e, "Error parsing json as Message: %s", json);
+		}
+		return null;
+	}
+
+	/**
+	 * Creates a message from already parsed JSON (the object is not copied)
+	 */
+	public static ApptentiveMessage fromJson(JSONObject root) {
 		try {
 			// If KEY_TYPE is set to CompoundMessage or not set, treat them as CompoundMessage
 			ApptentiveMessage.Type type = ApptentiveMessage.Type.CompoundMessage;
-			JSONObject root = new JSONObject(json);
 			if (!root.isNull(ApptentiveMessage.KEY_TYPE)) {
 				String typeStr = root.getString(ApptentiveMessage.KEY_TYPE);
 				if (!StringUtils.isNullOrEmpty(typeStr)) {
@@ -29,14 +40,14 @@ public class MessageFactory {
 			}
 			switch (type) {
 				case CompoundMessage:
-					return new CompoundMessage(json);
+					return new CompoundMessage(root);
 				case unknown:
 					break;
 				default:
 					break;
 			}
 		} catch (JSONException e) {
-			ApptentiveLog.v(e, "Error parsing json as Message: %s", json);
+			ApptentiveLog.v(e, "Error parsing json as Message: %s", root);
 		} catch (IllegalArgumentException e) {
 			// Exception treated as unknown type
 		}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.module.messagecenter.model;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.apptentive.android.sdk.model.ApptentiveMessage;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads messages off the message fetch response (<code>{"messages": [...]}</code>) one at a time:
+ * each message is built straight from the stream without keeping the whole response in memory.
+ */
+public class MessageStreamParser {
+	private static final String KEY_MESSAGES = "messages";
+
+	public interface Listener {
+		/**
+		 * Called for every chunk of parsed messages (on the thread which parses the stream)
+		 */
+		void onParseMessages(List<ApptentiveMessage> messages);
+	}
+
+	/**
+	 * Parses messages from the stream and delivers them in chunks.
+	 *
+	 * @param stream    - response stream (UTF-8)
+	 * @param chunkSize - max number of messages delivered to the listener at once
+	 * @return total number of parsed messages
+	 */
+	public static int parse(InputStream stream, int chunkSize, Listener listener) throws IOException {
+		if (stream == null) {
+			throw new IllegalArgumentException("Stream is null");
+		}
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("Illegal chunk size: " + chunkSize);
+		}
+		if (listener == null) {
+			throw new IllegalArgumentException("Listener is null");
+		}
+
+		int messageCount = 0;
+		JsonReader reader = new JsonReader(new InputStreamReader(stream, "UTF-8"));
+		try {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if (!KEY_MESSAGES.equals(reader.nextName()) || reader.peek() != JsonToken.BEGIN_ARRAY) {
+					reader.skipValue();
+					continue;
+				}
+
+				List<ApptentiveMessage> chunk = new ArrayList<>(chunkSize);
+				reader.beginArray();
+				while (reader.hasNext()) {
+					ApptentiveMessage message = MessageFactory.fromJson(readObject(reader));
+					// Since these came back from the server, mark them saved before updating them in the DB.
+					if (message != null) {
+						message.setState(ApptentiveMessage.State.saved);
+						chunk.add(message);
+						++messageCount;
+					}
+
+					if (chunk.size() == chunkSize) {
+						listener.onParseMessages(chunk);
+						chunk = new ArrayList<>(chunkSize);
+					}
+				}
+				reader.endArray();
+
+				if (chunk.size() > 0) {
+					listener.onParseMessages(chunk);
+				}
+			}
+			reader.endObject();
+		} catch (JSONException e) {
+			throw new IOException("Unable to parse messages", e);
+		} finally {
+			reader.close();
+		}
+
+		return messageCount;
+	}
+
+	//region Json
+
+	private static JSONObject readObject(JsonReader reader) throws IOException, JSONException {
+		JSONObject object = new JSONObject();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			object.put(name, readValue(reader));
+		}
+		reader.endObject();
+		return object;
+	}
+
+	private static JSONArray readArray(JsonReader reader) throws IOException, JSONException {
+		JSONArray array = new JSONArray();
+		reader.beginArray();
+		while (reader.hasNext()) {
+			array.put(readValue(reader));
+		}
+		reader.endArray();
+		return array;
+	}
+
+	private static Object readValue(JsonReader reader) throws IOException, JSONException {
+		switch (reader.peek()) {
+			case BEGIN_OBJECT:
+				return readObject(reader);
+			case BEGIN_ARRAY:
+				return readArray(reader);
+			case BOOLEAN:
+				return reader.nextBoolean();
+			case NUMBER:
+				return parseNumber(reader.nextString());
+			case NULL:
+				reader.nextNull();
+				return JSONObject.NULL;
+			default:
+				return reader.nextString();
+		}
+	}
+
+	/* Resolves numbers the same way org.json does: Integer, Long or Double */
+	private static Number parseNumber(String value) {
+		try {
+			long longValue = Long.parseLong(value);
+			if (longValue >= Integer.MIN_VALUE && longValue <= Integer.MAX_VALUE) {
+				return (int) longValue;
+			}
+			return longValue;
+		} catch (NumberFormatException e) {
+			return Double.parseDouble(value);
+		}
+	}
+
+	//endregion
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.network;
+
+/**
+ * Provides network connection state for {@link HttpRequestManager}
+ */
+public interface ConnectivitySource {
+	/**
+	 * Returns <code>true</code> if network connection is present
+	 */
+	boolean isNetworkConnectionPresent();
+
+	/**
+	 * Starts notifying the listener about network connection changes (only called while some
+	 * requests are waiting for the connection)
+	 */
+	void startMonitoring(Listener listener);
+
+	/**
+	 * Stops notifying the listener
+	 */
+	void stopMonitoring();
+
+	interface Listener {
+		void onConnectivityChange(ConnectivitySource source, boolean connected);
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.network;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+
+import com.apptentive.android.sdk.ApptentiveInternal;
+import com.apptentive.android.sdk.ApptentiveLog;
+import com.apptentive.android.sdk.util.Util;
+
+import static com.apptentive.android.sdk.ApptentiveLogTag.NETWORK;
+
+/**
+ * Resolves network connection state with {@link ConnectivityManager} and monitors the changes with
+ * a {@link ConnectivityManager#CONNECTIVITY_ACTION} broadcast receiver.
+ */
+class DefaultConnectivitySource implements ConnectivitySource {
+	private BroadcastReceiver receiver;
+
+	@Override
+	public boolean isNetworkConnectionPresent() {
+		Context context = getApplicationContext();
+		return context == null || Util.isNetworkConnectionPresent(context); // if we can't tell - let the request decide
+	}
+
+	@Override
+	public synchronized void startMonitoring(final Listener listener) {
+		if (listener == null) {
+			throw new IllegalArgumentException("Listener is null");
+		}
+
+		Context context = getApplicationContext();
+		if (context == null || receiver != null) {
+			return;
+		}
+
+		receiver = new BroadcastReceiver() {
+			@Override
+			public void onReceive(Context context, Intent intent) {
+				try {
+					listener.onConnectivityChange(DefaultConnectivitySource.this, isNetworkConnectionPresent());
+				} catch (Exception e) {
+					ApptentiveLog.e(NETWORK, e, "Exception while handling connectivity change");
+				}
+			}
+		};
+		context.registerReceiver(receiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+	}
+
+	@Override
+	public synchronized void stopMonitoring() {
+		Context context = getApplicationContext();
+		if (context == null || receiver == null) {
+			return;
+		}
+
+		try {
+			context.unregisterReceiver(receiver);
+		} catch (Exception e) {
+			ApptentiveLog.e(NETWORK, e, "Unable to unregister connectivity receiver");
+		} finally {
+			receiver = null;
+		}
+	}
+
+	private static Context getApplicationContext() {
+		ApptentiveInternal instance = ApptentiveInternal.getInstance();
+		return instance != null ? instance.getApplicationContext() : null;
+	}
+}
@@ -11,6 +11,7 @@ import android.util.Base64;
 import com.apptentive.android.sdk.Apptentive;
 import com.apptentive.android.sdk.ApptentiveLog;
 import com.apptentive.android.sdk.util.Constants;
+import com.apptentive.android.sdk.util.CountingInputStream;
 import com.apptentive.android.sdk.util.StringUtils;
 import com.apptentive.android.sdk.util.Util;
 import com.apptentive.android.sdk.util.threading.DispatchQueue;
@@ -19,17 +20,24 @@ import com.apptentive.android.sdk.util.threading.DispatchTask;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
 import java.util.zip.GZIPInputStream;
 
 import static com.apptentive.android.sdk.ApptentiveLog.Level.VERY_VERBOSE;
@@ -46,6 +54,21 @@ public class HttpRequest {
 	 */
 	private static final HttpRequestRetryPolicy DEFAULT_RETRY_POLICY = new HttpRequestRetryPolicyDefault();
 
+	/**
+	 * Size of the buffer used for streaming request bodies
+	 */
+	private static final int REQUEST_BODY_BUFFER_SIZE = 8192;
+
+	/**
+	 * Reusable buffer for streaming request bodies (one per network thread)
+	 */
+	private static final ThreadLocal<byte[]> requestBodyBuffer = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[REQUEST_BODY_BUFFER_SIZE];
+		}
+	};
+
 	/**
 	 * Id-number of the next request
 	 */
@@ -91,6 +114,11 @@ public class HttpRequest {
 	 */
 	private HttpRequestMethod method = HttpRequestMethod.GET;
 
+	/**
+	 * Request priority (requests with a higher priority are dispatched first)
+	 */
+	private HttpRequestPriority priority = HttpRequestPriority.NORMAL;
+
 	/**
 	 * Connection timeout in milliseconds
 	 */
@@ -101,6 +129,11 @@ public class HttpRequest {
 	 */
 	private int readTimeout = Constants.DEFAULT_READ_TIMEOUT_MILLIS;
 
+	/**
+	 * Min request body size for gzip compression (negative value disables the compression)
+	 */
+	private int requestCompressionThreshold = -1;
+
 	/**
 	 * The status code from an HTTP response
 	 */
@@ -121,6 +154,16 @@ public class HttpRequest {
 	 */
 	private boolean cancelled;
 
+	/**
+	 * Flag indicating if the request can share the response of an identical running GET-request
+	 */
+	private boolean coalescible;
+
+	/**
+	 * Timing breakdown of the last attempt
+	 */
+	private HttpRequestTimings timings;
+
 	/**
 	 * Error message for the failed request
 	 */
@@ -212,12 +255,36 @@ public class HttpRequest {
 		return null;
 	}
 
+	/**
+	 * Override this method to stream request body from a source other than memory (by default, the
+	 * body is created from {@link #createRequestData()})
+	 */
+	protected HttpRequestBody createRequestBody() throws IOException {
+		byte[] requestData = createRequestData();
+		return requestData != null ? HttpRequestBody.create(requestData) : null;
+	}
+
 	/**
 	 * Override this method in a subclass to create data from response bytes
 	 */
 	protected void handleResponse(String response) throws IOException {
 	}
 
+	/**
+	 * Override this method in a subclass to read a successful response directly from the stream
+	 * instead of loading it into memory (see {@link #handleResponseStream(InputStream)})
+	 */
+	protected boolean isResponseStreamed() {
+		return false;
+	}
+
+	/**
+	 * Override this method in a subclass to handle a successful response stream (called on the
+	 * network queue). The stream is closed after the method returns.
+	 */
+	protected void handleResponseStream(InputStream stream) throws IOException {
+	}
+
 	////////////////////////////////////////////////////////////////
 	// Request async task
 
@@ -226,10 +293,17 @@ public class HttpRequest {
 	 */
 	void dispatchSync(DispatchQueue networkQueue) {
 		long requestStartTime = System.currentTimeMillis();
+		timings = new HttpRequestTimings();
 
 		try {
 			sendRequestSync();
 		} catch (NetworkUnavailableException e) {
+			// the connection was lost after the request was dispatched: hold it without consuming a retry
+			if (!isCancelled() && requestManager != null) {
+				requestManager.holdRequest(this);
+				return;
+			}
+
 			responseCode = -1; // indicates failure
 			errorMessage = e.getMessage();
 			ApptentiveLog.w(e.getMessage());
@@ -243,13 +317,45 @@ public class HttpRequest {
 			}
 		}
 
-		ApptentiveLog.d(NETWORK, "Request finished in %d ms", System.currentTimeMillis() - requestStartTime);
+		timings.setTotalMillis(System.currentTimeMillis() - requestStartTime);
+		ApptentiveLog.d(NETWORK, "Request finished: %s", timings);
+		if (requestManager != null) {
+			requestManager.recordRequestTimings(this, timings);
+		}
 
 		// attempt a retry if request failed
 		if (isFailed() && retryRequest(networkQueue, responseCode)) { // we schedule request retry on the same queue as it was originally dispatched
 			return;
 		}
 
+		dispatchFinishRequest();
+	}
+
+	/**
+	 * Finishes the request with the response of the request it was coalesced with (no connection is
+	 * opened)
+	 */
+	void finishCoalescedRequest(HttpRequest runningRequest) {
+		responseCode = runningRequest.responseCode;
+		responseData = runningRequest.responseData;
+		responseHeaders = runningRequest.responseHeaders;
+		errorMessage = runningRequest.errorMessage;
+
+		// let the subclass create its own data from the response
+		if (responseCode != -1 && !isCancelled()) {
+			try {
+				handleResponse(responseData);
+			} catch (Exception e) {
+				responseCode = -1; // indicates failure
+				errorMessage = e.getMessage();
+				ApptentiveLog.e(e, "Unable to handle coalesced response");
+			}
+		}
+
+		dispatchFinishRequest();
+	}
+
+	private void dispatchFinishRequest() {
 		// use custom callback queue (if any)
 		if (callbackQueue != null) {
 			callbackQueue.dispatchAsync(new DispatchTask() {
@@ -294,25 +400,40 @@ public class HttpRequest {
 				setupRequestProperties(connection, requestProperties);
 			}
 
+			HttpRequestBody requestBody = null;
 			if (!HttpRequestMethod.GET.equals(method)) {
 				connection.setDoInput(true);
 				connection.setDoOutput(true);
 				connection.setUseCaches(false);
 
-				byte[] requestData = createRequestData();
-				if (requestData != null && requestData.length > 0) {
-					OutputStream outputStream = null;
-					try {
-						outputStream = connection.getOutputStream();
-						outputStream.write(requestData);
-					} finally {
-						Util.ensureClosed(outputStream);
-					}
+				requestBody = createRequestBody();
+				if (requestBody != null && shouldCompressRequestBody(requestBody)) {
+					requestBody = compressRequestBody(connection, requestBody);
 				}
+				if (requestBody != null && requestBody.getLength() > 0) {
+					setFixedLengthStreamingMode(connection, requestBody); // should be set before connecting
+				} else {
+					requestBody = null;
+				}
+			}
+
+			// connect
+			long phaseStartTime = System.currentTimeMillis();
+			connection.connect();
+			timings.setConnectMillis(System.currentTimeMillis() - phaseStartTime);
+
+			// write request body
+			phaseStartTime = System.currentTimeMillis();
+			if (requestBody != null) {
+				writeRequestBody(connection, requestBody);
+				timings.setBytesSent(requestBody.getLength());
 			}
+			timings.setWriteMillis(System.currentTimeMillis() - phaseStartTime);
 
 			// send request
+			phaseStartTime = System.currentTimeMillis();
 			responseCode = connection.getResponseCode();
+			timings.setFirstByteMillis(System.currentTimeMillis() - phaseStartTime);
 			ApptentiveLog.d(NETWORK, "Response: %d %s", responseCode, connection.getResponseMessage());
 
 			if (isCancelled()) {
@@ -323,15 +444,23 @@ public class HttpRequest {
 			responseHeaders = getResponseHeaders(connection);
 
 			// TODO: figure out a better way of handling response codes
+			phaseStartTime = System.currentTimeMillis();
 			boolean gzipped = isGzipContentEncoding(responseHeaders);
 			if (responseCode >= HttpURLConnection.HTTP_OK && responseCode < HttpURLConnection.HTTP_MULT_CHOICE) {
-				responseData = readResponse(connection.getInputStream(), gzipped);
-				ApptentiveLog.v(NETWORK, "Response data: %s", responseData);
+				if (isResponseStreamed()) {
+					handleResponseStream(connection.getInputStream(), gzipped);
+				} else {
+					responseData = readResponse(connection.getInputStream(), gzipped);
+					ApptentiveLog.v(NETWORK, "Response data: %s", responseData);
+				}
+			} else if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+				ApptentiveLog.v(NETWORK, "Response: not modified"); // no content
 			} else {
 				errorMessage = StringUtils.format("Unexpected response code: %d (%s)", responseCode, connection.getResponseMessage());
 				responseData = readResponse(connection.getErrorStream(), gzipped);
 				ApptentiveLog.w(NETWORK, "Error response data: %s", responseData);
 			}
+			timings.setReadMillis(System.currentTimeMillis() - phaseStartTime);
 
 			if (isCancelled()) {
 				return;
@@ -349,7 +478,7 @@ public class HttpRequest {
 	}
 
 	protected boolean isNetworkConnectionPresent() {
-		return Util.isNetworkConnectionPresent();
+		return requestManager == null || requestManager.getConnectivitySource().isNetworkConnectionPresent();
 	}
 
 	//region Retry
@@ -383,6 +512,64 @@ public class HttpRequest {
 
 	//region Connection
 
+	/**
+	 * Streams request body to the connection through a small buffer (the body is never loaded into
+	 * memory as a whole)
+	 */
+	private static void writeRequestBody(HttpURLConnection connection, HttpRequestBody requestBody) throws IOException {
+		OutputStream outputStream = null;
+		try {
+			outputStream = connection.getOutputStream();
+			requestBody.writeTo(outputStream, requestBodyBuffer.get());
+		} finally {
+			Util.ensureClosed(outputStream);
+		}
+	}
+
+	private static void setFixedLengthStreamingMode(HttpURLConnection connection, HttpRequestBody requestBody) throws IOException {
+		long length = requestBody.getLength();
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("Request body is too large: " + length);
+		}
+		connection.setFixedLengthStreamingMode((int) length);
+	}
+
+	/**
+	 * Only json bodies are compressed: they are small enough to be compressed in memory (multipart
+	 * and encrypted bodies are streamed from disk and are mostly incompressible anyway)
+	 */
+	private boolean shouldCompressRequestBody(HttpRequestBody requestBody) {
+		return requestCompressionThreshold >= 0 &&
+			       requestBody.getLength() >= requestCompressionThreshold &&
+			       isJsonRequestContentType() &&
+			       !isGzipRequestContentEncoding(); // body is already compressed
+	}
+
+	/**
+	 * Returns gzip compressed request body (or the original one if compression doesn't make it
+	 * smaller). The whole body is read into memory.
+	 */
+	private static HttpRequestBody compressRequestBody(HttpURLConnection connection, HttpRequestBody requestBody) throws IOException {
+		byte[] compressedData = Util.gzip(requestBody.toByteArray());
+		if (compressedData.length >= requestBody.getLength()) {
+			return requestBody;
+		}
+
+		ApptentiveLog.v(NETWORK, "Compressed request body: %d -> %d bytes", requestBody.getLength(), compressedData.length);
+		connection.setRequestProperty("Content-Encoding", "gzip");
+		return HttpRequestBody.create(compressedData);
+	}
+
+	private boolean isJsonRequestContentType() {
+		Object contentType = requestProperties != null ? requestProperties.get("Content-Type") : null;
+		return contentType != null && contentType.toString().toLowerCase().startsWith("application/json");
+	}
+
+	private boolean isGzipRequestContentEncoding() {
+		Object contentEncoding = requestProperties != null ? requestProperties.get("Content-Encoding") : null;
+		return contentEncoding != null && contentEncoding.toString().equalsIgnoreCase("gzip");
+	}
+
 	private void setupRequestProperties(HttpURLConnection connection, Map<String, Object> properties) {
 		Set<Entry<String, Object>> entries = properties.entrySet();
 		for (Entry<String, Object> e : entries) {
@@ -416,6 +603,43 @@ public class HttpRequest {
 		return headers;
 	}
 
+	/* Header values are stored as List.toString(): "[value]" */
+	private static String stripHeaderListBrackets(String value) {
+		if (value != null && value.length() >= 2 && value.startsWith("[") && value.endsWith("]")) {
+			return value.substring(1, value.length() - 1);
+		}
+		return value;
+	}
+
+	/**
+	 * Parses a <code>Retry-After</code> header value (delta-seconds or HTTP-date).
+	 *
+	 * @return delay in millis or -1 if the value is missing or can't be parsed
+	 */
+	static long parseRetryAfterMillis(String value, long currentTimeMillis) {
+		if (StringUtils.isNullOrEmpty(value)) {
+			return -1;
+		}
+
+		value = value.trim();
+		try {
+			long seconds = Long.parseLong(value);
+			return seconds >= 0 ? seconds * 1000 : -1;
+		} catch (NumberFormatException e) {
+			// not delta-seconds
+		}
+
+		try {
+			SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+			format.setTimeZone(TimeZone.getTimeZone("GMT"));
+			Date date = format.parse(value);
+			return Math.max(0, date.getTime() - currentTimeMillis);
+		} catch (ParseException e) {
+			ApptentiveLog.w(NETWORK, "Unable to parse 'Retry-After' header: %s", value);
+			return -1;
+		}
+	}
+
 	private static boolean isGzipContentEncoding(Map<String, String> responseHeaders) {
 		if (responseHeaders != null) {
 			String contentEncoding = responseHeaders.get("Content-Encoding");
@@ -424,11 +648,27 @@ public class HttpRequest {
 		return false;
 	}
 
-	private static String readResponse(InputStream is, boolean gzipped) throws IOException {
+	private void handleResponseStream(InputStream is, boolean gzipped) throws IOException {
+		CountingInputStream countingStream = new CountingInputStream(is);
+		is = countingStream;
+		try {
+			if (gzipped) {
+				is = new GZIPInputStream(is);
+			}
+			handleResponseStream(new BufferedInputStream(is));
+		} finally {
+			Util.ensureClosed(is);
+			timings.setBytesReceived(countingStream.getBytesRead());
+		}
+	}
+
+	private String readResponse(InputStream is, boolean gzipped) throws IOException {
 		if (is == null) {
 			return null;
 		}
 
+		CountingInputStream countingStream = new CountingInputStream(is);
+		is = countingStream;
 		try {
 			if (gzipped) {
 				is = new GZIPInputStream(is);
@@ -436,6 +676,7 @@ public class HttpRequest {
 			return Util.readStringFromInputStream(is, "UTF-8");
 		} finally {
 			Util.ensureClosed(is);
+			timings.setBytesReceived(countingStream.getBytesRead());
 		}
 	}
 
@@ -453,8 +694,15 @@ public class HttpRequest {
 	/**
 	 * Marks request as cancelled
 	 */
-	public synchronized void cancel() {
-		cancelled = true;
+	public void cancel() {
+		synchronized (this) {
+			cancelled = true;
+		}
+
+		// a request waiting for the network connection should finish right away
+		if (requestManager != null) {
+			requestManager.releaseCancelledRequest(this);
+		}
 	}
 
 	//endregion
@@ -482,7 +730,7 @@ public class HttpRequest {
 			byte[] requestData = createRequestData();
 			String requestString;
 			String contentType = requestProperties.get("Content-Type").toString();
-			if (contentType.contains("application/octet-stream") || contentType.contains("multipart/encrypted")) {
+			if (contentType.contains("application/octet-stream") || contentType.contains("multipart/encrypted") || isGzipRequestContentEncoding()) {
 				requestString = "Base64 encoded binary request: " + Base64.encodeToString(requestData, Base64.NO_WRAP);
 			} else {
 				requestString = new String(requestData);
@@ -515,6 +763,17 @@ public class HttpRequest {
 
 	//region Getters/Setters
 
+	public HttpRequestPriority getPriority() {
+		return priority;
+	}
+
+	public void setPriority(HttpRequestPriority priority) {
+		if (priority == null) {
+			throw new IllegalArgumentException("Priority is null");
+		}
+		this.priority = priority;
+	}
+
 	public void setRequestManager(HttpRequestManager requestManager) {
 		this.requestManager = requestManager;
 	}
@@ -527,16 +786,40 @@ public class HttpRequest {
 		this.method = method;
 	}
 
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
 	public void setConnectTimeout(int connectTimeout) {
 		this.connectTimeout = connectTimeout;
 	}
 
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+
 	public void setReadTimeout(int readTimeout) {
 		this.readTimeout = readTimeout;
 	}
 
+	/**
+	 * Enables gzip compression (<code>Content-Encoding: gzip</code>) for json request bodies of at
+	 * least <code>threshold</code> bytes. Pass a negative value to disable compression (default).
+	 */
+	public void setRequestCompressionThreshold(int threshold) {
+		this.requestCompressionThreshold = threshold;
+	}
+
 	public boolean isSuccessful() {
-		return responseCode >= 200 && responseCode < 300;
+		return responseCode >= 200 && responseCode < 300 || isNotModified();
+	}
+
+	/**
+	 * Returns <code>true</code> if a conditional request was answered with '304 Not Modified' (no
+	 * content)
+	 */
+	public boolean isNotModified() {
+		return responseCode == HttpURLConnection.HTTP_NOT_MODIFIED;
 	}
 
 	public boolean isFailed() {
@@ -555,6 +838,41 @@ public class HttpRequest {
 		return name;
 	}
 
+	/**
+	 * Marks request as coalescible: if an identical coalescible GET-request (same URL) is already
+	 * running, this request would get its response instead of opening a new connection. Should be
+	 * set before the request is started.
+	 */
+	public void setCoalescible(boolean coalescible) {
+		this.coalescible = coalescible;
+	}
+
+	public boolean isCoalescible() {
+		return coalescible;
+	}
+
+	/**
+	 * Returns the key for coalescing identical requests or <code>null</code> if the request can't be
+	 * coalesced (streamed responses can only be read once). Request properties are part of the key:
+	 * requests with a different auth token or conditional headers (<code>If-None-Match</code>,
+	 * <code>If-Modified-Since</code>) might get a different response.
+	 */
+	String getCoalescingKey() {
+		if (coalescible && HttpRequestMethod.GET.equals(method) && !isResponseStreamed()) {
+			StringBuilder key = new StringBuilder();
+			key.append(method).append(' ').append(urlString);
+			if (requestProperties != null) {
+				Map<String, Object> properties = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+				properties.putAll(requestProperties);
+				for (Entry<String, Object> property : properties.entrySet()) {
+					key.append('\n').append(property.getKey().toLowerCase(Locale.US)).append(": ").append(property.getValue());
+				}
+			}
+			return key.toString();
+		}
+		return null;
+	}
+
 	public String getTag() {
 		return tag;
 	}
@@ -587,10 +905,40 @@ public class HttpRequest {
 		return responseCode;
 	}
 
+	/**
+	 * Returns the timing breakdown of the last attempt or <code>null</code> if the request was not
+	 * sent yet
+	 */
+	public HttpRequestTimings getTimings() {
+		return timings;
+	}
+
 	public boolean isAuthenticationFailure() {
 		return responseCode == 401;
 	}
 
+	/**
+	 * Returns the value of a response header (case insensitive) or <code>null</code> if missing
+	 */
+	public String getResponseHeader(String name) {
+		if (responseHeaders != null && name != null) {
+			for (Entry<String, String> entry : responseHeaders.entrySet()) {
+				if (name.equalsIgnoreCase(entry.getKey())) {
+					return stripHeaderListBrackets(entry.getValue());
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the delay requested by the server's <code>Retry-After</code> header in millis or -1
+	 * if not specified
+	 */
+	public long getRetryAfterMillis() {
+		return parseRetryAfterMillis(getResponseHeader("Retry-After"), System.currentTimeMillis());
+	}
+
 	public Apptentive.AuthenticationFailedReason getAuthenticationFailedReason() {
 		if (responseData != null) {
 			try {
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.network;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * Http-request body of a known length which can be streamed to the connection without loading it
+ * into memory.
+ */
+public abstract class HttpRequestBody {
+
+	/**
+	 * Returns the number of bytes written by {@link #writeTo(OutputStream, byte[])}
+	 */
+	public abstract long getLength();
+
+	/**
+	 * Writes the body to the output stream using a buffer provided by the caller
+	 */
+	public abstract void writeTo(OutputStream out, byte[] buffer) throws IOException;
+
+	/**
+	 * Loads the whole body into memory (only use for small bodies or debugging)
+	 */
+	public byte[] toByteArray() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream((int) getLength());
+		writeTo(out, new byte[1024]);
+		return out.toByteArray();
+	}
+
+	//region Factory
+
+	public static HttpRequestBody create(byte[] data) {
+		if (data == null) {
+			throw new IllegalArgumentException("Data is null");
+		}
+		return new ByteArrayBody(data);
+	}
+
+	/**
+	 * Creates a body from a region of the file
+	 */
+	public static HttpRequestBody create(File file, long offset, long length) {
+		if (file == null) {
+			throw new IllegalArgumentException("File is null");
+		}
+		if (offset < 0 || length < 0) {
+			throw new IllegalArgumentException("Illegal file region: offset=" + offset + " length=" + length);
+		}
+		return new FileBody(file, offset, length);
+	}
+
+	//endregion
+
+	//region Implementations
+
+	private static class ByteArrayBody extends HttpRequestBody {
+		private final byte[] data;
+
+		ByteArrayBody(byte[] data) {
+			this.data = data;
+		}
+
+		@Override
+		public long getLength() {
+			return data.length;
+		}
+
+		@Override
+		public void writeTo(OutputStream out, byte[] buffer) throws IOException {
+			out.write(data);
+		}
+
+		@Override
+		public byte[] toByteArray() {
+			return data;
+		}
+	}
+
+	private static class FileBody extends HttpRequestBody {
+		private final File file;
+		private final long offset;
+		private final long length;
+
+		FileBody(File file, long offset, long length) {
+			this.file = file;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		@Override
+		public long getLength() {
+			return length;
+		}
+
+		@Override
+		public void writeTo(OutputStream out, byte[] buffer) throws IOException {
+			RandomAccessFile input = new RandomAccessFile(file, "r");
+			try {
+				input.seek(offset);
+				long remaining = length;
+				while (remaining > 0) {
+					int read = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+					if (read == -1) {
+						throw new EOFException("Unexpected end of file: " + file);
+					}
+					out.write(buffer, 0, read);
+					remaining -= read;
+				}
+			} finally {
+				input.close();
+			}
+		}
+	}
+
+	//endregion
+}
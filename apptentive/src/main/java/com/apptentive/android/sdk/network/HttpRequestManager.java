@@ -1,36 +1,105 @@
 package com.apptentive.android.sdk.network;
 
-import com.apptentive.android.sdk.util.StringUtils;
+import com.apptentive.android.sdk.ApptentiveLog;
 import com.apptentive.android.sdk.util.threading.DispatchQueue;
-import com.apptentive.android.sdk.util.threading.DispatchQueueType;
 import com.apptentive.android.sdk.util.threading.DispatchTask;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import static com.apptentive.android.sdk.ApptentiveLogTag.NETWORK;
 import static com.apptentive.android.sdk.debug.Assert.*;
 
 /**
  * Class for asynchronous HTTP requests handling.
  */
 public class HttpRequestManager {
+	/**
+	 * Default max number of requests in flight for each priority class. The default network queue
+	 * has a thread for every slot, so a high priority request never waits for a thread. Payload
+	 * requests are low priority: the low priority class matches the default payload sender window.
+	 */
+	private static final int DEFAULT_MAX_HIGH_PRIORITY_REQUESTS = 2;
+	private static final int DEFAULT_MAX_NORMAL_PRIORITY_REQUESTS = 2;
+	private static final int DEFAULT_MAX_LOW_PRIORITY_REQUESTS = 4;
+
 	/**
 	 * List of active requests (started but not yet finished)
 	 */
 	private List<HttpRequest> activeRequests;
 
+	/**
+	 * Index of active requests by tag (for a constant time lookup)
+	 */
+	private final Map<String, List<HttpRequest>> requestsByTag;
+
+	/**
+	 * Running coalescible requests by the coalescing key
+	 */
+	private final Map<String, HttpRequest> coalescibleRequests;
+
+	/**
+	 * Requests waiting for the response of a running coalescible request
+	 */
+	private final Map<HttpRequest, List<HttpRequest>> coalescedRequests;
+
+	/**
+	 * List of requests waiting for the network connection (started but not yet dispatched)
+	 */
+	private final List<HttpRequest> pendingRequests;
+
+	/**
+	 * List of requests waiting for a free in-flight slot of their priority class (in the priority
+	 * order)
+	 */
+	private final List<HttpRequest> queuedRequests;
+
+	/**
+	 * Max number of requests in flight for each priority class (indexed by the ordinal)
+	 */
+	private final int[] maxInFlightRequests;
+
+	/**
+	 * Number of requests in flight for each priority class (indexed by the ordinal)
+	 */
+	private final int[] inFlightRequests;
+
 	/**
 	 * Dispatch queue for blocking network operations
 	 */
 	private final DispatchQueue networkQueue;
 
+	/**
+	 * Source of the network connection state
+	 */
+	private final ConnectivitySource connectivitySource;
+
+	private final ConnectivitySource.Listener connectivityListener = new ConnectivitySource.Listener() {
+		@Override
+		public void onConnectivityChange(ConnectivitySource source, boolean connected) {
+			if (connected) {
+				releasePendingRequests();
+			}
+		}
+	};
+
+	/**
+	 * Aggregated timings of all the request attempts
+	 */
+	private final HttpRequestStatistics statistics = new HttpRequestStatistics();
+
 	private Listener listener;
 
 	/**
-	 * Creates a request manager with a default concurrent "network" queue.
+	 * Creates a request manager with a default concurrent "network" queue (one thread per in-flight
+	 * slot).
 	 */
 	public HttpRequestManager() {
-		this(DispatchQueue.createBackgroundQueue("Apptentive Network Queue", DispatchQueueType.Concurrent));
+		this(DispatchQueue.createBackgroundQueue("Apptentive Network Queue", DEFAULT_MAX_HIGH_PRIORITY_REQUESTS + DEFAULT_MAX_NORMAL_PRIORITY_REQUESTS + DEFAULT_MAX_LOW_PRIORITY_REQUESTS));
 	}
 
 	/**
@@ -40,11 +109,36 @@ public class HttpRequestManager {
 	 * @throws IllegalArgumentException if queue is null
 	 */
 	public HttpRequestManager(DispatchQueue networkQueue) {
+		this(networkQueue, new DefaultConnectivitySource());
+	}
+
+	/**
+	 * Creates a request manager with custom network dispatch queue and connectivity source
+	 *
+	 * @param networkQueue       - dispatch queue for blocking network operations
+	 * @param connectivitySource - source of the network connection state
+	 * @throws IllegalArgumentException if queue or connectivity source is null
+	 */
+	public HttpRequestManager(DispatchQueue networkQueue, ConnectivitySource connectivitySource) {
 		if (networkQueue == null) {
 			throw new IllegalArgumentException("Network queue is null");
 		}
+		if (connectivitySource == null) {
+			throw new IllegalArgumentException("Connectivity source is null");
+		}
 		this.networkQueue = networkQueue;
+		this.connectivitySource = connectivitySource;
 		this.activeRequests = new ArrayList<>();
+		this.requestsByTag = new HashMap<>();
+		this.coalescibleRequests = new HashMap<>();
+		this.coalescedRequests = new HashMap<>();
+		this.pendingRequests = new ArrayList<>();
+		this.queuedRequests = new ArrayList<>();
+		this.inFlightRequests = new int[HttpRequestPriority.values().length];
+		this.maxInFlightRequests = new int[HttpRequestPriority.values().length];
+		this.maxInFlightRequests[HttpRequestPriority.HIGH.ordinal()] = DEFAULT_MAX_HIGH_PRIORITY_REQUESTS;
+		this.maxInFlightRequests[HttpRequestPriority.NORMAL.ordinal()] = DEFAULT_MAX_NORMAL_PRIORITY_REQUESTS;
+		this.maxInFlightRequests[HttpRequestPriority.LOW.ordinal()] = DEFAULT_MAX_LOW_PRIORITY_REQUESTS;
 	}
 
 	//region Requests
@@ -58,22 +152,31 @@ public class HttpRequestManager {
 		}
 
 		registerRequest(request);
-		dispatchRequest(request);
+		if (!coalesceRequest(request)) {
+			dispatchRequest(request);
+		}
 		notifyRequestStarted(request);
 
 		return request;
 	}
 
 	/**
-	 * Handles request synchronously
+	 * Handles request synchronously (or holds it until the network connection is available or an
+	 * in-flight slot of its priority class is free)
 	 */
-	void dispatchRequest(final HttpRequest request) {
-		networkQueue.dispatchAsync(new DispatchTask() {
-			@Override
-			protected void execute() {
-				request.dispatchSync(networkQueue);
-			}
-		});
+	synchronized void dispatchRequest(final HttpRequest request) {
+		if (!request.isCancelled() && !connectivitySource.isNetworkConnectionPresent()) {
+			holdRequest(request);
+			return;
+		}
+
+		// cancelled requests don't wait for a slot: they should finish as soon as possible
+		if (!request.isCancelled() && !canDispatchRequest(request.getPriority())) {
+			queueRequest(request);
+			return;
+		}
+
+		dispatchInFlightRequest(request);
 	}
 
 	/**
@@ -95,6 +198,16 @@ public class HttpRequestManager {
 	synchronized void registerRequest(HttpRequest request) {
 		assertTrue(this == request.requestManager);
 		activeRequests.add(request);
+
+		String tag = request.getTag();
+		if (tag != null) {
+			List<HttpRequest> requests = requestsByTag.get(tag);
+			if (requests == null) {
+				requests = new ArrayList<>(1);
+				requestsByTag.put(tag, requests);
+			}
+			requests.add(request);
+		}
 	}
 
 	/**
@@ -106,20 +219,233 @@ public class HttpRequestManager {
 		assertTrue(removed, "Attempted to unregister missing request: %s", request);
 
 		if (removed) {
+			String tag = request.getTag();
+			if (tag != null) {
+				List<HttpRequest> requests = requestsByTag.get(tag);
+				if (requests != null && requests.remove(request) && requests.isEmpty()) {
+					requestsByTag.remove(tag);
+				}
+			}
+
+			finishCoalescedRequests(request);
 			notifyRequestFinished(request);
 		}
 	}
 
 	/**
-	 * Returns a request with a specified tag or <code>null</code> is not found
+	 * Returns a request with a specified tag or <code>null</code> is not found (the tag should not
+	 * change once the request is started)
 	 */
 	public synchronized HttpRequest findRequest(String tag) {
-		for (HttpRequest request : activeRequests) {
-			if (StringUtils.equal(request.getTag(), tag)) {
-				return request;
+		List<HttpRequest> requests = requestsByTag.get(tag);
+		return requests != null ? requests.get(0) : null;
+	}
+
+	/**
+	 * Records timings of a finished request attempt (called on the network queue)
+	 */
+	void recordRequestTimings(HttpRequest request, HttpRequestTimings timings) {
+		statistics.record(timings);
+		notifyRequestTimings(request, timings);
+	}
+
+	//endregion
+
+	//region Connectivity
+
+	/**
+	 * Holds the request until the network connection is available (the request doesn't fail and
+	 * doesn't consume any retry attempts)
+	 */
+	synchronized void holdRequest(HttpRequest request) {
+		ApptentiveLog.d(NETWORK, "No network connection present. Holding request: %s", request);
+		pendingRequests.add(request);
+		if (pendingRequests.size() == 1) {
+			connectivitySource.startMonitoring(connectivityListener);
+		}
+
+		// the connection might have been restored before we started monitoring
+		if (connectivitySource.isNetworkConnectionPresent()) {
+			releasePendingRequests();
+		}
+	}
+
+	/**
+	 * Dispatches all the held requests in the priority order
+	 */
+	synchronized void releasePendingRequests() {
+		if (pendingRequests.isEmpty()) {
+			return;
+		}
+
+		List<HttpRequest> requests = new ArrayList<>(pendingRequests);
+		pendingRequests.clear();
+		connectivitySource.stopMonitoring();
+
+		ApptentiveLog.d(NETWORK, "Network connection is available. Releasing %d request(s)", requests.size());
+		Collections.sort(requests, PRIORITY_COMPARATOR); // the sort is stable: same priority requests keep their order
+		for (HttpRequest request : requests) {
+			dispatchRequest(request);
+		}
+	}
+
+	/**
+	 * Dispatches a held (queued or coalesced) request once it's cancelled (so it would finish)
+	 */
+	synchronized void releaseCancelledRequest(HttpRequest request) {
+		if (pendingRequests.remove(request)) {
+			if (pendingRequests.isEmpty()) {
+				connectivitySource.stopMonitoring();
+			}
+			dispatchRequest(request);
+		} else if (queuedRequests.remove(request)) {
+			dispatchRequest(request);
+		} else {
+			releaseCancelledCoalescedRequest(request);
+		}
+	}
+
+	private static final Comparator<HttpRequest> PRIORITY_COMPARATOR = new Comparator<HttpRequest>() {
+		@Override
+		public int compare(HttpRequest lhs, HttpRequest rhs) {
+			return lhs.getPriority().compareTo(rhs.getPriority());
+		}
+	};
+
+	//endregion
+
+	//region Coalescing
+
+	/**
+	 * Attaches a coalescible request to an identical running request
+	 *
+	 * @return <code>true</code> if the request would get the response of the running request
+	 */
+	private boolean coalesceRequest(HttpRequest request) {
+		String key = request.getCoalescingKey();
+		if (key == null) {
+			return false;
+		}
+
+		HttpRequest runningRequest = coalescibleRequests.get(key);
+		if (runningRequest == null || runningRequest.isCancelled()) {
+			coalescibleRequests.put(key, request);
+			return false;
+		}
+
+		ApptentiveLog.v(NETWORK, "Coalescing request %s with running request %s", request, runningRequest);
+		List<HttpRequest> requests = coalescedRequests.get(runningRequest);
+		if (requests == null) {
+			requests = new ArrayList<>(1);
+			coalescedRequests.put(runningRequest, requests);
+		}
+		requests.add(request);
+		return true;
+	}
+
+	/**
+	 * Passes the response of a finished request to the requests coalesced with it
+	 */
+	private void finishCoalescedRequests(HttpRequest runningRequest) {
+		String key = runningRequest.getCoalescingKey();
+		if (key != null && coalescibleRequests.get(key) == runningRequest) {
+			coalescibleRequests.remove(key);
+		}
+
+		List<HttpRequest> requests = coalescedRequests.remove(runningRequest);
+		if (requests == null) {
+			return;
+		}
+
+		for (HttpRequest request : requests) {
+			if (runningRequest.isCancelled() && !request.isCancelled()) {
+				// the running request was cancelled by its owner: send this one on its own
+				if (!coalesceRequest(request)) {
+					dispatchRequest(request);
+				}
+			} else {
+				request.finishCoalescedRequest(runningRequest);
+			}
+		}
+	}
+
+	/**
+	 * Finishes a coalesced request once it's cancelled (doesn't affect the running request)
+	 *
+	 * @return <code>true</code> if the request was waiting for a running request
+	 */
+	private boolean releaseCancelledCoalescedRequest(HttpRequest request) {
+		for (List<HttpRequest> requests : coalescedRequests.values()) {
+			if (requests.remove(request)) {
+				dispatchRequest(request);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	//endregion
+
+	//region Concurrency
+
+	/**
+	 * Sends the request on the network queue and occupies an in-flight slot until the attempt is
+	 * finished
+	 */
+	private void dispatchInFlightRequest(final HttpRequest request) {
+		final HttpRequestPriority priority = request.getPriority();
+		++inFlightRequests[priority.ordinal()];
+
+		networkQueue.dispatchAsync(new DispatchTask() {
+			@Override
+			protected void execute() {
+				try {
+					request.dispatchSync(networkQueue);
+				} finally {
+					releaseInFlightSlot(priority);
+				}
+			}
+		});
+	}
+
+	private boolean canDispatchRequest(HttpRequestPriority priority) {
+		return inFlightRequests[priority.ordinal()] < maxInFlightRequests[priority.ordinal()];
+	}
+
+	/**
+	 * Adds request to the queue after the requests of the same or higher priority
+	 */
+	private void queueRequest(HttpRequest request) {
+		ApptentiveLog.v(NETWORK, "Max %s priority requests in flight. Queueing request: %s", request.getPriority(), request);
+
+		int index = queuedRequests.size();
+		while (index > 0 && PRIORITY_COMPARATOR.compare(queuedRequests.get(index - 1), request) > 0) {
+			--index;
+		}
+		queuedRequests.add(index, request);
+	}
+
+	private synchronized void releaseInFlightSlot(HttpRequestPriority priority) {
+		--inFlightRequests[priority.ordinal()];
+		assertTrue(inFlightRequests[priority.ordinal()] >= 0, "Unbalanced in-flight requests: %s", priority);
+		dispatchQueuedRequests();
+	}
+
+	/**
+	 * Dispatches queued requests which have a free slot (in the priority order)
+	 */
+	private void dispatchQueuedRequests() {
+		if (queuedRequests.isEmpty()) {
+			return;
+		}
+
+		// iterate over a copy: dispatching might hold or queue requests
+		List<HttpRequest> requests = new ArrayList<>(queuedRequests);
+		for (HttpRequest request : requests) {
+			if (canDispatchRequest(request.getPriority()) && queuedRequests.remove(request)) {
+				dispatchRequest(request);
 			}
 		}
-		return null;
 	}
 
 	//endregion
@@ -138,6 +464,12 @@ public class HttpRequestManager {
 		}
 	}
 
+	private void notifyRequestTimings(final HttpRequest request, final HttpRequestTimings timings) {
+		if (listener != null) {
+			listener.onRequestTimings(HttpRequestManager.this, request, timings);
+		}
+	}
+
 	private void notifyCancelledAllRequests() {
 		if (listener != null) {
 			listener.onRequestsCancel(HttpRequestManager.this);
@@ -148,6 +480,63 @@ public class HttpRequestManager {
 
 	//region Getters/Setters
 
+	/**
+	 * Returns the number of requests waiting for the network connection
+	 */
+	public synchronized int getPendingRequestCount() {
+		return pendingRequests.size();
+	}
+
+	/**
+	 * Returns the number of requests waiting for a free in-flight slot
+	 */
+	public synchronized int getQueuedRequestCount() {
+		return queuedRequests.size();
+	}
+
+	/**
+	 * Returns the number of requests in flight for a given priority class
+	 */
+	public synchronized int getInFlightRequestCount(HttpRequestPriority priority) {
+		if (priority == null) {
+			throw new IllegalArgumentException("Priority is null");
+		}
+		return inFlightRequests[priority.ordinal()];
+	}
+
+	public synchronized int getMaxInFlightRequests(HttpRequestPriority priority) {
+		if (priority == null) {
+			throw new IllegalArgumentException("Priority is null");
+		}
+		return maxInFlightRequests[priority.ordinal()];
+	}
+
+	/**
+	 * Sets the max number of requests in flight for a given priority class. Keep the network queue
+	 * large enough for all the classes (otherwise requests would wait for a thread).
+	 */
+	public synchronized void setMaxInFlightRequests(HttpRequestPriority priority, int maxRequests) {
+		if (priority == null) {
+			throw new IllegalArgumentException("Priority is null");
+		}
+		if (maxRequests < 1) {
+			throw new IllegalArgumentException("Illegal max in-flight requests: " + maxRequests);
+		}
+		maxInFlightRequests[priority.ordinal()] = maxRequests;
+		dispatchQueuedRequests();
+	}
+
+	public ConnectivitySource getConnectivitySource() {
+		return connectivitySource;
+	}
+
+	/**
+	 * Returns histograms of request timings (can be queried from any thread)
+	 */
+	public HttpRequestStatistics getStatistics() {
+		return statistics;
+	}
+
 	public Listener getListener() {
 		return listener;
 	}
@@ -166,6 +555,12 @@ public class HttpRequestManager {
 		void onRequestFinish(HttpRequestManager manager, HttpRequest request);
 
 		void onRequestsCancel(HttpRequestManager manager);
+
+		/**
+		 * Called on the network queue after every request attempt (including the ones which are
+		 * retried)
+		 */
+		void onRequestTimings(HttpRequestManager manager, HttpRequest request, HttpRequestTimings timings);
 	}
 
 	//endregion
@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.network;
+
+/**
+ * Priority of an HTTP-request (requests with a higher priority are dispatched first)
+ */
+public enum HttpRequestPriority {
+	/**
+	 * User-facing requests (login, conversation token fetch)
+	 */
+	HIGH,
+
+	/**
+	 * Default priority
+	 */
+	NORMAL,
+
+	/**
+	 * Background traffic (payloads, attachments)
+	 */
+	LOW
+}
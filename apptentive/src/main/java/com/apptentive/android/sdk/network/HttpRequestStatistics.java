@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.network;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+
+/**
+ * Aggregates request timings into fixed-bucket histograms (one per phase). The class is thread
+ * safe: timings are recorded on network threads while histograms can be queried from any thread.
+ */
+public class HttpRequestStatistics {
+	/**
+	 * Bucket upper bounds for durations (milliseconds)
+	 */
+	private static final long[] DURATION_BOUNDS = {
+		10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000
+	};
+
+	/**
+	 * Bucket upper bounds for sizes (bytes)
+	 */
+	private static final long[] SIZE_BOUNDS = {
+		256, 1024, 4 * 1024, 16 * 1024, 64 * 1024, 256 * 1024, 1024 * 1024
+	};
+
+	public enum Metric {
+		CONNECT(DURATION_BOUNDS),
+		WRITE(DURATION_BOUNDS),
+		FIRST_BYTE(DURATION_BOUNDS),
+		READ(DURATION_BOUNDS),
+		TOTAL(DURATION_BOUNDS),
+		BYTES_SENT(SIZE_BOUNDS),
+		BYTES_RECEIVED(SIZE_BOUNDS);
+
+		private final long[] bounds;
+
+		Metric(long[] bounds) {
+			this.bounds = bounds;
+		}
+	}
+
+	private final Histogram[] histograms;
+
+	public HttpRequestStatistics() {
+		Metric[] metrics = Metric.values();
+		histograms = new Histogram[metrics.length];
+		for (int i = 0; i < metrics.length; ++i) {
+			histograms[i] = new Histogram(metrics[i].bounds);
+		}
+	}
+
+	/**
+	 * Records a single request attempt (phases which were not reached are skipped)
+	 */
+	void record(HttpRequestTimings timings) {
+		if (timings == null) {
+			throw new IllegalArgumentException("Timings are null");
+		}
+
+		record(Metric.CONNECT, timings.getConnectMillis());
+		record(Metric.WRITE, timings.getWriteMillis());
+		record(Metric.FIRST_BYTE, timings.getFirstByteMillis());
+		record(Metric.READ, timings.getReadMillis());
+		record(Metric.TOTAL, timings.getTotalMillis());
+		if (timings.getFirstByteMillis() != -1) {
+			record(Metric.BYTES_SENT, timings.getBytesSent());
+			record(Metric.BYTES_RECEIVED, timings.getBytesReceived());
+		}
+	}
+
+	private void record(Metric metric, long value) {
+		if (value >= 0) {
+			getHistogram(metric).add(value);
+		}
+	}
+
+	/**
+	 * Resets all the histograms
+	 */
+	public void reset() {
+		for (Histogram histogram : histograms) {
+			histogram.reset();
+		}
+	}
+
+	public Histogram getHistogram(Metric metric) {
+		if (metric == null) {
+			throw new IllegalArgumentException("Metric is null");
+		}
+		return histograms[metric.ordinal()];
+	}
+
+	//region Export
+
+	/**
+	 * Exports all the histograms:
+	 * <pre>
+	 * {"total":{"count":3,"sum":420,"bounds":[10,25,...],"buckets":[0,1,...]},...}
+	 * </pre>
+	 * The last bucket counts values above the last bound.
+	 */
+	public JSONObject toJson() throws JSONException {
+		JSONObject json = new JSONObject();
+		for (Metric metric : Metric.values()) {
+			json.put(metric.name().toLowerCase(), getHistogram(metric).toJson());
+		}
+		return json;
+	}
+
+	//endregion
+
+	//region Histogram
+
+	public static class Histogram {
+		private final long[] bounds;
+		private final long[] buckets;
+		private long count;
+		private long sum;
+		private long max;
+
+		Histogram(long[] bounds) {
+			this.bounds = bounds;
+			this.buckets = new long[bounds.length + 1]; // the last bucket is for values above the last bound
+		}
+
+		synchronized void add(long value) {
+			int index = Arrays.binarySearch(bounds, value);
+			if (index < 0) {
+				index = -index - 1; // insertion point: the first bound greater than the value
+			}
+			++buckets[index];
+			++count;
+			sum += value;
+			max = Math.max(max, value);
+		}
+
+		synchronized void reset() {
+			Arrays.fill(buckets, 0);
+			count = 0;
+			sum = 0;
+			max = 0;
+		}
+
+		/**
+		 * Returns an upper bound estimate for a given percentile (0..100) or -1 if the histogram is
+		 * empty. Values above the last bound are estimated with the max recorded value.
+		 */
+		public synchronized long getPercentile(double percentile) {
+			if (percentile < 0 || percentile > 100) {
+				throw new IllegalArgumentException("Illegal percentile: " + percentile);
+			}
+			if (count == 0) {
+				return -1;
+			}
+
+			long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+			long total = 0;
+			for (int i = 0; i < bounds.length; ++i) {
+				total += buckets[i];
+				if (total >= rank) {
+					return Math.min(bounds[i], max);
+				}
+			}
+			return max;
+		}
+
+		public synchronized long getCount() {
+			return count;
+		}
+
+		public synchronized long getSum() {
+			return sum;
+		}
+
+		public synchronized long getMax() {
+			return max;
+		}
+
+		public long[] getBounds() {
+			return bounds.clone();
+		}
+
+		/**
+		 * Returns a copy of bucket counts (the last bucket counts values above the last bound)
+		 */
+		public synchronized long[] getBuckets() {
+			return buckets.clone();
+		}
+
+		synchronized JSONObject toJson() throws JSONException {
+			JSONObject json = new JSONObject();
+			json.put("count", count);
+			json.put("sum", sum);
+			json.put("max", max);
+			JSONArray boundsJson = new JSONArray();
+			for (long bound : bounds) {
+				boundsJson.put(bound);
+			}
+			json.put("bounds", boundsJson);
+			JSONArray bucketsJson = new JSONArray();
+			for (long bucket : buckets) {
+				bucketsJson.put(bucket);
+			}
+			json.put("buckets", bucketsJson);
+			return json;
+		}
+	}
+
+	//endregion
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.network;
+
+import com.apptentive.android.sdk.util.StringUtils;
+
+/**
+ * Timing breakdown of a single request attempt. Durations are in milliseconds (-1 if the phase was
+ * not reached, i.e. the connection failed).
+ */
+public class HttpRequestTimings {
+	private long connectMillis = -1;
+	private long writeMillis = -1;
+	private long firstByteMillis = -1;
+	private long readMillis = -1;
+	private long totalMillis = -1;
+	private long bytesSent;
+	private long bytesReceived;
+
+	//region String representation
+
+	@Override
+	public String toString() {
+		return StringUtils.format("connect=%d write=%d ttfb=%d read=%d total=%d sent=%d received=%d",
+			connectMillis, writeMillis, firstByteMillis, readMillis, totalMillis, bytesSent, bytesReceived);
+	}
+
+	//endregion
+
+	//region Getters/Setters
+
+	/**
+	 * Time to open the connection
+	 */
+	public long getConnectMillis() {
+		return connectMillis;
+	}
+
+	void setConnectMillis(long connectMillis) {
+		this.connectMillis = connectMillis;
+	}
+
+	/**
+	 * Time to write the request body (0 for requests without a body)
+	 */
+	public long getWriteMillis() {
+		return writeMillis;
+	}
+
+	void setWriteMillis(long writeMillis) {
+		this.writeMillis = writeMillis;
+	}
+
+	/**
+	 * Time from the request being sent till the response status line (time-to-first-byte)
+	 */
+	public long getFirstByteMillis() {
+		return firstByteMillis;
+	}
+
+	void setFirstByteMillis(long firstByteMillis) {
+		this.firstByteMillis = firstByteMillis;
+	}
+
+	/**
+	 * Time to read (and handle) the response body
+	 */
+	public long getReadMillis() {
+		return readMillis;
+	}
+
+	void setReadMillis(long readMillis) {
+		this.readMillis = readMillis;
+	}
+
+	/**
+	 * Total time of the attempt
+	 */
+	public long getTotalMillis() {
+		return totalMillis;
+	}
+
+	void setTotalMillis(long totalMillis) {
+		this.totalMillis = totalMillis;
+	}
+
+	/**
+	 * Number of request body bytes sent (as written on the wire: after compression)
+	 */
+	public long getBytesSent() {
+		return bytesSent;
+	}
+
+	void setBytesSent(long bytesSent) {
+		this.bytesSent = bytesSent;
+	}
+
+	/**
+	 * Number of response body bytes received (as read from the wire: before decompression)
+	 */
+	public long getBytesReceived() {
+		return bytesReceived;
+	}
+
+	void setBytesReceived(long bytesReceived) {
+		this.bytesReceived = bytesReceived;
+	}
+
+	//endregion
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Class representing HTTP request which passes a successful response stream to a handler instead
+ * of loading it into memory (error responses are still available as response data)
+ */
+public class HttpStreamRequest extends HttpRequest {
+	private final StreamHandler streamHandler;
+
+	public HttpStreamRequest(String urlString, StreamHandler streamHandler) {
+		super(urlString);
+
+		if (streamHandler == null) {
+			throw new IllegalArgumentException("Stream handler is null");
+		}
+		this.streamHandler = streamHandler;
+	}
+
+	@Override
+	protected boolean isResponseStreamed() {
+		return true;
+	}
+
+	@Override
+	protected void handleResponseStream(InputStream stream) throws IOException {
+		streamHandler.handleResponse(this, stream);
+	}
+
+	public interface StreamHandler {
+		/**
+		 * Called on the network queue with the response stream (already decompressed)
+		 */
+		void handleResponse(HttpStreamRequest request, InputStream stream) throws IOException;
+	}
+}
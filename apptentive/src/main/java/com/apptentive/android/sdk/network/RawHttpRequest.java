@@ -10,7 +10,7 @@ import java.io.IOException;
 
 public class RawHttpRequest extends HttpRequest {
 
-	private final byte[] data;
+	private final HttpRequestBody body;
 
 	public RawHttpRequest(String urlString, byte[] data) {
 		super(urlString);
@@ -18,11 +18,25 @@ public class RawHttpRequest extends HttpRequest {
 		if (data == null) {
 			throw new IllegalArgumentException("data is null");
 		}
-		this.data = data;
+		this.body = HttpRequestBody.create(data);
+	}
+
+	public RawHttpRequest(String urlString, HttpRequestBody body) {
+		super(urlString);
+
+		if (body == null) {
+			throw new IllegalArgumentException("body is null");
+		}
+		this.body = body;
 	}
 
 	@Override
 	protected byte[] createRequestData() throws IOException {
-		return data;
+		return body.toByteArray();
+	}
+
+	@Override
+	protected HttpRequestBody createRequestBody() throws IOException {
+		return body;
 	}
 }
@@ -9,9 +9,11 @@ package com.apptentive.android.sdk.storage;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.text.TextUtils;
 
 import com.apptentive.android.sdk.ApptentiveInternal;
@@ -25,6 +27,7 @@ import com.apptentive.android.sdk.model.PayloadType;
 import com.apptentive.android.sdk.model.StoredFile;
 import com.apptentive.android.sdk.module.messagecenter.MessageManager;
 import com.apptentive.android.sdk.module.messagecenter.model.MessageFactory;
+import com.apptentive.android.sdk.network.HttpRequestBody;
 import com.apptentive.android.sdk.network.HttpRequestMethod;
 import com.apptentive.android.sdk.storage.legacy.LegacyPayloadFactory;
 import com.apptentive.android.sdk.util.Constants;
@@ -37,8 +40,13 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import static com.apptentive.android.sdk.ApptentiveLogTag.DATABASE;
@@ -53,7 +61,7 @@ import static com.apptentive.android.sdk.util.Constants.PAYLOAD_DATA_FILE_SUFFIX
  */
 public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 
-	private static final int DATABASE_VERSION = 3;
+	private static final int DATABASE_VERSION = 7;
 	public static final String DATABASE_NAME = "apptentive";
 	private static final int TRUE = 1;
 	private static final int FALSE = 0;
@@ -61,6 +69,115 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 
 	private final File payloadDataDir;
 
+	/**
+	 * Max size of a payload body segment file
+	 */
+	private static final long PAYLOAD_SEGMENT_MAX_SIZE = 512 * 1024;
+
+	/**
+	 * Append-only storage for payload bodies
+	 */
+	private final PayloadBodyLog payloadBodyLog;
+
+	/**
+	 * Max number of payload rows fetched into the read-ahead window at once
+	 */
+	private static final int PAYLOAD_READ_AHEAD_SIZE = 50;
+
+	/**
+	 * Read-ahead window: metadata of the oldest unsent payloads in the send order (bodies are loaded
+	 * lazily right before sending). The window is only accessed from the payload task thread.
+	 */
+	private final List<PayloadMetadata> readAheadPayloads = new ArrayList<>();
+
+	/**
+	 * Priority lane of the last payload row fetched into the read-ahead window
+	 */
+	private int readAheadLastPriority = -1;
+
+	/**
+	 * Primary key of the last payload row fetched into the read-ahead window
+	 */
+	private long readAheadLastId;
+
+	/**
+	 * Indicates if there are no more payload rows past <code>readAheadLastPriority</code> and
+	 * <code>readAheadLastId</code>
+	 */
+	private boolean readAheadComplete;
+
+	/**
+	 * Oldest queued logout payload by local conversation id (<code>null</code> if not loaded yet)
+	 */
+	private Map<String, PayloadMetadata> logoutBarriers;
+
+	//region Priority lanes
+
+	/**
+	 * Payloads are sent from the highest priority (lowest value) lane first, in FIFO order within a
+	 * lane. Logout goes last so it's never sent before the rest of its conversation payloads. It is
+	 * also a barrier: payloads queued after it for the same conversation wait until it's sent.
+	 */
+	private static final int PAYLOAD_PRIORITY_MESSAGE = 0;
+	private static final int PAYLOAD_PRIORITY_SURVEY = 1;
+	private static final int PAYLOAD_PRIORITY_STATE = 2;
+	private static final int PAYLOAD_PRIORITY_EVENT = 3;
+	private static final int PAYLOAD_PRIORITY_LOGOUT = 4;
+
+	static int getPayloadPriority(PayloadType payloadType) {
+		switch (payloadType) {
+			case message:
+				return PAYLOAD_PRIORITY_MESSAGE;
+			case survey:
+				return PAYLOAD_PRIORITY_SURVEY;
+			case person:
+			case device:
+			case sdk:
+			case app_release:
+			case sdk_and_app_release:
+				return PAYLOAD_PRIORITY_STATE;
+			case event:
+				return PAYLOAD_PRIORITY_EVENT;
+			default:
+				return PAYLOAD_PRIORITY_LOGOUT;
+		}
+	}
+
+	//endregion
+
+	/**
+	 * Min size of a json payload body to be stored gzip compressed (negative value disables the
+	 * compression)
+	 */
+	private volatile int payloadCompressionThreshold = -1;
+
+	/**
+	 * Default max number of payloads in the queue
+	 */
+	private static final int DEFAULT_PAYLOAD_QUEUE_MAX_COUNT = 5000;
+
+	/**
+	 * Default max total size of payload bodies in the queue (see {@link #setPayloadQueueLimits(int, long)})
+	 */
+	private static final long DEFAULT_PAYLOAD_QUEUE_MAX_BYTES = 10 * 1024 * 1024;
+
+	/**
+	 * Payload types which can be evicted when the queue is full (in the eviction order). Messages,
+	 * survey responses and the rest of the payloads are never evicted.
+	 */
+	private static final PayloadType[] EVICTABLE_PAYLOAD_TYPES = {
+		PayloadType.event
+	};
+
+	private volatile int payloadQueueMaxCount = DEFAULT_PAYLOAD_QUEUE_MAX_COUNT;
+	private volatile long payloadQueueMaxBytes = DEFAULT_PAYLOAD_QUEUE_MAX_BYTES;
+
+	/**
+	 * Number of evicted payloads by type
+	 */
+	private final Map<PayloadType, Integer> evictedPayloadCounts = new HashMap<>();
+	private long evictedPayloadBytes;
+
 	//region Payload SQL
 
 	static final class PayloadEntry {
@@ -75,6 +192,14 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 		static final DatabaseColumn COLUMN_PATH = new DatabaseColumn(7, "path");
 		static final DatabaseColumn COLUMN_ENCRYPTED = new DatabaseColumn(8, "encrypted");
 		static final DatabaseColumn COLUMN_LOCAL_CONVERSATION_ID = new DatabaseColumn(9, "localConversationId");
+		static final DatabaseColumn COLUMN_BODY_SEGMENT = new DatabaseColumn(10, "bodySegment");
+		static final DatabaseColumn COLUMN_BODY_OFFSET = new DatabaseColumn(11, "bodyOffset");
+		static final DatabaseColumn COLUMN_BODY_LENGTH = new DatabaseColumn(12, "bodyLength");
+		static final DatabaseColumn COLUMN_CONTENT_ENCODING = new DatabaseColumn(13, "contentEncoding");
+		static final DatabaseColumn COLUMN_PRIORITY = new DatabaseColumn(14, "priority");
+		static final DatabaseColumn COLUMN_SERVER_ERROR_COUNT = new DatabaseColumn(15, "serverErrorCount");
+		static final String INDEX_SEND_ORDER = "payload_send_order";
+		static final String INDEX_BODY_SEGMENT = "payload_body_segment";
 	}
 
 	private static final class LegacyPayloadEntry {
@@ -88,6 +213,41 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 	private static final String DELETE_LEGACY_PAYLOAD_TABLE = String.format("DROP TABLE %s;", LegacyPayloadEntry.TABLE_NAME);
 
 	private static final String TABLE_CREATE_PAYLOAD =
+		"CREATE TABLE " + PayloadEntry.TABLE_NAME +
+			" (" +
+			PayloadEntry.COLUMN_PRIMARY_KEY + " INTEGER PRIMARY KEY, " +
+			PayloadEntry.COLUMN_PAYLOAD_TYPE + " TEXT, " +
+			PayloadEntry.COLUMN_IDENTIFIER + " TEXT, " +
+			PayloadEntry.COLUMN_CONTENT_TYPE + " TEXT," +
+			PayloadEntry.COLUMN_AUTH_TOKEN + " TEXT," +
+			PayloadEntry.COLUMN_CONVERSATION_ID + " TEXT," +
+			PayloadEntry.COLUMN_REQUEST_METHOD + " TEXT," +
+			PayloadEntry.COLUMN_PATH + " TEXT," +
+			PayloadEntry.COLUMN_ENCRYPTED + " INTEGER," +
+			PayloadEntry.COLUMN_LOCAL_CONVERSATION_ID + " TEXT," +
+			PayloadEntry.COLUMN_BODY_SEGMENT + " INTEGER," +
+			PayloadEntry.COLUMN_BODY_OFFSET + " INTEGER," +
+			PayloadEntry.COLUMN_BODY_LENGTH + " INTEGER," +
+			PayloadEntry.COLUMN_CONTENT_ENCODING + " TEXT," +
+			PayloadEntry.COLUMN_PRIORITY + " INTEGER," +
+			PayloadEntry.COLUMN_SERVER_ERROR_COUNT + " INTEGER DEFAULT 0" +
+			");";
+
+	private static final String INDEX_CREATE_PAYLOAD_SEND_ORDER =
+		"CREATE INDEX " + PayloadEntry.INDEX_SEND_ORDER + " ON " + PayloadEntry.TABLE_NAME +
+			" (" + PayloadEntry.COLUMN_PRIORITY + ", " + PayloadEntry.COLUMN_PRIMARY_KEY + ")";
+
+	/**
+	 * Keeps counting the live payloads of a body segment (on every delete) cheap
+	 */
+	private static final String INDEX_CREATE_PAYLOAD_BODY_SEGMENT =
+		"CREATE INDEX " + PayloadEntry.INDEX_BODY_SEGMENT + " ON " + PayloadEntry.TABLE_NAME +
+			" (" + PayloadEntry.COLUMN_BODY_SEGMENT + ")";
+
+	/**
+	 * Payload table as of database v3 (payload bodies are stored in separate files)
+	 */
+	private static final String TABLE_CREATE_PAYLOAD_V3 =
 		"CREATE TABLE " + PayloadEntry.TABLE_NAME +
 			" (" +
 			PayloadEntry.COLUMN_PRIMARY_KEY + " INTEGER PRIMARY KEY, " +
@@ -102,6 +262,73 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 			PayloadEntry.COLUMN_LOCAL_CONVERSATION_ID + " TEXT" +
 			");";
 
+	private static final String SQL_ADD_PAYLOAD_BODY_COLUMNS[] = {
+		"ALTER TABLE " + PayloadEntry.TABLE_NAME + " ADD COLUMN " + PayloadEntry.COLUMN_BODY_SEGMENT + " INTEGER",
+		"ALTER TABLE " + PayloadEntry.TABLE_NAME + " ADD COLUMN " + PayloadEntry.COLUMN_BODY_OFFSET + " INTEGER",
+		"ALTER TABLE " + PayloadEntry.TABLE_NAME + " ADD COLUMN " + PayloadEntry.COLUMN_BODY_LENGTH + " INTEGER"
+	};
+
+	private static final String SQL_ADD_PAYLOAD_CONTENT_ENCODING_COLUMN =
+		"ALTER TABLE " + PayloadEntry.TABLE_NAME + " ADD COLUMN " + PayloadEntry.COLUMN_CONTENT_ENCODING + " TEXT";
+
+	private static final String SQL_ADD_PAYLOAD_PRIORITY_COLUMN =
+		"ALTER TABLE " + PayloadEntry.TABLE_NAME + " ADD COLUMN " + PayloadEntry.COLUMN_PRIORITY + " INTEGER";
+
+	private static final String SQL_ADD_PAYLOAD_SERVER_ERROR_COUNT_COLUMN =
+		"ALTER TABLE " + PayloadEntry.TABLE_NAME + " ADD COLUMN " + PayloadEntry.COLUMN_SERVER_ERROR_COUNT + " INTEGER DEFAULT 0";
+
+	private static final String SQL_UPDATE_PAYLOAD_PRIORITY =
+		"UPDATE " + PayloadEntry.TABLE_NAME + " SET " + PayloadEntry.COLUMN_PRIORITY + " = ?" +
+			" WHERE " + PayloadEntry.COLUMN_PAYLOAD_TYPE + " = ?";
+
+	private static final String SQL_UPDATE_MISSING_PAYLOAD_PRIORITY =
+		"UPDATE " + PayloadEntry.TABLE_NAME + " SET " + PayloadEntry.COLUMN_PRIORITY + " = " + PAYLOAD_PRIORITY_LOGOUT +
+			" WHERE " + PayloadEntry.COLUMN_PRIORITY + " IS NULL";
+
+	private static final String SQL_UPDATE_PAYLOAD_INCREMENT_SERVER_ERROR_COUNT =
+		"UPDATE " + PayloadEntry.TABLE_NAME + " SET " + PayloadEntry.COLUMN_SERVER_ERROR_COUNT + " = " + PayloadEntry.COLUMN_SERVER_ERROR_COUNT + " + 1" +
+			" WHERE " + PayloadEntry.COLUMN_IDENTIFIER + " = ?";
+
+	private static final String SQL_QUERY_PAYLOAD_GET_SERVER_ERROR_COUNT =
+		"SELECT " + PayloadEntry.COLUMN_SERVER_ERROR_COUNT + " FROM " + PayloadEntry.TABLE_NAME +
+			" WHERE " + PayloadEntry.COLUMN_IDENTIFIER + " = ?";
+
+	private static final String SQL_QUERY_PAYLOAD_GET_BODY_SEGMENT =
+		"SELECT " + PayloadEntry.COLUMN_BODY_SEGMENT + " FROM " + PayloadEntry.TABLE_NAME +
+			" WHERE " + PayloadEntry.COLUMN_IDENTIFIER + " = ?";
+
+	private static final String SQL_QUERY_PAYLOAD_COUNT_IN_BODY_SEGMENT =
+		"SELECT COUNT(*) FROM " + PayloadEntry.TABLE_NAME +
+			" WHERE " + PayloadEntry.COLUMN_BODY_SEGMENT + " = ?";
+
+	private static final String SQL_QUERY_PAYLOAD_QUEUE_SIZE =
+		"SELECT COUNT(*), TOTAL(" + PayloadEntry.COLUMN_BODY_LENGTH + ") FROM " + PayloadEntry.TABLE_NAME;
+
+	private static final String SQL_QUERY_PAYLOAD_GET_OLDEST_OF_TYPE =
+		"SELECT " + PayloadEntry.COLUMN_IDENTIFIER + ", " + PayloadEntry.COLUMN_BODY_LENGTH + ", " + PayloadEntry.COLUMN_CONVERSATION_ID +
+			" FROM " + PayloadEntry.TABLE_NAME +
+			" WHERE " + PayloadEntry.COLUMN_PAYLOAD_TYPE + " = ?" +
+			" ORDER BY " + PayloadEntry.COLUMN_PRIMARY_KEY +
+			" ASC";
+
+	private static final String SQL_QUERY_PAYLOAD_GET_LATEST_OF_TYPE =
+		"SELECT * FROM " + PayloadEntry.TABLE_NAME +
+			" WHERE " + PayloadEntry.COLUMN_PAYLOAD_TYPE + " = ?" +
+			" AND " + PayloadEntry.COLUMN_LOCAL_CONVERSATION_ID + " = ?" +
+			" ORDER BY " + PayloadEntry.COLUMN_PRIMARY_KEY +
+			" DESC LIMIT 1";
+
+	private static final String SQL_QUERY_PAYLOAD_COUNT_LOGOUT_AFTER =
+		"SELECT COUNT(*) FROM " + PayloadEntry.TABLE_NAME +
+			" WHERE " + PayloadEntry.COLUMN_PAYLOAD_TYPE + " = '" + PayloadType.logout.name() + "'" +
+			" AND " + PayloadEntry.COLUMN_LOCAL_CONVERSATION_ID + " = ?" +
+			" AND " + PayloadEntry.COLUMN_PRIMARY_KEY + " > ?";
+
+	private static final String SQL_QUERY_PAYLOAD_LIST_LOGOUT =
+		"SELECT * FROM " + PayloadEntry.TABLE_NAME +
+			" WHERE " + PayloadEntry.COLUMN_PAYLOAD_TYPE + " = '" + PayloadType.logout.name() + "'" +
+			" ORDER BY " + PayloadEntry.COLUMN_PRIMARY_KEY;
+
 	private static final String SQL_QUERY_PAYLOAD_LIST_LEGACY =
 		"SELECT * FROM " + LegacyPayloadEntry.TABLE_NAME +
 			" ORDER BY " + LegacyPayloadEntry.PAYLOAD_KEY_DB_ID;
@@ -111,6 +338,31 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 			" ORDER BY " + PayloadEntry.COLUMN_PRIMARY_KEY +
 			" ASC";
 
+	private static final String SQL_INSERT_PAYLOAD =
+		"INSERT INTO " + PayloadEntry.TABLE_NAME + " (" +
+			PayloadEntry.COLUMN_PAYLOAD_TYPE + ", " +
+			PayloadEntry.COLUMN_IDENTIFIER + ", " +
+			PayloadEntry.COLUMN_CONTENT_TYPE + ", " +
+			PayloadEntry.COLUMN_AUTH_TOKEN + ", " +
+			PayloadEntry.COLUMN_CONVERSATION_ID + ", " +
+			PayloadEntry.COLUMN_REQUEST_METHOD + ", " +
+			PayloadEntry.COLUMN_PATH + ", " +
+			PayloadEntry.COLUMN_ENCRYPTED + ", " +
+			PayloadEntry.COLUMN_LOCAL_CONVERSATION_ID + ", " +
+			PayloadEntry.COLUMN_BODY_SEGMENT + ", " +
+			PayloadEntry.COLUMN_BODY_OFFSET + ", " +
+			PayloadEntry.COLUMN_BODY_LENGTH + ", " +
+			PayloadEntry.COLUMN_CONTENT_ENCODING + ", " +
+			PayloadEntry.COLUMN_PRIORITY +
+			") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+	private static final String SQL_QUERY_PAYLOAD_GET_NEXT_IN_SEND_ORDER =
+		"SELECT * FROM " + PayloadEntry.TABLE_NAME +
+			" WHERE " + PayloadEntry.COLUMN_PRIORITY + " > ?" +
+			" OR (" + PayloadEntry.COLUMN_PRIORITY + " = ? AND " + PayloadEntry.COLUMN_PRIMARY_KEY + " > ?)" +
+			" ORDER BY " + PayloadEntry.COLUMN_PRIORITY + " ASC, " + PayloadEntry.COLUMN_PRIMARY_KEY +
+			" ASC LIMIT " + PAYLOAD_READ_AHEAD_SIZE;
+
 	private static final String SQL_QUERY_UPDATE_INCOMPLETE_PAYLOADS =
 		"UPDATE " + PayloadEntry.TABLE_NAME + " SET " +
 			PayloadEntry.COLUMN_AUTH_TOKEN + " = ?, " +
@@ -120,6 +372,17 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 			PayloadEntry.COLUMN_AUTH_TOKEN + " IS NULL AND " +
 			PayloadEntry.COLUMN_CONVERSATION_ID + " IS NULL";
 
+	private static final String SQL_QUERY_INCOMPLETE_PAYLOAD_BODY_SEGMENTS =
+		"SELECT DISTINCT " + PayloadEntry.COLUMN_BODY_SEGMENT + " FROM " + PayloadEntry.TABLE_NAME + " " +
+			"WHERE (" +
+			PayloadEntry.COLUMN_AUTH_TOKEN + " IS NULL OR " +
+			PayloadEntry.COLUMN_CONVERSATION_ID + " IS NULL) AND " +
+			PayloadEntry.COLUMN_BODY_SEGMENT + " IS NOT NULL";
+
+	private static final String SQL_QUERY_PAYLOAD_BODY_SEGMENTS =
+		"SELECT DISTINCT " + PayloadEntry.COLUMN_BODY_SEGMENT + " FROM " + PayloadEntry.TABLE_NAME +
+			" WHERE " + PayloadEntry.COLUMN_BODY_SEGMENT + " IS NOT NULL";
+
 	private static final String SQL_QUERY_REMOVE_INCOMPLETE_PAYLOADS =
 		"DELETE FROM " + PayloadEntry.TABLE_NAME + " " +
 			"WHERE " +
@@ -218,6 +481,7 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 		super(context, DATABASE_NAME, null, DATABASE_VERSION);
 		this.fileDir = context.getFilesDir();
 		this.payloadDataDir = new File(fileDir, Constants.PAYLOAD_DATA_DIR);
+		this.payloadBodyLog = new PayloadBodyLog(payloadDataDir, PAYLOAD_SEGMENT_MAX_SIZE);
 	}
 
 	//region Create & Upgrade
@@ -230,6 +494,8 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 	public void onCreate(SQLiteDatabase db) {
 		ApptentiveLog.d(DATABASE, "ApptentiveDatabase.onCreate(db)");
 		db.execSQL(TABLE_CREATE_PAYLOAD);
+		db.execSQL(INDEX_CREATE_PAYLOAD_SEND_ORDER);
+		db.execSQL(INDEX_CREATE_PAYLOAD_BODY_SEGMENT);
 
 		// Leave legacy tables in place for now.
 		db.execSQL(TABLE_CREATE_MESSAGE);
@@ -237,6 +503,20 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 		db.execSQL(TABLE_CREATE_COMPOUND_FILESTORE);
 	}
 
+	/**
+	 * Deletes the payload body segments left behind (i.e. when the process died between deleting the
+	 * last payload of a segment and the segment compaction).
+	 */
+	@Override
+	public void onOpen(SQLiteDatabase db) {
+		super.onOpen(db);
+		try {
+			deleteOrphanedPayloadBodySegments(db);
+		} catch (Exception e) {
+			ApptentiveLog.e(DATABASE, e, "Exception while deleting orphaned payload segments");
+		}
+	}
+
 	/**
 	 * This method is called when an app is upgraded. Add alter table statements here for each version in a non-breaking
 	 * switch, so that all the necessary upgrades occur for each older version.
@@ -249,6 +529,14 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 				upgradeVersion1to2(db);
 			case 2:
 				upgradeVersion2to3(db);
+			case 3:
+				upgradeVersion3to4(db);
+			case 4:
+				upgradeVersion4to5(db);
+			case 5:
+				upgradeVersion5to6(db);
+			case 6:
+				upgradeVersion6to7(db);
 		}
 	}
 
@@ -405,7 +693,7 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 
 			// 2. Create new Payload table as "payload"
 			ApptentiveLog.vv(DATABASE, "\t2. Creating new \"payloads\" database.");
-			db.execSQL(TABLE_CREATE_PAYLOAD);
+			db.execSQL(TABLE_CREATE_PAYLOAD_V3);
 
 			// 3. Load legacy payloads
 			ApptentiveLog.vv(DATABASE, "\t3. Loading legacy payloads.");
@@ -473,6 +761,115 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 		}
 	}
 
+	/**
+	 * 1. Add body location columns to the payload table
+	 * 2. Append each payload body file to the body log and store its location
+	 * 3. Delete payload body files
+	 */
+	private void upgradeVersion3to4(SQLiteDatabase db) {
+		ApptentiveLog.i(DATABASE, "Upgrading Database from v3 to v4");
+
+		List<File> migratedFiles = new ArrayList<>();
+		boolean successful = false;
+		Cursor cursor = null;
+		try {
+			db.beginTransaction();
+
+			// 1. Add new columns
+			ApptentiveLog.vv(DATABASE, "\t1. Adding payload body columns.");
+			for (String sql : SQL_ADD_PAYLOAD_BODY_COLUMNS) {
+				db.execSQL(sql);
+			}
+
+			// 2. Move payload bodies into the log
+			ApptentiveLog.vv(DATABASE, "\t2. Moving payload bodies into the log.");
+			cursor = db.rawQuery(SQL_QUERY_PAYLOAD_GET_IN_SEND_ORDER, null);
+			while (cursor.moveToNext()) {
+				String nonce = cursor.getString(PayloadEntry.COLUMN_IDENTIFIER.index);
+				File file = getPayloadBodyFile(nonce);
+				if (!file.exists()) {
+					continue; // the payload would be removed when picked up for sending
+				}
+
+				PayloadBodyLog.Entry entry = payloadBodyLog.append(Util.readBytes(file));
+				ContentValues values = new ContentValues();
+				values.put(PayloadEntry.COLUMN_BODY_SEGMENT.name, entry.segmentId);
+				values.put(PayloadEntry.COLUMN_BODY_OFFSET.name, entry.offset);
+				values.put(PayloadEntry.COLUMN_BODY_LENGTH.name, entry.length);
+				db.update(PayloadEntry.TABLE_NAME, values, PayloadEntry.COLUMN_PRIMARY_KEY + " = ?", new String[]{cursor.getString(PayloadEntry.COLUMN_PRIMARY_KEY.index)});
+				migratedFiles.add(file);
+			}
+
+			db.setTransactionSuccessful();
+			successful = true;
+		} catch (Exception e) {
+			ApptentiveLog.e(DATABASE, e, "Error in upgradeVersion3to4()");
+		} finally {
+			ensureClosed(cursor);
+			if (db != null) {
+				db.endTransaction();
+			}
+		}
+
+		// 3. Delete migrated files (only after the new locations are stored)
+		if (successful) {
+			ApptentiveLog.vv(DATABASE, "\t3. Deleting %d payload body file(s).", migratedFiles.size());
+			for (File file : migratedFiles) {
+				file.delete();
+			}
+		}
+	}
+
+	/**
+	 * 1. Add content encoding column to the payload table (existing bodies are not encoded)
+	 */
+	private void upgradeVersion4to5(SQLiteDatabase db) {
+		ApptentiveLog.i(DATABASE, "Upgrading Database from v4 to v5");
+		try {
+			db.execSQL(SQL_ADD_PAYLOAD_CONTENT_ENCODING_COLUMN);
+		} catch (SQLException e) {
+			ApptentiveLog.e(DATABASE, e, "Error in upgradeVersion4to5()");
+		}
+	}
+
+	/**
+	 * 1. Add priority lane column to the payload table
+	 * 2. Assign lanes to the existing payloads
+	 * 3. Index the payloads in the send order and by body segment
+	 */
+	private void upgradeVersion5to6(SQLiteDatabase db) {
+		ApptentiveLog.i(DATABASE, "Upgrading Database from v5 to v6");
+		try {
+			db.beginTransaction();
+
+			db.execSQL(SQL_ADD_PAYLOAD_PRIORITY_COLUMN);
+			for (PayloadType payloadType : PayloadType.values()) {
+				db.execSQL(SQL_UPDATE_PAYLOAD_PRIORITY, new Object[]{getPayloadPriority(payloadType), payloadType.name()});
+			}
+			db.execSQL(SQL_UPDATE_MISSING_PAYLOAD_PRIORITY);
+			db.execSQL(INDEX_CREATE_PAYLOAD_SEND_ORDER);
+			db.execSQL(INDEX_CREATE_PAYLOAD_BODY_SEGMENT);
+
+			db.setTransactionSuccessful();
+		} catch (SQLException e) {
+			ApptentiveLog.e(DATABASE, e, "Error in upgradeVersion5to6()");
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	/**
+	 * 1. Add server error count column to the payload table
+	 */
+	private void upgradeVersion6to7(SQLiteDatabase db) {
+		ApptentiveLog.i(DATABASE, "Upgrading Database from v6 to v7");
+		try {
+			db.execSQL(SQL_ADD_PAYLOAD_SERVER_ERROR_COUNT_COLUMN);
+		} catch (SQLException e) {
+			ApptentiveLog.e(DATABASE, e, "Error in upgradeVersion6to7()");
+		}
+	}
+
 	private void migrateMessages(SQLiteDatabase db) {
 		try {
 			final List<ApptentiveMessage> messages = getAllMessages(db);
@@ -526,44 +923,233 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 	 * a new message is added.
 	 */
 	void addPayload(Payload payload) {
+		addPayloads(Collections.singletonList(payload));
+	}
+
+	void addPayloads(List<Payload> payloads) {
+		addPayloads(payloads, null);
+	}
+
+	/**
+	 * Adds payloads in a single transaction with a single compiled insert statement. A payload which
+	 * fails to render or store its body is skipped without affecting the rest.
+	 * <p>
+	 * A person or device diff supersedes an unsent diff of the same conversation: the older diff is
+	 * merged into the new one and removed from the queue (see {@link #findSupersededPayload}).
+	 *
+	 * @param supersedableFilter - optional filter for payloads which can be superseded (i.e. the ones
+	 *                           which are not being sent)
+	 */
+	void addPayloads(List<Payload> payloads, PayloadFilter supersedableFilter) {
+		if (payloads.isEmpty()) {
+			return;
+		}
+
+		List<PayloadMetadata> supersededPayloads = new ArrayList<>();
+
+		List<Long> rowIds = new ArrayList<>(payloads.size());
+		List<Integer> rowPriorities = new ArrayList<>(payloads.size());
+		long firstSegmentId = payloadBodyLog.getActiveSegmentId();
 		SQLiteDatabase db = null;
+		SQLiteStatement statement = null;
+		boolean successful = false;
 		try {
 			db = getWritableDatabase();
 			db.beginTransaction();
 
-			ContentValues values = new ContentValues();
-			values.put(PayloadEntry.COLUMN_IDENTIFIER.name, notNull(payload.getNonce()));
-			values.put(PayloadEntry.COLUMN_PAYLOAD_TYPE.name, notNull(payload.getPayloadType().name()));
-			values.put(PayloadEntry.COLUMN_CONTENT_TYPE.name, notNull(payload.getHttpRequestContentType()));
-			// The token is encrypted inside the payload body for Logged In Conversations. In that case, don't store it here.
-			if (!payload.hasEncryptionKey()) {
-				values.put(PayloadEntry.COLUMN_AUTH_TOKEN.name, payload.getToken()); // might be null
-			}
-			values.put(PayloadEntry.COLUMN_CONVERSATION_ID.name, payload.getConversationId()); // might be null
-			values.put(PayloadEntry.COLUMN_REQUEST_METHOD.name, payload.getHttpRequestMethod().name());
-			values.put(PayloadEntry.COLUMN_PATH.name, payload.getHttpEndPoint(
-				StringUtils.isNullOrEmpty(payload.getConversationId()) ? "${conversationId}" : payload.getConversationId()) // if conversation id is missing we replace it with a place holder and update it later
-			);
-
-			File dest = getPayloadBodyFile(payload.getNonce());
-			ApptentiveLog.v(DATABASE, "Saving payload body to: %s", dest);
-			Util.writeBytes(dest, payload.renderData());
-
-			values.put(PayloadEntry.COLUMN_ENCRYPTED.name, payload.hasEncryptionKey() ? TRUE : FALSE);
-			values.put(PayloadEntry.COLUMN_LOCAL_CONVERSATION_ID.name, notNull(payload.getLocalConversationIdentifier()));
+			statement = db.compileStatement(SQL_INSERT_PAYLOAD);
+			for (Payload payload : payloads) {
+				try {
+					PayloadMetadata superseded = findSupersededPayload(db, payload, supersedableFilter);
+					long rowId = insertPayload(statement, payload);
+					if (rowId != -1) {
+						rowIds.add(rowId);
+						rowPriorities.add(getPayloadPriority(payload.getPayloadType()));
+
+						// the older diff is only removed once the merged one is stored
+						if (superseded != null) {
+							db.delete(PayloadEntry.TABLE_NAME, PayloadEntry.COLUMN_PRIMARY_KEY + " = ?", new String[]{String.valueOf(superseded.id)});
+							supersededPayloads.add(superseded);
+							ApptentiveLog.v(PAYLOADS, "Payload %s superseded by %s", superseded.nonce, payload.getNonce());
+						}
+					}
+				} catch (Exception e) {
+					ApptentiveLog.e(DATABASE, e, "Error adding payload: %s", payload);
+				}
+			}
 
-			db.insert(PayloadEntry.TABLE_NAME, null, values);
 			db.setTransactionSuccessful();
+			successful = true;
 		} catch (Exception e) {
-			ApptentiveLog.e(DATABASE, e, "Error adding payload.");
+			ApptentiveLog.e(DATABASE, e, "Error adding payloads.");
 		} finally {
+			if (statement != null) {
+				statement.close();
+			}
 			if (db != null) {
 				db.endTransaction();
 			}
 		}
 
+		if (successful) {
+			for (int i = 0; i < rowIds.size(); ++i) {
+				onPayloadRowInserted(rowIds.get(i), rowPriorities.get(i));
+			}
+			for (PayloadMetadata superseded : supersededPayloads) {
+				removeReadAheadPayload(superseded.nonce);
+			}
+			evictPayloadsIfNeeded(supersedableFilter);
+		}
+
+		// segments which are no longer active might have no payloads left
+		try {
+			for (long segmentId = firstSegmentId; segmentId < payloadBodyLog.getActiveSegmentId(); ++segmentId) {
+				compactPayloadBodySegment(getWritableDatabase(), segmentId);
+			}
+			if (successful) {
+				for (PayloadMetadata superseded : supersededPayloads) {
+					compactPayloadBodySegment(getWritableDatabase(), superseded.bodySegment);
+				}
+			}
+		} catch (SQLException e) {
+			ApptentiveLog.e(DATABASE, e, "Error compacting payload body segments.");
+		}
+
 		if (ApptentiveLog.canLog(ApptentiveLog.Level.VERY_VERBOSE)) {
-			printPayloadTable("Added payload");
+			printPayloadTable(StringUtils.format("Added %d payload(s)", payloads.size()));
+		}
+	}
+
+	/**
+	 * Finds the latest unsent diff of the same type and conversation and merges it into the payload.
+	 * Returns <code>null</code> if there is nothing to supersede: encrypted payloads, diffs which are
+	 * being sent or which were queued before a logout are never superseded.
+	 */
+	private PayloadMetadata findSupersededPayload(SQLiteDatabase db, Payload payload, PayloadFilter filter) {
+		if (!isSupersedablePayload(payload)) {
+			return null;
+		}
+
+		PayloadMetadata latest = null;
+		Cursor cursor = null;
+		try {
+			cursor = db.rawQuery(SQL_QUERY_PAYLOAD_GET_LATEST_OF_TYPE, new String[]{
+				payload.getPayloadType().name(),
+				payload.getLocalConversationIdentifier()
+			});
+			if (cursor.moveToFirst()) {
+				latest = new PayloadMetadata(cursor);
+			}
+		} finally {
+			ensureClosed(cursor);
+		}
+
+		if (latest == null || latest.encrypted || latest.bodySegment == null) {
+			return null;
+		}
+
+		if (filter != null && !filter.accept(latest.nonce, latest.payloadType, latest.conversationId)) {
+			return null; // payload is being sent
+		}
+
+		long logoutCount = DatabaseUtils.longForQuery(db, SQL_QUERY_PAYLOAD_COUNT_LOGOUT_AFTER, new String[]{
+			payload.getLocalConversationIdentifier(),
+			String.valueOf(latest.id)
+		});
+		if (logoutCount > 0) {
+			return null;
+		}
+
+		try {
+			byte[] data = payloadBodyLog.read(latest.bodySegment, latest.bodyOffset, latest.bodyLength);
+			if ("gzip".equalsIgnoreCase(latest.contentEncoding)) {
+				data = Util.gunzip(data);
+			}
+			((JsonPayload) payload).mergeSupersededPayload(new JSONObject(new String(data, "UTF-8")));
+			return latest;
+		} catch (Exception e) {
+			ApptentiveLog.w(PAYLOADS, e, "Unable to merge superseded payload: %s", latest.nonce);
+			return null;
+		}
+	}
+
+	/**
+	 * Person and device diffs overwrite the server state field by field so an unsent diff can be
+	 * merged into the newer one
+	 */
+	private static boolean isSupersedablePayload(Payload payload) {
+		PayloadType type = payload.getPayloadType();
+		return (PayloadType.person.equals(type) || PayloadType.device.equals(type)) &&
+			       payload instanceof JsonPayload &&
+			       !payload.hasEncryptionKey() &&
+			       payload.getLocalConversationIdentifier() != null;
+	}
+
+	private long insertPayload(SQLiteStatement statement, final Payload payload) throws Exception {
+		String contentEncoding = null;
+		PayloadBodyLog.Entry entry;
+		if (isCompressiblePayload(payload)) {
+			// json bodies are small enough to be rendered in memory
+			byte[] data = payload.renderData();
+			if (data == null) {
+				throw new IOException("Unable to render payload data");
+			}
+			if (data.length >= payloadCompressionThreshold) {
+				byte[] compressedData = Util.gzip(data);
+				if (compressedData.length < data.length) {
+					ApptentiveLog.v(DATABASE, "Compressed payload body: %d -> %d bytes", data.length, compressedData.length);
+					data = compressedData;
+					contentEncoding = "gzip";
+				}
+			}
+			entry = payloadBodyLog.append(data);
+		} else {
+			// render the body straight into the log so large payloads (attachments) are never held in memory
+			entry = payloadBodyLog.append(new PayloadBodyLog.Writer() {
+				@Override
+				public void writeTo(OutputStream out) throws Exception {
+					payload.renderData(out);
+				}
+			});
+		}
+		ApptentiveLog.v(DATABASE, "Saved payload body: %s", entry);
+
+		statement.clearBindings();
+		statement.bindString(1, notNull(payload.getPayloadType().name()));
+		statement.bindString(2, notNull(payload.getNonce()));
+		statement.bindString(3, notNull(payload.getHttpRequestContentType()));
+		// The token is encrypted inside the payload body for Logged In Conversations. In that case, don't store it here.
+		bindStringOrNull(statement, 4, payload.hasEncryptionKey() ? null : payload.getToken()); // might be null
+		bindStringOrNull(statement, 5, payload.getConversationId()); // might be null
+		statement.bindString(6, payload.getHttpRequestMethod().name());
+		statement.bindString(7, payload.getHttpEndPoint(
+			StringUtils.isNullOrEmpty(payload.getConversationId()) ? "${conversationId}" : payload.getConversationId()) // if conversation id is missing we replace it with a place holder and update it later
+		);
+		statement.bindLong(8, payload.hasEncryptionKey() ? TRUE : FALSE);
+		statement.bindString(9, notNull(payload.getLocalConversationIdentifier()));
+		statement.bindLong(10, entry.segmentId);
+		statement.bindLong(11, entry.offset);
+		statement.bindLong(12, entry.length);
+		bindStringOrNull(statement, 13, contentEncoding);
+		statement.bindLong(14, getPayloadPriority(payload.getPayloadType()));
+		return statement.executeInsert();
+	}
+
+	/**
+	 * Only unencrypted json payload bodies are compressed (encrypted bodies don't compress and
+	 * multipart bodies are mostly compressed images)
+	 */
+	private boolean isCompressiblePayload(Payload payload) {
+		return payloadCompressionThreshold >= 0 &&
+			       !payload.hasEncryptionKey() &&
+			       payload.getHttpRequestContentType().startsWith("application/json");
+	}
+
+	private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+		if (value != null) {
+			statement.bindString(index, value);
+		} else {
+			statement.bindNull(index);
 		}
 	}
 
@@ -573,91 +1159,352 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 		}
 		// First delete the row
 		SQLiteDatabase db;
+		Long bodySegment = null;
 		try {
 			db = getWritableDatabase();
+			bodySegment = getPayloadBodySegment(db, payloadIdentifier);
 			db.delete(
 				PayloadEntry.TABLE_NAME,
 				PayloadEntry.COLUMN_IDENTIFIER + " = ?",
 				new String[]{payloadIdentifier}
 			);
+
+			// Then reclaim the body segment if no other payloads use it
+			if (bodySegment != null) {
+				compactPayloadBodySegment(db, bodySegment);
+			}
 		} catch (SQLException sqe) {
 			ApptentiveLog.e(DATABASE, "deletePayload EXCEPTION: " + sqe.getMessage());
 		}
+		removeReadAheadPayload(payloadIdentifier);
 
-		// Then delete the data file
-		File dest = getPayloadBodyFile(payloadIdentifier);
-		ApptentiveLog.v(DATABASE, "Deleted payload \"%s\" data file successfully? %b", payloadIdentifier, dest.delete());
+		// Payloads stored before the body log was introduced might still have a data file
+		if (bodySegment == null) {
+			File dest = getPayloadBodyFile(payloadIdentifier);
+			ApptentiveLog.v(DATABASE, "Deleted payload \"%s\" data file successfully? %b", payloadIdentifier, dest.delete());
+		}
 
 		if (ApptentiveLog.canLog(ApptentiveLog.Level.VERY_VERBOSE)) {
 			printPayloadTable("Deleted payload");
 		}
 	}
 
+	/**
+	 * Records a delivery attempt of the payload which ended with a server error (5xx). The payload is
+	 * dropped once it gets <code>maxServerErrors</code> of them so it can't hold the rest of the
+	 * queue forever.
+	 *
+	 * @return <code>true</code> if the payload was dropped
+	 */
+	boolean recordPayloadServerError(String payloadIdentifier, int maxServerErrors) {
+		if (payloadIdentifier == null) {
+			throw new IllegalArgumentException("Payload identifier is null");
+		}
+
+		long serverErrorCount;
+		Cursor cursor = null;
+		try {
+			SQLiteDatabase db = getWritableDatabase();
+			db.execSQL(SQL_UPDATE_PAYLOAD_INCREMENT_SERVER_ERROR_COUNT, new Object[]{payloadIdentifier});
+			cursor = db.rawQuery(SQL_QUERY_PAYLOAD_GET_SERVER_ERROR_COUNT, new String[]{payloadIdentifier});
+			if (!cursor.moveToFirst()) {
+				return false; // the payload is not in the queue anymore
+			}
+			serverErrorCount = cursor.getLong(0);
+		} catch (SQLException sqe) {
+			ApptentiveLog.e(DATABASE, "recordPayloadServerError EXCEPTION: " + sqe.getMessage());
+			return false;
+		} finally {
+			ensureClosed(cursor);
+		}
+
+		if (serverErrorCount < maxServerErrors) {
+			return false;
+		}
+
+		ApptentiveLog.w(PAYLOADS, "Dropping payload %s after %d server errors", payloadIdentifier, serverErrorCount);
+		deletePayload(payloadIdentifier);
+		return true;
+	}
+
 	void deleteAllPayloads() {
-		// TODO: Delete files too.
+		// TODO: Delete legacy data files too.
 		SQLiteDatabase db;
 		try {
 			db = getWritableDatabase();
 			db.delete(PayloadEntry.TABLE_NAME, "", null);
+			payloadBodyLog.deleteAllSegments();
 		} catch (SQLException sqe) {
 			ApptentiveLog.e(DATABASE, "deleteAllPayloads EXCEPTION: " + sqe.getMessage());
 		}
+		invalidateReadAheadPayloads();
+	}
+
+	/**
+	 * Evicts the oldest low-value payloads (see {@link #EVICTABLE_PAYLOAD_TYPES}) until the queue fits
+	 * into the max count and bytes. Only the payloads accepted by <code>filter</code> are evicted
+	 * (<code>null</code> accepts all) so the ones being sent are never deleted under the sender. The
+	 * queue might stay over the limits if there is nothing left to evict.
+	 */
+	private void evictPayloadsIfNeeded(PayloadFilter filter) {
+		try {
+			SQLiteDatabase db = getWritableDatabase();
+
+			long count;
+			long bytes;
+			Cursor cursor = null;
+			try {
+				cursor = db.rawQuery(SQL_QUERY_PAYLOAD_QUEUE_SIZE, null);
+				if (!cursor.moveToFirst()) {
+					return;
+				}
+				count = cursor.getLong(0);
+				bytes = cursor.getLong(1);
+			} finally {
+				ensureClosed(cursor);
+			}
+
+			for (PayloadType payloadType : EVICTABLE_PAYLOAD_TYPES) {
+				if (count <= payloadQueueMaxCount && bytes <= payloadQueueMaxBytes) {
+					break;
+				}
+
+				// select the oldest payloads of the type first: deleting them updates the table
+				List<String> nonces = new ArrayList<>();
+				long evictedBytes = 0;
+				try {
+					cursor = db.rawQuery(SQL_QUERY_PAYLOAD_GET_OLDEST_OF_TYPE, new String[]{payloadType.name()});
+					while ((count > payloadQueueMaxCount || bytes > payloadQueueMaxBytes) && cursor.moveToNext()) {
+						String nonce = cursor.getString(0);
+						if (filter != null && !filter.accept(nonce, payloadType, cursor.getString(2))) {
+							continue; // being sent
+						}
+
+						long length = cursor.getLong(1);
+						nonces.add(nonce);
+						evictedBytes += length;
+						bytes -= length;
+						--count;
+					}
+				} finally {
+					ensureClosed(cursor);
+				}
+
+				if (nonces.size() > 0) {
+					ApptentiveLog.w(PAYLOADS, "Payload queue is full: evicting %d %s payload(s) (%d bytes)", nonces.size(), payloadType, evictedBytes);
+					for (String nonce : nonces) {
+						deletePayload(nonce);
+					}
+					onPayloadsEvicted(payloadType, nonces.size(), evictedBytes);
+				}
+			}
+
+			if (count > payloadQueueMaxCount || bytes > payloadQueueMaxBytes) {
+				ApptentiveLog.w(PAYLOADS, "Payload queue is over the limits with no payloads to evict: count=%d bytes=%d", count, bytes);
+			}
+		} catch (SQLException e) {
+			ApptentiveLog.e(DATABASE, e, "Error evicting payloads.");
+		}
+	}
+
+	private void onPayloadsEvicted(PayloadType payloadType, int count, long bytes) {
+		synchronized (evictedPayloadCounts) {
+			Integer oldCount = evictedPayloadCounts.get(payloadType);
+			evictedPayloadCounts.put(payloadType, oldCount != null ? oldCount + count : count);
+			evictedPayloadBytes += bytes;
+		}
+	}
+
+	/**
+	 * Returns the number of payloads of a given type evicted from the queue
+	 */
+	int getEvictedPayloadCount(PayloadType payloadType) {
+		synchronized (evictedPayloadCounts) {
+			Integer count = evictedPayloadCounts.get(payloadType);
+			return count != null ? count : 0;
+		}
+	}
+
+	/**
+	 * Returns the total number of payloads evicted from the queue
+	 */
+	int getEvictedPayloadCount() {
+		synchronized (evictedPayloadCounts) {
+			int total = 0;
+			for (int count : evictedPayloadCounts.values()) {
+				total += count;
+			}
+			return total;
+		}
+	}
+
+	/**
+	 * Returns the total body size of payloads evicted from the queue
+	 */
+	long getEvictedPayloadBytes() {
+		synchronized (evictedPayloadCounts) {
+			return evictedPayloadBytes;
+		}
+	}
+
+	/**
+	 * Returns payload body segment id or <code>null</code> if payload body is stored in a separate file
+	 */
+	private Long getPayloadBodySegment(SQLiteDatabase db, String payloadIdentifier) {
+		Cursor cursor = null;
+		try {
+			cursor = db.rawQuery(SQL_QUERY_PAYLOAD_GET_BODY_SEGMENT, new String[]{payloadIdentifier});
+			return cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : null;
+		} finally {
+			ensureClosed(cursor);
+		}
+	}
+
+	/**
+	 * Deletes the body segment file once every payload in it has been deleted
+	 */
+	private void compactPayloadBodySegment(SQLiteDatabase db, long segmentId) {
+		long count = DatabaseUtils.longForQuery(db, SQL_QUERY_PAYLOAD_COUNT_IN_BODY_SEGMENT, new String[]{String.valueOf(segmentId)});
+		if (count == 0) {
+			payloadBodyLog.deleteSegment(segmentId);
+		}
 	}
 
 	PayloadData getOldestUnsentPayload() {
+		List<PayloadData> payloads = getOldestUnsentPayloads(1, Long.MAX_VALUE);
+		return payloads.size() > 0 ? payloads.get(0) : null;
+	}
+
+	List<PayloadData> getOldestUnsentPayloads(int maxCount, long maxBytes) {
+		return getOldestUnsentPayloads(maxCount, maxBytes, null);
+	}
+
+	/**
+	 * Returns a list of the oldest unsent payloads which can be sent together in a single batch
+	 * request: up to <code>maxCount</code> payloads of the same conversation with the same auth
+	 * token, unencrypted json bodies and a total body size of no more than <code>maxBytes</code>.
+	 * The oldest payload is always included (even if it can't be batched) so the queue never stalls.
+	 *
+	 * @param filter - optional filter for skipping payloads which can't be sent right now (payload
+	 *               bodies are only loaded for the accepted payloads)
+	 */
+	List<PayloadData> getOldestUnsentPayloads(int maxCount, long maxBytes, PayloadFilter filter) {
+		if (maxCount < 1) {
+			throw new IllegalArgumentException("Illegal max count: " + maxCount);
+		}
+
 		if (ApptentiveLog.canLog(ApptentiveLog.Level.VERY_VERBOSE)) {
-			printPayloadTable("getOldestUnsentPayload");
+			printPayloadTable("getOldestUnsentPayloads");
 		}
 
-		SQLiteDatabase db;
-		Cursor cursor = null;
+		List<PayloadData> payloads = new ArrayList<>();
 		try {
-			db = getWritableDatabase();
-			cursor = db.rawQuery(SQL_QUERY_PAYLOAD_GET_IN_SEND_ORDER, null);
-			int count = cursor.getCount();
-			ApptentiveLog.v(PAYLOADS, "Unsent payloads count: %d", count);
+			long totalBytes = 0;
+			int index = 0;
+			while (payloads.size() < maxCount) {
+				// fetch more payload rows if we reached the end of the read-ahead window
+				if (index == readAheadPayloads.size() && !fetchReadAheadPayloads()) {
+					break;
+				}
 
-			while(cursor.moveToNext()) {
-				final String conversationId = cursor.getString(PayloadEntry.COLUMN_CONVERSATION_ID.index);
-				if (conversationId == null) {
-					ApptentiveLog.d(PAYLOADS, "Oldest unsent payload is missing a conversation id");
-					return null;
+				final PayloadMetadata metadata = readAheadPayloads.get(index);
+				if (metadata.conversationId == null) {
+					// payloads are updated with the conversation id all at once
+					ApptentiveLog.v(PAYLOADS, "Payload %s is missing a conversation id", metadata.nonce);
+					++index;
+					continue;
 				}
 
-				final String authToken = cursor.getString(PayloadEntry.COLUMN_AUTH_TOKEN.index);
-				final String nonce = notNull(cursor.getString(PayloadEntry.COLUMN_IDENTIFIER.index));
+				if (isBehindLogoutBarrier(metadata)) {
+					ApptentiveLog.v(PAYLOADS, "Payload %s is waiting for the conversation logout", metadata.nonce);
+					++index;
+					continue;
+				}
 
-				final PayloadType payloadType = PayloadType.parse(cursor.getString(PayloadEntry.COLUMN_PAYLOAD_TYPE.index));
-				assertFalse(PayloadType.unknown.equals(payloadType), "Oldest unsent payload has unknown type");
+				if (filter != null && !filter.accept(metadata.nonce, metadata.payloadType, metadata.conversationId)) {
+					++index;
+					continue; // payload can't be sent right now
+				}
 
-				if (PayloadType.unknown.equals(payloadType)) {
-					deletePayload(nonce);
-					continue;
+				final PayloadData payload = readPayloadData(metadata);
+				if (payload == null) {
+					continue; // corrupted payload was removed (along with its read-ahead entry)
 				}
+				++index;
 
-				final String httpRequestPath = updatePayloadRequestPath(cursor.getString(PayloadEntry.COLUMN_PATH.index), conversationId);
+				if (payloads.size() > 0) {
+					final PayloadData first = payloads.get(0);
+					if (!canBatchPayloads(first, payload) || totalBytes + payload.getDataLength() > maxBytes) {
+						break;
+					}
+				}
 
-				// TODO: We need a migration for existing payload bodies to put them into files.
+				payloads.add(payload);
+				totalBytes += payload.getDataLength();
 
-				File file = getPayloadBodyFile(nonce);
-				if (!file.exists()) {
-					ApptentiveLog.w("Oldest unsent payload had no data file. Deleting.");
-					deletePayload(nonce);
-					continue;
+				if (!isBatchablePayload(payload)) {
+					break;
 				}
-				byte[] data = Util.readBytes(file);
-				final String contentType = notNull(cursor.getString(PayloadEntry.COLUMN_CONTENT_TYPE.index));
-				final HttpRequestMethod httpRequestMethod = HttpRequestMethod.valueOf(notNull(cursor.getString(PayloadEntry.COLUMN_REQUEST_METHOD.index)));
-				final boolean encrypted = cursor.getInt(PayloadEntry.COLUMN_ENCRYPTED.index) == TRUE;
-				return new PayloadData(payloadType, nonce, conversationId, data, authToken, contentType, httpRequestPath, httpRequestMethod, encrypted);
 			}
-			return null;
 		} catch (Exception e) {
-			ApptentiveLog.e(e, "Error getting oldest unsent payload.");
+			ApptentiveLog.e(e, "Error getting oldest unsent payloads.");
+		}
+
+		return payloads;
+	}
+
+	/**
+	 * Loads the payload body for a read-ahead entry or returns <code>null</code> if the payload is
+	 * corrupted (in which case it is removed from the queue)
+	 */
+	private PayloadData readPayloadData(PayloadMetadata metadata) throws IOException {
+		final String nonce = metadata.nonce;
+		final PayloadType payloadType = metadata.payloadType;
+		assertFalse(PayloadType.unknown.equals(payloadType), "Oldest unsent payload has unknown type");
+
+		if (PayloadType.unknown.equals(payloadType)) {
+			deletePayload(nonce);
 			return null;
-		} finally {
-			ensureClosed(cursor);
 		}
+
+		final String httpRequestPath = updatePayloadRequestPath(metadata.path, metadata.conversationId);
+
+		// payload body is not loaded into memory: it is streamed from the disk when sent
+		final HttpRequestBody body;
+		if (metadata.bodySegment != null) {
+			try {
+				body = payloadBodyLog.createBody(metadata.bodySegment, metadata.bodyOffset, metadata.bodyLength);
+			} catch (IOException e) {
+				ApptentiveLog.w(e, "Oldest unsent payload had no data in the body log. Deleting.");
+				deletePayload(nonce);
+				return null;
+			}
+		} else {
+			File file = getPayloadBodyFile(nonce);
+			if (!file.exists()) {
+				ApptentiveLog.w("Oldest unsent payload had no data file. Deleting.");
+				deletePayload(nonce);
+				return null;
+			}
+			body = HttpRequestBody.create(file, 0, file.length());
+		}
+		PayloadData payload = new PayloadData(payloadType, nonce, metadata.conversationId, body, metadata.authToken, metadata.contentType, httpRequestPath, metadata.httpRequestMethod, metadata.encrypted);
+		payload.setContentEncoding(metadata.contentEncoding);
+		return payload;
+	}
+
+	/**
+	 * Only unencrypted json payloads can be a part of a batch request (encrypted and multipart bodies
+	 * are sent separately)
+	 */
+	private static boolean isBatchablePayload(PayloadData payload) {
+		return !payload.isEncrypted() && payload.getContentType().startsWith("application/json");
+	}
+
+	private static boolean canBatchPayloads(PayloadData first, PayloadData payload) {
+		return isBatchablePayload(payload) &&
+			StringUtils.equal(first.getConversationId(), payload.getConversationId()) &&
+			StringUtils.equal(first.getAuthToken(), payload.getAuthToken());
 	}
 
 	private String updatePayloadRequestPath(String path, String conversationId) {
@@ -692,6 +1539,9 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 		// remove incomplete payloads which don't belong to an active conversation
 		removeCorruptedPayloads();
 
+		// cached conversation ids and tokens are no longer valid
+		invalidateReadAheadPayloads();
+
 		if (ApptentiveLog.canLog(ApptentiveLog.Level.VERY_VERBOSE)) {
 			printPayloadTable("updateIncompletePayloads AFTER");
 		}
@@ -701,9 +1551,17 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 		Cursor cursor = null;
 		try {
 			SQLiteDatabase db = getWritableDatabase();
+
+			// body segments of the removed payloads should be reclaimed as well
+			List<Long> bodySegments = queryPayloadBodySegments(db, SQL_QUERY_INCOMPLETE_PAYLOAD_BODY_SEGMENTS);
+
 			cursor = db.rawQuery(SQL_QUERY_REMOVE_INCOMPLETE_PAYLOADS, null);
 			cursor.moveToFirst(); // we need to move a cursor in order to update database
 			ApptentiveLog.v(DATABASE, "Removed incomplete payloads");
+
+			for (long bodySegment : bodySegments) {
+				compactPayloadBodySegment(db, bodySegment);
+			}
 		} catch (SQLException e) {
 			ApptentiveLog.e(e, "Exception while removing incomplete payloads");
 		} finally {
@@ -711,6 +1569,168 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 		}
 	}
 
+	/**
+	 * Deletes every body segment (except the active one) which is not referenced by any payload
+	 */
+	private void deleteOrphanedPayloadBodySegments(SQLiteDatabase db) {
+		List<Long> bodySegments = queryPayloadBodySegments(db, SQL_QUERY_PAYLOAD_BODY_SEGMENTS);
+		for (long segmentId : payloadBodyLog.listSegmentIds()) {
+			if (!bodySegments.contains(segmentId) && payloadBodyLog.deleteSegment(segmentId)) {
+				ApptentiveLog.w(DATABASE, "Deleted orphaned payload segment %d", segmentId);
+			}
+		}
+	}
+
+	private List<Long> queryPayloadBodySegments(SQLiteDatabase db, String query) {
+		List<Long> bodySegments = new ArrayList<>();
+		Cursor cursor = null;
+		try {
+			cursor = db.rawQuery(query, null);
+			while (cursor.moveToNext()) {
+				bodySegments.add(cursor.getLong(0));
+			}
+		} finally {
+			ensureClosed(cursor);
+		}
+		return bodySegments;
+	}
+
+	/**
+	 * Enables storing unencrypted json payload bodies gzip compressed if they are at least
+	 * <code>threshold</code> bytes. Pass a negative value to disable the compression (default).
+	 */
+	void setPayloadCompressionThreshold(int threshold) {
+		this.payloadCompressionThreshold = threshold;
+	}
+
+	/**
+	 * Sets the max number of payloads and the max total size of payload bodies in the queue. Once
+	 * the limits are exceeded, the oldest low-value payloads are evicted. The size only approximates
+	 * the disk usage: it is the sum of the stored body lengths, so bodies of payloads queued before
+	 * the body log (separate files) count as empty and the deleted bodies in a segment file which is
+	 * still in use are not counted.
+	 */
+	void setPayloadQueueLimits(int maxCount, long maxBytes) {
+		if (maxCount < 1) {
+			throw new IllegalArgumentException("Illegal payload queue max count: " + maxCount);
+		}
+		if (maxBytes < 1) {
+			throw new IllegalArgumentException("Illegal payload queue max bytes: " + maxBytes);
+		}
+		this.payloadQueueMaxCount = maxCount;
+		this.payloadQueueMaxBytes = maxBytes;
+	}
+
+	//endregion
+
+	//region Read-ahead
+
+	/**
+	 * Fetches the next payload rows (by priority lane and primary key) into the read-ahead window.
+	 * Returns <code>false</code> if there are no more rows.
+	 */
+	private boolean fetchReadAheadPayloads() {
+		if (readAheadComplete) {
+			return false;
+		}
+
+		Cursor cursor = null;
+		int count = 0;
+		try {
+			SQLiteDatabase db = getWritableDatabase();
+			cursor = db.rawQuery(SQL_QUERY_PAYLOAD_GET_NEXT_IN_SEND_ORDER, new String[] {
+				String.valueOf(readAheadLastPriority),
+				String.valueOf(readAheadLastPriority),
+				String.valueOf(readAheadLastId)
+			});
+			while (cursor.moveToNext()) {
+				PayloadMetadata metadata = new PayloadMetadata(cursor);
+				readAheadPayloads.add(metadata);
+				readAheadLastPriority = metadata.priority;
+				readAheadLastId = metadata.id;
+				++count;
+			}
+			readAheadComplete = count < PAYLOAD_READ_AHEAD_SIZE;
+			ApptentiveLog.v(PAYLOADS, "Fetched %d payload(s) into the read-ahead window (%d total)", count, readAheadPayloads.size());
+		} finally {
+			ensureClosed(cursor);
+		}
+
+		return count > 0;
+	}
+
+	private void onPayloadRowInserted(long rowId, int priority) {
+		if (priority == PAYLOAD_PRIORITY_LOGOUT) {
+			logoutBarriers = null;
+		}
+
+		if (priority > readAheadLastPriority || priority == readAheadLastPriority && rowId > readAheadLastId) {
+			readAheadComplete = false; // the new row would be fetched with the next rows
+		} else {
+			invalidateReadAheadPayloads(); // a higher priority lane (or a reused primary key): re-read the window
+		}
+	}
+
+	private void removeReadAheadPayload(String nonce) {
+		if (logoutBarriers != null) {
+			for (PayloadMetadata logout : logoutBarriers.values()) {
+				if (logout.nonce.equals(nonce)) {
+					logoutBarriers = null; // the next logout (if any) becomes the barrier
+					break;
+				}
+			}
+		}
+
+		for (int i = 0; i < readAheadPayloads.size(); ++i) {
+			if (readAheadPayloads.get(i).nonce.equals(nonce)) {
+				readAheadPayloads.remove(i);
+				break;
+			}
+		}
+	}
+
+	private void invalidateReadAheadPayloads() {
+		readAheadPayloads.clear();
+		readAheadLastPriority = -1;
+		readAheadLastId = 0;
+		readAheadComplete = false;
+		logoutBarriers = null;
+	}
+
+	/**
+	 * Returns <code>true</code> if the payload was queued after an unsent logout of its conversation
+	 */
+	private boolean isBehindLogoutBarrier(PayloadMetadata metadata) {
+		if (metadata.localConversationId == null || metadata.payloadType == PayloadType.logout) {
+			return false;
+		}
+
+		if (logoutBarriers == null) {
+			logoutBarriers = fetchLogoutBarriers();
+		}
+
+		PayloadMetadata logout = logoutBarriers.get(metadata.localConversationId);
+		return logout != null && metadata.id > logout.id;
+	}
+
+	private Map<String, PayloadMetadata> fetchLogoutBarriers() {
+		Map<String, PayloadMetadata> barriers = new HashMap<>();
+		Cursor cursor = null;
+		try {
+			SQLiteDatabase db = getWritableDatabase();
+			cursor = db.rawQuery(SQL_QUERY_PAYLOAD_LIST_LOGOUT, null);
+			while (cursor.moveToNext()) {
+				PayloadMetadata metadata = new PayloadMetadata(cursor);
+				if (metadata.localConversationId != null && !barriers.containsKey(metadata.localConversationId)) {
+					barriers.put(metadata.localConversationId, metadata);
+				}
+			}
+		} finally {
+			ensureClosed(cursor);
+		}
+		return barriers;
+	}
+
 	//endregion
 
 	//region Files
@@ -813,12 +1833,53 @@ public class ApptentiveDatabaseHelper extends SQLiteOpenHelper {
 	 */
 	void reset(Context context) {
 		context.deleteDatabase(DATABASE_NAME);
+		payloadBodyLog.deleteAllSegments();
+		invalidateReadAheadPayloads();
 	}
 
 	//endregion
 
 	//region Helper classes
 
+	/**
+	 * Cached payload row (everything but the body)
+	 */
+	private static final class PayloadMetadata {
+		final long id;
+		final PayloadType payloadType;
+		final String nonce;
+		final String contentType;
+		final String authToken;
+		final String conversationId;
+		final String localConversationId;
+		final HttpRequestMethod httpRequestMethod;
+		final String path;
+		final boolean encrypted;
+		final Long bodySegment; // null if body is stored in a separate file
+		final long bodyOffset;
+		final int bodyLength;
+		final String contentEncoding;
+		final int priority;
+
+		PayloadMetadata(Cursor cursor) {
+			id = cursor.getLong(PayloadEntry.COLUMN_PRIMARY_KEY.index);
+			payloadType = PayloadType.parse(cursor.getString(PayloadEntry.COLUMN_PAYLOAD_TYPE.index));
+			nonce = notNull(cursor.getString(PayloadEntry.COLUMN_IDENTIFIER.index));
+			contentType = notNull(cursor.getString(PayloadEntry.COLUMN_CONTENT_TYPE.index));
+			authToken = cursor.getString(PayloadEntry.COLUMN_AUTH_TOKEN.index);
+			conversationId = cursor.getString(PayloadEntry.COLUMN_CONVERSATION_ID.index);
+			localConversationId = cursor.getString(PayloadEntry.COLUMN_LOCAL_CONVERSATION_ID.index);
+			httpRequestMethod = HttpRequestMethod.valueOf(notNull(cursor.getString(PayloadEntry.COLUMN_REQUEST_METHOD.index)));
+			path = cursor.getString(PayloadEntry.COLUMN_PATH.index);
+			encrypted = cursor.getInt(PayloadEntry.COLUMN_ENCRYPTED.index) == TRUE;
+			bodySegment = cursor.isNull(PayloadEntry.COLUMN_BODY_SEGMENT.index) ? null : cursor.getLong(PayloadEntry.COLUMN_BODY_SEGMENT.index);
+			bodyOffset = cursor.getLong(PayloadEntry.COLUMN_BODY_OFFSET.index);
+			bodyLength = cursor.getInt(PayloadEntry.COLUMN_BODY_LENGTH.index);
+			contentEncoding = cursor.getString(PayloadEntry.COLUMN_CONTENT_ENCODING.index);
+			priority = cursor.getInt(PayloadEntry.COLUMN_PRIORITY.index);
+		}
+	}
+
 	private static final class DatabaseColumn {
 		public final String name;
 		final int index;
@@ -13,17 +13,23 @@ import com.apptentive.android.sdk.comm.ApptentiveHttpClient;
 import com.apptentive.android.sdk.conversation.Conversation;
 import com.apptentive.android.sdk.model.Payload;
 import com.apptentive.android.sdk.model.PayloadData;
+import com.apptentive.android.sdk.model.PayloadType;
 import com.apptentive.android.sdk.model.StoredFile;
 import com.apptentive.android.sdk.network.HttpRequestRetryPolicyDefault;
 import com.apptentive.android.sdk.notifications.ApptentiveNotification;
 import com.apptentive.android.sdk.notifications.ApptentiveNotificationCenter;
 import com.apptentive.android.sdk.notifications.ApptentiveNotificationObserver;
+import com.apptentive.android.sdk.util.StringUtils;
 import com.apptentive.android.sdk.util.threading.DispatchQueue;
 import com.apptentive.android.sdk.util.threading.DispatchTask;
 
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -51,16 +57,88 @@ import static java.lang.Boolean.TRUE;
 
 public class ApptentiveTaskManager implements PayloadStore, EventStore, ApptentiveNotificationObserver, PayloadSender.Listener {
 
+	/**
+	 * Default max number of payloads sent in a single batch request
+	 */
+	private static final int DEFAULT_PAYLOAD_BATCH_MAX_COUNT = 50;
+
+	/**
+	 * Default max total size of payload bodies sent in a single batch request
+	 */
+	private static final long DEFAULT_PAYLOAD_BATCH_MAX_BYTES = 256 * 1024;
+
+	/**
+	 * Default max number of payload requests in flight
+	 */
+	private static final int DEFAULT_MAX_CONCURRENT_PAYLOAD_REQUESTS = 4;
+
+	/**
+	 * Default max number of delivery attempts of a payload which end with a server error (5xx)
+	 * before the payload is dropped
+	 */
+	private static final int DEFAULT_PAYLOAD_MAX_SERVER_ERRORS = 3;
+
+	/**
+	 * Default time window for collecting added payloads before they are written in a single transaction
+	 */
+	private static final long DEFAULT_PAYLOAD_COMMIT_WINDOW_MILLIS = 100;
+
+	/**
+	 * Default max number of added payloads written in a single transaction
+	 */
+	private static final int DEFAULT_PAYLOAD_COMMIT_MAX_COUNT = 20;
+
 	private final ApptentiveDatabaseHelper dbHelper;
 	private final ThreadPoolExecutor singleThreadExecutor; // TODO: replace with a private concurrent dispatch queue
 
+	private final ApptentiveHttpClient apptentiveHttpClient;
 	private final PayloadSender payloadSender;
 	private boolean appInBackground;
 
+	/**
+	 * Payloads which are done sending but not yet removed from the queue (keyed by nonce). These
+	 * should not be picked up for sending again.
+	 */
+	private final Map<String, PayloadData> finishingPayloads = Collections.synchronizedMap(new HashMap<String, PayloadData>());
+
+	/**
+	 * Accepts queued payloads which are neither being sent nor finishing: these can be superseded by
+	 * a newer diff or evicted from the full queue
+	 */
+	private final PayloadFilter supersedablePayloadFilter = new PayloadFilter() {
+		@Override
+		public boolean accept(String nonce, PayloadType type, String conversationId) {
+			return !payloadSender.isSendingPayload(nonce) && !finishingPayloads.containsKey(nonce);
+		}
+	};
+
+	/**
+	 * Added payloads waiting to be written to the database (group commit)
+	 */
+	private final List<Payload> pendingPayloads = new ArrayList<>(); // this variable is only accessed in a synchronized context
+	private boolean payloadCommitScheduled; // this variable is only accessed in a synchronized context
+	private long payloadCommitWindowMillis = DEFAULT_PAYLOAD_COMMIT_WINDOW_MILLIS;
+	private int payloadCommitMaxCount = DEFAULT_PAYLOAD_COMMIT_MAX_COUNT;
+
+	/**
+	 * Decides when to retry after a failure: no new payloads are sent until then. State transitions
+	 * only happen on the executor thread.
+	 */
+	private final PayloadRetryScheduler retryScheduler = new PayloadRetryScheduler();
+
+	/**
+	 * Indicates if multiple queued payloads should be sent in a single batch request
+	 */
+	private volatile boolean payloadBatchingEnabled; // disabled from the http callback thread, read on the executor thread
+	private int payloadBatchMaxCount = DEFAULT_PAYLOAD_BATCH_MAX_COUNT;
+	private long payloadBatchMaxBytes = DEFAULT_PAYLOAD_BATCH_MAX_BYTES;
+	private int payloadMaxServerErrors = DEFAULT_PAYLOAD_MAX_SERVER_ERRORS;
+
 	/*
 	 * Creates an asynchronous task manager with one worker thread. This constructor must be invoked on the UI thread.
 	 */
 	public ApptentiveTaskManager(Context context, ApptentiveHttpClient apptentiveHttpClient) {
+		this.apptentiveHttpClient = apptentiveHttpClient;
 		dbHelper = new ApptentiveDatabaseHelper(context);
 		/* When a new database task is submitted, the executor has the following behaviors:
 		 * 1. If the thread pool has no thread yet, it creates a single worker thread.
@@ -85,6 +163,7 @@ public class ApptentiveTaskManager implements PayloadStore, EventStore, Apptenti
 			}
 		});
 		payloadSender.setListener(this);
+		setMaxConcurrentPayloadRequests(DEFAULT_MAX_CONCURRENT_PAYLOAD_REQUESTS);
 
 		ApptentiveNotificationCenter.defaultCenter()
 			.addObserver(NOTIFICATION_CONVERSATION_STATE_DID_CHANGE, this)
@@ -98,25 +177,97 @@ public class ApptentiveTaskManager implements PayloadStore, EventStore, Apptenti
 	 */
 	public void addPayload(final Payload payload) {
 		ApptentiveLog.v(PAYLOADS, "Adding payload: %s", payload);
+
+		// payloads are collected for a short time window (or up to a max count) and written together
+		final boolean commitNow;
+		final boolean scheduleCommit;
+		synchronized (pendingPayloads) {
+			pendingPayloads.add(payload);
+			commitNow = pendingPayloads.size() == payloadCommitMaxCount || isDurablePayload(payload);
+			scheduleCommit = !commitNow && !payloadCommitScheduled;
+			payloadCommitScheduled = payloadCommitScheduled || scheduleCommit;
+		}
+
+		if (commitNow) {
+			commitPendingPayloads();
+		} else if (scheduleCommit) {
+			DispatchQueue.backgroundQueue().dispatchAsync(new DispatchTask() {
+				@Override
+				protected void execute() {
+					commitPendingPayloads();
+				}
+			}, payloadCommitWindowMillis);
+		}
+	}
+
+	/**
+	 * Returns <code>true</code> if the payload should be written right away (along with the pending
+	 * ones queued before it) instead of waiting for the group commit: the user already sees a
+	 * message, a logout or a survey response as done, so it should not be lost if the process dies.
+	 */
+	private static boolean isDurablePayload(Payload payload) {
+		switch (payload.getPayloadType()) {
+			case message:
+			case logout:
+			case survey:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Writes all pending payloads to the database in a single transaction and starts sending them
+	 */
+	private void commitPendingPayloads() {
 		singleThreadExecutor.execute(new Runnable() {
 			@Override
 			public void run() {
 				try {
-					dbHelper.addPayload(payload);
-					sendNextPayloadSync();
+					if (commitPendingPayloadsSync()) {
+						sendNextPayloadSync();
+					}
 				} catch (Exception e) {
-					ApptentiveLog.e(e, "Exception while adding a payload: %s", payload);
+					ApptentiveLog.e(e, "Exception while committing pending payloads");
 				}
 			}
 		});
 	}
 
+	/**
+	 * Writes all pending payloads to the database in a single transaction. Every executor task which
+	 * reads or rewrites the payload table should call this first, so payloads added earlier are
+	 * not handled after the task. Should only be called on the executor thread.
+	 *
+	 * @return <code>true</code> if any payloads were written
+	 */
+	private boolean commitPendingPayloadsSync() {
+		final List<Payload> payloads;
+		synchronized (pendingPayloads) {
+			payloads = new ArrayList<>(pendingPayloads);
+			pendingPayloads.clear();
+			payloadCommitScheduled = false;
+		}
+
+		if (payloads.isEmpty()) {
+			return false;
+		}
+
+		try {
+			dbHelper.addPayloads(payloads, supersedablePayloadFilter);
+		} catch (Exception e) {
+			ApptentiveLog.e(e, "Exception while adding payloads: %s", payloads);
+		}
+		return true;
+	}
+
 	public void deletePayload(final String payloadIdentifier) {
 		if (payloadIdentifier != null) {
 			singleThreadExecutor.execute(new Runnable() {
 				@Override
 				public void run() {
 					try {
+						commitPendingPayloadsSync();
 						dbHelper.deletePayload(payloadIdentifier);
 						sendNextPayloadSync();
 					} catch (Exception e) {
@@ -127,7 +278,64 @@ public class ApptentiveTaskManager implements PayloadStore, EventStore, Apptenti
 		}
 	}
 
+	/**
+	 * Completes sending of the payloads in a single task: deletes sent payloads from the queue (so
+	 * none of them is picked up for sending in between) and schedules the next send.
+	 *
+	 * @param payloadIdentifiers     - payloads to be deleted from the queue
+	 * @param serverErrorIdentifiers - payloads kept after a server error (dropped after too many)
+	 * @param responseCode           - http-request response code
+	 * @param retryAfterMillis       - delay requested by the server's 'Retry-After' header (or -1)
+	 * @param shouldRetry            - if <code>true</code> - sending is paused until a delayed retry
+	 * @param sendNext               - if <code>true</code> - sending of the next payloads starts once deleted
+	 */
+	private void finishSendingPayloads(final List<PayloadData> payloads, final List<String> payloadIdentifiers, final List<String> serverErrorIdentifiers, final int responseCode, final long retryAfterMillis, final boolean shouldRetry, final boolean sendNext) {
+		// payloads are marked as "finishing" until the task is executed (this is called from the
+		// payload sender listener, so they are marked before the sender unregisters them)
+		for (PayloadData payload : payloads) {
+			finishingPayloads.put(payload.getNonce(), payload);
+		}
+
+		singleThreadExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for (String payloadIdentifier : payloadIdentifiers) {
+						dbHelper.deletePayload(payloadIdentifier);
+					}
+					for (String payloadIdentifier : serverErrorIdentifiers) {
+						dbHelper.recordPayloadServerError(payloadIdentifier, payloadMaxServerErrors);
+					}
+				} catch (Exception e) {
+					ApptentiveLog.e(e, "Exception while deleting payloads: %s", payloadIdentifiers);
+				} finally {
+					for (PayloadData payload : payloads) {
+						finishingPayloads.remove(payload.getNonce());
+					}
+				}
+
+				try {
+					if (shouldRetry) {
+						retrySending(responseCode, retryAfterMillis);
+					} else {
+						if (responseCode >= 200 && responseCode < 300) {
+							retryScheduler.onSuccess();
+						}
+						if (sendNext) {
+							sendNextPayloadSync();
+						}
+					}
+				} catch (Exception e) {
+					ApptentiveLog.e(e, "Exception while sending next payloads");
+				}
+			}
+		});
+	}
+
 	public void deleteAllPayloads() {
+		synchronized (pendingPayloads) {
+			pendingPayloads.clear();
+		}
 		singleThreadExecutor.execute(new Runnable() {
 			@Override
 			public void run() {
@@ -140,8 +348,11 @@ public class ApptentiveTaskManager implements PayloadStore, EventStore, Apptenti
 		});
 	}
 
-	private PayloadData getOldestUnsentPayloadSync() {
-		return dbHelper.getOldestUnsentPayload();
+	private List<PayloadData> getOldestUnsentPayloadsSync(PayloadFilter filter) {
+		if (payloadBatchingEnabled) {
+			return dbHelper.getOldestUnsentPayloads(payloadBatchMaxCount, payloadBatchMaxBytes, filter);
+		}
+		return dbHelper.getOldestUnsentPayloads(1, Long.MAX_VALUE, filter);
 	}
 
 	public void deleteAssociatedFiles(final String messageNonce) {
@@ -182,7 +393,79 @@ public class ApptentiveTaskManager implements PayloadStore, EventStore, Apptenti
 	//region PayloadSender.Listener
 
 	@Override
-	public void onFinishSending(PayloadSender sender, PayloadData payload, boolean cancelled, String errorMessage, int responseCode, JSONObject responseData) {
+	public void onFinishSending(PayloadSender sender, PayloadData payload, boolean cancelled, String errorMessage, int responseCode, long retryAfterMillis, JSONObject responseData) {
+		final List<PayloadData> payloads = Collections.singletonList(payload);
+		if (handleFinishSending(payload, cancelled, errorMessage, responseCode, responseData)) {
+			// Only let the payload be deleted if it was successfully sent, or got an unrecoverable client error.
+			finishSendingPayloads(payloads, Collections.singletonList(payload.getNonce()), Collections.<String>emptyList(), responseCode, -1, false, true);
+		} else {
+			final List<String> serverErrorIdentifiers = !cancelled && isServerError(responseCode) ? Collections.singletonList(payload.getNonce()) : Collections.<String>emptyList();
+			finishSendingPayloads(payloads, Collections.<String>emptyList(), serverErrorIdentifiers, responseCode, retryAfterMillis, !cancelled, false);
+		}
+	}
+
+	@Override
+	public void onFinishSendingBatch(PayloadSender sender, List<PayloadData> payloads, boolean cancelled, String errorMessage, int responseCode, long retryAfterMillis, JSONObject responseData) {
+		if (errorMessage != null && !cancelled && responseCode >= 400 && responseCode < 500 && responseCode != 401) {
+			// the batch endpoint rejected the request as a whole: don't lose any payloads and fall back to single requests
+			ApptentiveLog.w(PAYLOADS, "Payload batch was rejected (%d): falling back to single payload requests", responseCode);
+			payloadBatchingEnabled = false;
+			errorMessage = null;
+			responseCode = -1;
+		}
+
+		final Map<String, JSONObject> items = errorMessage == null && !cancelled ? PayloadSender.parseBatchResponse(responseData) : null;
+
+		final List<String> payloadIdentifiers = new ArrayList<>(payloads.size());
+		final List<String> serverErrorIdentifiers = new ArrayList<>();
+		boolean shouldRetry = false;
+		int retryResponseCode = responseCode;
+		for (PayloadData payload : payloads) {
+			String payloadErrorMessage = errorMessage;
+			int payloadResponseCode = responseCode;
+			JSONObject payloadResponseData = null;
+
+			if (items != null) {
+				JSONObject item = items.get(payload.getNonce());
+				payloadResponseCode = item != null ? item.optInt("status", -1) : -1;
+				payloadResponseData = item != null ? item.optJSONObject("body") : null;
+				if (payloadResponseCode < 200 || payloadResponseCode >= 300) {
+					payloadErrorMessage = StringUtils.format("Unexpected batch response code: %d", payloadResponseCode);
+				}
+			}
+
+			if (handleFinishSending(payload, cancelled, payloadErrorMessage, payloadResponseCode, payloadResponseData)) {
+				payloadIdentifiers.add(payload.getNonce());
+			} else {
+				shouldRetry = true;
+				retryResponseCode = payloadResponseCode;
+				if (!cancelled && isServerError(payloadResponseCode)) {
+					serverErrorIdentifiers.add(payload.getNonce());
+				}
+			}
+		}
+
+		if (cancelled) {
+			// don't remove cancelled payloads from the queue
+			finishSendingPayloads(payloads, Collections.<String>emptyList(), Collections.<String>emptyList(), responseCode, -1, false, false);
+			return;
+		}
+
+		// if some payloads should be retried - we don't send the next payloads until the retry
+		if (shouldRetry) {
+			finishSendingPayloads(payloads, payloadIdentifiers, serverErrorIdentifiers, retryResponseCode, retryAfterMillis, true, false);
+		} else {
+			finishSendingPayloads(payloads, payloadIdentifiers, serverErrorIdentifiers, responseCode, -1, false, true);
+		}
+	}
+
+	/**
+	 * Handles a payload sending result.
+	 *
+	 * @return <code>true</code> if payload should be deleted from the queue or <code>false</code> if
+	 * it should be kept for a retry
+	 */
+	private boolean handleFinishSending(PayloadData payload, boolean cancelled, String errorMessage, int responseCode, JSONObject responseData) {
 		ApptentiveNotificationCenter.defaultCenter()
 			.postNotification(NOTIFICATION_PAYLOAD_DID_FINISH_SEND,
 				NOTIFICATION_KEY_PAYLOAD, payload,
@@ -192,33 +475,46 @@ public class ApptentiveTaskManager implements PayloadStore, EventStore, Apptenti
 
 		if (cancelled) {
 			ApptentiveLog.v(PAYLOADS, "Payload sending was cancelled: %s", payload);
-			return; // don't remove cancelled payloads from the queue
+			return false; // don't remove cancelled payloads from the queue
 		}
 
 		if (errorMessage != null) {
 			ApptentiveLog.e(PAYLOADS, "Payload sending failed: %s\n%s", payload, errorMessage);
 			if (appInBackground) {
 				ApptentiveLog.v(PAYLOADS, "The app went to the background so we won't remove the payload from the queue");
-				retrySending(5000);
-				return;
-			} else if (responseCode == -1) {
-				ApptentiveLog.v(PAYLOADS, "Payload failed to send due to a connection error.");
-				retrySending(5000);
-				return;
-			} else if (responseCode > 500) {
-				ApptentiveLog.v(PAYLOADS, "Payload failed to send due to a server error.");
-				retrySending(5000);
-				return;
+				return false;
+			} else if (PayloadRetryScheduler.isRetryableFailure(responseCode)) {
+				ApptentiveLog.v(PAYLOADS, "Payload failed to send due to a %s.", responseCode == -1 ? "connection error" : responseCode == 429 ? "rate limiting" : "server error");
+				return false;
 			}
 		} else {
 			ApptentiveLog.v(PAYLOADS, "Payload was successfully sent: %s", payload);
 		}
 
-		// Only let the payload be deleted if it was successfully sent, or got an unrecoverable client error.
-		deletePayload(payload.getNonce());
+		return true;
+	}
+
+	private static boolean isServerError(int responseCode) {
+		return responseCode >= 500;
 	}
 
-	private void retrySending(long delayMillis) {
+	/**
+	 * Pauses sending of new payloads and schedules a delayed retry (unless the circuit breaker parks
+	 * the delivery). Should only be called on the executor thread.
+	 */
+	private void retrySending(int responseCode, long retryAfterMillis) {
+		long delayMillis = retryScheduler.onFailure(responseCode, retryAfterMillis);
+		if (delayMillis < 0) {
+			if (retryScheduler.getState() == PayloadRetryScheduler.State.CIRCUIT_OPEN) {
+				ApptentiveLog.w(PAYLOADS, "Payload sending is paused after repeated server errors: %s", retryScheduler);
+			} else {
+				ApptentiveLog.v(PAYLOADS, "Payload sending retry is already scheduled");
+			}
+			return;
+		}
+
+		final long attemptTime = retryScheduler.getNextAttemptTime();
+
 		ApptentiveLog.d(PAYLOADS, "Retry sending payloads in %d ms", delayMillis);
 		DispatchQueue.backgroundQueue().dispatchAsync(new DispatchTask() {
 			@Override
@@ -227,8 +523,10 @@ public class ApptentiveTaskManager implements PayloadStore, EventStore, Apptenti
 					@Override
 					public void run() {
 						try {
-							ApptentiveLog.d(PAYLOADS, "Retrying sending payloads");
-							sendNextPayloadSync();
+							if (retryScheduler.onRetryTimeout(attemptTime)) {
+								ApptentiveLog.d(PAYLOADS, "Retrying sending payloads");
+								sendNextPayloadSync();
+							}
 						} catch (Exception e) {
 							ApptentiveLog.e(e, "Exception while trying to retry sending payloads");
 						}
@@ -241,49 +539,210 @@ public class ApptentiveTaskManager implements PayloadStore, EventStore, Apptenti
 	//endregion
 
 	//region Payload Sending
-	private void sendNextPayload() {
-		DispatchQueue.backgroundQueue().dispatchAsync(new DispatchTask() {
+	/**
+	 * Closes the retry circuit breaker (if open) and resumes sending payloads
+	 */
+	private void resumeSendingPayloads() {
+		singleThreadExecutor.execute(new Runnable() {
 			@Override
-			protected void execute() {
-				sendNextPayloadSync();
+			public void run() {
+				try {
+					if (retryScheduler.resume()) {
+						ApptentiveLog.d(PAYLOADS, "Resuming payload sending after repeated server errors");
+					}
+					sendNextPayloadSync();
+				} catch (Exception e) {
+					ApptentiveLog.e(e, "Exception while resuming sending payloads");
+				}
 			}
 		});
 	}
 
+	/**
+	 * Fills the payload sender window with the oldest unsent payloads which can be sent right now
+	 * (see {@link PayloadSender#createPayloadFilter(java.util.Map)}). Should only be called on
+	 * the executor thread.
+	 */
 	private void sendNextPayloadSync() {
+		commitPendingPayloadsSync();
+
 		if (appInBackground) {
 			ApptentiveLog.v(PAYLOADS, "Can't send the next payload: the app is in the background");
 			return;
 		}
 
-		if (payloadSender.isSendingPayload()) {
-			ApptentiveLog.v(PAYLOADS, "Can't send the next payload: payload sender is busy");
+		if (!retryScheduler.canSend()) {
+			ApptentiveLog.v(PAYLOADS, "Can't send the next payload: waiting for a retry (%s)", retryScheduler);
 			return;
 		}
 
-		final PayloadData payload;
-		try {
-			payload = getOldestUnsentPayloadSync();
-		} catch (Exception e) {
-			ApptentiveLog.e(e, "Exception while peeking the next payload for sending");
-			return;
+		while (!payloadSender.isBusy()) {
+			final List<PayloadData> payloads;
+			try {
+				final PayloadFilter filter = payloadSender.createPayloadFilter(finishingPayloads);
+				payloads = getOldestUnsentPayloadsSync(filter);
+			} catch (Exception e) {
+				ApptentiveLog.e(e, "Exception while peeking the next payload for sending");
+				return;
+			}
+
+			if (payloads.isEmpty()) {
+				return;
+			}
+
+			boolean scheduled = payloadSender.sendPayloads(payloads);
+			if (!scheduled) {
+				return;
+			}
+
+			// if payload sending was scheduled - notify the rest of the SDK
+			for (PayloadData payload : payloads) {
+				ApptentiveNotificationCenter.defaultCenter()
+					.postNotification(NOTIFICATION_PAYLOAD_WILL_START_SEND, NOTIFICATION_KEY_PAYLOAD, payload);
+			}
 		}
 
-		if (payload == null) {
-			return;
+		ApptentiveLog.v(PAYLOADS, "Can't send the next payload: payload sender is busy");
+	}
+
+	//endregion
+
+	//region Getters/Setters
+
+	/**
+	 * Enables or disables sending multiple queued payloads in a single batch request
+	 */
+	public void setPayloadBatchingEnabled(boolean payloadBatchingEnabled) {
+		this.payloadBatchingEnabled = payloadBatchingEnabled;
+	}
+
+	public void setPayloadBatchMaxCount(int payloadBatchMaxCount) {
+		if (payloadBatchMaxCount < 1) {
+			throw new IllegalArgumentException("Illegal payload batch max count: " + payloadBatchMaxCount);
+		}
+		this.payloadBatchMaxCount = payloadBatchMaxCount;
+	}
+
+	/**
+	 * Sets the max number of delivery attempts of a payload which end with a server error (5xx):
+	 * the payload is dropped after that so it doesn't block the payloads behind it.
+	 */
+	public void setPayloadMaxServerErrors(int maxServerErrors) {
+		if (maxServerErrors < 1) {
+			throw new IllegalArgumentException("Illegal max server errors: " + maxServerErrors);
+		}
+		this.payloadMaxServerErrors = maxServerErrors;
+	}
+
+	public void setPayloadBatchMaxBytes(long payloadBatchMaxBytes) {
+		this.payloadBatchMaxBytes = payloadBatchMaxBytes;
+	}
+
+	/**
+	 * Sets the max number of payload requests in flight. Ordered payloads (messages, person/device
+	 * updates, etc) are still sent one at a time within the same conversation. The low priority
+	 * request limit of the HTTP client is updated as well so the requests are not serialized there.
+	 */
+	public void setMaxConcurrentPayloadRequests(int maxConcurrentRequests) {
+		payloadSender.setMaxConcurrentRequests(maxConcurrentRequests);
+		apptentiveHttpClient.setMaxPayloadRequests(maxConcurrentRequests);
+	}
+
+	/**
+	 * Sets the time window for collecting added payloads before they are written to the database in
+	 * a single transaction. Messages, logouts and survey responses are written right away.
+	 */
+	public void setPayloadCommitWindowMillis(long payloadCommitWindowMillis) {
+		if (payloadCommitWindowMillis < 0) {
+			throw new IllegalArgumentException("Illegal payload commit window: " + payloadCommitWindowMillis);
 		}
+		this.payloadCommitWindowMillis = payloadCommitWindowMillis;
+	}
+
+	/**
+	 * Enables gzip compression of unencrypted json payload bodies of at least <code>threshold</code>
+	 * bytes. Bodies are compressed when payloads are added, so they are stored compressed as well.
+	 * Pass a negative value to disable compression (default).
+	 */
+	public void setPayloadCompressionThreshold(int threshold) {
+		dbHelper.setPayloadCompressionThreshold(threshold);
+	}
+
+	/**
+	 * Sets the max number of queued payloads and the max total size of their bodies. Once the limits
+	 * are exceeded, the oldest events which are not being sent are evicted (messages and survey
+	 * responses are never evicted). The size is the sum of the stored body lengths and only
+	 * approximates the disk usage.
+	 */
+	public void setPayloadQueueLimits(int maxCount, long maxBytes) {
+		dbHelper.setPayloadQueueLimits(maxCount, maxBytes);
+	}
+
+	/**
+	 * Returns the number of payloads of a given type evicted from the full queue
+	 */
+	public int getEvictedPayloadCount(PayloadType payloadType) {
+		return dbHelper.getEvictedPayloadCount(payloadType);
+	}
+
+	/**
+	 * Returns the total number of payloads evicted from the full queue
+	 */
+	public int getEvictedPayloadCount() {
+		return dbHelper.getEvictedPayloadCount();
+	}
+
+	/**
+	 * Returns the total body size of payloads evicted from the full queue
+	 */
+	public long getEvictedPayloadBytes() {
+		return dbHelper.getEvictedPayloadBytes();
+	}
+
+	/**
+	 * Returns the state of the payload retry scheduler
+	 */
+	public PayloadRetryScheduler.State getPayloadRetryState() {
+		return retryScheduler.getState();
+	}
 
-		boolean scheduled = payloadSender.sendPayload(payload);
+	/**
+	 * Returns time of the next payload delivery attempt (or 0 if no retry is scheduled)
+	 */
+	public long getPayloadNextAttemptTime() {
+		return retryScheduler.getNextAttemptTime();
+	}
 
-		// if payload sending was scheduled - notify the rest of the SDK
-		if (scheduled) {
-			ApptentiveNotificationCenter.defaultCenter()
-				.postNotification(NOTIFICATION_PAYLOAD_WILL_START_SEND, NOTIFICATION_KEY_PAYLOAD, payload);
+	public void setPayloadCommitMaxCount(int payloadCommitMaxCount) {
+		if (payloadCommitMaxCount < 1) {
+			throw new IllegalArgumentException("Illegal payload commit max count: " + payloadCommitMaxCount);
+		}
+		synchronized (pendingPayloads) {
+			this.payloadCommitMaxCount = payloadCommitMaxCount;
 		}
 	}
 
 	//endregion
 
+	/**
+	 * Sets the conversation id and token of the queued payloads (including the ones added but not
+	 * yet committed) which were created before the conversation id was known
+	 */
+	void updateIncompletePayloads(final String conversationId, final String conversationToken, final String conversationLocalIdentifier) {
+		singleThreadExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					commitPendingPayloadsSync(); // payloads added right before the state change need the conversation id too
+					dbHelper.updateIncompletePayloads(conversationId, conversationToken, conversationLocalIdentifier);
+					sendNextPayloadSync(); // after we've updated payloads - we need to send them
+				} catch (Exception e) {
+					ApptentiveLog.e(e, "Exception while trying to update incomplete payloads");
+				}
+			}
+		});
+	}
+
 	@Override
 	public void onReceiveNotification(ApptentiveNotification notification) {
 		if (notification.hasName(NOTIFICATION_CONVERSATION_STATE_DID_CHANGE)) {
@@ -300,24 +759,15 @@ public class ApptentiveTaskManager implements PayloadStore, EventStore, Apptenti
 				// the payloads that may have already been enqueued so
 				// that they each have the Conversation ID.
 				if (conversation.hasState(ANONYMOUS)) {
-					singleThreadExecutor.execute(new Runnable() {
-						@Override
-						public void run() {
-							try {
-								dbHelper.updateIncompletePayloads(conversationId, conversationToken, conversationLocalIdentifier);
-								sendNextPayloadSync(); // after we've updated payloads - we need to send them
-							} catch (Exception e) {
-								ApptentiveLog.e(e, "Exception while trying to update incomplete payloads");
-							}
-						}
-					});
+					updateIncompletePayloads(conversationId, conversationToken, conversationLocalIdentifier);
 				}
 			}
 		} else if (notification.hasName(NOTIFICATION_APP_ENTERED_FOREGROUND)) {
 			appInBackground = false;
-			sendNextPayload(); // when the app comes back from the background - we need to resume sending payloads
+			resumeSendingPayloads(); // when the app comes back from the background - we need to resume sending payloads
 		} else if (notification.hasName(NOTIFICATION_APP_ENTERED_BACKGROUND)) {
 			appInBackground = true;
+			commitPendingPayloads(); // don't keep pending payloads in memory while the app is in the background
 		}
 	}
 }
\ No newline at end of file
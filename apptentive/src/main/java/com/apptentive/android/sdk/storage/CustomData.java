@@ -34,6 +34,23 @@ public class CustomData extends HashMap<String, Serializable> implements Saveabl
 		}
 	}
 
+	private transient FieldChangedListener fieldListener;
+	private transient String fieldKeyPrefix;
+
+	/**
+	 * @param keyPrefix prepended to the custom data keys reported to <code>listener</code>
+	 */
+	public void setFieldChangedListener(FieldChangedListener listener, String keyPrefix) {
+		this.fieldListener = listener;
+		this.fieldKeyPrefix = keyPrefix;
+	}
+
+	private void notifyFieldChanged(Object key) {
+		if (fieldListener != null) {
+			fieldListener.onFieldChanged(key != null ? fieldKeyPrefix + key : null);
+		}
+	}
+
 	//endregion
 
 
@@ -41,6 +58,7 @@ public class CustomData extends HashMap<String, Serializable> implements Saveabl
 	@Override
 	public Serializable put(String key, Serializable value) {
 		Serializable ret = super.put(key, value);
+		notifyFieldChanged(key);
 		notifyDataChanged();
 		return ret;
 	}
@@ -48,12 +66,14 @@ public class CustomData extends HashMap<String, Serializable> implements Saveabl
 	@Override
 	public void putAll(Map<? extends String, ? extends Serializable> m) {
 		super.putAll(m);
+		notifyFieldChanged(null);
 		notifyDataChanged();
 	}
 
 	@Override
 	public Serializable remove(Object key) {
 		Serializable ret = super.remove(key);
+		notifyFieldChanged(key);
 		notifyDataChanged();
 		return ret;
 	}
@@ -61,6 +81,7 @@ public class CustomData extends HashMap<String, Serializable> implements Saveabl
 	@Override
 	public void clear() {
 		super.clear();
+		notifyFieldChanged(null);
 		notifyDataChanged();
 	}
 	//endregion
@@ -54,6 +54,9 @@ public class Device implements Saveable, DataChangedListener {
 
 	@Override
 	public void notifyDataChanged() {
+		if (fieldListener != null) {
+			fieldListener.onFieldChanged(FieldChangedListener.DEVICE);
+		}
 		if (listener != null) {
 			listener.onDataChanged();
 		}
@@ -61,7 +64,17 @@ public class Device implements Saveable, DataChangedListener {
 
 	@Override
 	public void onDataChanged() {
-		notifyDataChanged();
+		// custom data reports its own keys to the field listener
+		if (listener != null) {
+			listener.onDataChanged();
+		}
+	}
+
+	private transient FieldChangedListener fieldListener;
+
+	public void setFieldChangedListener(FieldChangedListener listener) {
+		this.fieldListener = listener;
+		customData.setFieldChangedListener(listener, FieldChangedListener.DEVICE_CUSTOM_DATA);
 	}
 
 	// TODO: unit tests
@@ -318,6 +331,10 @@ public class Device implements Saveable, DataChangedListener {
 	public void setCustomData(CustomData customData) {
 		this.customData = customData;
 		this.customData.setDataChangedListener(this);
+		this.customData.setFieldChangedListener(fieldListener, FieldChangedListener.DEVICE_CUSTOM_DATA);
+		if (fieldListener != null) {
+			fieldListener.onFieldChanged(null);
+		}
 		notifyDataChanged();
 	}
 
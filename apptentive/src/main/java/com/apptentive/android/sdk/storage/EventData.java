@@ -39,10 +39,24 @@ public class EventData implements Saveable {
 		}
 	}
 
+	private transient FieldChangedListener fieldListener;
+
+	public void setFieldChangedListener(FieldChangedListener listener) {
+		this.fieldListener = listener;
+	}
+
+	private void notifyFieldChanged(String key) {
+		if (fieldListener != null) {
+			fieldListener.onFieldChanged(key);
+		}
+	}
+
 	//endregion
 
 
-	// TODO: Find all usage of this and ensure they use the same timestamp for saving events and runnign interaction queries.
+	/**
+	 * Records an event. Engaging passes the same timestamp it evaluates the criteria at.
+	 */
 	public synchronized void storeEventForCurrentAppVersion(double timestamp, int versionCode, String versionName, String eventLabel) {
 		EventRecord eventRecord = events.get(eventLabel);
 		if (eventRecord == null) {
@@ -50,10 +64,13 @@ public class EventData implements Saveable {
 			events.put(eventLabel, eventRecord);
 		}
 		eventRecord.update(timestamp, versionName, versionCode);
+		notifyFieldChanged(FieldChangedListener.CODE_POINT + eventLabel);
 		notifyDataChanged();
 	}
 
-	// TODO: Find all usage of this and ensure they use the same timestamp for saving events and runnign interaction queries.
+	/**
+	 * Records an interaction. Engaging passes the same timestamp it evaluates the criteria at.
+	 */
 	public synchronized void storeInteractionForCurrentAppVersion(double timestamp, int versionCode, String versionName, String interactionId) {
 		EventRecord eventRecord = interactions.get(interactionId);
 		if (eventRecord == null) {
@@ -61,6 +78,7 @@ public class EventData implements Saveable {
 			interactions.put(interactionId, eventRecord);
 		}
 		eventRecord.update(timestamp, versionName, versionCode);
+		notifyFieldChanged(FieldChangedListener.INTERACTIONS + interactionId);
 		notifyDataChanged();
 	}
 
@@ -149,6 +167,7 @@ public class EventData implements Saveable {
 	 */
 	public synchronized void setEvents(Map<String, EventRecord> events) {
 		this.events = events;
+		notifyFieldChanged(null);
 		notifyDataChanged();
 	}
 
@@ -157,6 +176,7 @@ public class EventData implements Saveable {
 	 */
 	public synchronized void setInteractions(Map<String, EventRecord> interactions) {
 		this.interactions = interactions;
+		notifyFieldChanged(null);
 		notifyDataChanged();
 	}
 	//endregion
@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.storage;
+
+/**
+ * Receives the key of the data interaction criteria may depend on every time it changes, so the
+ * cached criteria results which read it can be dropped.
+ */
+public interface FieldChangedListener {
+	String CODE_POINT = "code_point/";
+	String INTERACTIONS = "interactions/";
+	String PERSON = "person";
+	String PERSON_CUSTOM_DATA = "person/custom_data/";
+	String DEVICE = "device";
+	String DEVICE_CUSTOM_DATA = "device/custom_data/";
+	String VERSION_HISTORY = "version_history";
+
+	/**
+	 * @param key changed data (for example, {@link #CODE_POINT} followed by the event label) or
+	 *            <code>null</code> if anything might have changed
+	 */
+	void onFieldChanged(String key);
+}
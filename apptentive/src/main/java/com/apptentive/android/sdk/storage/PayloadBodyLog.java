@@ -0,0 +1,316 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.storage;
+
+import com.apptentive.android.sdk.ApptentiveLog;
+import com.apptentive.android.sdk.network.HttpRequestBody;
+import com.apptentive.android.sdk.util.StringUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.apptentive.android.sdk.ApptentiveLogTag.DATABASE;
+
+/**
+ * Append-only storage for payload bodies. Bodies are appended to the active segment file until it
+ * grows past the max segment size, then a new segment is started. Each body is addressed by its
+ * segment id, offset and length (stored in the payload table). A segment is never modified: once
+ * none of the payloads reference it, the whole file is deleted.
+ */
+class PayloadBodyLog {
+	private static final String SEGMENT_FILE_PREFIX = "segment-";
+	private static final String SEGMENT_FILE_SUFFIX = ".log";
+	private static final int WRITE_BUFFER_SIZE = 8192;
+
+	private final File directory;
+	private final long maxSegmentSize;
+
+	/**
+	 * Id of the segment new bodies are appended to (or -1 if not resolved yet)
+	 */
+	private long activeSegmentId = -1;
+	private RandomAccessFile activeSegmentFile;
+
+	PayloadBodyLog(File directory, long maxSegmentSize) {
+		if (directory == null) {
+			throw new IllegalArgumentException("Directory is null");
+		}
+		if (maxSegmentSize < 1) {
+			throw new IllegalArgumentException("Illegal max segment size: " + maxSegmentSize);
+		}
+		this.directory = directory;
+		this.maxSegmentSize = maxSegmentSize;
+	}
+
+	//region Read/Write
+
+	/**
+	 * Appends data to the active segment and returns its location
+	 */
+	synchronized Entry append(byte[] data) throws IOException {
+		if (data == null) {
+			throw new IllegalArgumentException("Data is null");
+		}
+
+		RandomAccessFile file = getActiveSegmentFile();
+		if (file.length() > 0 && file.length() + data.length > maxSegmentSize) {
+			rollActiveSegment();
+			file = getActiveSegmentFile();
+		}
+
+		long offset = file.length();
+		file.seek(offset);
+		file.write(data);
+		return new Entry(activeSegmentId, offset, data.length);
+	}
+
+	/**
+	 * Appends data streamed by the writer to the active segment and returns its location. If the
+	 * writer fails the partially written data is discarded.
+	 */
+	synchronized Entry append(Writer writer) throws Exception {
+		if (writer == null) {
+			throw new IllegalArgumentException("Writer is null");
+		}
+
+		RandomAccessFile file = getActiveSegmentFile();
+		if (file.length() >= maxSegmentSize) {
+			rollActiveSegment();
+			file = getActiveSegmentFile();
+		}
+
+		long offset = file.length();
+		file.seek(offset);
+
+		boolean successful = false;
+		try {
+			OutputStream out = new BufferedOutputStream(new SegmentOutputStream(file), WRITE_BUFFER_SIZE);
+			writer.writeTo(out);
+			out.flush();
+
+			long length = file.getFilePointer() - offset;
+			if (length > Integer.MAX_VALUE) {
+				throw new IOException("Payload body is too large: " + length);
+			}
+			successful = true;
+			return new Entry(activeSegmentId, offset, (int) length);
+		} finally {
+			if (!successful) {
+				file.setLength(offset);
+			}
+		}
+	}
+
+	/**
+	 * Reads data at a given location
+	 *
+	 * @throws IOException if segment is missing or truncated
+	 */
+	synchronized byte[] read(long segmentId, long offset, int length) throws IOException {
+		File segmentFile = getSegmentFile(segmentId);
+		if (!segmentFile.exists()) {
+			throw new IOException("Missing payload segment: " + segmentFile);
+		}
+
+		RandomAccessFile file = new RandomAccessFile(segmentFile, "r");
+		try {
+			byte[] data = new byte[length];
+			file.seek(offset);
+			file.readFully(data);
+			return data;
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Creates a request body which streams data at a given location from the disk
+	 *
+	 * @throws IOException if segment is missing
+	 */
+	synchronized HttpRequestBody createBody(long segmentId, long offset, int length) throws IOException {
+		File segmentFile = getSegmentFile(segmentId);
+		if (!segmentFile.exists()) {
+			throw new IOException("Missing payload segment: " + segmentFile);
+		}
+		return HttpRequestBody.create(segmentFile, offset, length);
+	}
+
+	//endregion
+
+	//region Segments
+
+	/**
+	 * Deletes a segment file which is no longer referenced by any of the payloads. The active segment
+	 * is never deleted.
+	 *
+	 * @return <code>true</code> if segment was deleted
+	 */
+	synchronized boolean deleteSegment(long segmentId) {
+		if (segmentId == getActiveSegmentId()) {
+			return false;
+		}
+
+		boolean deleted = getSegmentFile(segmentId).delete();
+		ApptentiveLog.v(DATABASE, "Deleted payload segment %d: %b", segmentId, deleted);
+		return deleted;
+	}
+
+	/**
+	 * Deletes all segment files (including the active one)
+	 */
+	synchronized void deleteAllSegments() {
+		closeActiveSegment();
+		for (long segmentId : listSegmentIds()) {
+			getSegmentFile(segmentId).delete();
+		}
+		activeSegmentId = -1;
+	}
+
+	/**
+	 * Returns ids of all segment files on the disk
+	 */
+	synchronized List<Long> listSegmentIds() {
+		List<Long> segmentIds = new ArrayList<>();
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				long segmentId = parseSegmentId(file.getName());
+				if (segmentId != -1) {
+					segmentIds.add(segmentId);
+				}
+			}
+		}
+		return segmentIds;
+	}
+
+	synchronized long getActiveSegmentId() {
+		if (activeSegmentId == -1) {
+			activeSegmentId = resolveActiveSegmentId();
+		}
+		return activeSegmentId;
+	}
+
+	/**
+	 * Closes the active segment and starts a new one with the next append
+	 */
+	private void rollActiveSegment() {
+		closeActiveSegment();
+		activeSegmentId = getActiveSegmentId() + 1;
+		ApptentiveLog.v(DATABASE, "Started payload segment %d", activeSegmentId);
+	}
+
+	private RandomAccessFile getActiveSegmentFile() throws IOException {
+		if (activeSegmentFile == null) {
+			if (!directory.exists() && !directory.mkdirs()) {
+				throw new IOException("Payload segment directory could not be created: " + directory);
+			}
+			activeSegmentFile = new RandomAccessFile(getSegmentFile(getActiveSegmentId()), "rw");
+		}
+		return activeSegmentFile;
+	}
+
+	private void closeActiveSegment() {
+		if (activeSegmentFile != null) {
+			try {
+				activeSegmentFile.close();
+			} catch (IOException e) {
+				ApptentiveLog.w(DATABASE, "Error closing payload segment", e);
+			}
+			activeSegmentFile = null;
+		}
+	}
+
+	/**
+	 * Continues with the latest segment on the disk (or starts the first one)
+	 */
+	private long resolveActiveSegmentId() {
+		long segmentId = 0;
+		for (long id : listSegmentIds()) {
+			segmentId = Math.max(segmentId, id);
+		}
+		return segmentId;
+	}
+
+	private File getSegmentFile(long segmentId) {
+		return new File(directory, SEGMENT_FILE_PREFIX + segmentId + SEGMENT_FILE_SUFFIX);
+	}
+
+	private static long parseSegmentId(String filename) {
+		if (filename.startsWith(SEGMENT_FILE_PREFIX) && filename.endsWith(SEGMENT_FILE_SUFFIX)) {
+			try {
+				return Long.parseLong(filename.substring(SEGMENT_FILE_PREFIX.length(), filename.length() - SEGMENT_FILE_SUFFIX.length()));
+			} catch (NumberFormatException e) {
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	//endregion
+
+	//region Writer
+
+	/**
+	 * Streams a payload body into the log
+	 */
+	interface Writer {
+		void writeTo(OutputStream out) throws Exception;
+	}
+
+	/**
+	 * Output stream which writes into the current position of the segment file
+	 */
+	private static class SegmentOutputStream extends OutputStream {
+		private final RandomAccessFile file;
+
+		SegmentOutputStream(RandomAccessFile file) {
+			this.file = file;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			file.write(b);
+		}
+
+		@Override
+		public void write(byte[] buffer, int offset, int count) throws IOException {
+			file.write(buffer, offset, count);
+		}
+	}
+
+	//endregion
+
+	//region Entry
+
+	/**
+	 * Location of a payload body in the log
+	 */
+	static class Entry {
+		final long segmentId;
+		final long offset;
+		final int length;
+
+		Entry(long segmentId, long offset, int length) {
+			this.segmentId = segmentId;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		@Override
+		public String toString() {
+			return StringUtils.format("segment=%d offset=%d length=%d", segmentId, offset, length);
+		}
+	}
+
+	//endregion
+}
@@ -0,0 +1,20 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.storage;
+
+import com.apptentive.android.sdk.model.PayloadType;
+
+/**
+ * Filter for selecting unsent payloads from the queue. Payloads are passed to the filter in the
+ * send order so an implementation might keep a state between the calls.
+ */
+interface PayloadFilter {
+	/**
+	 * Returns <code>true</code> if payload can be selected for sending
+	 */
+	boolean accept(String nonce, PayloadType type, String conversationId);
+}
@@ -9,6 +9,8 @@ package com.apptentive.android.sdk.storage;
 import com.apptentive.android.sdk.model.PayloadData;
 import com.apptentive.android.sdk.network.HttpRequest;
 
+import java.util.List;
+
 /**
  * Class responsible for creating a {@link HttpRequest} for a given payload
  * TODO: this is a legacy workaround and might be removed soon
@@ -21,4 +23,12 @@ public interface PayloadRequestSender {
 	 * @param listener Http-request listener for the payload request
 	 */
 	HttpRequest createPayloadSendRequest(PayloadData payload, HttpRequest.Listener<HttpRequest> listener);
+
+	/**
+	 * Creates and sends a single {@link HttpRequest} for a batch of payloads
+	 *
+	 * @param payloads to be sent (should belong to the same conversation)
+	 * @param listener Http-request listener for the batch request
+	 */
+	HttpRequest createPayloadBatchSendRequest(List<PayloadData> payloads, HttpRequest.Listener<HttpRequest> listener);
 }
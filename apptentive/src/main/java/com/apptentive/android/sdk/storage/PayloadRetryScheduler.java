@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.storage;
+
+import com.apptentive.android.sdk.util.StringUtils;
+
+import java.util.Random;
+
+/**
+ * Decides when payload delivery is retried after a failure: exponential backoff with full jitter
+ * (a random delay between zero and the exponential cap) limited by the max delay, or the server's
+ * <code>Retry-After</code> if it's longer. After repeated server errors the circuit breaker parks
+ * the delivery until {@link #resume()} is called (or a request succeeds).
+ * <p>
+ * The class is not thread safe: state transitions should happen on a single thread (state getters
+ * are safe to call from any thread).
+ */
+public class PayloadRetryScheduler {
+	public static final long DEFAULT_BASE_DELAY_MILLIS = 5 * 1000;
+	public static final long DEFAULT_MAX_DELAY_MILLIS = 10 * 60 * 1000;
+	public static final int DEFAULT_CIRCUIT_BREAKER_THRESHOLD = 5;
+
+	public enum State {
+		/**
+		 * Payloads can be sent
+		 */
+		IDLE,
+
+		/**
+		 * Waiting for a delayed retry
+		 */
+		BACKING_OFF,
+
+		/**
+		 * Delivery is parked after repeated server errors
+		 */
+		CIRCUIT_OPEN
+	}
+
+	private final Random random;
+
+	private long baseDelayMillis = DEFAULT_BASE_DELAY_MILLIS;
+	private long maxDelayMillis = DEFAULT_MAX_DELAY_MILLIS;
+	private int circuitBreakerThreshold = DEFAULT_CIRCUIT_BREAKER_THRESHOLD;
+
+	private volatile State state = State.IDLE;
+
+	/**
+	 * Number of failed attempts since the last success
+	 */
+	private int failureCount;
+
+	/**
+	 * Number of failed attempts in a row which ended with a server error (5xx)
+	 */
+	private int serverErrorCount;
+
+	/**
+	 * Time of the next delivery attempt (only valid in {@link State#BACKING_OFF})
+	 */
+	private volatile long nextAttemptTime;
+
+	public PayloadRetryScheduler() {
+		this(new Random());
+	}
+
+	PayloadRetryScheduler(Random random) {
+		if (random == null) {
+			throw new IllegalArgumentException("Random is null");
+		}
+		this.random = random;
+	}
+
+	//region State transitions
+
+	/**
+	 * Handles a failed delivery attempt.
+	 *
+	 * @param responseCode     - HTTP response code (or -1 on a connection error)
+	 * @param retryAfterMillis - the server's <code>Retry-After</code> (or -1 if not specified)
+	 * @return retry delay in millis or -1 if no retry should be scheduled (a retry is already
+	 * scheduled or the circuit is open)
+	 */
+	long onFailure(int responseCode, long retryAfterMillis) {
+		if (state != State.IDLE) {
+			return -1; // failures of the requests which were in flight at the same time count as one
+		}
+
+		++failureCount;
+		serverErrorCount = responseCode >= 500 ? serverErrorCount + 1 : 0;
+
+		if (serverErrorCount >= circuitBreakerThreshold) {
+			state = State.CIRCUIT_OPEN;
+			nextAttemptTime = 0;
+			return -1;
+		}
+
+		long delayMillis = getBackoffDelayMillis(failureCount);
+		if (retryAfterMillis > delayMillis) {
+			delayMillis = retryAfterMillis;
+		}
+
+		state = State.BACKING_OFF;
+		nextAttemptTime = currentTimeMillis() + delayMillis;
+		return delayMillis;
+	}
+
+	/**
+	 * Handles a successful delivery: resets the backoff and closes the circuit
+	 */
+	void onSuccess() {
+		failureCount = 0;
+		serverErrorCount = 0;
+		state = State.IDLE;
+		nextAttemptTime = 0;
+	}
+
+	/**
+	 * Handles a delayed retry.
+	 *
+	 * @param attemptTime - the value of {@link #getNextAttemptTime()} when the retry was scheduled
+	 * @return <code>true</code> if delivery can be resumed or <code>false</code> if the retry is
+	 * outdated
+	 */
+	boolean onRetryTimeout(long attemptTime) {
+		if (state == State.BACKING_OFF && nextAttemptTime == attemptTime) {
+			state = State.IDLE;
+			nextAttemptTime = 0;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Closes the circuit (i.e. when the app enters foreground).
+	 *
+	 * @return <code>true</code> if delivery was parked
+	 */
+	boolean resume() {
+		if (state == State.CIRCUIT_OPEN) {
+			serverErrorCount = 0;
+			state = State.IDLE;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns <code>true</code> if a failed payload should be kept in the queue for a retry: a
+	 * connection error, rate limiting or a server error (any 5xx, including 500). A payload which
+	 * keeps getting server errors is dropped after a few attempts (see
+	 * {@link ApptentiveDatabaseHelper#recordPayloadServerError(String, int)}).
+	 */
+	static boolean isRetryableFailure(int responseCode) {
+		return responseCode == -1 || responseCode == 429 || responseCode >= 500;
+	}
+
+	//endregion
+
+	//region Backoff
+
+	/**
+	 * Returns a random delay between zero and the exponential cap for a given attempt (full jitter)
+	 */
+	long getBackoffDelayMillis(int attempt) {
+		long cap = baseDelayMillis;
+		for (int i = 1; i < attempt && cap < maxDelayMillis; ++i) {
+			cap *= 2;
+		}
+		cap = Math.min(cap, maxDelayMillis);
+		return (long) (random.nextDouble() * cap);
+	}
+
+	/* This method can be overridden in a subclass for mocking the clock */
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+
+	//endregion
+
+	//region String representation
+
+	@Override
+	public String toString() {
+		return StringUtils.format("state=%s failures=%d serverErrors=%d nextAttemptTime=%d", state, failureCount, serverErrorCount, nextAttemptTime);
+	}
+
+	//endregion
+
+	//region Getters/Setters
+
+	public State getState() {
+		return state;
+	}
+
+	boolean canSend() {
+		return state == State.IDLE;
+	}
+
+	/**
+	 * Returns time of the next delivery attempt or 0 if not scheduled
+	 */
+	public long getNextAttemptTime() {
+		return nextAttemptTime;
+	}
+
+	public int getFailureCount() {
+		return failureCount;
+	}
+
+	void setBaseDelayMillis(long baseDelayMillis) {
+		if (baseDelayMillis < 1) {
+			throw new IllegalArgumentException("Illegal base delay: " + baseDelayMillis);
+		}
+		this.baseDelayMillis = baseDelayMillis;
+	}
+
+	void setMaxDelayMillis(long maxDelayMillis) {
+		if (maxDelayMillis < 1) {
+			throw new IllegalArgumentException("Illegal max delay: " + maxDelayMillis);
+		}
+		this.maxDelayMillis = maxDelayMillis;
+	}
+
+	void setCircuitBreakerThreshold(int circuitBreakerThreshold) {
+		if (circuitBreakerThreshold < 1) {
+			throw new IllegalArgumentException("Illegal circuit breaker threshold: " + circuitBreakerThreshold);
+		}
+		this.circuitBreakerThreshold = circuitBreakerThreshold;
+	}
+
+	//endregion
+}
@@ -8,20 +8,32 @@ package com.apptentive.android.sdk.storage;
 
 import com.apptentive.android.sdk.ApptentiveLog;
 import com.apptentive.android.sdk.model.PayloadData;
+import com.apptentive.android.sdk.model.PayloadType;
 import com.apptentive.android.sdk.network.HttpRequest;
 import com.apptentive.android.sdk.network.HttpRequestRetryPolicy;
 import com.apptentive.android.sdk.notifications.ApptentiveNotificationCenter;
 import com.apptentive.android.sdk.util.StringUtils;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import static com.apptentive.android.sdk.ApptentiveLogTag.PAYLOADS;
 import static com.apptentive.android.sdk.ApptentiveNotifications.NOTIFICATION_AUTHENTICATION_FAILED;
 import static com.apptentive.android.sdk.ApptentiveNotifications.NOTIFICATION_KEY_AUTHENTICATION_FAILED_REASON;
 import static com.apptentive.android.sdk.ApptentiveNotifications.NOTIFICATION_KEY_CONVERSATION_ID;
 
 /**
- * Class responsible for a serial payload sending (one at a time)
+ * Class responsible for payload sending. Up to {@link #maxConcurrentRequests} requests can be in
+ * flight at the same time (one by default). A request can either contain a single payload or a
+ * batch of payloads. Payloads which depend on the order (messages, person/device updates, etc) are
+ * sent serially within the same conversation while events and survey responses can overlap.
  */
 class PayloadSender {
 	/**
@@ -37,9 +49,19 @@ class PayloadSender {
 	private Listener listener;
 
 	/**
-	 * Indicates whenever the sender is busy sending a payload
+	 * Max number of payload requests in flight
 	 */
-	private boolean sendingFlag; // this variable is only accessed in a synchronized context
+	private int maxConcurrentRequests = 1; // this variable is only accessed in a synchronized context
+
+	/**
+	 * Number of payload requests in flight
+	 */
+	private int activeRequestCount; // this variable is only accessed in a synchronized context
+
+	/**
+	 * Payloads in flight keyed by nonce
+	 */
+	private final Map<String, PayloadData> activePayloads = new HashMap<>(); // this variable is only accessed in a synchronized context
 
 	PayloadSender(PayloadRequestSender requestSender, HttpRequestRetryPolicy retryPolicy) {
 		if (requestSender == null) {
@@ -67,13 +89,13 @@ class PayloadSender {
 			throw new IllegalArgumentException("Payload is null");
 		}
 
-		// we don't allow concurrent payload sending
-		if (isSendingPayload()) {
+		// we don't allow more than max concurrent requests or out of order payloads
+		if (isBusy() || !canSendPayload(payload)) {
 			return false;
 		}
 
-		// we mark the sender as "busy" so no other payloads would be sent until we're done
-		sendingFlag = true;
+		// we mark the payload as "in flight" so no conflicting payloads would be sent until we're done
+		registerRequest(payload);
 
 		try {
 			sendPayloadRequest(payload);
@@ -88,7 +110,53 @@ class PayloadSender {
 			}
 
 			// if an exception was thrown - mark payload as failed
-			handleFinishSendingPayload(payload, false, message, -1, null); // TODO: a better approach
+			handleFinishSendingPayload(payload, false, message, -1, -1, null); // TODO: a better approach
+		}
+
+		return true;
+	}
+
+	/**
+	 * Sends a batch of payloads asynchronously as a single Http-request. Returns boolean flag
+	 * immediately indicating if the batch send was scheduled. A batch of a single payload is sent as
+	 * a regular payload request.
+	 *
+	 * @throws IllegalArgumentException is payloads list is null or empty
+	 */
+	synchronized boolean sendPayloads(final List<PayloadData> payloads) {
+		if (payloads == null || payloads.isEmpty()) {
+			throw new IllegalArgumentException("Payloads list is null or empty");
+		}
+
+		if (payloads.size() == 1) {
+			return sendPayload(payloads.get(0));
+		}
+
+		// we don't allow more than max concurrent requests or out of order payloads
+		if (isBusy()) {
+			return false;
+		}
+		for (PayloadData payload : payloads) {
+			if (!canSendPayload(payload)) {
+				return false;
+			}
+		}
+
+		// we mark the payloads as "in flight" so no conflicting payloads would be sent until we're done
+		registerRequest(payloads.toArray(new PayloadData[payloads.size()]));
+
+		try {
+			sendPayloadBatchRequest(payloads);
+		} catch (Exception e) {
+			ApptentiveLog.e(e, "Exception while sending payload batch: %s", payloads);
+
+			String message = e.getMessage();
+			if (message == null) {
+				message = StringUtils.format("%s is thrown", e.getClass().getSimpleName());
+			}
+
+			// if an exception was thrown - mark the whole batch as failed
+			handleFinishSendingPayloadBatch(payloads, false, message, -1, -1, null);
 		}
 
 		return true;
@@ -108,17 +176,17 @@ class PayloadSender {
 				try {
 					String json = StringUtils.isNullOrEmpty(request.getResponseData()) ? "{}" : request.getResponseData();
 					final JSONObject responseData = new JSONObject(json);
-					handleFinishSendingPayload(payload, false, null, request.getResponseCode(), responseData);
+					handleFinishSendingPayload(payload, false, null, request.getResponseCode(), -1, responseData);
 				} catch (Exception e) {
 					// TODO: Stop assuming the response is JSON. In fact, just send bytes back, and whatever part of the SDK needs it can try to convert it to the desired format.
 					ApptentiveLog.e(PAYLOADS, e, "Exception while handling payload send response");
-					handleFinishSendingPayload(payload, false, null, -1, null);
+					handleFinishSendingPayload(payload, false, null, -1, -1, null);
 				}
 			}
 
 			@Override
 			public void onCancel(HttpRequest request) {
-				handleFinishSendingPayload(payload, true, null, request.getResponseCode(), null);
+				handleFinishSendingPayload(payload, true, null, request.getResponseCode(), -1, null);
 			}
 
 			@Override
@@ -126,7 +194,7 @@ class PayloadSender {
 				if (request.isAuthenticationFailure()) {
 					ApptentiveNotificationCenter.defaultCenter().postNotification(NOTIFICATION_AUTHENTICATION_FAILED, NOTIFICATION_KEY_CONVERSATION_ID, payload.getConversationId(), NOTIFICATION_KEY_AUTHENTICATION_FAILED_REASON, request.getAuthenticationFailedReason());
 				}
-				handleFinishSendingPayload(payload, false, reason, request.getResponseCode(), null);
+				handleFinishSendingPayload(payload, false, reason, request.getResponseCode(), request.getRetryAfterMillis(), null);
 			}
 		});
 
@@ -135,6 +203,167 @@ class PayloadSender {
 		payloadRequest.start();
 	}
 
+	/**
+	 * Creates and sends payload batch Http-request asynchronously (returns immediately)
+	 */
+	private synchronized void sendPayloadBatchRequest(final List<PayloadData> payloads) {
+		ApptentiveLog.v(PAYLOADS, "Sending payload batch (%d): %s", payloads.size(), payloads);
+
+		final HttpRequest batchRequest = requestSender.createPayloadBatchSendRequest(payloads, new HttpRequest.Listener<HttpRequest>() {
+			@Override
+			public void onFinish(HttpRequest request) {
+				try {
+					String json = StringUtils.isNullOrEmpty(request.getResponseData()) ? "{}" : request.getResponseData();
+					final JSONObject responseData = new JSONObject(json);
+					handleFinishSendingPayloadBatch(payloads, false, null, request.getResponseCode(), -1, responseData);
+				} catch (Exception e) {
+					ApptentiveLog.e(PAYLOADS, e, "Exception while handling payload batch send response");
+					handleFinishSendingPayloadBatch(payloads, false, null, -1, -1, null);
+				}
+			}
+
+			@Override
+			public void onCancel(HttpRequest request) {
+				handleFinishSendingPayloadBatch(payloads, true, null, request.getResponseCode(), -1, null);
+			}
+
+			@Override
+			public void onFail(HttpRequest request, String reason) {
+				if (request.isAuthenticationFailure()) {
+					ApptentiveNotificationCenter.defaultCenter().postNotification(NOTIFICATION_AUTHENTICATION_FAILED, NOTIFICATION_KEY_CONVERSATION_ID, payloads.get(0).getConversationId(), NOTIFICATION_KEY_AUTHENTICATION_FAILED_REASON, request.getAuthenticationFailedReason());
+				}
+				handleFinishSendingPayloadBatch(payloads, false, reason, request.getResponseCode(), request.getRetryAfterMillis(), null);
+			}
+		});
+
+		batchRequest.setRetryPolicy(requestRetryPolicy);
+		batchRequest.start();
+	}
+
+	/**
+	 * Returns a map of batch response items keyed by payload nonce:
+	 * <pre>
+	 * {"payloads":[{"nonce":"...","status":201,"body":{...}}]}
+	 * </pre>
+	 * Payloads missing from the response should be considered as not sent.
+	 */
+	static Map<String, JSONObject> parseBatchResponse(JSONObject responseData) {
+		Map<String, JSONObject> result = new HashMap<>();
+		if (responseData != null) {
+			JSONArray items = responseData.optJSONArray("payloads");
+			if (items != null) {
+				for (int i = 0; i < items.length(); ++i) {
+					JSONObject item = items.optJSONObject(i);
+					String nonce = item != null ? item.optString("nonce", null) : null;
+					if (nonce != null) {
+						result.put(nonce, item);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	//endregion
+
+	//region Ordering
+
+	/**
+	 * Returns <code>true</code> if payloads of a given type can be sent concurrently with other
+	 * payloads of the same conversation
+	 */
+	static boolean isUnorderedPayloadType(PayloadType type) {
+		return type == PayloadType.event || type == PayloadType.survey;
+	}
+
+	/**
+	 * Returns <code>true</code> if payload can be sent without breaking the order of in-flight
+	 * payloads of the same conversation
+	 */
+	private synchronized boolean canSendPayload(PayloadData payload) {
+		return !activePayloads.containsKey(payload.getNonce()) &&
+			canSendPayload(payload.getType(), payload.getConversationId(), activePayloads.values());
+	}
+
+	private static boolean canSendPayload(PayloadType type, String conversationId, Collection<PayloadData> activePayloads) {
+		for (PayloadData active : activePayloads) {
+			if (!StringUtils.equal(active.getConversationId(), conversationId)) {
+				continue;
+			}
+
+			// logout is a barrier: nothing can be sent along with it for the same conversation
+			if (type == PayloadType.logout || active.getType() == PayloadType.logout) {
+				return false;
+			}
+
+			// only one ordered payload per conversation can be in flight
+			if (!isUnorderedPayloadType(type) && !isUnorderedPayloadType(active.getType())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Creates a filter for selecting the next payloads to be sent from the queue. The filter rejects
+	 * payloads which are already in flight (or being finished) and payloads which can't be sent until
+	 * the earlier payloads of the same conversation are done. The filter is stateful and should be
+	 * used for a single pass over the queue in the send order.
+	 * <p>
+	 * Finishing payloads are read after the in-flight ones while holding the sender lock: the
+	 * listener marks a payload as finishing before it's unregistered (under the same lock), so a
+	 * payload which finishes concurrently is always present in one of the snapshots.
+	 *
+	 * @param finishingPayloads - synchronized map of payloads which are done sending but still
+	 *                          present in the queue (keyed by nonce)
+	 */
+	synchronized PayloadFilter createPayloadFilter(Map<String, PayloadData> finishingPayloads) {
+		final Map<String, PayloadData> pendingPayloads = new HashMap<>(activePayloads);
+		if (finishingPayloads != null) {
+			synchronized (finishingPayloads) {
+				pendingPayloads.putAll(finishingPayloads);
+			}
+		}
+
+		return new PayloadFilter() {
+			/**
+			 * Conversations with a blocked ordered payload: later ordered payloads should wait
+			 */
+			private final Set<String> blockedConversations = new HashSet<>();
+
+			/**
+			 * Conversations with a blocked logout payload: all later payloads should wait
+			 */
+			private final Set<String> closedConversations = new HashSet<>();
+
+			@Override
+			public boolean accept(String nonce, PayloadType type, String conversationId) {
+				if (closedConversations.contains(conversationId)) {
+					return false;
+				}
+
+				boolean ordered = !isUnorderedPayloadType(type);
+				if (ordered && blockedConversations.contains(conversationId)) {
+					if (type == PayloadType.logout) {
+						closedConversations.add(conversationId);
+					}
+					return false;
+				}
+
+				if (!pendingPayloads.containsKey(nonce) && canSendPayload(type, conversationId, pendingPayloads.values())) {
+					return true;
+				}
+
+				if (type == PayloadType.logout) {
+					closedConversations.add(conversationId);
+				} else if (ordered) {
+					blockedConversations.add(conversationId);
+				}
+				return false;
+			}
+		};
+	}
+
 	//endregion
 
 	//region Listener notification
@@ -145,17 +374,53 @@ class PayloadSender {
 	 * @param cancelled    - flag indicating if payload Http-request was cancelled
 	 * @param errorMessage - if not <code>null</code> - payload request failed
 	 * @param responseCode - http-request response code
+	 * @param retryAfterMillis - delay requested by the server's 'Retry-After' header (or -1)
 	 * @param responseData - http-reqeust response json (or null if failed)
 	 */
-	private synchronized void handleFinishSendingPayload(PayloadData payload, boolean cancelled, String errorMessage, int responseCode, JSONObject responseData) {
-		sendingFlag = false; // mark sender as 'not busy'
+	private synchronized void handleFinishSendingPayload(PayloadData payload, boolean cancelled, String errorMessage, int responseCode, long retryAfterMillis, JSONObject responseData) {
+		try {
+			if (listener != null) {
+				listener.onFinishSending(this, payload, cancelled, errorMessage, responseCode, retryAfterMillis, responseData);
+			}
+		} catch (Exception e) {
+			ApptentiveLog.e(e, "Exception while notifying payload listener");
+		} finally {
+			unregisterRequest(payload); // mark payload as 'not in flight'
+		}
+	}
 
+	/**
+	 * Executed when we're done with the current payload batch
+	 * @param payloads     - current payloads
+	 * @param cancelled    - flag indicating if batch Http-request was cancelled
+	 * @param errorMessage - if not <code>null</code> - batch request failed as a whole
+	 * @param responseCode - http-request response code
+	 * @param retryAfterMillis - delay requested by the server's 'Retry-After' header (or -1)
+	 * @param responseData - http-request response json with per-payload results (or null if failed)
+	 */
+	private synchronized void handleFinishSendingPayloadBatch(List<PayloadData> payloads, boolean cancelled, String errorMessage, int responseCode, long retryAfterMillis, JSONObject responseData) {
 		try {
 			if (listener != null) {
-				listener.onFinishSending(this, payload, cancelled, errorMessage, responseCode, responseData);
+				listener.onFinishSendingBatch(this, payloads, cancelled, errorMessage, responseCode, retryAfterMillis, responseData);
 			}
 		} catch (Exception e) {
 			ApptentiveLog.e(e, "Exception while notifying payload listener");
+		} finally {
+			unregisterRequest(payloads.toArray(new PayloadData[payloads.size()])); // mark payloads as 'not in flight'
+		}
+	}
+
+	private synchronized void registerRequest(PayloadData... payloads) {
+		++activeRequestCount;
+		for (PayloadData payload : payloads) {
+			activePayloads.put(payload.getNonce(), payload);
+		}
+	}
+
+	private synchronized void unregisterRequest(PayloadData... payloads) {
+		--activeRequestCount;
+		for (PayloadData payload : payloads) {
+			activePayloads.remove(payload.getNonce());
 		}
 	}
 
@@ -164,10 +429,32 @@ class PayloadSender {
 	//region Getters/Setters
 
 	/**
-	 * Returns <code>true</code> if sender is currently busy with a payload
+	 * Returns <code>true</code> if sender is currently busy with at least one payload
 	 */
 	synchronized boolean isSendingPayload() {
-		return sendingFlag;
+		return activeRequestCount > 0;
+	}
+
+	/**
+	 * Returns <code>true</code> if a payload with a given nonce is currently in flight
+	 */
+	synchronized boolean isSendingPayload(String nonce) {
+		return activePayloads.containsKey(nonce);
+	}
+
+	/**
+	 * Returns <code>true</code> if sender can't start any more requests until some of the in-flight
+	 * requests are done
+	 */
+	synchronized boolean isBusy() {
+		return activeRequestCount >= maxConcurrentRequests;
+	}
+
+	synchronized void setMaxConcurrentRequests(int maxConcurrentRequests) {
+		if (maxConcurrentRequests < 1) {
+			throw new IllegalArgumentException("Illegal max concurrent requests: " + maxConcurrentRequests);
+		}
+		this.maxConcurrentRequests = maxConcurrentRequests;
 	}
 
 	public void setListener(Listener listener) {
@@ -179,7 +466,13 @@ class PayloadSender {
 	//region Listener
 
 	public interface Listener {
-		void onFinishSending(PayloadSender sender, PayloadData payload, boolean cancelled, String errorMessage, int responseCode, JSONObject responseData);
+		void onFinishSending(PayloadSender sender, PayloadData payload, boolean cancelled, String errorMessage, int responseCode, long retryAfterMillis, JSONObject responseData);
+
+		/**
+		 * Called when a batch request is finished. Per-payload results can be resolved with
+		 * {@link #parseBatchResponse(JSONObject)}
+		 */
+		void onFinishSendingBatch(PayloadSender sender, List<PayloadData> payloads, boolean cancelled, String errorMessage, int responseCode, long retryAfterMillis, JSONObject responseData);
 	}
 
 	//endregion
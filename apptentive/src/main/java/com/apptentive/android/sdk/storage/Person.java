@@ -39,6 +39,9 @@ public class Person implements Saveable, DataChangedListener {
 
 	@Override
 	public void notifyDataChanged() {
+		if (fieldListener != null) {
+			fieldListener.onFieldChanged(FieldChangedListener.PERSON);
+		}
 		if (listener != null) {
 			listener.onDataChanged();
 		}
@@ -46,7 +49,17 @@ public class Person implements Saveable, DataChangedListener {
 
 	@Override
 	public void onDataChanged() {
-		notifyDataChanged();
+		// custom data reports its own keys to the field listener
+		if (listener != null) {
+			listener.onDataChanged();
+		}
+	}
+
+	private transient FieldChangedListener fieldListener;
+
+	public void setFieldChangedListener(FieldChangedListener listener) {
+		this.fieldListener = listener;
+		customData.setFieldChangedListener(listener, FieldChangedListener.PERSON_CUSTOM_DATA);
 	}
 	//endregion
 
@@ -169,6 +182,10 @@ public class Person implements Saveable, DataChangedListener {
 	public void setCustomData(CustomData customData) {
 		this.customData = customData;
 		this.customData.setDataChangedListener(this);
+		this.customData.setFieldChangedListener(fieldListener, FieldChangedListener.PERSON_CUSTOM_DATA);
+		if (fieldListener != null) {
+			fieldListener.onFieldChanged(null);
+		}
 		notifyDataChanged();
 	}
 
@@ -43,6 +43,12 @@ public class VersionHistory implements Saveable {
 		}
 	}
 
+	private transient FieldChangedListener fieldListener;
+
+	public void setFieldChangedListener(FieldChangedListener listener) {
+		this.fieldListener = listener;
+	}
+
 	//endregion
 
 	public void updateVersionHistory(double timestamp, Integer newVersionCode, String newVersionName) {
@@ -56,6 +62,9 @@ public class VersionHistory implements Saveable {
 		if (!exists) {
 			VersionHistoryItem newVersionHistoryItem = new VersionHistoryItem(timestamp, newVersionCode, newVersionName);
 			versionHistoryItems.add(newVersionHistoryItem);
+			if (fieldListener != null) {
+				fieldListener.onFieldChanged(FieldChangedListener.VERSION_HISTORY);
+			}
 			notifyDataChanged();
 		}
 	}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the number of bytes read from the wrapped InputStream.
+ */
+public class CountingInputStream extends FilterInputStream {
+
+	private long bytesRead;
+
+	public CountingInputStream(InputStream is) {
+		super(is);
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = super.read();
+		if (b != -1) {
+			bytesRead++;
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int count) throws IOException {
+		int read = super.read(buffer, offset, count);
+		if (read > 0) {
+			bytesRead += read;
+		}
+		return read;
+	}
+
+	@Override
+	public long skip(long count) throws IOException {
+		long skipped = super.skip(count);
+		bytesRead += skipped;
+		return skipped;
+	}
+
+	public long getBytesRead() {
+		return bytesRead;
+	}
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream wrapper which flushes (but doesn't close) the wrapped stream when closed. Useful for
+ * writing a part of a bigger stream with an API which closes its output.
+ */
+public class NonClosingOutputStream extends FilterOutputStream {
+
+	public NonClosingOutputStream(OutputStream out) {
+		super(out);
+	}
+
+	@Override
+	public void write(byte[] buffer, int offset, int count) throws IOException {
+		out.write(buffer, offset, count); // avoid writing byte-by-byte
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+	}
+}
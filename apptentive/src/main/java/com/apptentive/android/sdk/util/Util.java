@@ -51,6 +51,8 @@ import java.lang.reflect.Field;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 public class Util {
 
@@ -93,7 +95,11 @@ public class Util {
 	}
 
 	public static boolean isNetworkConnectionPresent() {
-		ConnectivityManager cm = (ConnectivityManager) ApptentiveInternal.getInstance().getApplicationContext().getSystemService(Context.CONNECTIVITY_SERVICE);
+		return isNetworkConnectionPresent(ApptentiveInternal.getInstance().getApplicationContext());
+	}
+
+	public static boolean isNetworkConnectionPresent(Context context) {
+		ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
 		if (cm != null) {
 			NetworkInfo activeNetwork = cm.getActiveNetworkInfo();
 			if (activeNetwork != null) {
@@ -734,6 +740,44 @@ public class Util {
 		}
 	}
 
+	/**
+	 * Compresses data using gzip format
+	 */
+	public static byte[] gzip(byte[] data) throws IOException {
+		if (data == null) {
+			throw new IllegalArgumentException("'data' is null");
+		}
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream(data.length / 2);
+		GZIPOutputStream gzip = new GZIPOutputStream(output);
+		try {
+			gzip.write(data);
+			gzip.finish();
+		} finally {
+			ensureClosed(gzip);
+		}
+		return output.toByteArray();
+	}
+
+	/**
+	 * Decompresses gzip data
+	 */
+	public static byte[] gunzip(byte[] data) throws IOException {
+		if (data == null) {
+			throw new IllegalArgumentException("'data' is null");
+		}
+
+		GZIPInputStream input = null;
+		try {
+			input = new GZIPInputStream(new ByteArrayInputStream(data));
+			ByteArrayOutputStream output = new ByteArrayOutputStream(data.length * 4);
+			copy(input, output);
+			return output.toByteArray();
+		} finally {
+			ensureClosed(input);
+		}
+	}
+
 	private static void copy(InputStream input, OutputStream output) throws IOException {
 		byte[] buffer = new byte[4096];
 		int bytesRead;
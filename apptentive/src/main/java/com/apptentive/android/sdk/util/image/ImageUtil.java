@@ -302,20 +302,11 @@ public class ImageUtil {
 	}
 
 	public static boolean appendScaledDownImageToStream(String sourcePath, OutputStream outputStream) {
-		// Retrieve image orientation
-		int imageOrientation = 0;
-		try {
-			ExifInterface exif = new ExifInterface(sourcePath);
-			imageOrientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
-		} catch (IOException e) {
-		}
-
 		// Copy the file contents over.
 		CountingOutputStream cos = null;
 		try {
 			cos = new CountingOutputStream(new BufferedOutputStream(outputStream));
-			System.gc();
-			Bitmap smaller = ImageUtil.createScaledBitmapFromLocalImageSource(sourcePath, MAX_SENT_IMAGE_EDGE, MAX_SENT_IMAGE_EDGE, null, imageOrientation);
+			Bitmap smaller = createScaledDownImageForSending(sourcePath);
 			smaller.compress(Bitmap.CompressFormat.JPEG, 95, cos);
 			cos.flush();
 			ApptentiveLog.v("Bitmap bytes appended, size = " + (cos.getBytesWritten() / 1024) + "k");
@@ -329,6 +320,23 @@ public class ImageUtil {
 		}
 	}
 
+	/**
+	 * Decodes an image attachment scaled down to the max sent size (and rotated according to its
+	 * orientation) so it can be compressed into a payload stream.
+	 */
+	public static Bitmap createScaledDownImageForSending(String sourcePath) throws FileNotFoundException {
+		// Retrieve image orientation
+		int imageOrientation = 0;
+		try {
+			ExifInterface exif = new ExifInterface(sourcePath);
+			imageOrientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+		} catch (IOException e) {
+		}
+
+		System.gc();
+		return ImageUtil.createScaledBitmapFromLocalImageSource(sourcePath, MAX_SENT_IMAGE_EDGE, MAX_SENT_IMAGE_EDGE, null, imageOrientation);
+	}
+
 	private static class DownloadImageTask extends AsyncTask<String, Void, Bitmap> {
 
 		private WeakReference<ApptentiveAvatarView> resultView;
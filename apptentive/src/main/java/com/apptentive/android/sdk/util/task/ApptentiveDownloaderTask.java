@@ -7,10 +7,9 @@
 package com.apptentive.android.sdk.util.task;
 
 import java.io.BufferedInputStream;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.SocketTimeoutException;
@@ -110,7 +109,8 @@ public class ApptentiveDownloaderTask extends AsyncTask<Object, Integer, Apptent
 	}
 
 	/**
-	 * This function download the large file from the server
+	 * This function download the large file from the server. Interrupted downloads are kept as
+	 * partial files and resumed with an HTTP range request on the next attempt.
 	 */
 	private ApptentiveHttpResponse downloadBitmap(String urlString, String destFilePath, String conversationToken) {
 		if (isCancelled()) {
@@ -119,49 +119,18 @@ public class ApptentiveDownloaderTask extends AsyncTask<Object, Integer, Apptent
 
 		int count;
 
-		boolean bRequestRedirectThroughApptentive = FILE_DOWNLOAD_REDIRECTION_ENABLED;
+		PartialDownload partialDownload = new PartialDownload(destFilePath);
 
 		HttpURLConnection connection = null;
 		ApptentiveHttpResponse ret = new ApptentiveHttpResponse();
-		String cookies = null;
-		URL httpUrl;
 		try {
-			while (true) {
-				httpUrl = new URL(urlString);
-				connection = (HttpURLConnection) httpUrl.openConnection();
-				if (bRequestRedirectThroughApptentive) {
-					connection.setRequestProperty("User-Agent", ApptentiveClient.getUserAgentString());
-					connection.setRequestProperty("Authorization", "OAuth " + conversationToken);
-					connection.setRequestProperty("X-API-Version", String.valueOf(Constants.API_VERSION));
-				} else if (cookies != null) {
-					connection.setRequestProperty("Cookie", cookies);
-				}
-
-				connection.setConnectTimeout(Constants.DEFAULT_CONNECT_TIMEOUT_MILLIS);
-				connection.setReadTimeout(Constants.DEFAULT_READ_TIMEOUT_MILLIS);
-				connection.setRequestProperty("Accept-Encoding", "gzip");
-				connection.setRequestProperty("Accept", "application/json");
-
-				connection.setRequestMethod("GET");
-				connection.setInstanceFollowRedirects(false);
-
-				switch (connection.getResponseCode()) {
-					case HttpURLConnection.HTTP_MOVED_PERM:
-					case HttpURLConnection.HTTP_MOVED_TEMP:
-					case HttpURLConnection.HTTP_SEE_OTHER: {
-						bRequestRedirectThroughApptentive = false;
-						String location = connection.getHeaderField("Location");
-						URL base = new URL(urlString);
-						URL next = new URL(base, location);  // Deal with relative URLs
-						urlString = next.toExternalForm();
-						// get the cookie if need, for login
-						cookies = connection.getHeaderField("Set-Cookie");
-						// Follow redirection
-						continue;
-					}
-				}
-				// End while loop
-				break;
+			connection = openConnection(urlString, conversationToken, partialDownload);
+			long offset = partialDownload.openResponse(connection);
+			if (offset == -1 && partialDownload.shouldRestart(connection.getResponseCode())) {
+				// the partial file was discarded: download the whole file
+				connection.disconnect();
+				connection = openConnection(urlString, conversationToken, partialDownload);
+				offset = partialDownload.openResponse(connection);
 			}
 
 			int responseCode = connection.getResponseCode();
@@ -179,20 +148,21 @@ public class ApptentiveDownloaderTask extends AsyncTask<Object, Integer, Apptent
 
 			ret.setHeaders(headers);
 
-			if (ret.isSuccessful()) {
+			if (ret.isSuccessful() && offset != -1) {
 				// Read the normal content response
 				InputStream input = null;
-				FileOutputStream output = null;
+				OutputStream output = null;
 				try {
-					int fileLength = connection.getContentLength();
+					long contentLength = connection.getContentLength();
+					long fileLength = contentLength > 0 ? offset + contentLength : -1;
 
 					// input stream to read file - with 8k buffer
-					input = new BufferedInputStream(httpUrl.openStream(), 8192);
-					output = new FileOutputStream(destFilePath);
+					input = new BufferedInputStream(connection.getInputStream(), 8192);
+					output = partialDownload.openOutput(offset);
 
 					byte data[] = new byte[8192];
 
-					long total = 0;
+					long total = offset;
 
 					while ((count = input.read(data)) != -1) {
 						// allow canceling
@@ -210,18 +180,19 @@ public class ApptentiveDownloaderTask extends AsyncTask<Object, Integer, Apptent
 					}
 					// flushing output
 					output.flush();
-					if (!this.download) {
-						File fileToDelete = new File(destFilePath);
-						fileToDelete.delete();
-						publishProgress(-1);
-					} else {
-						publishProgress(100);
-					}
 				} finally {
 					// closing streams
 					Util.ensureClosed(output);
 					Util.ensureClosed(input);
 				}
+
+				if (!this.download) {
+					// keep the partial file to resume the download later
+					publishProgress(-1);
+				} else {
+					partialDownload.complete();
+					publishProgress(100);
+				}
 			}
 		} catch (IllegalArgumentException e) {
 			ApptentiveLog.w(e, "Error communicating with server.");
@@ -242,4 +213,53 @@ public class ApptentiveDownloaderTask extends AsyncTask<Object, Integer, Apptent
 		return ret;
 	}
 
+	/**
+	 * Opens a connection following redirects
+	 */
+	private static HttpURLConnection openConnection(String urlString, String conversationToken, PartialDownload partialDownload) throws IOException {
+		boolean bRequestRedirectThroughApptentive = FILE_DOWNLOAD_REDIRECTION_ENABLED;
+
+		HttpURLConnection connection;
+		String cookies = null;
+		while (true) {
+			URL httpUrl = new URL(urlString);
+			connection = (HttpURLConnection) httpUrl.openConnection();
+			if (bRequestRedirectThroughApptentive) {
+				connection.setRequestProperty("User-Agent", ApptentiveClient.getUserAgentString());
+				connection.setRequestProperty("Authorization", "OAuth " + conversationToken);
+				connection.setRequestProperty("X-API-Version", String.valueOf(Constants.API_VERSION));
+			} else if (cookies != null) {
+				connection.setRequestProperty("Cookie", cookies);
+			}
+
+			connection.setConnectTimeout(Constants.DEFAULT_CONNECT_TIMEOUT_MILLIS);
+			connection.setReadTimeout(Constants.DEFAULT_READ_TIMEOUT_MILLIS);
+			// byte ranges only make sense for an unencoded body
+			connection.setRequestProperty("Accept-Encoding", "identity");
+			connection.setRequestProperty("Accept", "application/json");
+			partialDownload.setupRequest(connection);
+
+			connection.setRequestMethod("GET");
+			connection.setInstanceFollowRedirects(false);
+
+			switch (connection.getResponseCode()) {
+				case HttpURLConnection.HTTP_MOVED_PERM:
+				case HttpURLConnection.HTTP_MOVED_TEMP:
+				case HttpURLConnection.HTTP_SEE_OTHER: {
+					bRequestRedirectThroughApptentive = false;
+					String location = connection.getHeaderField("Location");
+					URL base = new URL(urlString);
+					URL next = new URL(base, location);  // Deal with relative URLs
+					urlString = next.toExternalForm();
+					// get the cookie if need, for login
+					cookies = connection.getHeaderField("Set-Cookie");
+					// Follow redirection
+					continue;
+				}
+			}
+			// End while loop
+			return connection;
+		}
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.util.task;
+
+import com.apptentive.android.sdk.ApptentiveLog;
+import com.apptentive.android.sdk.util.StringUtils;
+import com.apptentive.android.sdk.util.Util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.Properties;
+
+/**
+ * Keeps a partially downloaded file next to its destination (<code>&lt;dest&gt;.partial</code>) with
+ * a sidecar of the response validators (<code>&lt;dest&gt;.partial.meta</code>), so an interrupted
+ * download can be resumed with <code>Range</code>/<code>If-Range</code> instead of starting over.
+ * The destination file only appears once the download is complete.
+ */
+class PartialDownload {
+	private static final String PARTIAL_FILE_SUFFIX = ".partial";
+	private static final String VALIDATORS_FILE_SUFFIX = ".partial.meta";
+
+	private static final String KEY_ETAG = "etag";
+	private static final String KEY_LAST_MODIFIED = "last_modified";
+
+	private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+	private final File destFile;
+	private final File partialFile;
+	private final File validatorsFile;
+
+	/**
+	 * Validator sent with <code>If-Range</code> (or <code>null</code> if the download can't be resumed)
+	 */
+	private String resumeValidator;
+
+	/**
+	 * Number of bytes requested to be skipped
+	 */
+	private long resumeOffset;
+
+	PartialDownload(String destFilePath) {
+		if (StringUtils.isNullOrEmpty(destFilePath)) {
+			throw new IllegalArgumentException("Destination path is null or empty");
+		}
+		destFile = new File(destFilePath);
+		partialFile = new File(destFilePath + PARTIAL_FILE_SUFFIX);
+		validatorsFile = new File(destFilePath + VALIDATORS_FILE_SUFFIX);
+	}
+
+	//region Request
+
+	/**
+	 * Adds <code>Range</code> and <code>If-Range</code> headers if there is a partial file with
+	 * validators (should be called for every connection since redirects open new ones)
+	 */
+	void setupRequest(HttpURLConnection connection) {
+		resumeValidator = null;
+		resumeOffset = 0;
+
+		long length = partialFile.length();
+		if (length <= 0) {
+			return;
+		}
+
+		Properties validators = readValidators();
+		String eTag = validators.getProperty(KEY_ETAG);
+		String lastModified = validators.getProperty(KEY_LAST_MODIFIED);
+
+		// a weak ETag can't be used for a range request
+		String validator = eTag != null && !eTag.startsWith("W/") ? eTag : lastModified;
+		if (validator == null) {
+			return;
+		}
+
+		resumeValidator = validator;
+		resumeOffset = length;
+		connection.setRequestProperty("Range", "bytes=" + length + "-");
+		connection.setRequestProperty("If-Range", validator);
+	}
+
+	//endregion
+
+	//region Response
+
+	/**
+	 * Checks if the response continues the partial file (otherwise the partial file is discarded).
+	 *
+	 * @return number of bytes already downloaded (the response body should be appended) or -1 if
+	 * the response doesn't continue the partial file
+	 */
+	long openResponse(HttpURLConnection connection) throws IOException {
+		int responseCode = connection.getResponseCode();
+		if (responseCode == HttpURLConnection.HTTP_PARTIAL && resumeValidator != null &&
+			    parseContentRangeStart(connection.getHeaderField("Content-Range")) == resumeOffset) {
+			ApptentiveLog.v("Resuming download of %s from %d bytes", destFile, resumeOffset);
+			return resumeOffset;
+		}
+
+		if (responseCode == HttpURLConnection.HTTP_OK) {
+			// the content has changed (or the server doesn't support ranges): start over
+			discard();
+			writeValidators(connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"));
+			return 0;
+		}
+
+		if (shouldRestart(responseCode)) {
+			// unexpected range or the partial file is stale
+			discard();
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Opens the partial file for the response body
+	 *
+	 * @param offset value returned by {@link #openResponse(HttpURLConnection)}
+	 */
+	OutputStream openOutput(long offset) throws IOException {
+		return new FileOutputStream(partialFile, offset > 0);
+	}
+
+	/**
+	 * Returns <code>true</code> if the server couldn't continue the partial file (it was discarded by
+	 * {@link #openResponse(HttpURLConnection)}) and the request should be sent again without a range
+	 */
+	boolean shouldRestart(int responseCode) {
+		return resumeValidator != null && (responseCode == HttpURLConnection.HTTP_PARTIAL || responseCode == HTTP_RANGE_NOT_SATISFIABLE);
+	}
+
+	/**
+	 * Moves the partial file to the destination
+	 */
+	void complete() throws IOException {
+		if (destFile.exists() && !destFile.delete()) {
+			throw new IOException("Unable to delete file: " + destFile);
+		}
+		if (!partialFile.renameTo(destFile)) {
+			throw new IOException("Unable to rename file: " + partialFile);
+		}
+		deleteFile(validatorsFile);
+	}
+
+	/**
+	 * Deletes the partial file and its validators
+	 */
+	void discard() {
+		deleteFile(partialFile);
+		deleteFile(validatorsFile);
+	}
+
+	/* Parses the first byte position of 'Content-Range: bytes 100-199/200' (or -1) */
+	static long parseContentRangeStart(String contentRange) {
+		if (contentRange != null) {
+			String value = contentRange.trim();
+			if (value.startsWith("bytes ")) {
+				int dash = value.indexOf('-');
+				if (dash != -1) {
+					try {
+						return Long.parseLong(value.substring("bytes ".length(), dash).trim());
+					} catch (NumberFormatException e) {
+						ApptentiveLog.w("Unable to parse 'Content-Range' header: %s", contentRange);
+					}
+				}
+			}
+		}
+		return -1;
+	}
+
+	//endregion
+
+	//region Validators
+
+	private Properties readValidators() {
+		Properties validators = new Properties();
+		if (validatorsFile.exists()) {
+			InputStream input = null;
+			try {
+				input = new FileInputStream(validatorsFile);
+				validators.load(input);
+			} catch (IOException e) {
+				ApptentiveLog.w(e, "Unable to read download validators: %s", validatorsFile);
+			} finally {
+				Util.ensureClosed(input);
+			}
+		}
+		return validators;
+	}
+
+	private void writeValidators(String eTag, String lastModified) throws IOException {
+		if (eTag == null && lastModified == null) {
+			return; // the download can't be resumed
+		}
+
+		Properties validators = new Properties();
+		if (eTag != null) {
+			validators.setProperty(KEY_ETAG, eTag);
+		}
+		if (lastModified != null) {
+			validators.setProperty(KEY_LAST_MODIFIED, lastModified);
+		}
+
+		OutputStream output = null;
+		try {
+			output = new FileOutputStream(validatorsFile);
+			validators.store(output, null);
+		} finally {
+			Util.ensureClosed(output);
+		}
+	}
+
+	//endregion
+
+	//region Helpers
+
+	private static void deleteFile(File file) {
+		if (file.exists() && !file.delete()) {
+			ApptentiveLog.w("Unable to delete file: %s", file);
+		}
+	}
+
+	//endregion
+
+	//region Getters
+
+	File getPartialFile() {
+		return partialFile;
+	}
+
+	//endregion
+}
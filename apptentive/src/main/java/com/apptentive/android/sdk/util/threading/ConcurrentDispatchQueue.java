@@ -33,8 +33,12 @@ class ConcurrentDispatchQueue extends DispatchQueue implements ThreadFactory {
 	private final AtomicInteger threadNumber;
 
 	ConcurrentDispatchQueue(String name) {
+		this(name, NUMBER_OF_CORES);
+	}
+
+	ConcurrentDispatchQueue(String name, int poolSize) {
 		this.name = name;
-		this.threadPoolExecutor = new ScheduledThreadPoolExecutor(NUMBER_OF_CORES, this);
+		this.threadPoolExecutor = new ScheduledThreadPoolExecutor(poolSize, this);
 		this.threadNumber = new AtomicInteger(1);
 	}
 
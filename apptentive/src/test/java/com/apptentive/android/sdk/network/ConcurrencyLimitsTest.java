@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.network;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ConcurrencyLimitsTest extends HttpRequestTestBase {
+	@Before
+	public void setUp() {
+		super.setUp();
+		requestManager.setMaxInFlightRequests(HttpRequestPriority.HIGH, 2);
+		requestManager.setMaxInFlightRequests(HttpRequestPriority.NORMAL, 2);
+		requestManager.setMaxInFlightRequests(HttpRequestPriority.LOW, 1);
+	}
+
+	@Test
+	public void testHighPriorityIsNotBlocked() {
+		startRequest(createRequest("low-1", HttpRequestPriority.LOW));
+		startRequest(createRequest("low-2", HttpRequestPriority.LOW));
+		startRequest(createRequest("low-3", HttpRequestPriority.LOW));
+		startRequest(createRequest("high", HttpRequestPriority.HIGH));
+
+		assertInFlight(1, 0, 1);
+		assertEquals(2, requestManager.getQueuedRequestCount());
+
+		dispatchRequests();
+
+		assertResult(
+			"finished: low-1",
+			"finished: high",
+			"finished: low-2",
+			"finished: low-3"
+		);
+		assertInFlight(0, 0, 0);
+		assertEquals(0, requestManager.getQueuedRequestCount());
+	}
+
+	@Test
+	public void testLimitPerPriority() {
+		startRequest(createRequest("normal-1", HttpRequestPriority.NORMAL));
+		startRequest(createRequest("normal-2", HttpRequestPriority.NORMAL));
+		startRequest(createRequest("normal-3", HttpRequestPriority.NORMAL));
+		startRequest(createRequest("low-1", HttpRequestPriority.LOW));
+		startRequest(createRequest("low-2", HttpRequestPriority.LOW));
+		startRequest(createRequest("high-1", HttpRequestPriority.HIGH));
+		startRequest(createRequest("high-2", HttpRequestPriority.HIGH));
+		startRequest(createRequest("high-3", HttpRequestPriority.HIGH));
+
+		assertInFlight(2, 2, 1);
+		assertEquals(3, requestManager.getQueuedRequestCount());
+
+		dispatchRequests();
+
+		assertResult(
+			"finished: normal-1",
+			"finished: normal-2",
+			"finished: low-1",
+			"finished: high-1",
+			"finished: high-2",
+			"finished: normal-3",
+			"finished: low-2",
+			"finished: high-3"
+		);
+		assertInFlight(0, 0, 0);
+	}
+
+	@Test
+	public void testRaiseLimit() {
+		startRequest(createRequest("low-1", HttpRequestPriority.LOW));
+		startRequest(createRequest("low-2", HttpRequestPriority.LOW));
+		startRequest(createRequest("low-3", HttpRequestPriority.LOW));
+		assertInFlight(0, 0, 1);
+
+		requestManager.setMaxInFlightRequests(HttpRequestPriority.LOW, 3);
+		assertInFlight(0, 0, 3);
+		assertEquals(0, requestManager.getQueuedRequestCount());
+
+		dispatchRequests();
+		assertResult("finished: low-1", "finished: low-2", "finished: low-3");
+	}
+
+	@Test
+	public void testCancelQueuedRequest() {
+		startRequest(createRequest("low-1", HttpRequestPriority.LOW));
+		HttpRequest request = createRequest("low-2", HttpRequestPriority.LOW);
+		startRequest(request);
+		assertEquals(1, requestManager.getQueuedRequestCount());
+
+		// cancelled request doesn't wait for a slot
+		request.cancel();
+		assertEquals(0, requestManager.getQueuedRequestCount());
+		assertInFlight(0, 0, 2);
+
+		dispatchRequests();
+		assertResult("finished: low-1", "cancelled: low-2");
+		assertInFlight(0, 0, 0);
+	}
+
+	@Test
+	public void testRetryReleasesSlot() {
+		HttpRequestRetryPolicyDefault retryPolicy = new HttpRequestRetryPolicyDefault() {
+			@Override
+			public boolean shouldRetryRequest(int responseCode, int retryAttempt) {
+				return retryAttempt < 2;
+			}
+
+			@Override
+			public long getRetryTimeoutMillis(int retryAttempt) {
+				return 0;
+			}
+		};
+
+		startRequest(createRequest("low-1", HttpRequestPriority.LOW).setMockResponseCode(500).setRetryPolicy(retryPolicy));
+		startRequest(createRequest("low-2", HttpRequestPriority.LOW));
+		dispatchRequests();
+
+		// the slot is released while waiting for the retry
+		assertResult(
+			"finished: low-2",
+			"failed: low-1 Unexpected response code: 500 (Internal Server Error)"
+		);
+		assertInFlight(0, 0, 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testIllegalLimit() {
+		requestManager.setMaxInFlightRequests(HttpRequestPriority.LOW, 0);
+	}
+
+	//region Helpers
+
+	private void assertInFlight(int high, int normal, int low) {
+		assertEquals(high, requestManager.getInFlightRequestCount(HttpRequestPriority.HIGH));
+		assertEquals(normal, requestManager.getInFlightRequestCount(HttpRequestPriority.NORMAL));
+		assertEquals(low, requestManager.getInFlightRequestCount(HttpRequestPriority.LOW));
+	}
+
+	//endregion
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.network;
+
+import com.apptentive.android.sdk.util.threading.MockDispatchQueue;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectivityGateTest extends HttpRequestTestBase {
+	private MockConnectivitySource connectivitySource;
+
+	@Override
+	protected HttpRequestManager createRequestManager(MockDispatchQueue networkQueue) {
+		connectivitySource = new MockConnectivitySource();
+		return new HttpRequestManager(networkQueue, connectivitySource);
+	}
+
+	@Test
+	public void testHoldRequestsWhileOffline() {
+		connectivitySource.setConnected(false);
+
+		startRequest(new MockHttpRequest("1"));
+		startRequest(new MockHttpRequest("2"));
+		dispatchRequests();
+
+		assertResult(); // nothing is sent or failed
+		assertEquals(2, requestManager.getPendingRequestCount());
+		assertTrue(connectivitySource.monitoring);
+
+		connectivitySource.setConnected(true);
+		dispatchRequests();
+
+		assertResult("finished: 1", "finished: 2");
+		assertEquals(0, requestManager.getPendingRequestCount());
+		assertFalse(connectivitySource.monitoring);
+	}
+
+	@Test
+	public void testReleaseInPriorityOrder() {
+		connectivitySource.setConnected(false);
+
+		startRequest(createRequest("low-1", HttpRequestPriority.LOW));
+		startRequest(createRequest("normal-1", HttpRequestPriority.NORMAL));
+		startRequest(createRequest("low-2", HttpRequestPriority.LOW));
+		startRequest(createRequest("high", HttpRequestPriority.HIGH));
+		startRequest(createRequest("normal-2", HttpRequestPriority.NORMAL));
+
+		connectivitySource.setConnected(true);
+		dispatchRequests();
+
+		assertResult(
+			"finished: high",
+			"finished: normal-1",
+			"finished: normal-2",
+			"finished: low-1",
+			"finished: low-2"
+		);
+	}
+
+	@Test
+	public void testNoRetriesConsumed() {
+		connectivitySource.setConnected(false);
+
+		HttpRequestRetryPolicyDefault retryPolicy = new HttpRequestRetryPolicyDefault() {
+			@Override
+			public boolean shouldRetryRequest(int responseCode, int retryAttempt) {
+				addResult("retry: " + retryAttempt);
+				return false;
+			}
+		};
+
+		startRequest(new MockHttpRequest("1").setRetryPolicy(retryPolicy));
+		dispatchRequests();
+
+		connectivitySource.setConnected(true);
+		dispatchRequests();
+
+		assertResult("finished: 1");
+	}
+
+	@Test
+	public void testConnectionLostAfterDispatch() {
+		// the request was dispatched but the connection was lost before it was sent
+		startRequest(new MockHttpRequest("1") {
+			@Override
+			protected boolean isNetworkConnectionPresent() {
+				return connectivitySource.connected;
+			}
+		});
+		connectivitySource.setConnected(false);
+		dispatchRequests();
+
+		assertResult();
+		assertEquals(1, requestManager.getPendingRequestCount());
+
+		connectivitySource.setConnected(true);
+		dispatchRequests();
+
+		assertResult("finished: 1");
+	}
+
+	@Test
+	public void testCancelHeldRequest() {
+		connectivitySource.setConnected(false);
+
+		startRequest(new MockHttpRequest("1"));
+		HttpRequest request = new MockHttpRequest("2");
+		startRequest(request);
+		request.cancel();
+		dispatchRequests();
+
+		assertResult("cancelled: 2");
+		assertEquals(1, requestManager.getPendingRequestCount());
+
+		requestManager.cancelAll();
+		dispatchRequests();
+
+		assertResult("cancelled: 1");
+		assertEquals(0, requestManager.getPendingRequestCount());
+		assertFalse(connectivitySource.monitoring);
+	}
+
+	//region Helpers
+
+	private static class MockConnectivitySource implements ConnectivitySource {
+		boolean connected = true;
+		boolean monitoring;
+		private Listener listener;
+
+		void setConnected(boolean connected) {
+			this.connected = connected;
+			if (listener != null) {
+				listener.onConnectivityChange(this, connected);
+			}
+		}
+
+		@Override
+		public boolean isNetworkConnectionPresent() {
+			return connected;
+		}
+
+		@Override
+		public void startMonitoring(Listener listener) {
+			this.listener = listener;
+			monitoring = true;
+		}
+
+		@Override
+		public void stopMonitoring() {
+			listener = null;
+			monitoring = false;
+		}
+	}
+
+	//endregion
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.network;
+
+import com.apptentive.android.sdk.TestCaseBase;
+import com.apptentive.android.sdk.util.threading.MockDispatchQueue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class HttpRequestBodyTest extends TestCaseBase {
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testFileRegion() throws Exception {
+		File file = createFile("0123456789abcdef");
+
+		HttpRequestBody body = HttpRequestBody.create(file, 3, 10);
+		assertEquals(10, body.getLength());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		body.writeTo(out, new byte[3]); // buffer is smaller than the body
+		assertArrayEquals("3456789abc".getBytes(), out.toByteArray());
+	}
+
+	@Test
+	public void testTruncatedFile() throws Exception {
+		File file = createFile("0123");
+
+		try {
+			HttpRequestBody.create(file, 2, 10).writeTo(new ByteArrayOutputStream(), new byte[4]);
+			fail("Exception expected");
+		} catch (EOFException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testStreamingRequest() throws Exception {
+		final File file = createFile("streaming request body");
+
+		MockDispatchQueue networkQueue = new MockDispatchQueue(false);
+		HttpRequestManager requestManager = new HttpRequestManager(networkQueue);
+
+		MockHttpRequest request = new MockHttpRequest("request") {
+			@Override
+			protected byte[] createRequestData() throws IOException {
+				throw new AssertionError("Request body should not be loaded into memory");
+			}
+
+			@Override
+			protected HttpRequestBody createRequestBody() throws IOException {
+				return HttpRequestBody.create(file, 0, file.length());
+			}
+		};
+		request.setMethod(HttpRequestMethod.POST);
+		request.setRequestManager(requestManager);
+		request.start();
+		networkQueue.dispatchTasks();
+
+		assertEquals(200, request.getResponseCode());
+		assertEquals(file.length(), request.getMockConnection().getFixedContentLength());
+		assertArrayEquals("streaming request body".getBytes(), request.getMockConnection().getRequestData());
+	}
+
+	private File createFile(String content) throws IOException {
+		File file = tempFolder.newFile();
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes());
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.network;
+
+import com.apptentive.android.sdk.util.Util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HttpStreamRequestTest extends HttpRequestTestBase {
+	@Test
+	public void testStreamedResponse() {
+		MockHttpStreamRequest request = new MockHttpStreamRequest("1", new StreamHandler());
+		request.setResponseData("{\"messages\":[]}");
+		startRequest(request);
+		dispatchRequests();
+
+		assertResult("stream: {\"messages\":[]}", "finished: 1");
+		assertNull(request.getResponseData()); // the response was not loaded into memory
+	}
+
+	@Test
+	public void testErrorResponse() {
+		MockHttpStreamRequest request = new MockHttpStreamRequest("1", new StreamHandler());
+		request.getMockConnection().setMockResponseHandler(new MockHttpURLConnection.DefaultResponseHandler(500, "", "{\"error\":\"server\"}"));
+		startRequest(request);
+		dispatchRequests();
+
+		// error responses are not streamed
+		assertResult("failed: 1 Unexpected response code: 500 (Internal Server Error)");
+		assertEquals("{\"error\":\"server\"}", request.getResponseData());
+	}
+
+	@Test
+	public void testStreamHandlerException() {
+		MockHttpStreamRequest request = new MockHttpStreamRequest("1", new HttpStreamRequest.StreamHandler() {
+			@Override
+			public void handleResponse(HttpStreamRequest request, InputStream stream) throws IOException {
+				throw new IOException("Parse error");
+			}
+		});
+		startRequest(request);
+		dispatchRequests();
+
+		assertResult("failed: 1 Parse error");
+	}
+
+	@Test
+	public void testConditionalRequest() {
+		MockHttpRequest request = new MockHttpRequest("1");
+		request.setRequestProperty("If-None-Match", "\"abc\"");
+		request.setMockResponseCode(304);
+		startRequest(request);
+		dispatchRequests();
+
+		assertEquals("\"abc\"", request.getMockConnection().getRequestProperty("If-None-Match"));
+		assertResult("finished: 1"); // 'Not Modified' is a success without content
+		assertTrue(request.isNotModified());
+		assertNull(request.getResponseData());
+	}
+
+	@Test
+	public void testModifiedResponse() {
+		MockHttpRequest request = new MockHttpRequest("1");
+		request.setResponseData("{}");
+		request.getMockConnection().setMockResponseHeader("ETag", "\"def\"");
+		startRequest(request);
+		dispatchRequests();
+
+		assertResult("finished: 1");
+		assertFalse(request.isNotModified());
+		assertEquals("{}", request.getResponseData());
+		assertEquals("\"def\"", request.getResponseHeader("etag"));
+	}
+
+	//region Helpers
+
+	private class StreamHandler implements HttpStreamRequest.StreamHandler {
+		@Override
+		public void handleResponse(HttpStreamRequest request, InputStream stream) throws IOException {
+			addResult("stream: " + Util.readStringFromInputStream(stream, "UTF-8"));
+		}
+	}
+
+	//endregion
+}
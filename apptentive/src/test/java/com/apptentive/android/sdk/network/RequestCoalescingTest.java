@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.network;
+
+import com.apptentive.android.sdk.network.MockHttpURLConnection.DefaultResponseHandler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class RequestCoalescingTest extends HttpRequestTestBase {
+	@Test
+	public void testCoalescing() {
+		MockHttpRequest request1 = createRequest("1", true);
+		MockHttpRequest request2 = createRequest("2", true);
+		startRequest(request1);
+		startRequest(request2);
+		dispatchRequests();
+
+		assertResult("connect: 1", "finished: 1", "finished: 2");
+		assertEquals("response: 1", request2.getResponseData());
+		assertEquals(200, request2.getResponseCode());
+	}
+
+	@Test
+	public void testCoalescingFailedRequest() {
+		MockHttpRequest request1 = createRequest("1", true);
+		request1.getMockConnection().setMockResponseHandler(new MockResponseHandler("1", 500));
+		startRequest(request1);
+		startRequest(createRequest("2", true));
+		dispatchRequests();
+
+		assertResult(
+			"connect: 1",
+			"failed: 1 Unexpected response code: 500 (Internal Server Error)",
+			"failed: 2 Unexpected response code: 500 (Internal Server Error)"
+		);
+	}
+
+	@Test
+	public void testNotCoalescible() {
+		startRequest(createRequest("1", true));
+		startRequest(createRequest("2", false));
+		dispatchRequests();
+
+		assertResult("connect: 1", "finished: 1", "connect: 2", "finished: 2");
+	}
+
+	@Test
+	public void testPostNotCoalesced() {
+		MockHttpRequest request1 = createRequest("1", true);
+		request1.setMethod(HttpRequestMethod.POST);
+		MockHttpRequest request2 = createRequest("2", true);
+		request2.setMethod(HttpRequestMethod.POST);
+		startRequest(request1);
+		startRequest(request2);
+		dispatchRequests();
+
+		assertResult("connect: 1", "finished: 1", "connect: 2", "finished: 2");
+	}
+
+	@Test
+	public void testDifferentHeadersNotCoalesced() {
+		MockHttpRequest request1 = createRequest("1", true);
+		request1.setRequestProperty("Authorization", "Bearer token-1");
+		request1.setRequestProperty("If-None-Match", "etag");
+		MockHttpRequest request2 = createRequest("2", true);
+		request2.setRequestProperty("Authorization", "Bearer token-1"); // no validators
+		MockHttpRequest request3 = createRequest("3", true);
+		request3.setRequestProperty("Authorization", "Bearer token-2");
+		MockHttpRequest request4 = createRequest("4", true);
+		request4.setRequestProperty("if-none-match", "etag"); // header names are case-insensitive
+		request4.setRequestProperty("Authorization", "Bearer token-1");
+		startRequest(request1);
+		startRequest(request2);
+		startRequest(request3);
+		startRequest(request4);
+		dispatchRequests();
+
+		assertResult(
+			"connect: 1", "finished: 1", "finished: 4",
+			"connect: 2", "finished: 2",
+			"connect: 3", "finished: 3"
+		);
+	}
+
+	@Test
+	public void testFinishedRequestNotCoalesced() {
+		startRequest(createRequest("1", true));
+		dispatchRequests();
+		startRequest(createRequest("2", true));
+		dispatchRequests();
+
+		assertResult("connect: 1", "finished: 1", "connect: 2", "finished: 2");
+	}
+
+	@Test
+	public void testCancelCoalescedRequest() {
+		MockHttpRequest request2 = createRequest("2", true);
+		startRequest(createRequest("1", true));
+		startRequest(request2);
+		request2.cancel();
+		dispatchRequests();
+
+		assertResult("connect: 1", "finished: 1", "cancelled: 2");
+	}
+
+	@Test
+	public void testCancelRunningRequest() {
+		MockHttpRequest request1 = createRequest("1", true);
+		startRequest(request1);
+		startRequest(createRequest("2", true));
+		startRequest(createRequest("3", true));
+		request1.cancel();
+		dispatchRequests();
+
+		// coalesced requests are sent on their own (and coalesced with each other)
+		assertResult("cancelled: 1", "connect: 2", "finished: 2", "finished: 3");
+	}
+
+	@Test
+	public void testFindRequest() {
+		MockHttpRequest request1 = createRequest("1", false);
+		request1.setTag("tag");
+		MockHttpRequest request2 = createRequest("2", false);
+		request2.setTag("tag");
+		startRequest(request1);
+		startRequest(request2);
+
+		assertSame(request1, requestManager.findRequest("tag"));
+		assertNull(requestManager.findRequest("other"));
+
+		networkQueue.dispatchTasks();
+		assertNull(requestManager.findRequest("tag"));
+	}
+
+	//region Helpers
+
+	private MockHttpRequest createRequest(String name, boolean coalescible) {
+		MockHttpRequest request = new MockHttpRequest(name);
+		request.setMockResponseHandler(new MockResponseHandler(name, 200));
+		request.setCoalescible(coalescible);
+		return request;
+	}
+
+	private class MockResponseHandler extends DefaultResponseHandler {
+		private final String name;
+
+		MockResponseHandler(String name, int responseCode) {
+			super(responseCode, "response: " + name, "");
+			this.name = name;
+		}
+
+		@Override
+		public int getResponseCode() {
+			addResult("connect: " + name);
+			return super.getResponseCode();
+		}
+	}
+
+	//endregion
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.network;
+
+import com.apptentive.android.sdk.TestCaseBase;
+import com.apptentive.android.sdk.util.Util;
+import com.apptentive.android.sdk.util.threading.MockDispatchQueue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RequestCompressionTest extends TestCaseBase {
+	private static final String[] PAYLOAD_FIXTURES = {
+		"event.json",
+		"person.json",
+		"device.json",
+		"app_release.json",
+		"survey.json",
+		"batch.json"
+	};
+
+	private MockDispatchQueue networkQueue;
+	private HttpRequestManager requestManager;
+
+	@Before
+	public void setUp() {
+		super.setUp();
+		networkQueue = new MockDispatchQueue(false);
+		requestManager = new HttpRequestManager(networkQueue);
+	}
+
+	@Test
+	public void testCompressedRequest() throws Exception {
+		byte[] data = readFixture("device.json");
+
+		MockHttpRequest request = sendRequest(data, 0, null);
+		assertEquals("gzip", request.getMockConnection().getRequestProperty("Content-Encoding"));
+		assertArrayEquals(data, Util.gunzip(request.getMockConnection().getRequestData()));
+	}
+
+	@Test
+	public void testCompressionThreshold() throws Exception {
+		byte[] data = readFixture("event.json");
+
+		MockHttpRequest request = sendRequest(data, data.length + 1, null);
+		assertNull(request.getMockConnection().getRequestProperty("Content-Encoding"));
+		assertArrayEquals(data, request.getMockConnection().getRequestData());
+
+		// compression is disabled by default
+		request = sendRequest(data, -1, null);
+		assertNull(request.getMockConnection().getRequestProperty("Content-Encoding"));
+		assertArrayEquals(data, request.getMockConnection().getRequestData());
+	}
+
+	@Test
+	public void testNonJsonBodyNotCompressed() throws Exception {
+		byte[] data = readFixture("device.json");
+
+		// multipart and encrypted bodies are streamed and never buffered for compression
+		for (String contentType : new String[]{"multipart/mixed;boundary=xxx", "multipart/encrypted;boundary=xxx", "application/octet-stream"}) {
+			MockHttpRequest request = sendRequest(data, 0, null, contentType);
+			assertNull(request.getMockConnection().getRequestProperty("Content-Encoding"));
+			assertArrayEquals(data, request.getMockConnection().getRequestData());
+		}
+
+		MockHttpRequest request = sendRequest(data, 0, null, "application/json; charset=utf-8");
+		assertEquals("gzip", request.getMockConnection().getRequestProperty("Content-Encoding"));
+	}
+
+	@Test
+	public void testStoredCompressedBody() throws Exception {
+		byte[] compressedData = Util.gzip(readFixture("survey.json"));
+
+		// body which was compressed when stored is sent as is
+		MockHttpRequest request = sendRequest(compressedData, 0, "gzip");
+		assertArrayEquals(compressedData, request.getMockConnection().getRequestData());
+	}
+
+	/**
+	 * Compares bytes on wire for recorded payloads with and without compression
+	 */
+	@Test
+	public void testBytesOnWire() throws Exception {
+		long totalBytes = 0;
+		long totalCompressedBytes = 0;
+
+		for (String fixture : PAYLOAD_FIXTURES) {
+			byte[] data = readFixture(fixture);
+
+			int bytes = sendRequest(data, -1, null).getMockConnection().getFixedContentLength();
+			int compressedBytes = sendRequest(data, 0, null).getMockConnection().getFixedContentLength();
+			assertTrue(compressedBytes <= bytes);
+
+			totalBytes += bytes;
+			totalCompressedBytes += compressedBytes;
+		}
+
+		assertTrue(totalCompressedBytes < totalBytes);
+	}
+
+	//region Helpers
+
+	private MockHttpRequest sendRequest(byte[] data, int compressionThreshold, String contentEncoding) {
+		return sendRequest(data, compressionThreshold, contentEncoding, "application/json");
+	}
+
+	private MockHttpRequest sendRequest(final byte[] data, int compressionThreshold, String contentEncoding, String contentType) {
+		MockHttpRequest request = new MockHttpRequest("request") {
+			@Override
+			protected byte[] createRequestData() throws IOException {
+				return data;
+			}
+		};
+		request.setMethod(HttpRequestMethod.POST);
+		request.setRequestProperty("Content-Type", contentType);
+		request.setRequestProperty("Content-Encoding", contentEncoding);
+		request.setRequestCompressionThreshold(compressionThreshold);
+		request.setRequestManager(requestManager);
+		request.start();
+		networkQueue.dispatchTasks();
+
+		assertEquals(200, request.getResponseCode());
+		return request;
+	}
+
+	private byte[] readFixture(String name) throws IOException {
+		InputStream input = getClass().getResourceAsStream("/payloads/" + name);
+		if (input == null) {
+			throw new IOException("Missing payload fixture: " + name);
+		}
+
+		try {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			byte[] buffer = new byte[1024];
+			int read;
+			while ((read = input.read(buffer)) != -1) {
+				output.write(buffer, 0, read);
+			}
+			return output.toByteArray();
+		} finally {
+			input.close();
+		}
+	}
+
+	//endregion
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.network;
+
+import com.apptentive.android.sdk.TestCaseBase;
+import com.apptentive.android.sdk.network.HttpRequestStatistics.Histogram;
+import com.apptentive.android.sdk.network.HttpRequestStatistics.Metric;
+import com.apptentive.android.sdk.util.threading.MockDispatchQueue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RequestTimingsTest extends TestCaseBase {
+	private MockDispatchQueue networkQueue;
+	private HttpRequestManager requestManager;
+
+	@Before
+	public void setUp() {
+		super.setUp();
+		networkQueue = new MockDispatchQueue(false);
+		requestManager = new HttpRequestManager(networkQueue);
+		requestManager.setListener(new HttpRequestManager.Listener() {
+			@Override
+			public void onRequestStart(HttpRequestManager manager, HttpRequest request) {
+			}
+
+			@Override
+			public void onRequestFinish(HttpRequestManager manager, HttpRequest request) {
+			}
+
+			@Override
+			public void onRequestsCancel(HttpRequestManager manager) {
+			}
+
+			@Override
+			public void onRequestTimings(HttpRequestManager manager, HttpRequest request, HttpRequestTimings timings) {
+				addResult(request + ": sent=" + timings.getBytesSent() + " received=" + timings.getBytesReceived());
+			}
+		});
+	}
+
+	@Test
+	public void testTimings() {
+		MockHttpRequest request = new MockHttpRequest("1") {
+			@Override
+			protected byte[] createRequestData() throws IOException {
+				return new byte[100];
+			}
+		};
+		request.setMethod(HttpRequestMethod.POST);
+		request.setResponseData("{\"ok\":true}");
+
+		assertNull(request.getTimings());
+		sendRequest(request);
+
+		assertResult("1: sent=100 received=11");
+
+		HttpRequestTimings timings = request.getTimings();
+		assertTrue(timings.getConnectMillis() >= 0);
+		assertTrue(timings.getWriteMillis() >= 0);
+		assertTrue(timings.getFirstByteMillis() >= 0);
+		assertTrue(timings.getReadMillis() >= 0);
+		assertTrue(timings.getTotalMillis() >= timings.getConnectMillis() + timings.getWriteMillis() + timings.getFirstByteMillis() + timings.getReadMillis());
+	}
+
+	@Test
+	public void testErrorResponse() {
+		MockHttpRequest request = new MockHttpRequest("1");
+		request.getMockConnection().setMockResponseHandler(new MockHttpURLConnection.DefaultResponseHandler(500, "", "error"));
+		sendRequest(request);
+
+		assertResult("1: sent=0 received=5");
+	}
+
+	@Test
+	public void testConnectionError() {
+		MockHttpRequest request = new MockHttpRequest("1").setThrowsExceptionOnConnect(true);
+		sendRequest(request);
+
+		assertResult("1: sent=0 received=0");
+		assertEquals(-1, request.getTimings().getFirstByteMillis());
+		assertEquals(-1, request.getTimings().getReadMillis());
+		assertTrue(request.getTimings().getTotalMillis() >= 0);
+
+		HttpRequestStatistics statistics = requestManager.getStatistics();
+		assertEquals(1, statistics.getHistogram(Metric.TOTAL).getCount());
+		assertEquals(0, statistics.getHistogram(Metric.FIRST_BYTE).getCount());
+		assertEquals(0, statistics.getHistogram(Metric.BYTES_RECEIVED).getCount());
+	}
+
+	@Test
+	public void testRetryAttempts() {
+		MockHttpRequest request = new MockHttpRequest("1");
+		request.setMockResponseCode(500);
+		request.setRetryPolicy(new HttpRequestRetryPolicyDefault() {
+			@Override
+			public boolean shouldRetryRequest(int responseCode, int retryAttempt) {
+				return retryAttempt < 3;
+			}
+
+			@Override
+			public long getRetryTimeoutMillis(int retryAttempt) {
+				return 0;
+			}
+		});
+		sendRequest(request);
+
+		// every attempt is recorded
+		assertResult(
+			"1: sent=0 received=0",
+			"1: sent=0 received=0",
+			"1: sent=0 received=0"
+		);
+		assertEquals(3, requestManager.getStatistics().getHistogram(Metric.TOTAL).getCount());
+	}
+
+	@Test
+	public void testStatistics() {
+		for (int i = 0; i < 3; ++i) {
+			MockHttpRequest request = new MockHttpRequest(Integer.toString(i));
+			request.setResponseData("12345");
+			sendRequest(request);
+		}
+
+		Histogram histogram = requestManager.getStatistics().getHistogram(Metric.BYTES_RECEIVED);
+		assertEquals(3, histogram.getCount());
+		assertEquals(15, histogram.getSum());
+		assertEquals(5, histogram.getPercentile(50));
+
+		requestManager.getStatistics().reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(-1, histogram.getPercentile(50));
+	}
+
+	@Test
+	public void testHistogram() {
+		Histogram histogram = new Histogram(new long[] { 10, 100, 1000 });
+		histogram.add(5);
+		histogram.add(10);
+		histogram.add(50);
+		histogram.add(500);
+		histogram.add(700);
+		histogram.add(5000);
+
+		assertArrayEquals(new long[] { 2, 1, 2, 1 }, histogram.getBuckets());
+		assertEquals(6, histogram.getCount());
+		assertEquals(6265, histogram.getSum());
+		assertEquals(5000, histogram.getMax());
+
+		assertEquals(10, histogram.getPercentile(0));
+		assertEquals(10, histogram.getPercentile(33));
+		assertEquals(100, histogram.getPercentile(50));
+		assertEquals(1000, histogram.getPercentile(80));
+		assertEquals(5000, histogram.getPercentile(100)); // above the last bound
+	}
+
+	//region Helpers
+
+	private void sendRequest(HttpRequest request) {
+		request.setRequestManager(requestManager);
+		request.start();
+		networkQueue.dispatchTasks();
+	}
+
+	//endregion
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.storage;
+
+import com.apptentive.android.sdk.TestCaseBase;
+import com.apptentive.android.sdk.model.PayloadData;
+import com.apptentive.android.sdk.model.PayloadType;
+import com.apptentive.android.sdk.network.HttpRequest;
+import com.apptentive.android.sdk.network.HttpRequestManager;
+import com.apptentive.android.sdk.network.HttpRequestMethod;
+import com.apptentive.android.sdk.network.HttpRequestPriority;
+import com.apptentive.android.sdk.network.HttpRequestRetryPolicyDefault;
+import com.apptentive.android.sdk.network.MockHttpRequest;
+import com.apptentive.android.sdk.util.threading.MockDispatchQueue;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrentPayloadSenderTest extends TestCaseBase {
+	private MockDispatchQueue networkQueue;
+	private HttpRequestManager requestManager;
+	private PayloadSender sender;
+
+	@Before
+	public void setUp() {
+		super.setUp();
+		networkQueue = new MockDispatchQueue(false);
+		requestManager = new HttpRequestManager(networkQueue);
+		sender = new PayloadSender(new MockPayloadRequestSender(), new HttpRequestRetryPolicyDefault());
+		sender.setMaxConcurrentRequests(2);
+		sender.setListener(new PayloadSender.Listener() {
+			@Override
+			public void onFinishSending(PayloadSender sender, PayloadData payload, boolean cancelled, String errorMessage, int responseCode, long retryAfterMillis, JSONObject responseData) {
+				addResult(payload.getNonce());
+			}
+
+			@Override
+			public void onFinishSendingBatch(PayloadSender sender, List<PayloadData> payloads, boolean cancelled, String errorMessage, int responseCode, long retryAfterMillis, JSONObject responseData) {
+				throw new AssertionError("Batch requests are not expected");
+			}
+		});
+	}
+
+	@Test
+	public void testMaxConcurrentRequests() {
+		assertTrue(sender.sendPayload(createPayload(PayloadType.event, "event-1", "conversation-1")));
+		assertTrue(sender.sendPayload(createPayload(PayloadType.event, "event-2", "conversation-1")));
+		assertTrue(sender.isBusy());
+		assertFalse(sender.sendPayload(createPayload(PayloadType.event, "event-3", "conversation-1"))); // would not start sending until one of the requests is complete
+
+		networkQueue.dispatchTasks();
+		assertResult("event-1", "event-2");
+		assertFalse(sender.isSendingPayload());
+
+		assertTrue(sender.sendPayload(createPayload(PayloadType.event, "event-3", "conversation-1")));
+		networkQueue.dispatchTasks();
+		assertResult("event-3");
+	}
+
+	@Test
+	public void testOrderedPayloads() {
+		assertTrue(sender.sendPayload(createPayload(PayloadType.message, "message-1", "conversation-1")));
+		assertFalse(sender.sendPayload(createPayload(PayloadType.person, "person-1", "conversation-1"))); // ordered payloads of the same conversation are sent one at a time
+		assertFalse(sender.sendPayload(createPayload(PayloadType.message, "message-1", "conversation-2"))); // the same payload is already in flight
+		assertTrue(sender.sendPayload(createPayload(PayloadType.event, "event-1", "conversation-1"))); // events don't depend on the order
+
+		networkQueue.dispatchTasks();
+		assertResult("message-1", "event-1");
+
+		assertTrue(sender.sendPayload(createPayload(PayloadType.person, "person-1", "conversation-1")));
+		assertTrue(sender.sendPayload(createPayload(PayloadType.device, "device-1", "conversation-2"))); // different conversation
+
+		networkQueue.dispatchTasks();
+		assertResult("person-1", "device-1");
+	}
+
+	@Test
+	public void testLogoutPayload() {
+		assertTrue(sender.sendPayload(createPayload(PayloadType.event, "event-1", "conversation-1")));
+		assertFalse(sender.sendPayload(createPayload(PayloadType.logout, "logout-1", "conversation-1"))); // logout waits for all the payloads of the conversation
+
+		networkQueue.dispatchTasks();
+		assertResult("event-1");
+
+		assertTrue(sender.sendPayload(createPayload(PayloadType.logout, "logout-1", "conversation-1")));
+		assertFalse(sender.sendPayload(createPayload(PayloadType.event, "event-2", "conversation-1"))); // nothing is sent along with a logout
+
+		networkQueue.dispatchTasks();
+		assertResult("logout-1");
+	}
+
+	@Test
+	public void testPayloadFilter() {
+		sender.setMaxConcurrentRequests(4);
+		assertTrue(sender.sendPayload(createPayload(PayloadType.message, "message-1", "conversation-1")));
+
+		PayloadFilter filter = sender.createPayloadFilter(Collections.singletonMap("event-1", createPayload(PayloadType.event, "event-1", "conversation-1")));
+		assertFalse(filter.accept("message-1", PayloadType.message, "conversation-1")); // in flight
+		assertFalse(filter.accept("event-1", PayloadType.event, "conversation-1")); // finishing
+		assertFalse(filter.accept("message-2", PayloadType.message, "conversation-1")); // waits for 'message-1'
+		assertTrue(filter.accept("event-2", PayloadType.event, "conversation-1"));
+		assertFalse(filter.accept("person-1", PayloadType.person, "conversation-1")); // waits for 'message-2'
+		assertFalse(filter.accept("logout-1", PayloadType.logout, "conversation-1")); // waits for 'person-1'
+		assertFalse(filter.accept("event-3", PayloadType.event, "conversation-1")); // waits for 'logout-1'
+		assertTrue(filter.accept("device-1", PayloadType.device, "conversation-2"));
+	}
+
+	@Test
+	public void testPayloadWindowWithRequestManagerLimits() {
+		// payload requests are low priority: the default limit should not serialize the sender window
+		sender.setMaxConcurrentRequests(4);
+		assertTrue(sender.sendPayload(createPayload(PayloadType.event, "event-1", "conversation-1")));
+		assertTrue(sender.sendPayload(createPayload(PayloadType.event, "event-2", "conversation-1")));
+		assertTrue(sender.sendPayload(createPayload(PayloadType.event, "event-3", "conversation-1")));
+		assertTrue(sender.sendPayload(createPayload(PayloadType.event, "event-4", "conversation-1")));
+		assertTrue(sender.isBusy());
+
+		assertEquals(4, requestManager.getInFlightRequestCount(HttpRequestPriority.LOW));
+		assertEquals(0, requestManager.getQueuedRequestCount());
+
+		networkQueue.dispatchTasks();
+		assertResult("event-1", "event-2", "event-3", "event-4");
+	}
+
+	@Test
+	public void testPayloadFilterWhileFinishing() throws Exception {
+		final Map<String, PayloadData> finishingPayloads = Collections.synchronizedMap(new HashMap<String, PayloadData>());
+		final PayloadFilter[] filter = new PayloadFilter[1];
+		final Thread filterThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				filter[0] = sender.createPayloadFilter(finishingPayloads);
+			}
+		});
+
+		sender.setListener(new PayloadSender.Listener() {
+			@Override
+			public void onFinishSending(PayloadSender sender, PayloadData payload, boolean cancelled, String errorMessage, int responseCode, long retryAfterMillis, JSONObject responseData) {
+				// the payload is marked as finishing and the filter is built before it's unregistered
+				finishingPayloads.put(payload.getNonce(), payload);
+				filterThread.start();
+				while (filterThread.getState() != Thread.State.BLOCKED && filterThread.getState() != Thread.State.TERMINATED) {
+					Thread.yield();
+				}
+			}
+
+			@Override
+			public void onFinishSendingBatch(PayloadSender sender, List<PayloadData> payloads, boolean cancelled, String errorMessage, int responseCode, long retryAfterMillis, JSONObject responseData) {
+				throw new AssertionError("Batch requests are not expected");
+			}
+		});
+
+		assertTrue(sender.sendPayload(createPayload(PayloadType.event, "event-1", "conversation-1")));
+		networkQueue.dispatchTasks();
+		filterThread.join(1000);
+
+		assertFalse(sender.isSendingPayload("event-1"));
+		assertFalse(filter[0].accept("event-1", PayloadType.event, "conversation-1")); // would be sent twice otherwise
+		assertTrue(filter[0].accept("event-2", PayloadType.event, "conversation-1"));
+	}
+
+	//region Helpers
+
+	private static PayloadData createPayload(PayloadType type, String nonce, String conversationId) {
+		return new PayloadData(type, nonce, conversationId, new byte[0], "authToken", "application/json", "path", HttpRequestMethod.POST, false);
+	}
+
+	class MockPayloadRequestSender implements PayloadRequestSender {
+		@Override
+		public HttpRequest createPayloadSendRequest(PayloadData payload, HttpRequest.Listener<HttpRequest> listener) {
+			MockHttpRequest request = new MockHttpRequest(payload.getNonce());
+			request.setPriority(HttpRequestPriority.LOW); // same as the client's payload requests
+			request.addListener(listener);
+			request.setRequestManager(requestManager);
+			return request;
+		}
+
+		@Override
+		public HttpRequest createPayloadBatchSendRequest(List<PayloadData> payloads, HttpRequest.Listener<HttpRequest> listener) {
+			throw new AssertionError("Batch requests are not expected");
+		}
+	}
+
+	//endregion
+}
@@ -39,6 +39,8 @@ public class ConversationDataTest {
 		expected.setTargets("MNCIUFIENVBFKDV");
 		expected.setInteractions("nkjvdfikjbffasldnbnfldfmfd");
 		expected.setInteractionExpiration(1234567894567890345L);
+		expected.setInteractionsETag("\"W/1234567890\"");
+		expected.setInteractionsLastModified("Wed, 21 Oct 2015 07:28:00 GMT");
 
 		/*
 		 // TODO: Test nested objects as well
@@ -70,6 +72,8 @@ public class ConversationDataTest {
 			assertEquals(expected.getTargets(), actual.getTargets());
 			assertEquals(expected.getInteractions(), actual.getInteractions());
 			assertEquals(expected.getInteractionExpiration(), actual.getInteractionExpiration(), 0.000001);
+			assertEquals(expected.getInteractionsETag(), actual.getInteractionsETag());
+			assertEquals(expected.getInteractionsLastModified(), actual.getInteractionsLastModified());
 
 		} catch (Exception e) {
 			fail(e.getMessage());
@@ -149,6 +153,14 @@ public class ConversationDataTest {
 		assertTrue(listenerFired);
 		listenerFired = false;
 
+		data.setInteractionsETag("foo");
+		assertTrue(listenerFired);
+		listenerFired = false;
+
+		data.setInteractionsLastModified("foo");
+		assertTrue(listenerFired);
+		listenerFired = false;
+
 
 		data.getDevice().getCustomData().put("foo", "bar");
 		assertTrue(listenerFired);
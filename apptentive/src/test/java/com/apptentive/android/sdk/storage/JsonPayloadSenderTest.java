@@ -23,6 +23,8 @@ import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.List;
+
 import static junit.framework.Assert.assertFalse;
 import static junit.framework.TestCase.assertTrue;
 
@@ -43,7 +45,7 @@ public class JsonPayloadSenderTest extends TestCaseBase {
 		PayloadSender sender = new PayloadSender(requestSender, new HttpRequestRetryPolicyDefault());
 		sender.setListener(new PayloadSender.Listener() {
 			@Override
-			public void onFinishSending(PayloadSender sender, PayloadData payload, boolean cancelled, String errorMessage, int responseCode, JSONObject responseData) {
+			public void onFinishSending(PayloadSender sender, PayloadData payload, boolean cancelled, String errorMessage, int responseCode, long retryAfterMillis, JSONObject responseData) {
 				if (cancelled) {
 					addResult("cancelled: " + payload);
 				} else if (errorMessage != null) {
@@ -52,6 +54,11 @@ public class JsonPayloadSenderTest extends TestCaseBase {
 					addResult("succeed: " + payload);
 				}
 			}
+
+			@Override
+			public void onFinishSendingBatch(PayloadSender sender, List<PayloadData> payloads, boolean cancelled, String errorMessage, int responseCode, long retryAfterMillis, JSONObject responseData) {
+				addResult("batch: " + payloads);
+			}
 		});
 
 		final MockPayload payload1 = new MockPayload("key1", "value1");
@@ -136,5 +143,10 @@ public class JsonPayloadSenderTest extends TestCaseBase {
 			request.setRequestManager(requestManager);
 			return request;
 		}
+
+		@Override
+		public HttpRequest createPayloadBatchSendRequest(List<PayloadData> payloads, HttpRequest.Listener<HttpRequest> listener) {
+			throw new AssertionError("Batch requests are not expected");
+		}
 	}
 }
\ No newline at end of file
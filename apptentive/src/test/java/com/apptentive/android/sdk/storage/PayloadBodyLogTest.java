@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PayloadBodyLogTest {
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testAppendAndRead() throws Exception {
+		PayloadBodyLog log = new PayloadBodyLog(tempFolder.getRoot(), 1024);
+
+		PayloadBodyLog.Entry entry1 = log.append("first".getBytes());
+		PayloadBodyLog.Entry entry2 = log.append("second".getBytes());
+
+		assertEquals(entry1.segmentId, entry2.segmentId);
+		assertEquals(0, entry1.offset);
+		assertEquals(5, entry2.offset);
+
+		assertArrayEquals("first".getBytes(), log.read(entry1.segmentId, entry1.offset, entry1.length));
+		assertArrayEquals("second".getBytes(), log.read(entry2.segmentId, entry2.offset, entry2.length));
+	}
+
+	@Test
+	public void testRollSegments() throws Exception {
+		PayloadBodyLog log = new PayloadBodyLog(tempFolder.getRoot(), 10);
+
+		PayloadBodyLog.Entry entry1 = log.append("12345".getBytes());
+		PayloadBodyLog.Entry entry2 = log.append("67890".getBytes());
+		PayloadBodyLog.Entry entry3 = log.append("abc".getBytes()); // segment is full
+		PayloadBodyLog.Entry entry4 = log.append("a very long body".getBytes()); // bigger than a segment
+
+		assertEquals(entry1.segmentId, entry2.segmentId);
+		assertEquals(entry1.segmentId + 1, entry3.segmentId);
+		assertEquals(entry3.segmentId + 1, entry4.segmentId);
+		assertEquals(entry4.segmentId, log.getActiveSegmentId());
+		assertArrayEquals("a very long body".getBytes(), log.read(entry4.segmentId, entry4.offset, entry4.length));
+
+		assertEquals(Arrays.asList(entry1.segmentId, entry3.segmentId, entry4.segmentId), sorted(log.listSegmentIds()));
+	}
+
+	@Test
+	public void testDeleteSegment() throws Exception {
+		PayloadBodyLog log = new PayloadBodyLog(tempFolder.getRoot(), 5);
+
+		PayloadBodyLog.Entry entry1 = log.append("12345".getBytes());
+		PayloadBodyLog.Entry entry2 = log.append("67890".getBytes());
+
+		assertFalse(log.deleteSegment(entry2.segmentId)); // active segment is never deleted
+		assertTrue(log.deleteSegment(entry1.segmentId));
+
+		try {
+			log.read(entry1.segmentId, entry1.offset, entry1.length);
+			fail("Segment should be deleted");
+		} catch (IOException e) {
+			// expected
+		}
+		assertArrayEquals("67890".getBytes(), log.read(entry2.segmentId, entry2.offset, entry2.length));
+	}
+
+	@Test
+	public void testReopen() throws Exception {
+		File directory = tempFolder.getRoot();
+
+		PayloadBodyLog log = new PayloadBodyLog(directory, 10);
+		log.append("12345".getBytes());
+		log.append("67890".getBytes());
+		PayloadBodyLog.Entry entry = log.append("abc".getBytes());
+
+		// continues with the latest segment
+		PayloadBodyLog reopened = new PayloadBodyLog(directory, 10);
+		PayloadBodyLog.Entry nextEntry = reopened.append("def".getBytes());
+		assertEquals(entry.segmentId, nextEntry.segmentId);
+		assertEquals(entry.offset + entry.length, nextEntry.offset);
+
+		reopened.deleteAllSegments();
+		assertEquals(0, reopened.listSegmentIds().size());
+	}
+
+	@Test
+	public void testAppendStream() throws Exception {
+		PayloadBodyLog log = new PayloadBodyLog(tempFolder.getRoot(), 1024);
+
+		PayloadBodyLog.Entry entry1 = log.append("first".getBytes());
+		PayloadBodyLog.Entry entry2 = log.append(new PayloadBodyLog.Writer() {
+			@Override
+			public void writeTo(OutputStream out) throws Exception {
+				out.write("sec".getBytes());
+				out.write("ond".getBytes());
+			}
+		});
+
+		assertEquals(entry1.segmentId, entry2.segmentId);
+		assertEquals(5, entry2.offset);
+		assertEquals(6, entry2.length);
+		assertArrayEquals("second".getBytes(), log.read(entry2.segmentId, entry2.offset, entry2.length));
+	}
+
+	@Test
+	public void testAppendStreamFailure() throws Exception {
+		PayloadBodyLog log = new PayloadBodyLog(tempFolder.getRoot(), 1024);
+		PayloadBodyLog.Entry entry1 = log.append("first".getBytes());
+
+		try {
+			log.append(new PayloadBodyLog.Writer() {
+				@Override
+				public void writeTo(OutputStream out) throws Exception {
+					out.write("partial".getBytes());
+					out.flush();
+					throw new IOException("Unable to render");
+				}
+			});
+			fail("Exception expected");
+		} catch (IOException expected) {
+		}
+
+		// partially written data is discarded
+		PayloadBodyLog.Entry entry2 = log.append("second".getBytes());
+		assertEquals(entry1.segmentId, entry2.segmentId);
+		assertEquals(5, entry2.offset);
+		assertArrayEquals("second".getBytes(), log.read(entry2.segmentId, entry2.offset, entry2.length));
+	}
+
+	private static List<Long> sorted(List<Long> list) {
+		Collections.sort(list);
+		return list;
+	}
+}
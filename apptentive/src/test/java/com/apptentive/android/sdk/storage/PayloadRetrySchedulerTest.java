@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.storage;
+
+import com.apptentive.android.sdk.TestCaseBase;
+import com.apptentive.android.sdk.storage.PayloadRetryScheduler.State;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PayloadRetrySchedulerTest extends TestCaseBase {
+	private MockRandom random;
+	private MockPayloadRetryScheduler scheduler;
+
+	@Before
+	public void setUp() {
+		super.setUp();
+		random = new MockRandom();
+		scheduler = new MockPayloadRetryScheduler(random);
+		scheduler.setBaseDelayMillis(1000);
+		scheduler.setMaxDelayMillis(10000);
+		scheduler.setCircuitBreakerThreshold(3);
+	}
+
+	@Test
+	public void testExponentialBackoff() {
+		random.value = 0.5;
+
+		assertEquals(500, scheduler.onFailure(-1, -1));
+		assertEquals(State.BACKING_OFF, scheduler.getState());
+		assertEquals(500, scheduler.getNextAttemptTime());
+		assertFalse(scheduler.canSend());
+		retry();
+
+		assertEquals(1000, scheduler.onFailure(-1, -1));
+		retry();
+		assertEquals(2000, scheduler.onFailure(-1, -1));
+		retry();
+		assertEquals(4000, scheduler.onFailure(-1, -1));
+		retry();
+		assertEquals(5000, scheduler.onFailure(-1, -1)); // max delay
+		retry();
+		assertEquals(5000, scheduler.onFailure(-1, -1));
+		retry();
+
+		scheduler.onSuccess();
+		assertEquals(500, scheduler.onFailure(-1, -1));
+	}
+
+	@Test
+	public void testFullJitter() {
+		random.value = 0.0;
+		assertEquals(0, scheduler.getBackoffDelayMillis(3));
+		random.value = 0.25;
+		assertEquals(1000, scheduler.getBackoffDelayMillis(3));
+		random.value = 0.999;
+		assertEquals(3996, scheduler.getBackoffDelayMillis(3));
+	}
+
+	@Test
+	public void testRetryAfter() {
+		random.value = 0.5;
+
+		// the server asks for a longer delay
+		assertEquals(30000, scheduler.onFailure(503, 30000));
+		retry();
+
+		// backoff is longer than the server asks for
+		assertEquals(1000, scheduler.onFailure(429, 100));
+	}
+
+	@Test
+	public void testFailuresWhileBackingOff() {
+		random.value = 0.5;
+
+		assertEquals(500, scheduler.onFailure(-1, -1));
+
+		// concurrent requests failing at the same time don't extend the backoff
+		assertEquals(-1, scheduler.onFailure(-1, -1));
+		assertEquals(-1, scheduler.onFailure(503, -1));
+		assertEquals(1, scheduler.getFailureCount());
+	}
+
+	@Test
+	public void testOutdatedRetry() {
+		random.value = 0.5;
+
+		assertEquals(500, scheduler.onFailure(-1, -1));
+		long attemptTime = scheduler.getNextAttemptTime();
+		scheduler.onSuccess();
+
+		scheduler.currentTime = 100;
+		assertEquals(500, scheduler.onFailure(-1, -1));
+		assertFalse(scheduler.onRetryTimeout(attemptTime));
+		assertEquals(State.BACKING_OFF, scheduler.getState());
+
+		assertTrue(scheduler.onRetryTimeout(scheduler.getNextAttemptTime()));
+		assertEquals(State.IDLE, scheduler.getState());
+	}
+
+	@Test
+	public void testCircuitBreaker() {
+		random.value = 0.5;
+
+		scheduler.onFailure(503, -1);
+		retry();
+		scheduler.onFailure(502, -1);
+		retry();
+		assertEquals(-1, scheduler.onFailure(504, -1));
+		assertEquals(State.CIRCUIT_OPEN, scheduler.getState());
+		assertEquals(0, scheduler.getNextAttemptTime());
+		assertFalse(scheduler.canSend());
+
+		// no retries until resumed
+		assertEquals(-1, scheduler.onFailure(503, -1));
+		assertFalse(scheduler.onRetryTimeout(0));
+
+		assertTrue(scheduler.resume());
+		assertTrue(scheduler.canSend());
+		assertFalse(scheduler.resume());
+
+		// backoff is not reset by resuming
+		assertEquals(4000, scheduler.onFailure(503, -1));
+	}
+
+	@Test
+	public void testCircuitBreakerConsecutiveErrors() {
+		random.value = 0.5;
+
+		scheduler.onFailure(503, -1);
+		retry();
+		scheduler.onFailure(503, -1);
+		retry();
+		scheduler.onFailure(-1, -1); // connection error breaks the streak
+		retry();
+		scheduler.onFailure(503, -1);
+		retry();
+		scheduler.onFailure(503, -1);
+		assertEquals(State.BACKING_OFF, scheduler.getState());
+	}
+
+	@Test
+	public void testCircuitBreakerSuccess() {
+		random.value = 0.5;
+
+		scheduler.onFailure(503, -1);
+		retry();
+		scheduler.onFailure(503, -1);
+		retry();
+		scheduler.onFailure(503, -1);
+		assertEquals(State.CIRCUIT_OPEN, scheduler.getState());
+
+		// a successful request (i.e. one that was in flight) closes the circuit
+		scheduler.onSuccess();
+		assertEquals(State.IDLE, scheduler.getState());
+		assertEquals(0, scheduler.getFailureCount());
+	}
+
+	@Test
+	public void testInternalServerErrors() {
+		random.value = 0.5;
+
+		// a run of 500 responses keeps the payloads and ends up parking the delivery
+		assertTrue(PayloadRetryScheduler.isRetryableFailure(500));
+		assertEquals(500, scheduler.onFailure(500, -1));
+		retry();
+		assertEquals(1000, scheduler.onFailure(500, -1));
+		retry();
+		assertEquals(-1, scheduler.onFailure(500, -1));
+		assertEquals(State.CIRCUIT_OPEN, scheduler.getState());
+	}
+
+	@Test
+	public void testRetryableFailures() {
+		assertTrue(PayloadRetryScheduler.isRetryableFailure(-1));
+		assertTrue(PayloadRetryScheduler.isRetryableFailure(429));
+		assertTrue(PayloadRetryScheduler.isRetryableFailure(503));
+		assertFalse(PayloadRetryScheduler.isRetryableFailure(400));
+		assertFalse(PayloadRetryScheduler.isRetryableFailure(422));
+	}
+
+	//region Helpers
+
+	private void retry() {
+		scheduler.currentTime = scheduler.getNextAttemptTime();
+		assertTrue(scheduler.onRetryTimeout(scheduler.getNextAttemptTime()));
+		assertTrue(scheduler.canSend());
+	}
+
+	private static class MockRandom extends Random {
+		double value;
+
+		@Override
+		public double nextDouble() {
+			return value;
+		}
+	}
+
+	private static class MockPayloadRetryScheduler extends PayloadRetryScheduler {
+		long currentTime;
+
+		MockPayloadRetryScheduler(Random random) {
+			super(random);
+		}
+
+		@Override
+		protected long currentTimeMillis() {
+			return currentTime;
+		}
+	}
+
+	//endregion
+}
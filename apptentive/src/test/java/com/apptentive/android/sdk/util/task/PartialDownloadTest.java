@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.util.task;
+
+import com.apptentive.android.sdk.network.MockHttpURLConnection;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PartialDownloadTest {
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	private String destPath;
+
+	@Before
+	public void setUp() {
+		destPath = new File(tempFolder.getRoot(), "attachment").getAbsolutePath();
+	}
+
+	@Test
+	public void testResume() throws IOException {
+		download(createConnection(200, "ETag", "\"v1\""), "Hello, ");
+		assertFalse(new File(destPath).exists());
+
+		MockHttpURLConnection connection = createConnection(206, "Content-Range", "bytes 7-12/13");
+		PartialDownload partialDownload = new PartialDownload(destPath);
+		partialDownload.setupRequest(connection);
+		assertEquals("bytes=7-", connection.getRequestProperty("Range"));
+		assertEquals("\"v1\"", connection.getRequestProperty("If-Range"));
+
+		assertEquals(7, partialDownload.openResponse(connection));
+		write(partialDownload, 7, "World!");
+		partialDownload.complete();
+
+		assertEquals("Hello, World!", readFile(destPath));
+		assertFalse(partialDownload.getPartialFile().exists());
+	}
+
+	@Test
+	public void testLastModifiedValidator() throws IOException {
+		download(createConnection(200, "Last-Modified", "Wed, 21 Oct 2015 07:28:00 GMT"), "Hello");
+
+		MockHttpURLConnection connection = createConnection(206);
+		new PartialDownload(destPath).setupRequest(connection);
+		assertEquals("Wed, 21 Oct 2015 07:28:00 GMT", connection.getRequestProperty("If-Range"));
+	}
+
+	@Test
+	public void testWeakETagIgnored() throws IOException {
+		download(createConnection(200, "ETag", "W/\"v1\""), "Hello");
+
+		MockHttpURLConnection connection = createConnection(206);
+		new PartialDownload(destPath).setupRequest(connection);
+		assertNull(connection.getRequestProperty("Range"));
+	}
+
+	@Test
+	public void testNoValidators() throws IOException {
+		download(createConnection(200), "Hello");
+
+		MockHttpURLConnection connection = createConnection(206);
+		new PartialDownload(destPath).setupRequest(connection);
+		assertNull(connection.getRequestProperty("Range"));
+	}
+
+	@Test
+	public void testContentChanged() throws IOException {
+		download(createConnection(200, "ETag", "\"v1\""), "Hello, ");
+
+		// If-Range didn't match: the server sends the whole file
+		MockHttpURLConnection connection = createConnection(200, "ETag", "\"v2\"");
+		PartialDownload partialDownload = new PartialDownload(destPath);
+		partialDownload.setupRequest(connection);
+		assertEquals(0, partialDownload.openResponse(connection));
+		write(partialDownload, 0, "Bye!");
+		partialDownload.complete();
+
+		assertEquals("Bye!", readFile(destPath));
+	}
+
+	@Test
+	public void testRangeNotSatisfiable() throws IOException {
+		download(createConnection(200, "ETag", "\"v1\""), "Hello, ");
+
+		MockHttpURLConnection connection = createConnection(416);
+		PartialDownload partialDownload = new PartialDownload(destPath);
+		partialDownload.setupRequest(connection);
+		assertEquals(-1, partialDownload.openResponse(connection));
+		assertTrue(partialDownload.shouldRestart(416));
+		assertFalse(partialDownload.getPartialFile().exists());
+
+		// second attempt is sent without a range
+		connection = createConnection(200);
+		partialDownload.setupRequest(connection);
+		assertNull(connection.getRequestProperty("Range"));
+		assertFalse(partialDownload.shouldRestart(416));
+	}
+
+	@Test
+	public void testUnexpectedContentRange() throws IOException {
+		download(createConnection(200, "ETag", "\"v1\""), "Hello, ");
+
+		MockHttpURLConnection connection = createConnection(206, "Content-Range", "bytes 0-12/13");
+		PartialDownload partialDownload = new PartialDownload(destPath);
+		partialDownload.setupRequest(connection);
+		assertEquals(-1, partialDownload.openResponse(connection));
+		assertTrue(partialDownload.shouldRestart(206));
+		assertFalse(partialDownload.getPartialFile().exists());
+	}
+
+	@Test
+	public void testServerErrorKeepsPartialFile() throws IOException {
+		download(createConnection(200, "ETag", "\"v1\""), "Hello, ");
+
+		MockHttpURLConnection connection = createConnection(500);
+		PartialDownload partialDownload = new PartialDownload(destPath);
+		partialDownload.setupRequest(connection);
+		assertEquals(-1, partialDownload.openResponse(connection));
+		assertFalse(partialDownload.shouldRestart(500));
+		assertTrue(partialDownload.getPartialFile().exists());
+	}
+
+	@Test
+	public void testParseContentRange() {
+		assertEquals(100, PartialDownload.parseContentRangeStart("bytes 100-199/200"));
+		assertEquals(0, PartialDownload.parseContentRangeStart("bytes 0-199/*"));
+		assertEquals(-1, PartialDownload.parseContentRangeStart("bytes */200"));
+		assertEquals(-1, PartialDownload.parseContentRangeStart("items 0-1/2"));
+		assertEquals(-1, PartialDownload.parseContentRangeStart(null));
+	}
+
+	//region Helpers
+
+	/* Simulates an interrupted download */
+	private void download(MockHttpURLConnection connection, String data) throws IOException {
+		PartialDownload partialDownload = new PartialDownload(destPath);
+		partialDownload.setupRequest(connection);
+		long offset = partialDownload.openResponse(connection);
+		write(partialDownload, offset, data);
+	}
+
+	private static void write(PartialDownload partialDownload, long offset, String data) throws IOException {
+		OutputStream output = partialDownload.openOutput(offset);
+		try {
+			output.write(data.getBytes("UTF-8"));
+		} finally {
+			output.close();
+		}
+	}
+
+	private static MockHttpURLConnection createConnection(int responseCode, String... headers) {
+		MockHttpURLConnection connection = new MockHttpURLConnection() {
+		};
+		connection.setMockResponseCode(responseCode);
+		for (int i = 0; i < headers.length; i += 2) {
+			connection.setMockResponseHeader(headers[i], headers[i + 1]);
+		}
+		return connection;
+	}
+
+	private static String readFile(String path) throws IOException {
+		InputStream input = new FileInputStream(path);
+		try {
+			byte[] data = new byte[(int) new File(path).length()];
+			int offset = 0;
+			while (offset < data.length) {
+				offset += input.read(data, offset, data.length - offset);
+			}
+			return new String(data, "UTF-8");
+		} finally {
+			input.close();
+		}
+	}
+
+	//endregion
+}
@@ -6,7 +6,28 @@
 
 package com.apptentive.android.sdk;
 
+import android.content.SharedPreferences;
+
+import com.apptentive.android.sdk.conversation.Conversation;
+
 public class ApptentiveInternalMock extends ApptentiveInternal {
+	private final SharedPreferences globalSharedPrefs = new MockSharedPreferences();
+	private Conversation conversation;
+
 	public ApptentiveInternalMock() {
 	}
+
+	@Override
+	public SharedPreferences getGlobalSharedPrefs() {
+		return globalSharedPrefs;
+	}
+
+	@Override
+	public Conversation getConversation() {
+		return conversation;
+	}
+
+	public void setConversation(Conversation conversation) {
+		this.conversation = conversation;
+	}
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk;
+
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory shared preferences for the tests which don't have an Android context
+ */
+public class MockSharedPreferences implements SharedPreferences {
+	private final Map<String, Object> values = new HashMap<>();
+
+	@Override
+	public synchronized Map<String, ?> getAll() {
+		return new HashMap<>(values);
+	}
+
+	@Override
+	public String getString(String key, String defValue) {
+		return get(key, defValue);
+	}
+
+	@Override
+	public Set<String> getStringSet(String key, Set<String> defValues) {
+		return get(key, defValues);
+	}
+
+	@Override
+	public int getInt(String key, int defValue) {
+		return get(key, defValue);
+	}
+
+	@Override
+	public long getLong(String key, long defValue) {
+		return get(key, defValue);
+	}
+
+	@Override
+	public float getFloat(String key, float defValue) {
+		return get(key, defValue);
+	}
+
+	@Override
+	public boolean getBoolean(String key, boolean defValue) {
+		return get(key, defValue);
+	}
+
+	@Override
+	public synchronized boolean contains(String key) {
+		return values.containsKey(key);
+	}
+
+	@Override
+	public Editor edit() {
+		return new MockEditor();
+	}
+
+	@Override
+	public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+	}
+
+	@Override
+	public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+	}
+
+	@SuppressWarnings("unchecked")
+	private synchronized <T> T get(String key, T defValue) {
+		return values.containsKey(key) ? (T) values.get(key) : defValue;
+	}
+
+	private class MockEditor implements Editor {
+		private final Map<String, Object> changes = new HashMap<>();
+		private boolean clear;
+
+		@Override
+		public Editor putString(String key, String value) {
+			changes.put(key, value);
+			return this;
+		}
+
+		@Override
+		public Editor putStringSet(String key, Set<String> values) {
+			changes.put(key, values != null ? new HashSet<>(values) : null);
+			return this;
+		}
+
+		@Override
+		public Editor putInt(String key, int value) {
+			changes.put(key, value);
+			return this;
+		}
+
+		@Override
+		public Editor putLong(String key, long value) {
+			changes.put(key, value);
+			return this;
+		}
+
+		@Override
+		public Editor putFloat(String key, float value) {
+			changes.put(key, value);
+			return this;
+		}
+
+		@Override
+		public Editor putBoolean(String key, boolean value) {
+			changes.put(key, value);
+			return this;
+		}
+
+		@Override
+		public Editor remove(String key) {
+			changes.put(key, null);
+			return this;
+		}
+
+		@Override
+		public Editor clear() {
+			clear = true;
+			return this;
+		}
+
+		@Override
+		public boolean commit() {
+			synchronized (MockSharedPreferences.this) {
+				if (clear) {
+					values.clear();
+				}
+				for (Map.Entry<String, Object> change : changes.entrySet()) {
+					if (change.getValue() != null) {
+						values.put(change.getKey(), change.getValue());
+					} else {
+						values.remove(change.getKey());
+					}
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public void apply() {
+			commit();
+		}
+	}
+}
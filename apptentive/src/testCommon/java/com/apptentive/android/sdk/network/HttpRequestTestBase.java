@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.network;
+
+import com.apptentive.android.sdk.TestCaseBase;
+import com.apptentive.android.sdk.util.threading.MockDispatchQueue;
+
+import org.junit.Before;
+
+/**
+ * Base class for the tests which run mock requests through an {@link HttpRequestManager} on a
+ * manually dispatched network queue and record the results of the requests.
+ */
+public class HttpRequestTestBase extends TestCaseBase {
+	protected MockDispatchQueue networkQueue;
+	protected HttpRequestManager requestManager;
+
+	//region Setup
+
+	@Before
+	@Override
+	public void setUp() {
+		super.setUp();
+		networkQueue = new MockDispatchQueue(false);
+		requestManager = createRequestManager(networkQueue);
+	}
+
+	/* This method can be overridden in a subclass for a custom request manager */
+	protected HttpRequestManager createRequestManager(MockDispatchQueue networkQueue) {
+		return new HttpRequestManager(networkQueue);
+	}
+
+	//endregion
+
+	//region Requests
+
+	protected MockHttpRequest createRequest(String name, HttpRequestPriority priority) {
+		MockHttpRequest request = new MockHttpRequest(name);
+		request.setPriority(priority);
+		return request;
+	}
+
+	protected void startRequest(HttpRequest request) {
+		request.addListener(new HttpRequest.Listener<HttpRequest>() {
+			@Override
+			public void onFinish(HttpRequest request) {
+				addResult("finished: " + request);
+			}
+
+			@Override
+			public void onCancel(HttpRequest request) {
+				addResult("cancelled: " + request);
+			}
+
+			@Override
+			public void onFail(HttpRequest request, String reason) {
+				addResult("failed: " + request + " " + reason);
+			}
+		});
+
+		request.setRequestManager(requestManager);
+		request.start();
+	}
+
+	protected void dispatchRequests() {
+		networkQueue.dispatchTasks();
+	}
+
+	//endregion
+}
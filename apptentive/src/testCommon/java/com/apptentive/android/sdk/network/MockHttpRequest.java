@@ -59,6 +59,10 @@ public class MockHttpRequest extends HttpRequest {
 		return this;
 	}
 
+	public MockHttpURLConnection getMockConnection() {
+		return connection;
+	}
+
 	@Override
 	protected boolean isNetworkConnectionPresent() {
 		return true;
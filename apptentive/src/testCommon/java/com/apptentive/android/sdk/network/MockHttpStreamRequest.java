@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2017, Apptentive, Inc. All Rights Reserved.
+ * Please refer to the LICENSE file for the terms and conditions
+ * under which redistribution and use of this file is permitted.
+ */
+
+package com.apptentive.android.sdk.network;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+public class MockHttpStreamRequest extends HttpStreamRequest {
+
+	private final MockHttpURLConnection connection;
+
+	public MockHttpStreamRequest(String name, StreamHandler streamHandler) {
+		super("https://abc.com", streamHandler);
+		connection = new MockHttpURLConnection();
+		connection.setMockResponseCode(200);
+		setName(name);
+		setRetryPolicy(new HttpRequestRetryPolicyDefault() {
+			@Override
+			public boolean shouldRetryRequest(int responseCode, int retryAttempt) {
+				return false; // do not retry by default
+			}
+		});
+	}
+
+	@Override
+	protected HttpURLConnection openConnection(URL url) throws IOException {
+		return connection;
+	}
+
+	public MockHttpStreamRequest setMockResponseCode(int mockResponseCode) {
+		connection.setMockResponseCode(mockResponseCode);
+		return this;
+	}
+
+	public MockHttpStreamRequest setResponseData(String responseData) {
+		connection.setMockResponseData(responseData);
+		return this;
+	}
+
+	public MockHttpURLConnection getMockConnection() {
+		return connection;
+	}
+
+	@Override
+	protected boolean isNetworkConnectionPresent() {
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return getName();
+	}
+}
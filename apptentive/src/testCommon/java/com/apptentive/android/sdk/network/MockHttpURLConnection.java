@@ -14,7 +14,9 @@ import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.ProtocolException;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class MockHttpURLConnection extends HttpURLConnection {
@@ -24,7 +26,10 @@ public class MockHttpURLConnection extends HttpURLConnection {
 		statusLookup = new HashMap<>();
 		statusLookup.put(200, "OK");
 		statusLookup.put(204, "No Content");
+		statusLookup.put(206, "Partial Content");
+		statusLookup.put(304, "Not Modified");
 		statusLookup.put(400, "Bad Request");
+		statusLookup.put(416, "Requested Range Not Satisfiable");
 		statusLookup.put(500, "Internal Server Error");
 	}
 
@@ -33,6 +38,8 @@ public class MockHttpURLConnection extends HttpURLConnection {
 
 	private ResponseHandler responseHandler = new DefaultResponseHandler(200, "", ""); // HTTP OK by default
 	private int lastResponseCode; // remember the last returned HTTP response code to properly resolve response message
+	private ByteArrayOutputStream requestOutput; // captures the request body
+	private final Map<String, List<String>> responseHeaders = new HashMap<>();
 
 	protected MockHttpURLConnection() {
 		super(null);
@@ -72,7 +79,16 @@ public class MockHttpURLConnection extends HttpURLConnection {
 
 	@Override
 	public OutputStream getOutputStream() throws IOException {
-		return new ByteArrayOutputStream();
+		requestOutput = new ByteArrayOutputStream();
+		return requestOutput;
+	}
+
+	public byte[] getRequestData() {
+		return requestOutput != null ? requestOutput.toByteArray() : null;
+	}
+
+	public int getFixedContentLength() {
+		return fixedContentLength;
 	}
 
 	@Override
@@ -89,6 +105,21 @@ public class MockHttpURLConnection extends HttpURLConnection {
 		return statusLookup.get(lastResponseCode);
 	}
 
+	@Override
+	public Map<String, List<String>> getHeaderFields() {
+		return responseHeaders;
+	}
+
+	@Override
+	public String getHeaderField(String name) {
+		List<String> values = responseHeaders.get(name);
+		return values != null && values.size() > 0 ? values.get(values.size() - 1) : null;
+	}
+
+	public void setMockResponseHeader(String name, String value) {
+		responseHeaders.put(name, Collections.singletonList(value));
+	}
+
 	@Override
 	public void setRequestMethod(String method) throws ProtocolException {
 	}